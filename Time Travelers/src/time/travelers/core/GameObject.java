@@ -7,6 +7,11 @@ public class GameObject extends Renderable
 {
 	public enum Direction{Up, Down, Left,Right};
 	double positionX, positionY;
+	/**
+	 * The SpatialIndex this object is in, and its slot in it. Maintained by the index.
+	 */
+	SpatialIndex spatialIndex;
+	int spatialSlot = -1;
 	
 	public GameObject(TextureObject texture, double x, double y, double z, double w, double h, boolean visibility, double positionX, double positionY) 
 	{
@@ -34,16 +39,16 @@ public class GameObject extends Renderable
 		switch(direction)
 		{
 		case Down:
-			super.translatePosition(0, +1, 0);
+			translatePosition(0, +1, 0);
 			break;
 		case Left:
-			super.translatePosition(0, -1, 0);
+			translatePosition(-1, 0, 0);
 			break;
 		case Right:
-			super.translatePosition(+1, 0, 0);
+			translatePosition(+1, 0, 0);
 			break;
 		case Up:
-			super.translatePosition(-1, 0, 0);
+			translatePosition(0, -1, 0);
 			break;
 		default:
 			break;
@@ -52,6 +57,27 @@ public class GameObject extends Renderable
 
 	}
 
+	/**
+	 * Translates the position of this object, and keeps its SpatialIndex, if any, up to date.
+	 */
+	@Override
+	public void translatePosition(double x, double y, double z)
+	{
+		super.translatePosition(x, y, z);
+		if(spatialIndex != null)
+			spatialIndex.update(this);
+	}
+	
+	/**
+	 * Gets the SpatialIndex this object is in.
+	 * @return
+	 * The index, or null if this object is not in any index.
+	 */
+	public SpatialIndex getSpatialIndex()
+	{
+		return spatialIndex;
+	}
+
 		// TODO Auto-generated constructor stub
 
 }
@@ -0,0 +1,92 @@
+package time.travelers.core;
+
+/**
+ * TileStorage keeping all tiles in flat, row-major primitive arrays on the heap.
+ * <br>
+ * A tile at (x, y) is found at index {@code y * width + x} in all arrays.
+ * @author Grevor
+ */
+public class HeapTileStorage extends TileStorage {
+	/**
+	 * Number of bytes per tile: terrainID (2), traversalMask (1), objectHandle (4), entityHandle (4).
+	 */
+	public static final int bytesPerTile = 2 + 1 + 4 + 4;
+
+	private final int width, height;
+	private final short[] terrainIDs;
+	private final byte[] traversalMasks;
+	private final int[] objectHandles;
+	private final int[] entityHandles;
+
+	public HeapTileStorage(int width, int height) {
+		if(width < 0 || height < 0)
+			throw new IllegalArgumentException("The size of a map must be non-negative.");
+		this.width = width;
+		this.height = height;
+		int size = width * height;
+		this.terrainIDs = new short[size];
+		this.traversalMasks = new byte[size];
+		this.objectHandles = new int[size];
+		this.entityHandles = new int[size];
+	}
+
+	@Override
+	public boolean supportsConcurrentReads() {
+		return true;
+	}
+
+	@Override
+	public int getWidth() {
+		return width;
+	}
+
+	@Override
+	public int getHeight() {
+		return height;
+	}
+
+	@Override
+	public short getTerrainID(int x, int y) {
+		return terrainIDs[y * width + x];
+	}
+
+	@Override
+	public void setTerrainID(int x, int y, short id) {
+		terrainIDs[y * width + x] = id;
+	}
+
+	@Override
+	public byte getTraversalMask(int x, int y) {
+		return traversalMasks[y * width + x];
+	}
+
+	@Override
+	public void setTraversalMask(int x, int y, byte mask) {
+		traversalMasks[y * width + x] = mask;
+	}
+
+	@Override
+	public int getObjectHandle(int x, int y) {
+		return objectHandles[y * width + x];
+	}
+
+	@Override
+	public void setObjectHandle(int x, int y, int handle) {
+		objectHandles[y * width + x] = handle;
+	}
+
+	@Override
+	public int getEntityHandle(int x, int y) {
+		return entityHandles[y * width + x];
+	}
+
+	@Override
+	public void setEntityHandle(int x, int y, int handle) {
+		entityHandles[y * width + x] = handle;
+	}
+
+	@Override
+	public int getBytesPerTile() {
+		return bytesPerTile;
+	}
+}
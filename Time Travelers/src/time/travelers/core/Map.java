@@ -1,57 +1,528 @@
 package time.travelers.core;
 
+import java.awt.geom.Rectangle2D;
+import java.io.Closeable;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
 
-import javax.media.opengl.GL2;
-
+import time.travelers.event.Event;
+import time.travelers.graphics.Camera2D;
+import time.travelers.graphics.RenderDevice;
 import time.travelers.graphics.Renderable;
 
-public class Map {
+/**
+ * A grid of tiles.
+ * <br><br>
+ * The tiles are not stored as objects. Instead, all per-tile data is kept in a TileStorage as primitives:
+ * terrain is stored as an index into a palette of distinct Terrain kinds, and objects and entities are stored as handles
+ * into an object table. Use {@code getTile(x, y)} for a Tile-shaped view of a single spot.
+ * @see TileStorage
+ * @see Tile
+ */
+public class Map implements Closeable {
+	/**
+	 * The handle (and terrain ID) denoting that no object is present.
+	 */
+	public static final int noHandle = 0;
+
+	private final TileStorage storage;
+	/**
+	 * All distinct kinds of terrain on this map. Index 0 is reserved for "no terrain".
+	 */
+	private ArrayList<Terrain> terrainPalette = new ArrayList<Terrain>(16);
+	/**
+	 * All objects and entities on this map, indexed by handle. Index 0 is reserved for "no object".
+	 */
+	private ArrayList<GameObject> objectTable = new ArrayList<GameObject>(64);
+	private int[] freeHandles = new int[16];
+	private int numFreeHandles = 0;
+	/**
+	 * Events are rare, so they are only stored for tiles which actually have any.
+	 */
+	private HashMap<Integer, ArrayList<Event>> events = new HashMap<Integer, ArrayList<Event>>();
+	private ArrayList<MapListener> listeners = new ArrayList<MapListener>(4);
+	/**
+	 * Increased every time the terrain of any spot changes.
+	 */
+	private long revision = 0;
 
-	private Tile[][] mapGrid;
-	
 	public Map(int x, int y) {
-		mapGrid = new Tile[x][y];
+		this(new HeapTileStorage(x, y));
+	}
+
+	/**
+	 * Creates a new Map on top of the specified storage, with an empty terrain palette. The storage must not hold any 
+	 * terrain yet; to open a storage which already does, pass its palette to {@code Map(TileStorage, List)}.
+	 * @param storage - The storage to keep the tiles in.
+	 */
+	public Map(TileStorage storage) {
+		this(storage, Collections.<Terrain>emptyList());
+	}
+
+	/**
+	 * Creates a new Map on top of a storage which already holds terrain, such as an existing PagedTileStorage region.
+	 * <br><br>
+	 * Objects and entities are not kept by the storage, as the object table of a Map only lives in memory. Any object and 
+	 * entity handles left in the storage, such as by a Map which wrote through to the same region, are cleared.
+	 * @param storage - The storage to keep the tiles in.
+	 * @param palette - The terrain kinds the terrain IDs of the storage refer to, in order from ID 1. ID 0 is the 
+	 * reserved "no terrain" entry, and is not part of the list.
+	 */
+	public Map(TileStorage storage, List<Terrain> palette) {
+		if(storage == null)
+			throw new IllegalArgumentException("The storage of a map may not be null.");
+		if(palette.size() > Short.MAX_VALUE)
+			throw new IllegalArgumentException("The palette has too many kinds of terrain.");
+		this.storage = storage;
+		terrainPalette.add(null);
+		for(Terrain t : palette) {
+			if(t == null)
+				throw new IllegalArgumentException("The palette may not contain null.");
+			terrainPalette.add(t);
+		}
+		objectTable.add(null);
+		storage.clearHandles();
 	}
-	
+
 	public void recreateGridSpot(int x, int y, Terrain t) {
-		if(x >= mapGrid.length || y >= mapGrid[0].length)
+		if(!storage.isInside(x, y))
 			return;
-		else
-			mapGrid[x][y] = new Tile(t);
+		releaseHandle(storage.getObjectHandle(x, y));
+		releaseHandle(storage.getEntityHandle(x, y));
+		storage.setObjectHandle(x, y, noHandle);
+		storage.setEntityHandle(x, y, noHandle);
+		events.remove(getTileIndex(x, y));
+
+		if(t == null) {
+			storage.setTerrainID(x, y, (short) noHandle);
+			storage.setTraversalMask(x, y, (byte) 0);
+		} else {
+			storage.setTerrainID(x, y, getPaletteID(t));
+			storage.setTraversalMask(x, y, t.getTraversalMask());
+		}
+		revision++;
+		for(int i = 0; i < listeners.size(); i++)
+			listeners.get(i).tileChanged(this, x, y);
+	}
+
+	/**
+	 * Adds a listener to be told about changes to this map.
+	 * @param l - The listener.
+	 */
+	public void addListener(MapListener l) {
+		if(l != null && !listeners.contains(l))
+			listeners.add(l);
+	}
+
+	public void removeListener(MapListener l) {
+		listeners.remove(l);
+	}
+
+	/**
+	 * Gets the revision of this map. The revision increases every time the terrain of any spot changes, 
+	 * so anything computed from the terrain is still valid if the revision has not changed.
+	 * @return
+	 * The revision.
+	 */
+	public long getRevision() {
+		return revision;
+	}
+
+	/**
+	 * Gets a Tile-shaped view of the specified spot. The view reads through to this map, and stays valid as the map changes.
+	 * @param x - The x-position of the tile.
+	 * @param y - The y-position of the tile.
+	 * @return
+	 * The view of the tile. If the position is outside the map or the spot has no terrain, null.
+	 */
+	public Tile getTile(int x, int y) {
+		if(!storage.isInside(x, y) || storage.getTerrainID(x, y) == noHandle)
+			return null;
+		return new Tile(this, x, y);
+	}
+
+	public int getWidth() {
+		return storage.getWidth();
+	}
+
+	public int getHeight() {
+		return storage.getHeight();
+	}
+
+	public TileStorage getStorage() {
+		return storage;
 	}
-	
+
+	/**
+	 * Closes the storage of this Map, such as the file of a Map loaded by MapIO. The Map may not be used afterwards.
+	 * @throws IOException If the storage could not be written back or closed.
+	 */
+	@Override
+	public void close() throws IOException {
+		storage.close();
+	}
+
+	/**
+	 * Gets the terrain kind of the specified spot. The returned Terrain is shared by all spots of the same kind,
+	 * and its render position is not that of the spot.
+	 * @param x - The x-position of the tile.
+	 * @param y - The y-position of the tile.
+	 * @return
+	 * The terrain kind. If the spot has no terrain, null.
+	 */
+	public Terrain getTerrain(int x, int y) {
+		return terrainPalette.get(storage.getTerrainID(x, y));
+	}
+
+	public short getTerrainID(int x, int y) {
+		return storage.getTerrainID(x, y);
+	}
+
+	/**
+	 * Gets the terrain kind with the specified palette ID.
+	 * @param id - The palette ID.
+	 * @return
+	 * The terrain kind. If the ID is 0, null.
+	 */
+	public Terrain getPaletteTerrain(int id) {
+		return terrainPalette.get(id);
+	}
+
+	/**
+	 * Gets the number of entries in the terrain palette, including the reserved "no terrain" entry.
+	 * @return
+	 * The size of the palette.
+	 */
+	public int getPaletteSize() {
+		return terrainPalette.size();
+	}
+
+	public byte getTraversalMask(int x, int y) {
+		return storage.getTraversalMask(x, y);
+	}
+
+	/**
+	 * Checks if the specified movement type can cross the specified spot.
+	 * @param x - The x-position of the tile.
+	 * @param y - The y-position of the tile.
+	 * @param movementType - The movement type.
+	 * @return
+	 * True if it can, else false. Spots outside the map can never be crossed.
+	 */
+	public boolean canTraverse(int x, int y, Traversal movementType) {
+		return storage.isInside(x, y) && (storage.getTraversalMask(x, y) & movementType.getMask()) != 0;
+	}
+
+	public double getTraversalCost(int x, int y) {
+		Terrain t = terrainPalette.get(storage.getTerrainID(x, y));
+		return t == null ? 0 : t.getTraversalCost();
+	}
+
+	public GameObject getTerrainObject(int x, int y) {
+		return objectTable.get(storage.getObjectHandle(x, y));
+	}
+
+	public GameObject getEntity(int x, int y) {
+		return objectTable.get(storage.getEntityHandle(x, y));
+	}
+
+	/**
+	 * Sets the terrain object of the specified spot.
+	 * @param x - The x-position of the tile.
+	 * @param y - The y-position of the tile.
+	 * @param o - The object. If null, the spot's terrain object is removed.
+	 */
+	public void setTerrainObject(int x, int y, GameObject o) {
+		if(!storage.isInside(x, y))
+			return;
+		releaseHandle(storage.getObjectHandle(x, y));
+		storage.setObjectHandle(x, y, acquireHandle(o));
+		for(int i = 0; i < listeners.size(); i++)
+			listeners.get(i).terrainObjectChanged(this, x, y);
+	}
+
+	/**
+	 * Sets the entity of the specified spot.
+	 * @param x - The x-position of the tile.
+	 * @param y - The y-position of the tile.
+	 * @param o - The entity. If null, the spot's entity is removed.
+	 */
+	public void setEntity(int x, int y, GameObject o) {
+		if(!storage.isInside(x, y))
+			return;
+		releaseHandle(storage.getEntityHandle(x, y));
+		storage.setEntityHandle(x, y, acquireHandle(o));
+	}
+
+	/**
+	 * Gets the events of the specified spot.
+	 * @param x - The x-position of the tile.
+	 * @param y - The y-position of the tile.
+	 * @return
+	 * The events. If the spot has no events, null.
+	 */
+	public ArrayList<Event> getEvents(int x, int y) {
+		return events.get(getTileIndex(x, y));
+	}
+
+	public void addEvent(int x, int y, Event e) {
+		if(!storage.isInside(x, y) || e == null)
+			return;
+		ArrayList<Event> list = events.get(getTileIndex(x, y));
+		if(list == null) {
+			list = new ArrayList<Event>(2);
+			events.put(getTileIndex(x, y), list);
+		}
+		list.add(e);
+	}
+
+	/**
+	 * Makes sure the tiles seen by the specified camera, and a margin of {@code margin} tiles around them, are paged in.
+	 * For maps kept entirely in memory, this does nothing.
+	 * @param camera - The camera.
+	 * @param margin - The number of extra tiles around the view to page in.
+	 */
+	public void pageIn(Camera2D camera, int margin) {
+		if(camera.isNullCamera())
+			return;
+		Rectangle2D.Double view = camera.getViewRectangle();
+		storage.pageIn(
+				(int) Math.floor(view.x / Terrain.gridWidth) - margin,
+				(int) Math.floor(view.y / Terrain.gridHeight) - margin,
+				(int) Math.ceil((view.x + view.width) / Terrain.gridWidth) + margin,
+				(int) Math.ceil((view.y + view.height) / Terrain.gridHeight) + margin);
+	}
+
+	/**
+	 * Makes sure the tiles within {@code radius} tiles of the specified object are paged in.
+	 * For maps kept entirely in memory, this does nothing.
+	 * @param o - The object.
+	 * @param radius - The radius, in tiles.
+	 */
+	public void pageIn(GameObject o, int radius) {
+		int x = (int) Math.floor(o.getRenderX() / Terrain.gridWidth);
+		int y = (int) Math.floor(o.getRenderY() / Terrain.gridHeight);
+		storage.pageIn(x - radius, y - radius, x + radius, y + radius);
+	}
+
+	/**
+	 * Gets the range of tiles seen by the specified camera, and a margin of {@code margin} tiles around them, 
+	 * clamped to the map. The view is the same rectangle as {@code camera.getViewRectangle()}, with zoom.
+	 * @param camera - The camera.
+	 * @param margin - The number of extra tiles around the view.
+	 * @param range - Receives the range, as {minX, minY, maxX, maxY}, where the max values are exclusive.
+	 * @return
+	 * True if any tile is seen, else false. If false, the range is left as it was.
+	 */
+	public boolean getVisibleRange(Camera2D camera, int margin, int[] range) {
+		if(camera.isNullCamera())
+			return false;
+		double w = camera.getTrueWidth(), h = camera.getTrueHeight();
+		double left = camera.getMiddleX() - w / 2, top = camera.getMiddleY() - h / 2;
+		int minX = Math.max(0, (int) Math.floor(left / Terrain.gridWidth) - margin);
+		int minY = Math.max(0, (int) Math.floor(top / Terrain.gridHeight) - margin);
+		int maxX = Math.min(storage.getWidth(), (int) Math.ceil((left + w) / Terrain.gridWidth) + margin);
+		int maxY = Math.min(storage.getHeight(), (int) Math.ceil((top + h) / Terrain.gridHeight) + margin);
+		if(minX >= maxX || minY >= maxY)
+			return false;
+		range[0] = minX;
+		range[1] = minY;
+		range[2] = maxX;
+		range[3] = maxY;
+		return true;
+	}
+
+	/**
+	 * Visits every tile seen by the specified camera, and a margin of {@code margin} tiles around them. 
+	 * Terrain objects and entities are only visited if their render rectangle reaches into the view, grown by the margin, 
+	 * so objects standing on a visited tile but drawn outside the view are culled.
+	 * <br><br>
+	 * Nothing is allocated, so this may be called every frame. The visitor must not change this map.
+	 * @param camera - The camera.
+	 * @param margin - The number of extra tiles around the view to visit.
+	 * @param visitor - The visitor.
+	 * @return
+	 * The number of terrain objects and entities of the visited tiles that were culled. Objects of tiles which are not 
+	 * visited are not counted.
+	 */
+	public int visitVisible(Camera2D camera, int margin, TileVisitor visitor) {
+		if(camera.isNullCamera())
+			return 0;
+		double w = camera.getTrueWidth(), h = camera.getTrueHeight();
+		double left = camera.getMiddleX() - w / 2 - margin * Terrain.gridWidth;
+		double top = camera.getMiddleY() - h / 2 - margin * Terrain.gridHeight;
+		double right = left + w + 2 * margin * Terrain.gridWidth;
+		double bottom = top + h + 2 * margin * Terrain.gridHeight;
+		return visit((int) Math.floor(left / Terrain.gridWidth), (int) Math.floor(top / Terrain.gridHeight),
+				(int) Math.ceil(right / Terrain.gridWidth), (int) Math.ceil(bottom / Terrain.gridHeight),
+				left, top, right, bottom, visitor);
+	}
+
+	/**
+	 * Visits every tile within the specified range. The range is clamped to the map, and nothing is culled.
+	 * @param minX - The x-position of the first column.
+	 * @param minY - The y-position of the first row.
+	 * @param maxX - The x-position after the last column.
+	 * @param maxY - The y-position after the last row.
+	 * @param visitor - The visitor.
+	 */
+	public void visitRange(int minX, int minY, int maxX, int maxY, TileVisitor visitor) {
+		visit(minX, minY, maxX, maxY, Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY,
+				Double.POSITIVE_INFINITY, visitor);
+	}
+
+	/**
+	 * Gets all Renderables of the specified range of tiles. Each tile's terrain is copied to the tile's position.
+	 * The range is clamped to the map.
+	 * @param x - The x-position of the first column.
+	 * @param y - The y-position of the first row.
+	 * @param w - The number of columns.
+	 * @param h - The number of rows.
+	 * @return
+	 * A new list of the Renderables.
+	 * @see #visitVisible(Camera2D, int, TileVisitor)
+	 */
 	public ArrayList<Renderable> getRenderables(int x, int y, int w, int h) {
-		ArrayList<Renderable> ret = new ArrayList<Renderable>();
-		//Fix values. TODO more fixing.
-		if(x < 0)
-			x = 0;
-		if(w >= mapGrid.length)
-			w = mapGrid.length;
-		if(x + w >= mapGrid.length)
-			w = mapGrid.length - x;
-		
-		for(int i = x; i < w + x; i++)
-			for(int ii = y; ii < h + y; ii++) {
-				ret.add(mapGrid[i][ii].terrain);
-				if(mapGrid[i][ii].hasTerrainObject())
-					ret.add(mapGrid[i][ii].terrainObj);
-				if(mapGrid[i][ii].hasEntity())
-					ret.add(mapGrid[i][ii].entity);
+		final ArrayList<Renderable> ret = new ArrayList<Renderable>();
+		visitRange(x, y, endOf(x, w), endOf(y, h), new TileVisitor() {
+			@Override
+			public void visitTerrain(Terrain terrain, int x, int y) {
+				ret.add(terrain.copyAt(x, y));
 			}
-		
+
+			@Override
+			public void visitObject(GameObject o, int x, int y) {
+				ret.add(o);
+			}
+
+			@Override
+			public void visitEntity(GameObject o, int x, int y) {
+				ret.add(o);
+			}
+		});
 		return ret;
 	}
-	
-	public void renderVisible(GL2 device, int x, int y, int w, int h) {
-		int endx = x + w;
-		int endy = y + h;
-		for(; x < endx; x++)
-			for(; y < endy; y++)
+
+	/**
+	 * Renders the specified range of tiles. The range is clamped to the map.
+	 * @param device - The device on which to render.
+	 * @param x - The x-position of the first column.
+	 * @param y - The y-position of the first row.
+	 * @param w - The number of columns.
+	 * @param h - The number of rows.
+	 */
+	public void renderVisible(RenderDevice device, int x, int y, int w, int h) {
+		int endx = Math.min(endOf(x, w), storage.getWidth());
+		int endy = Math.min(endOf(y, h), storage.getHeight());
+		for(int ii = Math.max(y, 0); ii < endy; ii++)
+			for(int i = Math.max(x, 0); i < endx; i++)
 			{
-				mapGrid[x][y].terrain.render(device);
-				mapGrid[x][y].terrainObj.render(device);
-				mapGrid[x][y].entity.render(device);
+				short id = storage.getTerrainID(i, ii);
+				if(id != noHandle)
+					terrainPalette.get(id).renderAt(device, i * Terrain.gridWidth, ii * Terrain.gridHeight, ii * Terrain.gridZFactor);
+				if(storage.getObjectHandle(i, ii) != noHandle)
+					getTerrainObject(i, ii).render(device);
+				if(storage.getEntityHandle(i, ii) != noHandle)
+					getEntity(i, ii).render(device);
 			}
 	}
+
+	//
+	// Private methods
+	//
+
+	private int getTileIndex(int x, int y) {
+		return y * storage.getWidth() + x;
+	}
+
+	/**
+	 * Visits the tiles of a range, clamped to the map, row by row. Terrain objects and entities are only visited if their 
+	 * render rectangle overlaps the rectangle (left, top) - (right, bottom). Returns the number of those which do not.
+	 */
+	private int visit(int minX, int minY, int maxX, int maxY, double left, double top, double right, double bottom,
+			TileVisitor visitor) {
+		int culled = 0;
+		minX = Math.max(minX, 0);
+		minY = Math.max(minY, 0);
+		maxX = Math.min(maxX, storage.getWidth());
+		maxY = Math.min(maxY, storage.getHeight());
+		for(int y = minY; y < maxY; y++)
+			for(int x = minX; x < maxX; x++) {
+				short id = storage.getTerrainID(x, y);
+				if(id != noHandle)
+					visitor.visitTerrain(terrainPalette.get(id), x, y);
+				int handle = storage.getObjectHandle(x, y);
+				if(handle != noHandle) {
+					GameObject o = objectTable.get(handle);
+					if(overlaps(o, left, top, right, bottom))
+						visitor.visitObject(o, x, y);
+					else
+						culled++;
+				}
+				handle = storage.getEntityHandle(x, y);
+				if(handle != noHandle) {
+					GameObject o = objectTable.get(handle);
+					if(overlaps(o, left, top, right, bottom))
+						visitor.visitEntity(o, x, y);
+					else
+						culled++;
+				}
+			}
+		return culled;
+	}
+
+	private static boolean overlaps(GameObject o, double left, double top, double right, double bottom) {
+		return o.getRenderX() < right && o.getRenderX() + o.getRenderWidth() > left
+				&& o.getRenderY() < bottom && o.getRenderY() + o.getRenderHeight() > top;
+	}
+
+	/**
+	 * Gets the end of a range of the specified length, without overflowing.
+	 */
+	private static int endOf(int start, int length) {
+		return (int) Math.min((long) start + Math.max(length, 0), Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Gets the palette ID of the kind of the specified terrain, adding it to the palette if it is a new kind.
+	 * @param t - The terrain.
+	 * @return
+	 * The palette ID.
+	 */
+	private short getPaletteID(Terrain t) {
+		for(int id = 1; id < terrainPalette.size(); id++)
+			if(terrainPalette.get(id).isSameKind(t))
+				return (short) id;
+		if(terrainPalette.size() > Short.MAX_VALUE)
+			throw new IllegalStateException("The map has too many kinds of terrain.");
+		terrainPalette.add(t);
+		return (short) (terrainPalette.size() - 1);
+	}
+
+	private int acquireHandle(GameObject o) {
+		if(o == null)
+			return noHandle;
+		if(numFreeHandles > 0) {
+			int handle = freeHandles[--numFreeHandles];
+			objectTable.set(handle, o);
+			return handle;
+		}
+		objectTable.add(o);
+		return objectTable.size() - 1;
+	}
+
+	private void releaseHandle(int handle) {
+		if(handle == noHandle)
+			return;
+		objectTable.set(handle, null);
+		if(numFreeHandles == freeHandles.length) {
+			int[] grown = new int[freeHandles.length * 2];
+			System.arraycopy(freeHandles, 0, grown, 0, numFreeHandles);
+			freeHandles = grown;
+		}
+		freeHandles[numFreeHandles++] = handle;
+	}
 }
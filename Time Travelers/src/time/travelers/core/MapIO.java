@@ -0,0 +1,133 @@
+package time.travelers.core;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.ArrayList;
+
+import time.travelers.graphics.TextureBatch;
+
+/**
+ * Saving and loading of Maps.
+ * <br><br>
+ * Map file layout (all values big-endian):
+ * <br>
+ * {@code int magic, int version, long regionOffset, int width, int height, int chunkSize, int paletteSize}<br>
+ * Then {@code paletteSize} Terrains, as written by {@code Terrain.saveTerrain}. The reserved "no terrain" entry is not written.
+ * <br>
+ * Then, at {@code regionOffset}, a tile region as described in PagedTileStorage. The region offset is page aligned, so that
+ * the tiles can be mapped and used as they are, without reading them one by one.
+ * <br><br>
+ * Terrain objects, entities and events are not saved.
+ * @author Grevor
+ * @see PagedTileStorage
+ */
+public class MapIO {
+	public static final int magic = 0x54544d50; // "TTMP"
+	public static final int version = 1;
+	public static final int defaultChunkSize = 64;
+	private static final int pageSize = 4096;
+	private static final int fixedHeaderSize = 4 + 4 + 8 + 4 * 4;
+
+	/**
+	 * Saves a Map to the specified file, replacing any existing file.
+	 * @param m - The Map to save.
+	 * @param file - The file to save to.
+	 * @throws IOException If the file could not be written.
+	 */
+	public static void save(Map m, File file) throws IOException {
+		ByteArrayOutputStream paletteBytes = new ByteArrayOutputStream();
+		DataOutputStream palette = new DataOutputStream(paletteBytes);
+		for(int id = 1; id < m.getPaletteSize(); id++)
+			Terrain.saveTerrain(m.getPaletteTerrain(id), palette);
+		palette.flush();
+
+		long regionOffset = alignToPage(fixedHeaderSize + paletteBytes.size());
+		ByteBuffer header = ByteBuffer.allocate(fixedHeaderSize);
+		header.putInt(magic).putInt(version).putLong(regionOffset);
+		header.putInt(m.getWidth()).putInt(m.getHeight()).putInt(defaultChunkSize).putInt(m.getPaletteSize() - 1);
+		header.flip();
+
+		if(file.exists() && !file.delete())
+			throw new IOException("Could not replace the file " + file + ".");
+		try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+			FileChannel channel = raf.getChannel();
+			channel.write(header, 0);
+			channel.write(ByteBuffer.wrap(paletteBytes.toByteArray()), fixedHeaderSize);
+
+			PagedTileStorage tiles = new PagedTileStorage(channel, MapMode.READ_WRITE, regionOffset,
+					m.getWidth(), m.getHeight(), defaultChunkSize, 16);
+			TileStorage source = m.getStorage();
+			//Copy chunk by chunk, so that each target chunk is only paged in once.
+			for(int cy = 0; cy < m.getHeight(); cy += defaultChunkSize)
+				for(int cx = 0; cx < m.getWidth(); cx += defaultChunkSize) {
+					int endY = Math.min(cy + defaultChunkSize, m.getHeight());
+					int endX = Math.min(cx + defaultChunkSize, m.getWidth());
+					for(int y = cy; y < endY; y++)
+						for(int x = cx; x < endX; x++) {
+							tiles.setTerrainID(x, y, source.getTerrainID(x, y));
+							tiles.setTraversalMask(x, y, source.getTraversalMask(x, y));
+						}
+				}
+			tiles.close();
+		}
+	}
+
+	/**
+	 * Loads a Map from the specified file. The tiles are not read, but mapped straight from the file and paged in when used.
+	 * The file is kept open until the Map is closed, and is only opened for writing if {@code writeThrough} is set.
+	 * @param file - The file to load from.
+	 * @param textures - The batch to look for already loaded textures in. Textures not found are added to it. May be null.
+	 * @param maxResidentChunks - The maximum number of tile chunks to keep mapped at a time.
+	 * @param writeThrough - If true, changes to the Map are written to the file. Else, they are only kept in memory.
+	 * @return
+	 * The loaded Map.
+	 * @throws IOException If the file does not exist, could not be read, or does not contain a valid map.
+	 */
+	@SuppressWarnings("resource")
+	public static Map load(File file, TextureBatch textures, int maxResidentChunks, boolean writeThrough) throws IOException {
+		if(!file.isFile())
+			throw new IOException("The file " + file + " does not exist.");
+		//Changes which are not written through are kept in memory, so the file only needs to be readable.
+		FileChannel channel = new RandomAccessFile(file, writeThrough ? "rw" : "r").getChannel();
+		try {
+			ByteBuffer header = ByteBuffer.allocate(fixedHeaderSize);
+			channel.read(header, 0);
+			header.flip();
+			if(header.remaining() < fixedHeaderSize || header.getInt() != magic)
+				throw new IOException("The file " + file + " does not contain a map.");
+			if(header.getInt() != version)
+				throw new IOException("The map in " + file + " has an unsupported version.");
+			long regionOffset = header.getLong();
+			int width = header.getInt();
+			int height = header.getInt();
+			int chunkSize = header.getInt();
+			int paletteSize = header.getInt();
+
+			ByteBuffer paletteBytes = ByteBuffer.allocate((int) (regionOffset - fixedHeaderSize));
+			channel.read(paletteBytes, fixedHeaderSize);
+			DataInputStream palette = new DataInputStream(new ByteArrayInputStream(paletteBytes.array()));
+
+			PagedTileStorage tiles = new PagedTileStorage(channel, writeThrough ? MapMode.READ_WRITE : MapMode.READ_ONLY,
+					regionOffset, width, height, chunkSize, maxResidentChunks);
+			ArrayList<Terrain> terrains = new ArrayList<Terrain>(paletteSize);
+			for(int i = 0; i < paletteSize; i++)
+				terrains.add(Terrain.fromStream(palette, textures));
+			return new Map(tiles, terrains);
+		} catch (IOException | RuntimeException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	private static long alignToPage(long offset) {
+		return (offset + pageSize - 1) / pageSize * pageSize;
+	}
+}
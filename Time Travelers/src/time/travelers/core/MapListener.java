@@ -0,0 +1,25 @@
+package time.travelers.core;
+
+/**
+ * Provides an interface for being told about changes to a Map. 
+ * Listeners are called on the thread changing the Map, right after the change is made.
+ * @author Grevor
+ * @see Map#addListener(MapListener)
+ */
+public interface MapListener {
+	/**
+	 * Called when the terrain of a spot has been replaced.
+	 * @param m - The Map that changed.
+	 * @param x - The x-position of the spot.
+	 * @param y - The y-position of the spot.
+	 */
+	public void tileChanged(Map m, int x, int y);
+
+	/**
+	 * Called when the terrain object of a spot has been set or removed.
+	 * @param m - The Map that changed.
+	 * @param x - The x-position of the spot.
+	 * @param y - The y-position of the spot.
+	 */
+	public void terrainObjectChanged(Map m, int x, int y);
+}
@@ -0,0 +1,502 @@
+package time.travelers.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+
+/**
+ * TileStorage keeping tiles in a memory-mapped region file, split into fixed-size square chunks.
+ * <br><br>
+ * Only a bounded number of chunks are mapped at a time. Chunks are paged in on first access (or when requested through
+ * {@code pageIn}), and the least recently used chunk is evicted when the limit is reached. Dirty chunks are written back
+ * to the file before they are evicted. When mapped with {@code MapMode.PRIVATE}, dirty chunks cannot be written back, and
+ * stay resident instead. The same goes for {@code MapMode.READ_ONLY}, where a chunk is copied to memory when first 
+ * changed, so that a read-only file may be changed in memory too.
+ * <br><br>
+ * Region file layout (all values big-endian):
+ * <br>
+ * {@code magic, version, width, height, chunkSize, reserved[3]} - eight ints.<br>
+ * Then all chunks in row-major chunk order, each being {@code chunkSize * chunkSize} tiles stored as
+ * {@code short[] terrainIDs, byte[] traversalMasks, int[] objectHandles, int[] entityHandles}, row-major within the chunk.
+ * <br><br>
+ * This class is not thread-safe.
+ * @author Grevor
+ */
+public class PagedTileStorage extends TileStorage {
+	public static final int magic = 0x54545247; // "TTRG"
+	public static final int version = 1;
+	public static final int headerSize = 8 * 4;
+
+	private final FileChannel channel;
+	private final MapMode mode;
+	private final long regionOffset;
+	private final int width, height;
+	private final int chunkShift, chunkMask, tilesPerChunk;
+	private final int chunksX, chunksY;
+	private final long chunkBytes;
+	private final int maxResidentChunks;
+
+	/**
+	 * All chunks, indexed by chunk index. Chunks which are not resident are null.
+	 */
+	private final Chunk[] chunks;
+	/**
+	 * The resident chunks, as a doubly-linked list from the most recently used to the least recently used.
+	 */
+	private Chunk mostRecent, leastRecent;
+	private int residentChunks = 0;
+	/**
+	 * The last chunk accessed. Most accesses hit the same chunk as the previous one, so this saves the table lookup.
+	 */
+	private Chunk lastChunk;
+
+	private long hits = 0, misses = 0, evictions = 0, writeBacks = 0;
+	private long totalPageInTime = 0, maxPageInTime = 0;
+
+	/**
+	 * Opens or creates a region file. If the file exists, its size must match the requested size.
+	 * @param file - The region file.
+	 * @param width - The width of the map, in tiles.
+	 * @param height - The height of the map, in tiles.
+	 * @param chunkSize - The side of a chunk, in tiles. Must be a power of two.
+	 * @param maxResidentChunks - The maximum number of chunks to keep mapped at a time.
+	 * @throws IOException If the file could not be opened, or does not match the requested layout.
+	 */
+	@SuppressWarnings("resource")
+	public PagedTileStorage(File file, int width, int height, int chunkSize, int maxResidentChunks) throws IOException {
+		this(new RandomAccessFile(file, "rw").getChannel(), MapMode.READ_WRITE, 0, width, height, chunkSize, maxResidentChunks);
+	}
+
+	/**
+	 * Opens or creates a region inside an already open file.
+	 * @param channel - The file channel. This storage takes ownership of the channel, and closes it when closed.
+	 * @param mode - The mode to map chunks with. {@code MapMode.PRIVATE} and {@code MapMode.READ_ONLY} keep all changes 
+	 * in memory; only {@code MapMode.READ_ONLY} works on a channel which is not open for writing.
+	 * @param regionOffset - The offset in the file where the region header starts.
+	 * @param width - The width of the map, in tiles.
+	 * @param height - The height of the map, in tiles.
+	 * @param chunkSize - The side of a chunk, in tiles. Must be a power of two.
+	 * @param maxResidentChunks - The maximum number of chunks to keep mapped at a time.
+	 * @throws IOException If the region could not be read or created, or does not match the requested layout.
+	 */
+	public PagedTileStorage(FileChannel channel, MapMode mode, long regionOffset, int width, int height, int chunkSize,
+			int maxResidentChunks) throws IOException {
+		if(width < 0 || height < 0)
+			throw new IllegalArgumentException("The size of a map must be non-negative.");
+		if(chunkSize < 2 || Integer.bitCount(chunkSize) != 1)
+			throw new IllegalArgumentException("The chunk size must be a power of two, and at least 2.");
+		if(maxResidentChunks < 1)
+			throw new IllegalArgumentException("At least one chunk must be allowed to be resident.");
+		this.channel = channel;
+		this.mode = mode;
+		this.regionOffset = regionOffset;
+		this.width = width;
+		this.height = height;
+		this.chunkShift = Integer.numberOfTrailingZeros(chunkSize);
+		this.chunkMask = chunkSize - 1;
+		this.tilesPerChunk = chunkSize * chunkSize;
+		this.chunksX = (width + chunkMask) >> chunkShift;
+		this.chunksY = (height + chunkMask) >> chunkShift;
+		this.chunkBytes = (long) tilesPerChunk * HeapTileStorage.bytesPerTile;
+		this.maxResidentChunks = maxResidentChunks;
+		this.chunks = new Chunk[chunksX * chunksY];
+
+		if(channel.size() >= regionOffset + headerSize)
+			readHeader(chunkSize);
+		else
+			writeHeader(chunkSize);
+	}
+
+	//
+	// TileStorage
+	//
+
+	@Override
+	public int getWidth() {
+		return width;
+	}
+
+	@Override
+	public int getHeight() {
+		return height;
+	}
+
+	@Override
+	public short getTerrainID(int x, int y) {
+		Chunk c = getChunk(x, y);
+		return c.data.getShort(getLocalIndex(x, y) << 1);
+	}
+
+	@Override
+	public void setTerrainID(int x, int y, short id) {
+		Chunk c = getWritableChunk(x, y);
+		c.data.putShort(getLocalIndex(x, y) << 1, id);
+		c.dirty = true;
+	}
+
+	@Override
+	public byte getTraversalMask(int x, int y) {
+		Chunk c = getChunk(x, y);
+		return c.data.get(tilesPerChunk * 2 + getLocalIndex(x, y));
+	}
+
+	@Override
+	public void setTraversalMask(int x, int y, byte mask) {
+		Chunk c = getWritableChunk(x, y);
+		c.data.put(tilesPerChunk * 2 + getLocalIndex(x, y), mask);
+		c.dirty = true;
+	}
+
+	@Override
+	public int getObjectHandle(int x, int y) {
+		Chunk c = getChunk(x, y);
+		return c.data.getInt(tilesPerChunk * 3 + (getLocalIndex(x, y) << 2));
+	}
+
+	@Override
+	public void setObjectHandle(int x, int y, int handle) {
+		Chunk c = getWritableChunk(x, y);
+		c.data.putInt(tilesPerChunk * 3 + (getLocalIndex(x, y) << 2), handle);
+		c.dirty = true;
+	}
+
+	@Override
+	public int getEntityHandle(int x, int y) {
+		Chunk c = getChunk(x, y);
+		return c.data.getInt(tilesPerChunk * 7 + (getLocalIndex(x, y) << 2));
+	}
+
+	@Override
+	public void setEntityHandle(int x, int y, int handle) {
+		Chunk c = getWritableChunk(x, y);
+		c.data.putInt(tilesPerChunk * 7 + (getLocalIndex(x, y) << 2), handle);
+		c.dirty = true;
+	}
+
+	@Override
+	public int getBytesPerTile() {
+		return HeapTileStorage.bytesPerTile;
+	}
+
+	/**
+	 * Pages in all chunks overlapping the specified tile rectangle, making them the most recently used chunks.
+	 * <br>
+	 * If the rectangle covers more chunks than may be resident, the chunks first in row-major order will be evicted again.
+	 */
+	@Override
+	public void pageIn(int x0, int y0, int x1, int y1) {
+		x0 = Math.max(x0, 0) >> chunkShift;
+		y0 = Math.max(y0, 0) >> chunkShift;
+		x1 = Math.min(x1, width - 1) >> chunkShift;
+		y1 = Math.min(y1, height - 1) >> chunkShift;
+		for(int cy = y0; cy <= y1; cy++)
+			for(int cx = x0; cx <= x1; cx++)
+				touch(cy * chunksX + cx);
+	}
+
+	/**
+	 * Clears the handles one chunk at a time, so that each chunk is paged in once. Only chunks which held handles are made 
+	 * dirty.
+	 */
+	@Override
+	public void clearHandles() {
+		for(int index = 0; index < chunks.length; index++) {
+			Chunk c = touch(index);
+			for(int i = tilesPerChunk * 3; i < tilesPerChunk * HeapTileStorage.bytesPerTile; i += 8)
+				if(c.data.getLong(i) != 0) {
+					makeWritable(c);
+					c.data.putLong(i, 0);
+					c.dirty = true;
+				}
+		}
+	}
+
+	/**
+	 * Writes all dirty chunks back to the region file.
+	 */
+	public void flush() {
+		for(Chunk c = mostRecent; c != null; c = c.lessRecent)
+			writeBack(c);
+	}
+
+	/**
+	 * Writes back all dirty chunks and closes the region file.
+	 */
+	@Override
+	public void close() throws IOException {
+		flush();
+		while(leastRecent != null) {
+			leastRecent.dirty = false;
+			evict(leastRecent);
+		}
+		channel.close();
+	}
+
+	//
+	// Statistics
+	//
+
+	/**
+	 * Gets the number of tile accesses which found their chunk resident.
+	 * @return
+	 * The number of hits.
+	 */
+	public long getHits() {
+		return hits;
+	}
+
+	/**
+	 * Gets the number of tile accesses which had to page in their chunk.
+	 * @return
+	 * The number of misses, which is also the number of page-ins.
+	 */
+	public long getMisses() {
+		return misses;
+	}
+
+	public long getEvictions() {
+		return evictions;
+	}
+
+	public long getWriteBacks() {
+		return writeBacks;
+	}
+
+	/**
+	 * Gets the total time spent paging in chunks.
+	 * @return
+	 * The time, in nanoseconds.
+	 */
+	public long getTotalPageInTime() {
+		return totalPageInTime;
+	}
+
+	/**
+	 * Gets the longest time spent paging in a single chunk.
+	 * @return
+	 * The time, in nanoseconds.
+	 */
+	public long getMaxPageInTime() {
+		return maxPageInTime;
+	}
+
+	/**
+	 * Gets the average time spent paging in a single chunk.
+	 * @return
+	 * The time, in nanoseconds. If no chunk has been paged in, 0.
+	 */
+	public long getAveragePageInTime() {
+		return misses == 0 ? 0 : totalPageInTime / misses;
+	}
+
+	public int getResidentChunks() {
+		return residentChunks;
+	}
+
+	public int getMaxResidentChunks() {
+		return maxResidentChunks;
+	}
+
+	public void resetStatistics() {
+		hits = misses = evictions = writeBacks = 0;
+		totalPageInTime = maxPageInTime = 0;
+	}
+
+	//
+	// Private methods
+	//
+
+	private int getLocalIndex(int x, int y) {
+		return ((y & chunkMask) << chunkShift) | (x & chunkMask);
+	}
+
+	private Chunk getChunk(int x, int y) {
+		int index = (y >> chunkShift) * chunksX + (x >> chunkShift);
+		Chunk c = lastChunk;
+		if(c != null && c.index == index) {
+			hits++;
+			return c;
+		}
+		return touch(index);
+	}
+
+	/**
+	 * Gets the chunk of a tile to change.
+	 */
+	private Chunk getWritableChunk(int x, int y) {
+		Chunk c = getChunk(x, y);
+		makeWritable(c);
+		return c;
+	}
+
+	/**
+	 * Copies a chunk mapped read-only into memory, so that it can be changed. The copy stays resident, as it cannot be 
+	 * written back.
+	 */
+	private void makeWritable(Chunk c) {
+		if(!c.data.isReadOnly())
+			return;
+		ByteBuffer copy = ByteBuffer.allocate((int) chunkBytes);
+		copy.put(c.data.duplicate());
+		c.data = copy;
+	}
+
+	/**
+	 * Gets the chunk with the specified index, paging it in if needed, and marks it as the most recently used.
+	 */
+	private Chunk touch(int index) {
+		Chunk c = chunks[index];
+		if(c == null) {
+			c = pageInChunk(index);
+		} else {
+			hits++;
+			unlink(c);
+		}
+		linkFirst(c);
+		lastChunk = c;
+		return c;
+	}
+
+	private Chunk pageInChunk(int index) {
+		if(residentChunks >= maxResidentChunks) {
+			Chunk victim = getEvictionCandidate();
+			if(victim != null)
+				evict(victim);
+		}
+		long start = System.nanoTime();
+		MappedByteBuffer data;
+		try {
+			data = channel.map(mode, getChunkOffset(index), chunkBytes);
+		} catch (IOException e) {
+			throw new IllegalStateException("Could not map chunk " + index + " of the region file.", e);
+		}
+		data.load();
+		long time = System.nanoTime() - start;
+
+		misses++;
+		totalPageInTime += time;
+		maxPageInTime = Math.max(maxPageInTime, time);
+
+		Chunk c = new Chunk(index, data);
+		chunks[index] = c;
+		residentChunks++;
+		return c;
+	}
+
+	/**
+	 * Gets the least recently used chunk which can be evicted without losing changes. 
+	 * Chunks which are not mapped for writing cannot be written back, so dirty ones are kept resident even if that exceeds
+	 * the limit.
+	 * @return
+	 * The chunk to evict, or null if no chunk can be evicted.
+	 */
+	private Chunk getEvictionCandidate() {
+		Chunk c = leastRecent;
+		if(mode != MapMode.READ_WRITE)
+			while(c != null && c.dirty)
+				c = c.moreRecent;
+		return c;
+	}
+
+	private void evict(Chunk c) {
+		writeBack(c);
+		unlink(c);
+		chunks[c.index] = null;
+		if(lastChunk == c)
+			lastChunk = null;
+		residentChunks--;
+		evictions++;
+	}
+
+	private void writeBack(Chunk c) {
+		if(c.dirty) {
+			if(mode == MapMode.READ_WRITE)
+				((MappedByteBuffer) c.data).force();
+			c.dirty = false;
+			writeBacks++;
+		}
+	}
+
+	private void linkFirst(Chunk c) {
+		c.moreRecent = null;
+		c.lessRecent = mostRecent;
+		if(mostRecent != null)
+			mostRecent.moreRecent = c;
+		mostRecent = c;
+		if(leastRecent == null)
+			leastRecent = c;
+	}
+
+	private void unlink(Chunk c) {
+		if(c.moreRecent != null)
+			c.moreRecent.lessRecent = c.lessRecent;
+		else
+			mostRecent = c.lessRecent;
+		if(c.lessRecent != null)
+			c.lessRecent.moreRecent = c.moreRecent;
+		else
+			leastRecent = c.moreRecent;
+		c.moreRecent = c.lessRecent = null;
+	}
+
+	private long getChunkOffset(int index) {
+		return regionOffset + headerSize + index * chunkBytes;
+	}
+
+	private void readHeader(int chunkSize) throws IOException {
+		ByteBuffer header = ByteBuffer.allocate(headerSize);
+		channel.read(header, regionOffset);
+		header.flip();
+		if(header.getInt() != magic)
+			throw new IOException("The file does not contain a tile region.");
+		if(header.getInt() != version)
+			throw new IOException("The tile region has an unsupported version.");
+		if(header.getInt() != width || header.getInt() != height || header.getInt() != chunkSize)
+			throw new IOException("The tile region does not have the requested size.");
+	}
+
+	private void writeHeader(int chunkSize) throws IOException {
+		if(mode != MapMode.READ_WRITE)
+			throw new IOException("Cannot create a tile region in a file that is not mapped for writing.");
+		ByteBuffer header = ByteBuffer.allocate(headerSize);
+		header.putInt(magic).putInt(version).putInt(width).putInt(height).putInt(chunkSize);
+		header.putInt(0).putInt(0).putInt(0);
+		header.flip();
+		channel.write(header, regionOffset);
+		//Grow the file so that every chunk can be mapped. New chunks read as zero, which is an empty tile.
+		ByteBuffer last = ByteBuffer.allocate(1);
+		channel.write(last, getRegionSize(width, height, chunkSize) + regionOffset - 1);
+	}
+
+	/**
+	 * Gets the size, in bytes, of a region with the specified layout, including the header.
+	 * @param width - The width of the map, in tiles.
+	 * @param height - The height of the map, in tiles.
+	 * @param chunkSize - The side of a chunk, in tiles.
+	 * @return
+	 * The size of the region.
+	 */
+	public static long getRegionSize(int width, int height, int chunkSize) {
+		long chunks = (long) ((width + chunkSize - 1) / chunkSize) * ((height + chunkSize - 1) / chunkSize);
+		return headerSize + chunks * chunkSize * chunkSize * HeapTileStorage.bytesPerTile;
+	}
+
+	private static class Chunk {
+		final int index;
+		/**
+		 * The tiles of the chunk, as mapped from the file, or a copy in memory of a chunk mapped read-only.
+		 */
+		ByteBuffer data;
+		boolean dirty = false;
+		Chunk moreRecent, lessRecent;
+
+		Chunk(int index, ByteBuffer data) {
+			this.index = index;
+			this.data = data;
+		}
+	}
+}
@@ -0,0 +1,376 @@
+package time.travelers.core;
+
+import java.awt.geom.Rectangle2D;
+import java.util.Arrays;
+
+/**
+ * A uniform grid over GameObject positions, answering rectangle, radius and nearest-neighbour queries.
+ * <br><br>
+ * An object's position is its render position, the upper left corner of the object.
+ * GameObjects added to an index keep it up to date themselves whenever they move.
+ * Objects outside the bounds of the index are kept in the closest border cell, and are still found by rectangle and radius
+ * queries, but nearest-neighbour queries are only exact for objects inside the bounds.
+ * <br><br>
+ * No query allocates memory, except a nearest-neighbour query for a larger {@code k} than any previous one.
+ * This class is not thread-safe.
+ * @author Grevor
+ */
+public class SpatialIndex {
+	private static final int noSlot = -1;
+
+	private final double minX, minY, cellSize;
+	private final int columns, rows;
+	/**
+	 * The first slot of every cell, or {@code noSlot} if the cell is empty.
+	 */
+	private final int[] cellHead;
+
+	//Per-slot data. Every object in the index occupies one slot.
+	private GameObject[] objects;
+	private double[] xs, ys;
+	private int[] cellOf, next, previous;
+	private int[] freeSlots;
+	private int numFreeSlots = 0, usedSlots = 0, size = 0;
+
+	//Scratch space for nearest-neighbour queries, a max-heap on distance.
+	private int[] nearestSlots = new int[16];
+	private double[] nearestDistances = new double[16];
+	private int nearestCount, nearestWanted;
+	private double nearestX, nearestY;
+
+	/**
+	 * Creates a new SpatialIndex covering the specified area.
+	 * @param minX - The lowest x-position covered.
+	 * @param minY - The lowest y-position covered.
+	 * @param width - The width of the covered area.
+	 * @param height - The height of the covered area.
+	 * @param cellSize - The side of a grid cell. A few times the typical query radius is a good choice.
+	 */
+	public SpatialIndex(double minX, double minY, double width, double height, double cellSize) {
+		if(width <= 0 || height <= 0 || cellSize <= 0)
+			throw new IllegalArgumentException("The area and cell size of a SpatialIndex must be positive.");
+		this.minX = minX;
+		this.minY = minY;
+		this.cellSize = cellSize;
+		this.columns = Math.max(1, (int) Math.ceil(width / cellSize));
+		this.rows = Math.max(1, (int) Math.ceil(height / cellSize));
+		this.cellHead = new int[columns * rows];
+		Arrays.fill(cellHead, noSlot);
+		allocateSlots(64);
+	}
+
+	/**
+	 * Creates a new SpatialIndex covering the specified Map.
+	 * @param m - The Map.
+	 * @param cellSize - The side of a grid cell, in tiles.
+	 */
+	public SpatialIndex(Map m, int cellSize) {
+		this(0, 0, Math.max(1, m.getWidth()) * Terrain.gridWidth, Math.max(1, m.getHeight()) * Terrain.gridHeight,
+				cellSize * Terrain.gridWidth);
+	}
+
+	/**
+	 * Adds a GameObject to this index. An object can only be in one index at a time, and is removed from its old one.
+	 * @param o - The object to add.
+	 */
+	public void add(GameObject o) {
+		if(o.spatialIndex != null)
+			o.spatialIndex.remove(o);
+		int slot;
+		if(numFreeSlots > 0) {
+			slot = freeSlots[--numFreeSlots];
+		} else {
+			if(usedSlots == objects.length)
+				allocateSlots(objects.length * 2);
+			slot = usedSlots++;
+		}
+		objects[slot] = o;
+		o.spatialIndex = this;
+		o.spatialSlot = slot;
+		xs[slot] = o.getRenderX();
+		ys[slot] = o.getRenderY();
+		link(slot, getCell(xs[slot], ys[slot]));
+		size++;
+	}
+
+	/**
+	 * Removes a GameObject from this index.
+	 * @param o - The object to remove.
+	 * @return
+	 * True if the object was in this index, else false.
+	 */
+	public boolean remove(GameObject o) {
+		if(o.spatialIndex != this)
+			return false;
+		int slot = o.spatialSlot;
+		unlink(slot);
+		objects[slot] = null;
+		o.spatialIndex = null;
+		o.spatialSlot = noSlot;
+		freeSlots[numFreeSlots++] = slot;
+		size--;
+		return true;
+	}
+
+	/**
+	 * Updates the position of an object in this index. This is called by the GameObject itself when it moves.
+	 * @param o - The object which has moved.
+	 */
+	void update(GameObject o) {
+		int slot = o.spatialSlot;
+		double x = o.getRenderX(), y = o.getRenderY();
+		xs[slot] = x;
+		ys[slot] = y;
+		int cell = getCell(x, y);
+		if(cell != cellOf[slot]) {
+			unlink(slot);
+			link(slot, cell);
+		}
+	}
+
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Finds all objects positioned inside the specified rectangle.
+	 * @param x - The lowest x-position of the rectangle.
+	 * @param y - The lowest y-position of the rectangle.
+	 * @param w - The width of the rectangle.
+	 * @param h - The height of the rectangle.
+	 * @param result - The array to put found objects in. If it is too small, the remaining objects are not reported.
+	 * @return
+	 * The number of objects put in {@code result}.
+	 */
+	public int queryRectangle(double x, double y, double w, double h, GameObject[] result) {
+		double maxX = x + w, maxY = y + h;
+		int c0 = getColumn(x), c1 = getColumn(maxX);
+		int r0 = getRow(y), r1 = getRow(maxY);
+		int found = 0;
+		for(int r = r0; r <= r1; r++)
+			for(int c = c0; c <= c1; c++)
+				for(int slot = cellHead[r * columns + c]; slot != noSlot; slot = next[slot]) {
+					double px = xs[slot], py = ys[slot];
+					if(px >= x && px <= maxX && py >= y && py <= maxY) {
+						if(found == result.length)
+							return found;
+						result[found++] = objects[slot];
+					}
+				}
+		return found;
+	}
+
+	/**
+	 * Finds all objects positioned inside the specified rectangle, such as the one returned by
+	 * {@code Camera2D.getViewRectangle()}.
+	 * @param r - The rectangle.
+	 * @param result - The array to put found objects in. If it is too small, the remaining objects are not reported.
+	 * @return
+	 * The number of objects put in {@code result}.
+	 */
+	public int queryRectangle(Rectangle2D.Double r, GameObject[] result) {
+		return queryRectangle(r.x, r.y, r.width, r.height, result);
+	}
+
+	/**
+	 * Finds all objects positioned within the specified distance of a point.
+	 * @param x - The x-position of the point.
+	 * @param y - The y-position of the point.
+	 * @param radius - The distance.
+	 * @param result - The array to put found objects in. If it is too small, the remaining objects are not reported.
+	 * @return
+	 * The number of objects put in {@code result}.
+	 */
+	public int queryRadius(double x, double y, double radius, GameObject[] result) {
+		int c0 = getColumn(x - radius), c1 = getColumn(x + radius);
+		int r0 = getRow(y - radius), r1 = getRow(y + radius);
+		double radiusSquared = radius * radius;
+		int found = 0;
+		for(int r = r0; r <= r1; r++)
+			for(int c = c0; c <= c1; c++)
+				for(int slot = cellHead[r * columns + c]; slot != noSlot; slot = next[slot]) {
+					double dx = xs[slot] - x, dy = ys[slot] - y;
+					if(dx * dx + dy * dy <= radiusSquared) {
+						if(found == result.length)
+							return found;
+						result[found++] = objects[slot];
+					}
+				}
+		return found;
+	}
+
+	/**
+	 * Finds the {@code k} objects closest to a point, closest first.
+	 * @param x - The x-position of the point.
+	 * @param y - The y-position of the point.
+	 * @param k - The number of objects to find.
+	 * @param result - The array to put found objects in. Must be able to hold {@code k} objects.
+	 * @return
+	 * The number of objects put in {@code result}. This is less than {@code k} only if the index has fewer objects.
+	 */
+	public int queryNearest(double x, double y, int k, GameObject[] result) {
+		if(k > result.length)
+			throw new IllegalArgumentException("The result array cannot hold " + k + " objects.");
+		if(k > nearestSlots.length) {
+			nearestSlots = new int[k];
+			nearestDistances = new double[k];
+		}
+		nearestCount = 0;
+		nearestWanted = k;
+		nearestX = x;
+		nearestY = y;
+		int column = getColumn(x), row = getRow(y);
+		int maxRing = Math.max(Math.max(column, columns - 1 - column), Math.max(row, rows - 1 - row));
+
+		for(int ring = 0; ring <= maxRing && k > 0; ring++) {
+			if(nearestCount == k) {
+				//Nothing in this ring or further out can be closer than the distance to the edge of the rings searched so far.
+				double edge = getDistanceToBlockEdge(x, y, column, row, ring - 1);
+				if(edge * edge > nearestDistances[0])
+					break;
+			}
+			int r0 = row - ring, r1 = row + ring, c0 = column - ring, c1 = column + ring;
+			for(int r = Math.max(r0, 0); r <= Math.min(r1, rows - 1); r++) {
+				if(r == r0 || r == r1) {
+					for(int c = Math.max(c0, 0); c <= Math.min(c1, columns - 1); c++)
+						scanNearest(r * columns + c);
+				} else {
+					if(c0 >= 0)
+						scanNearest(r * columns + c0);
+					if(c1 < columns)
+						scanNearest(r * columns + c1);
+				}
+			}
+		}
+
+		//Pop the max-heap from the back, giving the closest object first.
+		int found = nearestCount;
+		for(int i = found - 1; i >= 0; i--) {
+			result[i] = objects[nearestSlots[0]];
+			nearestSlots[0] = nearestSlots[i];
+			nearestDistances[0] = nearestDistances[i];
+			siftDown(0, i);
+		}
+		return found;
+	}
+
+	//
+	// Private methods
+	//
+
+	private void allocateSlots(int capacity) {
+		GameObject[] newObjects = new GameObject[capacity];
+		double[] newXs = new double[capacity], newYs = new double[capacity];
+		int[] newCellOf = new int[capacity], newNext = new int[capacity], newPrevious = new int[capacity];
+		int[] newFree = new int[capacity];
+		if(objects != null) {
+			System.arraycopy(objects, 0, newObjects, 0, usedSlots);
+			System.arraycopy(xs, 0, newXs, 0, usedSlots);
+			System.arraycopy(ys, 0, newYs, 0, usedSlots);
+			System.arraycopy(cellOf, 0, newCellOf, 0, usedSlots);
+			System.arraycopy(next, 0, newNext, 0, usedSlots);
+			System.arraycopy(previous, 0, newPrevious, 0, usedSlots);
+			System.arraycopy(freeSlots, 0, newFree, 0, numFreeSlots);
+		}
+		objects = newObjects;
+		xs = newXs;
+		ys = newYs;
+		cellOf = newCellOf;
+		next = newNext;
+		previous = newPrevious;
+		freeSlots = newFree;
+	}
+
+	private int getColumn(double x) {
+		int c = (int) Math.floor((x - minX) / cellSize);
+		return c < 0 ? 0 : (c >= columns ? columns - 1 : c);
+	}
+
+	private int getRow(double y) {
+		int r = (int) Math.floor((y - minY) / cellSize);
+		return r < 0 ? 0 : (r >= rows ? rows - 1 : r);
+	}
+
+	private int getCell(double x, double y) {
+		return getRow(y) * columns + getColumn(x);
+	}
+
+	private void link(int slot, int cell) {
+		int head = cellHead[cell];
+		next[slot] = head;
+		previous[slot] = noSlot;
+		if(head != noSlot)
+			previous[head] = slot;
+		cellHead[cell] = slot;
+		cellOf[slot] = cell;
+	}
+
+	private void unlink(int slot) {
+		int n = next[slot], p = previous[slot];
+		if(p != noSlot)
+			next[p] = n;
+		else
+			cellHead[cellOf[slot]] = n;
+		if(n != noSlot)
+			previous[n] = p;
+	}
+
+	/**
+	 * Gets the distance from a point to the closest edge of the block of cells within {@code ring} cells of its cell.
+	 */
+	private double getDistanceToBlockEdge(double x, double y, int column, int row, int ring) {
+		double blockMinX = minX + (column - ring) * cellSize, blockMaxX = minX + (column + ring + 1) * cellSize;
+		double blockMinY = minY + (row - ring) * cellSize, blockMaxY = minY + (row + ring + 1) * cellSize;
+		return Math.min(Math.min(x - blockMinX, blockMaxX - x), Math.min(y - blockMinY, blockMaxY - y));
+	}
+
+	/**
+	 * Offers all objects in a cell to the current nearest-neighbour query.
+	 */
+	private void scanNearest(int cell) {
+		for(int slot = cellHead[cell]; slot != noSlot; slot = next[slot]) {
+			double dx = xs[slot] - nearestX, dy = ys[slot] - nearestY;
+			double d = dx * dx + dy * dy;
+			if(nearestCount < nearestWanted) {
+				heapPush(slot, d);
+			} else if(d < nearestDistances[0]) {
+				nearestSlots[0] = slot;
+				nearestDistances[0] = d;
+				siftDown(0, nearestCount);
+			}
+		}
+	}
+
+	private void heapPush(int slot, double distance) {
+		int i = nearestCount++;
+		while(i > 0) {
+			int parent = (i - 1) >> 1;
+			if(nearestDistances[parent] >= distance)
+				break;
+			nearestSlots[i] = nearestSlots[parent];
+			nearestDistances[i] = nearestDistances[parent];
+			i = parent;
+		}
+		nearestSlots[i] = slot;
+		nearestDistances[i] = distance;
+	}
+
+	private void siftDown(int i, int heapSize) {
+		int slot = nearestSlots[i];
+		double distance = nearestDistances[i];
+		while(true) {
+			int child = 2 * i + 1;
+			if(child >= heapSize)
+				break;
+			if(child + 1 < heapSize && nearestDistances[child + 1] > nearestDistances[child])
+				child++;
+			if(nearestDistances[child] <= distance)
+				break;
+			nearestSlots[i] = nearestSlots[child];
+			nearestDistances[i] = nearestDistances[child];
+			i = child;
+		}
+		nearestSlots[i] = slot;
+		nearestDistances[i] = distance;
+	}
+}
@@ -1,8 +1,12 @@
 package time.travelers.core;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.util.ArrayList;
 
 import time.travelers.graphics.Renderable;
+import time.travelers.graphics.TextureBatch;
 import time.travelers.graphics.TextureObject;
 
 public class Terrain extends Renderable {
@@ -46,6 +50,40 @@ public class Terrain extends Renderable {
 		return this.traversalCost;
 	}
 	
+	/**
+	 * Gets the Traversal bits of this terrain.
+	 * @return
+	 * The traversal mask.
+	 */
+	public byte getTraversalMask() {
+		return trav.getMask();
+	}
+	
+	/**
+	 * Checks if this Terrain is of the same kind as another Terrain, meaning that they look, animate and traverse alike. 
+	 * The position is not taken into account.
+	 * @param t - The Terrain to check against.
+	 * @return
+	 * True if they are of the same kind, else false.
+	 */
+	public boolean isSameKind(Terrain t) {
+		return t != null && this.getTextureObject() == t.getTextureObject() && this.getAnimation() == t.getAnimation()
+				&& this.getTraversalMask() == t.getTraversalMask() && this.traversalCost == t.traversalCost;
+	}
+	
+	/**
+	 * Creates a copy of this Terrain, with the same animation, placed at the specified grid position.
+	 * @param x - The grid position x of the copy.
+	 * @param y - The grid position y of the copy.
+	 * @return
+	 * The copy.
+	 */
+	public Terrain copyAt(int x, int y) {
+		Terrain ret = new Terrain(this.getTextureObject(), this.trav.copy(), this.getAnimation(), this.traversalCost);
+		ret.translatePosition(x * gridWidth, y * gridHeight, y * gridZFactor);
+		return ret;
+	}
+	
 	/**
 	 * Creates a copy of this Terrain.
 	 * @return
@@ -87,6 +125,45 @@ public class Terrain extends Renderable {
 		return null;
 	}
 	
+	/**
+	 * Writes a Terrain to the specified stream. The position of the Terrain is not written.
+	 * @param t - The Terrain to write.
+	 * @param s - The stream to write to.
+	 * @throws IOException If the stream could not be written to.
+	 */
+	public static void saveTerrain(Terrain t, DataOutputStream s) throws IOException {
+		TextureObject.saveTextureObject(t.getTextureObject(), s);
+		s.writeInt(t.getAnimation());
+		s.writeByte(t.getTraversalMask());
+		s.writeDouble(t.traversalCost);
+	}
+	
+	/**
+	 * Reads a Terrain written by {@code saveTerrain} from the specified stream.
+	 * @param s - The stream to read from.
+	 * @param textures - The batch to look for already loaded textures in. If the texture of the Terrain is not in the batch, 
+	 * it is added to it. If null, a new TextureObject is always created.
+	 * @return
+	 * The Terrain, placed at grid position (0, 0).
+	 * @throws IOException If the stream does not contain valid Terrain data.
+	 */
+	public static Terrain fromStream(DataInputStream s, TextureBatch textures) throws IOException {
+		TextureObject tex = TextureObject.fromStream(s);
+		if(tex == null)
+			throw new IOException("Could not read the texture of the terrain.");
+		if(textures != null) {
+			TextureObject existing = textures.getTexture(tex.getFilename());
+			if(existing != null)
+				tex = existing;
+			else
+				textures.addTexture(tex);
+		}
+		int animation = s.readInt();
+		byte mask = s.readByte();
+		double cost = s.readDouble();
+		return new Terrain(tex, Traversal.fromMask(mask), animation, cost);
+	}
+	
 	/**
 	 * Adds a TerrainTemplate to the template list.
 	 * @param t - The template to add.
@@ -4,7 +4,13 @@ import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.util.Random;
 
+import time.travelers.graphics.TextureBatch;
+
 public class TerrainTemplate {
+	/**
+	 * The version of the stream format written by {@code toStream}.
+	 */
+	public static final int streamVersion = 1;
 	private static Random r = new Random();
 	private final Terrain t;
 	public final String name;
@@ -24,10 +30,23 @@ public class TerrainTemplate {
 	
 	
 	public static TerrainTemplate fromStream(DataInputStream s) {
+		return fromStream(s, null);
+	}
+	
+	/**
+	 * Reads a TerrainTemplate written by {@code toStream}.
+	 * @param s - The stream to read from.
+	 * @param textures - The batch to look for already loaded textures in. May be null.
+	 * @return
+	 * The TerrainTemplate. If the stream contains invalid data, null.
+	 * @see Terrain#fromStream(DataInputStream, TextureBatch)
+	 */
+	public static TerrainTemplate fromStream(DataInputStream s, TextureBatch textures) {
 		try {
-			s.readUTF();
-			//TODO add loading of terrain.
-			return null;
+			if(s.readInt() != streamVersion)
+				return null;
+			String name = s.readUTF();
+			return new TerrainTemplate(Terrain.fromStream(s, textures), name);
 		} catch (Exception e) {
 			return null;
 		}
@@ -35,8 +54,9 @@ public class TerrainTemplate {
 	
 	public static void toStream(TerrainTemplate t, DataOutputStream s) {
 		try {
+			s.writeInt(streamVersion);
 			s.writeUTF(t.name);
-			//TODO add saving of the terrain object itself.
+			Terrain.saveTerrain(t.t, s);
 		} catch (Exception e) {
 			
 		}
@@ -4,40 +4,62 @@ import java.util.ArrayList;
 
 import time.travelers.event.Event;
 
+/**
+ * A view of a single spot on a Map. The tile data itself lives in the Map's TileStorage, this class only reads through to it.
+ * @see Map
+ */
 public class Tile {
-	Terrain terrain;
-	GameObject terrainObj;
-	GameObject entity;
-	ArrayList<Event> e;
-	
-	public Tile(Terrain t) {
-		this.terrain = t;
-	}
-	
-	/*public boolean canTraverse(Traversal t) {
-		boolean ret = t.canTraverse(t);
-		if(this.hasTerrainObject())
-			ret &= terrainObj.canTraverse(t);
-		if(this.hasEntity())
-			ret &= this.entity.canTraverse(t);
-		return ret;
-	}*/
-	
+	private final Map map;
+	private final int x, y;
+
+	Tile(Map map, int x, int y) {
+		this.map = map;
+		this.x = x;
+		this.y = y;
+	}
+
+	public boolean canTraverse(Traversal t) {
+		return map.canTraverse(x, y, t);
+	}
+
 	public double getTraversalCost() {
-		return terrain.getTraversalCost();
+		return map.getTraversalCost(x, y);
 	}
-	
+
 	public void triggerEvents(Map m) {
+		ArrayList<Event> e = map.getEvents(x, y);
+		if(e == null)
+			return;
 		for(int i = 0; i < e.size(); i++) {
-			
+
 		}
 	}
-	
+
+	public Terrain getTerrain() {
+		return map.getTerrain(x, y);
+	}
+
+	public GameObject getTerrainObject() {
+		return map.getTerrainObject(x, y);
+	}
+
+	public GameObject getEntity() {
+		return map.getEntity(x, y);
+	}
+
 	public boolean hasTerrainObject() {
-		return terrainObj != null;
+		return map.getStorage().getObjectHandle(x, y) != Map.noHandle;
 	}
-	
+
 	public boolean hasEntity() {
-		return entity != null;
+		return map.getStorage().getEntityHandle(x, y) != Map.noHandle;
+	}
+
+	public int getX() {
+		return x;
+	}
+
+	public int getY() {
+		return y;
 	}
 }
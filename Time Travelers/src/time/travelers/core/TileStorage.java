@@ -0,0 +1,106 @@
+package time.travelers.core;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * The backing store of a Map. All per-tile data is kept as primitives, so that a map does not need one object per tile.
+ * <br><br>
+ * The values are interpreted by the Map owning the storage:
+ * <br>
+ * {@code terrainID} - index into the Map's terrain palette, where 0 means "no terrain".<br>
+ * {@code traversalMask} - the Traversal bits of the tile.<br>
+ * {@code objectHandle, entityHandle} - handles into the Map's object table, where 0 means "no object".
+ * @author Grevor
+ * @see Map
+ */
+public abstract class TileStorage implements Closeable {
+
+	/**
+	 * Gets the width, in tiles, of this storage.
+	 * @return
+	 * The width.
+	 */
+	public abstract int getWidth();
+
+	/**
+	 * Gets the height, in tiles, of this storage.
+	 * @return
+	 * The height.
+	 */
+	public abstract int getHeight();
+
+	public abstract short getTerrainID(int x, int y);
+
+	public abstract void setTerrainID(int x, int y, short id);
+
+	public abstract byte getTraversalMask(int x, int y);
+
+	public abstract void setTraversalMask(int x, int y, byte mask);
+
+	public abstract int getObjectHandle(int x, int y);
+
+	public abstract void setObjectHandle(int x, int y, int handle);
+
+	public abstract int getEntityHandle(int x, int y);
+
+	public abstract void setEntityHandle(int x, int y, int handle);
+
+	/**
+	 * Gets the number of bytes used per tile by this storage.
+	 * @return
+	 * The number of bytes per tile.
+	 */
+	public abstract int getBytesPerTile();
+
+	/**
+	 * Requests that the tiles in the specified rectangle are made quickly accessible. 
+	 * Storages keeping everything in memory need not do anything.
+	 * @param x0 - The lowest x-position, inclusive.
+	 * @param y0 - The lowest y-position, inclusive.
+	 * @param x1 - The highest x-position, inclusive.
+	 * @param y1 - The highest y-position, inclusive.
+	 */
+	public void pageIn(int x0, int y0, int x1, int y1) { }
+
+	/**
+	 * Checks if several threads may read from this storage at the same time, as long as no thread writes to it.
+	 * @return
+	 * True if they may, else false.
+	 */
+	public boolean supportsConcurrentReads() {
+		return false;
+	}
+
+	/**
+	 * Sets the object and entity handles of all tiles to 0. Handles only mean something to the Map which set them, so a 
+	 * Map clears them when it is made on top of a storage.
+	 */
+	public void clearHandles() {
+		for(int y = 0; y < getHeight(); y++)
+			for(int x = 0; x < getWidth(); x++) {
+				if(getObjectHandle(x, y) != 0)
+					setObjectHandle(x, y, 0);
+				if(getEntityHandle(x, y) != 0)
+					setEntityHandle(x, y, 0);
+			}
+	}
+	/**
+	 * Releases the resources of this storage, such as an open file. The storage may not be used afterwards.
+	 * Storages keeping everything in memory need not do anything.
+	 * @throws IOException If the storage could not be written back or closed.
+	 */
+	@Override
+	public void close() throws IOException { }
+
+	/**
+	 * Checks if the specified position is inside this storage.
+	 * @param x - The x-position.
+	 * @param y - The y-position.
+	 * @return
+	 * True if it is, else false.
+	 */
+	public final boolean isInside(int x, int y) {
+		return x >= 0 && y >= 0 && x < getWidth() && y < getHeight();
+	}
+}
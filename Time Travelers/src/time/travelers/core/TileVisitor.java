@@ -0,0 +1,35 @@
+package time.travelers.core;
+
+/**
+ * Receives the contents of the tiles of a Map, as the map walks over them. 
+ * Tiles are walked row by row, and for each tile, the terrain is visited before the terrain object, which is visited 
+ * before the entity. Parts of a tile which are empty are not visited.
+ * @author Grevor
+ * @see Map#visitVisible(time.travelers.graphics.Camera2D, int, TileVisitor)
+ * @see Map#visitRange(int, int, int, int, TileVisitor)
+ */
+public interface TileVisitor {
+	/**
+	 * Visits the terrain of a tile.
+	 * @param terrain - The terrain kind. It is shared by all tiles of that kind, so its render position is not the tile's.
+	 * @param x - The x-position of the tile.
+	 * @param y - The y-position of the tile.
+	 */
+	public void visitTerrain(Terrain terrain, int x, int y);
+
+	/**
+	 * Visits the terrain object of a tile.
+	 * @param o - The terrain object.
+	 * @param x - The x-position of the tile.
+	 * @param y - The y-position of the tile.
+	 */
+	public void visitObject(GameObject o, int x, int y);
+
+	/**
+	 * Visits the entity of a tile.
+	 * @param o - The entity.
+	 * @param x - The x-position of the tile.
+	 * @param y - The y-position of the tile.
+	 */
+	public void visitEntity(GameObject o, int x, int y);
+}
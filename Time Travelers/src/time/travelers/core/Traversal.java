@@ -43,7 +43,26 @@ public class Traversal {
 		return (this.travBit & movementType.travBit) != 0;
 	}
 	
+	/**
+	 * Gets the raw traversal bits of this Traversal.
+	 * @return
+	 * The traversal mask.
+	 */
+	public byte getMask() {
+		return this.travBit;
+	}
+	
 	public Traversal copy() {
 		return new Traversal(this.travBit);
 	}
+	
+	/**
+	 * Creates a Traversal from raw traversal bits, as returned by {@code getMask()}.
+	 * @param mask - The traversal bits.
+	 * @return
+	 * The new Traversal.
+	 */
+	public static Traversal fromMask(byte mask) {
+		return new Traversal(mask);
+	}
 }
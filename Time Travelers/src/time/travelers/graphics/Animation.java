@@ -19,6 +19,34 @@ public class Animation {
 	public final int[] frames;
 	public final long totalTime;
 	public final String animationName;
+	/**
+	 * The largest lookup table made for an animation, in entries.
+	 */
+	public static final int maxLookupSize = 1024;
+	
+	/**
+	 * The time each frame ends at, from the start of the animation. Frame {@code i} is shown for times in 
+	 * {@code (frameEnds[i - 1], frameEnds[i]]}, and the first frame from 0. An end is never before the one of the frame
+	 * before, so frames with negative timestamps are not shown, and the ends can always be binary searched.
+	 */
+	private long[] frameEnds;
+	/**
+	 * If the timestamps share a divisor small enough, the frame shown at each multiple of it: entry {@code k} is the 
+	 * frame shown at time {@code k * lookupStep}. Else null.
+	 */
+	private int[] lookup;
+	private long lookupStep;
+	/**
+	 * Used when there is no lookup table. The animation is split into buckets of {@code bucketWidth}, and entry {@code k}
+	 * is the index of the frame shown at the start of bucket {@code k}, so only the frames between two entries need to 
+	 * be searched.
+	 */
+	private int[] bucketStart;
+	private long bucketWidth;
+	/**
+	 * The number of buckets made per frame, when there is no lookup table.
+	 */
+	private static final int bucketsPerFrame = 8;
 	
 	/**
 	 * Creates a new Animation with the specified name, start frame and timestamps.
@@ -50,6 +78,7 @@ public class Animation {
 			for(int i=0;i<frames.length;i++)
 				frames[i]=startFrame+i;
 		}
+		prepareLookup();
 	}
 	
 	/**
@@ -69,27 +98,101 @@ public class Animation {
 			totTime+=i;
 		this.totalTime=totTime;
 		this.frames=frames.clone();
+		prepareLookup();
 	}
 	
 	/**
-	 * Gets the next frame of this animation, given the specified time since the animation was started.
+	 * Gets the next frame of this animation, given the specified time since the animation was started. 
+	 * The frame is looked up in a table when the timestamps share a small enough divisor. Else, the time is put in one of 
+	 * a number of equally long buckets, and the frame is found by binary search among the few frames ending in it. When 
+	 * there is no table, as when a timestamp is negative, all frames are binary searched. Animations without length 
+	 * always show their first frame.
 	 * @param timeSinceStart - The time since this animation was started.
 	 * @return
 	 * The now active frame.
 	 */
 	public int getNextFrame(long timeSinceStart)
 	{
-		long frameDec=timeSinceStart%this.totalTime;
-		int i=0;
-		for(;frameDec>this.timestamps[i];i++)
-			frameDec-=this.timestamps[i];
-		return frames[i];
+		if(numFrames <= 1 || totalTime <= 0)
+			return numFrames == 0 ? startFrameInTexture : frames[0];
+		long time = timeSinceStart % totalTime;
+		if(time <= 0)
+			return frames[0];
+		if(lookup != null)
+			return lookup[(int) ((time + lookupStep - 1) / lookupStep)];
+		//The first frame ending at or after the time, which lies between the frames of the bucket and the next one.
+		int low = 0, high = numFrames - 1;
+		if(bucketStart != null) {
+			int bucket = (int) (time / bucketWidth);
+			low = bucketStart[bucket];
+			high = bucketStart[bucket + 1];
+		}
+		while(low < high) {
+			int mid = (low + high) >>> 1;
+			if(frameEnds[mid] < time)
+				low = mid + 1;
+			else
+				high = mid;
+		}
+		return frames[low];
 	}
-
 	
-
+	//
+	// Private methods
+	//
 	
+	/**
+	 * Computes the end times of the frames, and the lookup table if the timestamps allow one.
+	 */
+	private void prepareLookup()
+	{
+		frameEnds = new long[numFrames];
+		long end = 0, step = 0;
+		boolean negative = false;
+		for(int i = 0; i < numFrames; i++) {
+			end += timestamps[i];
+			frameEnds[i] = i == 0 ? end : Math.max(end, frameEnds[i - 1]);
+			if(timestamps[i] < 0)
+				negative = true;
+			else
+				step = gcd(step, timestamps[i]);
+		}
+		if(negative || numFrames <= 1 || totalTime <= 0)
+			return;
+		if(totalTime / step < maxLookupSize) {
+			lookupStep = step;
+			lookup = new int[(int) (totalTime / step) + 1];
+			for(int k = 0; k < lookup.length; k++)
+				lookup[k] = frames[getFrameIndexAt(k * step)];
+		} else {
+			int buckets = (int) Math.min(maxLookupSize, (long) numFrames * bucketsPerFrame);
+			bucketWidth = (totalTime + buckets - 1) / buckets;
+			bucketStart = new int[buckets + 1];
+			for(int k = 0; k <= buckets; k++)
+				bucketStart[k] = getFrameIndexAt(Math.min(k * bucketWidth, totalTime));
+		}
+	}
+	
+	/**
+	 * Gets the index of the first frame ending at or after the specified time, by a linear search.
+	 */
+	private int getFrameIndexAt(long time)
+	{
+		int i = 0;
+		while(i < numFrames - 1 && frameEnds[i] < time)
+			i++;
+		return i;
+	}
 	
+	private static long gcd(long a, long b)
+	{
+		while(b != 0) {
+			long t = a % b;
+			a = b;
+			b = t;
+		}
+		return a;
+	}
 	
 	public static Animation fromStream(InputStream s) throws IOException 
 	{
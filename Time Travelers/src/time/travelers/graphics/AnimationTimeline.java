@@ -0,0 +1,89 @@
+package time.travelers.graphics;
+
+/**
+ * One animation of one texture, played on a clock shared by every Renderable following it. The frame is worked out once
+ * per update, however many Renderables follow the timeline.
+ * <br><br>
+ * Timelines are made and advanced by AnimationTimelines, and joined by {@code Renderable.shareTimeline}.
+ * Like Renderables, they are only used by the simulation thread.
+ * @author Grevor
+ * @see AnimationTimelines
+ */
+public final class AnimationTimeline
+{
+	private final AnimationTimelines owner;
+	private final TextureObject texture;
+	private final int animation;
+	private final long phase;
+	private long time;
+	private int frame;
+	/**
+	 * The number of Renderables following this timeline, and the index of this timeline in its owner.
+	 */
+	int users = 0, index;
+
+	AnimationTimeline(AnimationTimelines owner, TextureObject texture, int animation, long phase, long time)
+	{
+		this.owner = owner;
+		this.texture = texture;
+		this.animation = animation;
+		this.phase = phase;
+		this.time = time;
+		this.advance(0);
+	}
+
+	/**
+	 * Advances the clock of this timeline, and works out the current frame.
+	 * @param timeDelta - The time to advance by.
+	 */
+	void advance(long timeDelta)
+	{
+		time += timeDelta;
+		frame = texture.getNextFrame(time + phase, animation);
+	}
+
+	public AnimationTimelines getOwner()
+	{
+		return owner;
+	}
+
+	public TextureObject getTexture()
+	{
+		return texture;
+	}
+
+	public int getAnimation()
+	{
+		return animation;
+	}
+
+	/**
+	 * Gets how far ahead of the shared clock this timeline plays.
+	 * @return
+	 * The phase offset.
+	 */
+	public long getPhase()
+	{
+		return phase;
+	}
+
+	/**
+	 * Gets the time of this timeline's clock, without the phase offset.
+	 * @return
+	 * The time.
+	 */
+	public long getTime()
+	{
+		return time;
+	}
+
+	public int getFrame()
+	{
+		return frame;
+	}
+
+	public int getUsers()
+	{
+		return users;
+	}
+}
@@ -0,0 +1,122 @@
+package time.travelers.graphics;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * The shared animation clocks of a GraphicsEngine. Renderables playing the same animation of the same texture at the 
+ * same phase follow one AnimationTimeline, so the cost of advancing animations depends on the number of distinct 
+ * timelines rather than on the number of Renderables.
+ * <br><br>
+ * All timelines run on one clock, so timelines with the same phase are in step however late they were made. 
+ * A timeline is dropped when its last Renderable leaves it. Only the simulation thread may use this class.
+ * @author Grevor
+ * @see Renderable#shareTimeline(AnimationTimelines, long)
+ * @see GraphicsEngine#getTimelines()
+ */
+public class AnimationTimelines
+{
+	private final HashMap<Key, AnimationTimeline> byKey = new HashMap<Key, AnimationTimeline>();
+	private final ArrayList<AnimationTimeline> timelines = new ArrayList<AnimationTimeline>();
+	private long time = 0;
+
+	/**
+	 * Gets the timeline of the specified animation and phase, making it if needed, and counts one more user of it.
+	 * @param texture - The texture.
+	 * @param animation - The index of the animation.
+	 * @param phase - How far ahead of the shared clock to play the animation.
+	 * @return
+	 * The timeline.
+	 */
+	AnimationTimeline acquire(TextureObject texture, int animation, long phase)
+	{
+		Key key = new Key(texture, animation, phase);
+		AnimationTimeline t = byKey.get(key);
+		if(t == null) {
+			t = new AnimationTimeline(this, texture, animation, phase, time);
+			t.index = timelines.size();
+			timelines.add(t);
+			byKey.put(key, t);
+		}
+		t.users++;
+		return t;
+	}
+
+	/**
+	 * Counts one less user of a timeline, dropping it if it has none left.
+	 * @param t - The timeline.
+	 */
+	void release(AnimationTimeline t)
+	{
+		if(--t.users > 0)
+			return;
+		byKey.remove(new Key(t.getTexture(), t.getAnimation(), t.getPhase()));
+		AnimationTimeline last = timelines.remove(timelines.size() - 1);
+		if(last != t) {
+			last.index = t.index;
+			timelines.set(t.index, last);
+		}
+	}
+
+	/**
+	 * Advances the shared clock, and every timeline with it.
+	 * @param timeDelta - The time to advance by.
+	 */
+	public void advance(long timeDelta)
+	{
+		if(timeDelta == 0)
+			return;
+		time += timeDelta;
+		for(int i = 0; i < timelines.size(); i++)
+			timelines.get(i).advance(timeDelta);
+	}
+
+	/**
+	 * Gets the number of distinct timelines.
+	 * @return
+	 * The number of timelines.
+	 */
+	public int size()
+	{
+		return timelines.size();
+	}
+
+	/**
+	 * Gets the time of the shared clock.
+	 * @return
+	 * The time.
+	 */
+	public long getTime()
+	{
+		return time;
+	}
+
+	private static final class Key
+	{
+		final TextureObject texture;
+		final int animation;
+		final long phase;
+
+		Key(TextureObject texture, int animation, long phase)
+		{
+			this.texture = texture;
+			this.animation = animation;
+			this.phase = phase;
+		}
+
+		@Override
+		public boolean equals(Object o)
+		{
+			if(!(o instanceof Key))
+				return false;
+			Key k = (Key) o;
+			return texture == k.texture && animation == k.animation && phase == k.phase;
+		}
+
+		@Override
+		public int hashCode()
+		{
+			return (System.identityHashCode(texture) * 31 + animation) * 31 + (int) (phase ^ (phase >>> 32));
+		}
+	}
+}
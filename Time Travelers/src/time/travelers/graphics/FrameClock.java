@@ -0,0 +1,16 @@
+package time.travelers.graphics;
+
+/**
+ * Tells a GraphicsEngine how far it is between two simulation ticks, so that moving Renderables can be drawn between
+ * where they were on the previous tick and where they are now.
+ * @author Grevor
+ * @see GraphicsEngine#setFrameClock(FrameClock)
+ */
+public interface FrameClock {
+	/**
+	 * Gets how far the current time is between the latest simulation tick and the next one.
+	 * @return
+	 * A value between 0 (the previous state) and 1 (the latest state).
+	 */
+	public double getInterpolation();
+}
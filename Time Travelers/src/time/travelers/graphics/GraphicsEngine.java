@@ -2,11 +2,20 @@ package time.travelers.graphics;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 import javax.media.opengl.GL2;
 import javax.media.opengl.GLAutoDrawable;
 import javax.media.opengl.GLEventListener;
 
+import time.travelers.core.GameObject;
+import time.travelers.core.Map;
+import time.travelers.core.Terrain;
+import time.travelers.core.TileVisitor;
+import time.travelers.util.TimeHistogram;
+
 import com.jogamp.opengl.util.FPSAnimator;
 
 public class GraphicsEngine implements GLEventListener
@@ -19,16 +28,70 @@ public class GraphicsEngine implements GLEventListener
 	private FPSAnimator animator;
 	Camera2D camera;
 	/**
-	 * The only function that should set this flag is the {@code checkForAsyncUpdates()}. 
-	 * This denotes that no updates can be done.
-	 * This flag should, for optimization, not be set to true too long at a time.
-	 * @see checkForAsyncUpdates()
+	 * The animation time added since the last frame. Taken, and reset, by {@code publishFrame()}.
+	 */
+	private final AtomicLong timeDeltaAnimations = new AtomicLong();
+	/**
+	 * The clock telling how far between two simulation ticks each frame is. If null, everything is rendered at its 
+	 * current position.
+	 */
+	private volatile FrameClock frameClock;
+	
+	/**
+	 * The render-list snapshots are made from. Only touched by the thread calling {@code publishFrame()}.
+	 */
+	private RenderList renderList;
+	/**
+	 * The newest render-list given to {@code switchRenderList}, not yet taken by {@code publishFrame()}. 
+	 * Switching swaps in the new list, so a list never taken is simply replaced.
+	 */
+	private final AtomicReference<RenderList> pendingRenderList = new AtomicReference<RenderList>();
+	private final AtomicLong overwrittenRenderLists = new AtomicLong();
+	/**
+	 * The baked terrain of the map whose visible part is added to each snapshot, or null if there is no map.
+	 */
+	private volatile TerrainLayer terrainLayer;
+	/**
+	 * The number of tiles around the view walked for the map, so that objects reaching in from just outside are drawn.
 	 */
-	private boolean noUpdatesPossible = false;
-	private long timeDeltaAnimations = 0;
+	private static final int mapMargin = 1;
+	private final MapWriter mapWriter = new MapWriter();
+	/**
+	 * Sorts each snapshot into the order it is drawn in. Only touched by the thread calling {@code publishFrame()}.
+	 */
+	private final SpriteSorter sorter = new SpriteSorter();
+	/**
+	 * What each frame costs, recorded by both the thread publishing and the thread rendering.
+	 */
+	private final RenderStats stats = new RenderStats();
+	/**
+	 * The shared animation clocks, advanced once per {@code publishFrame()}.
+	 */
+	private final AnimationTimelines timelines = new AnimationTimelines();
 	
-	private ArrayList<ArrayList<Renderable>> renderLists;
-	private ArrayList<ArrayList<Renderable>> pendingRenderList;
+	/**
+	 * The snapshots handed from the simulation thread to the GL thread, as a triple buffer. At any time, one is being 
+	 * written (the back snapshot), one is being rendered (the front snapshot), and the last one is waiting in the middle.
+	 * {@code middleSnapshot} holds the index of the middle snapshot, and the {@code freshSnapshot} bit if it has not 
+	 * been rendered yet.
+	 */
+	private final RenderSnapshot[] snapshots = { new RenderSnapshot(), new RenderSnapshot(), new RenderSnapshot() };
+	private static final int freshSnapshot = 4;
+	private final AtomicInteger middleSnapshot = new AtomicInteger(0);
+	private int backSnapshot = 1, frontSnapshot = 2;
+	private volatile long publishedFrames = 0, overwrittenFrames = 0, takenFrames = 0, takenRenderLists = 0;
+	/**
+	 * Builds and draws the vertex buffers of the snapshots. Only touched by the GL thread.
+	 */
+	private final SpriteBatcher batcher = new SpriteBatcher();
+	/**
+	 * Decodes textures on worker threads, to be uploaded by the GL thread a few per frame. Null for a headless engine.
+	 */
+	private final TextureLoader loader;
+	/**
+	 * The device rendering through the GL of the surface. Only touched by the GL thread.
+	 */
+	private JoglRenderDevice joglDevice;
 	
 	/**
 	 * Creates a new GraphicsEngine, drawing on the specified surface at a specified FPS, with the specified TextureBatch.
@@ -39,6 +102,9 @@ public class GraphicsEngine implements GLEventListener
 	 * <br>
 	 * If passed null, the engine will auto-generate an empty TextureBatch. 
 	 * Please note that this will most likely create strange in-game lag close to startup of the game.
+	 * <br>
+	 * The textures of the batch start decoding in the background right away. Until a texture is loaded, sprites using 
+	 * it are not drawn.
 	 */
 	public GraphicsEngine(GLAutoDrawable canvas, int FPS, TextureBatch textures)
 	{
@@ -50,17 +116,36 @@ public class GraphicsEngine implements GLEventListener
 		this.currentSurface = canvas;
 		this.animator = new FPSAnimator(canvas,FPS);
 		this.camera = new Camera2D();
+		this.loader = new TextureLoader(canvas.getGLProfile());
+		synchronized(batch) {
+			for(int i = 0; i < batch.numberOfTextures(); i++)
+				loader.request(batch.getTexture(i), false);
+		}
 		canvas.addGLEventListener(this);
 	}
+	
+	/**
+	 * Creates a new GraphicsEngine with no surface, drawn only by calling {@code render} with a RenderDevice, such as a 
+	 * HeadlessRenderDevice. It has no texture loader; the device is thought to have every texture ready.
+	 * @param textures - The textures to be included as a start, or null for an empty TextureBatch.
+	 */
+	public GraphicsEngine(TextureBatch textures)
+	{
+		this.batch = textures == null ? new TextureBatch() : textures;
+		this.camera = new Camera2D();
+		this.loader = null;
+	}
 
 	public void startRendering()
 	{
-		animator.start();
+		if(animator != null)
+			animator.start();
 	}
 	
 	public void stopRendering()
 	{
-		animator.stop();
+		if(animator != null)
+			animator.stop();
 	}
 	
 	public TextureBatch getTextureBatch()
@@ -79,69 +164,239 @@ public class GraphicsEngine implements GLEventListener
 		return this.camera;
 	}
 	
+	/**
+	 * Sets the clock used to render moving objects between their positions of the two latest simulation ticks.
+	 * @param clock - The clock, or null to always render objects at their current position.
+	 */
+	public void setFrameClock(FrameClock clock)
+	{
+		this.frameClock = clock;
+	}
+	
+	/**
+	 * Sets the map drawn by this GraphicsEngine. Every call to {@code publishFrame()} adds the terrain chunks seen by the 
+	 * camera, as baked by a TerrainLayer, and walks the tiles seen by the camera to add their terrain objects and entities 
+	 * after the render-list. Objects outside the view are culled.
+	 * <br><br>
+	 * The layer listens to changes of the map, so this should be called on the thread changing the map.
+	 * <br><br>
+	 * The animations of the map's terrain kinds are advanced on every publish, but those of terrain objects and entities 
+	 * only while they are visible. Objects on the map should therefore not also be in the render-list.
+	 * @param map - The map, or null to draw no map.
+	 */
+	public void setMap(Map map)
+	{
+		TerrainLayer old = this.terrainLayer;
+		if(old != null)
+			old.dispose();
+		this.terrainLayer = map == null ? null : new TerrainLayer(map);
+	}
+	
+	public Map getMap()
+	{
+		TerrainLayer layer = this.terrainLayer;
+		return layer == null ? null : layer.getMap();
+	}
+	
+	/**
+	 * Gets the baked terrain of the map drawn by this GraphicsEngine, such as to read how often it is rebuilt.
+	 * @return
+	 * The terrain layer, or null if there is no map.
+	 */
+	public TerrainLayer getTerrainLayer()
+	{
+		return this.terrainLayer;
+	}
+	
+	/**
+	 * Gets the shared animation timelines of this GraphicsEngine. Renderables joining them with 
+	 * {@code Renderable.shareTimeline} are animated once per timeline, instead of one by one.
+	 * Only the thread calling {@code publishFrame()} may use them.
+	 * @return
+	 * The timelines.
+	 */
+	public AnimationTimelines getTimelines()
+	{
+		return this.timelines;
+	}
+	
+	/**
+	 * Gets the loader of the textures of this GraphicsEngine, such as to read how long each texture took to load.
+	 * @return
+	 * The loader, or null if this GraphicsEngine is headless.
+	 */
+	public TextureLoader getTextureLoader()
+	{
+		return this.loader;
+	}
+	
 	/**
 	 * Switches the render-list of this GraphicsEngine to the specified Renderables. 
-	 * Changes will not be visible until the next render call after this function returns.
+	 * Changes will not be visible until the next call to {@code publishFrame()} after this function returns.
 	 * <br><br>
-	 * Please note that only ONE change to the render-list may be done at a time. 
-	 * If such a change is already queued and waiting to take effect, this function fails.
+	 * This function never blocks, and may be called from any number of threads. 
+	 * If a switch is already waiting to take effect, it is replaced by this one, and counted as overwritten.
 	 * @param newRenderables - All Renderables to switch with.
 	 * @return
-	 * True if the switch succeeded, else false.
+	 * True. The switch always succeeds.
 	 */
 	public boolean switchRenderList(Collection<Renderable> newRenderables)
 	{
-		if(this.hasPendingRenderList()) {
-			return false;
-		}
-		else {
-			ArrayList<ArrayList<Renderable>> newList = new ArrayList<ArrayList<Renderable>>(batch.numberOfTextures());
-			for(int i = 0; i < batch.numberOfTextures(); i++)
-				newList.add(new ArrayList<Renderable>(40));
+		RenderList list;
+		synchronized(batch) {
+			list = new RenderList(batch);
 			for(Renderable r : newRenderables)
-				addObjectToNewRenderList(newList, r);
-			while(noUpdatesPossible); //Wait until updates are possible, this should only take a few ticks.
-			this.pendingRenderList = newList;
-			return true;
+				addObjectToNewRenderList(list, r);
 		}
+		if(pendingRenderList.getAndSet(list) != null)
+			overwrittenRenderLists.incrementAndGet();
+		return true;
 	}
 	
 	/**
-	 * Updates animations for all Renderables associated with this engine.
+	 * Updates animations for all Renderables associated with this engine. 
+	 * The animations are advanced by the next call to {@code publishFrame()}.
 	 * @param timeDelta - The time since last update.
 	 */
 	public void updateAnimations(long timeDelta) {
-		while(this.noUpdatesPossible); // wait until updating is possible. This may not be nessecary, and might be removed.
+		this.timeDeltaAnimations.addAndGet(timeDelta);
+	}
+	
+	/**
+	 * Hands the current state of the render-list to the GL thread. Takes up the newest render-list switched to, advances 
+	 * animations, and packs the position, texture coordinates and visibility of every Renderable into a snapshot, 
+	 * which the GL thread renders until the next one is published. Nothing is rendered before the first call.
+	 * <br><br>
+	 * Must only be called from one thread at a time, normally the simulation thread at the end of each tick. 
+	 * The Renderables, the map and the camera must not be changed by other threads meanwhile. This function never blocks on the GL thread.
+	 */
+	public void publishFrame()
+	{
+		RenderList list = pendingRenderList.getAndSet(null);
+		if(list != null) {
+			this.renderList = list;
+			takenRenderLists++;
+		}
+		long timeDelta = this.timeDeltaAnimations.getAndSet(0);
+		long animationStart = System.nanoTime();
+		timelines.advance(timeDelta);
+		updateAnimationsImpl(timeDelta);
+		long animationNanos = System.nanoTime() - animationStart;
+		int offered = 0;
+		
+		RenderSnapshot snapshot = snapshots[backSnapshot];
+		snapshot.clear(Renderable.getSimulationTick());
+		if(this.renderList != null) {
+			for(int i = 0; i < this.renderList.textures.size(); i++) {
+				snapshot.beginTexture(this.renderList.textures.get(i));
+				ArrayList<Renderable> renderables = this.renderList.renderLists.get(i);
+				offered += renderables.size();
+				for(int obj = 0; obj < renderables.size(); obj++)
+					snapshot.add(renderables.get(obj));
+			}
+		}
+		int culled = offered - snapshot.getSpriteCount();
+		TerrainLayer layer = this.terrainLayer;
+		if(layer != null) {
+			long layerStart = System.nanoTime();
+			layer.updateAnimations(timeDelta);
+			animationNanos += System.nanoTime() - layerStart;
+			layer.write(camera, snapshot);
+			culled += mapWriter.write(layer.getMap(), camera, timeDelta, snapshot);
+		}
+		sorter.sort(snapshot);
+		stats.recordPublish(animationNanos, culled, System.nanoTime());
 		
-		this.timeDeltaAnimations += timeDelta;
+		int previous = middleSnapshot.getAndSet(backSnapshot | freshSnapshot);
+		backSnapshot = previous & ~freshSnapshot;
+		publishedFrames++;
+		if((previous & freshSnapshot) != 0)
+			overwrittenFrames++;
 	}
 	
-	//*************************************************************************************
-	//
-	// Private methods
-	//
-	//*************************************************************************************
+	/**
+	 * Gets the number of snapshots published by {@code publishFrame()}.
+	 * @return
+	 * The number of snapshots.
+	 */
+	public long getPublishedFrames()
+	{
+		return publishedFrames;
+	}
 	
 	/**
-	 * Gets the render-list for the specified texture.
-	 * @param t - The TextureObject to get renderList for.
+	 * Gets the number of snapshots replaced by a newer one before they were ever rendered.
 	 * @return
-	 * The Render-list. If the Texture does not exist in the current batch, null is returned.
+	 * The number of dropped snapshots.
 	 */
-	private ArrayList<Renderable> getRenderListForTexture(TextureObject t)
+	public long getOverwrittenFrames()
 	{
-		if(batch.contains(t))
-			return this.renderLists.get(batch.getIndexOf(t));
-		else
-			return null;
+		return overwrittenFrames;
 	}
 	
+	/**
+	 * Gets the number of snapshots taken up by the GL thread.
+	 * @return
+	 * The number of snapshots.
+	 */
+	public long getTakenFrames()
+	{
+		return takenFrames;
+	}
+	
+	/**
+	 * Gets the number of render-lists taken up by {@code publishFrame()}.
+	 * @return
+	 * The number of render-lists.
+	 */
+	public long getTakenRenderLists()
+	{
+		return takenRenderLists;
+	}
+	
+	/**
+	 * Gets the number of render-lists replaced by a newer one before {@code publishFrame()} took them up.
+	 * @return
+	 * The number of dropped render-lists.
+	 */
+	public long getOverwrittenRenderLists()
+	{
+		return overwrittenRenderLists.get();
+	}
+	
+	/**
+	 * Gets what the frames of this GraphicsEngine cost, to be read or registered with JMX.
+	 * @return
+	 * The stats.
+	 */
+	public RenderStats getRenderStats()
+	{
+		return stats;
+	}
+	
+	/**
+	 * Gets the time {@code publishFrame()} took to sort each snapshot into drawing order.
+	 * @return
+	 * The histogram of sort times. Only the thread calling {@code publishFrame()} records into it.
+	 */
+	public TimeHistogram getSortTimes()
+	{
+		return sorter.getSortTimes();
+	}
+	
+	//*************************************************************************************
+	//
+	// Private methods
+	//
+	//*************************************************************************************
+	
 	/**
 	 * Adds a Renderable to the render list of choice. This will make sure the texture batch is up to date.
-	 * @param newList - The list.
+	 * The caller must hold the lock of the batch.
+	 * @param list - The list to add it to.
 	 * @param r - the renderable.
 	 */
-	private void addObjectToNewRenderList(ArrayList<ArrayList<Renderable>> newList, Renderable r)
+	private void addObjectToNewRenderList(RenderList list, Renderable r)
 	{
 		if(r == null || r.getTextureObject() == null)
 			return;
@@ -149,76 +404,118 @@ public class GraphicsEngine implements GLEventListener
 		if(!batch.contains(r.getTextureObject()))
 		{
 			batch.addTexture(r.getTextureObject());
-			newList.add(new ArrayList<Renderable>());
+			list.textures.add(r.getTextureObject());
+			list.renderLists.add(new ArrayList<Renderable>());
 		}
-		newList.get(batch.getIndexOf(r.getTextureObject())).add(r);
+		list.renderLists.get(batch.getIndexOf(r.getTextureObject())).add(r);
+		if(r.getTimeline() == null)
+			list.animated.add(r);
 	}
 	
 	/**
-	 * Checks if this GraphicsEngine has a pending renderlist update.
+	 * Updates the values used by the engine if any changes have been made to them.
 	 * @return
-	 * True if it has, else false.
+	 * The snapshot to render.
 	 */
-	private boolean hasPendingRenderList()
+	private RenderSnapshot checkForAsyncUpdates()
 	{
-		return this.pendingRenderList != null;
-	}
-	
-	/**
-	 * Updates the values used by the engine if any changes have been made to them.
-	 */
-	private void checkForAsyncUpdates()
-	{
-		//This is the only function which should set this flag.
-		noUpdatesPossible = true;
-		//Updates animations.
-		updateAnimationsImpl(this.timeDeltaAnimations);
-		if(this.hasPendingRenderList()) {
-			//This order may or may not prove useful.
-			ArrayList<ArrayList<Renderable>> foo = this.pendingRenderList;
-			this.pendingRenderList = null;
-			this.renderLists = foo;
+		//Take the newest published snapshot, if any.
+		if((middleSnapshot.get() & freshSnapshot) != 0) {
+			frontSnapshot = middleSnapshot.getAndSet(frontSnapshot) & ~freshSnapshot;
+			takenFrames++;
 		}
 		//TODO may add changing of the texture batch, but it is not needed in this game.
-		//Reset this flag to enable possible further pending requests.
-		noUpdatesPossible = false;
+		return snapshots[frontSnapshot];
 	}
 	
 	private void updateAnimationsImpl(long timeDelta) {
-		if(timeDelta == 0 || this.renderLists == null)
+		if(timeDelta == 0 || this.renderList == null)
 			return;
-		for(ArrayList<Renderable> r : this.renderLists)
-			for(Renderable rr : r)
-				rr.updateAnimation(timeDelta);
-		this.timeDeltaAnimations = 0;
+		//Renderables which left their timeline since are not in the list yet. Leaving is rare, so it is just made again.
+		if(Renderable.getTimelineLeaves() != this.renderList.timelineLeaves)
+			this.renderList.refreshAnimated();
+		ArrayList<Renderable> animated = this.renderList.animated;
+		for(int i = 0; i < animated.size(); i++)
+			animated.get(i).updateAnimation(timeDelta);
 	}
 	
-	private void setProjection(GL2 device)
+	//*************************************************************************************
+	//
+	// Rendering
+	//
+	//*************************************************************************************
+
+	/**
+	 * Renders the newest published snapshot through a RenderDevice. Textures the device does not have ready are skipped, 
+	 * and asked for from the texture loader as on-screen.
+	 * <br><br>
+	 * Called by {@code display} with a JoglRenderDevice. Headless engines are drawn by calling this directly; only one 
+	 * thread may render at a time.
+	 * @param device - The device to render through.
+	 */
+	public void render(RenderDevice device)
 	{
-		device.glMatrixMode(GL2.GL_PROJECTION);
-		device.glLoadIdentity();
-		double w=camera.getTrueWidth();
-		double h=camera.getTrueHeight();
-		double x=camera.getMiddleX()-w/2;
-		double y=camera.getMiddleY()-h/2;
-		device.glOrtho(x, x+w, y+h, y, -10, 100);
+		long start = System.nanoTime();
+		double w = camera.getTrueWidth();
+		double h = camera.getTrueHeight();
+		device.beginFrame(camera.getMiddleX() - w / 2, camera.getMiddleY() - h / 2, w, h);
+		//Execute asynchronously requested updates.
+		long asyncStart = System.nanoTime();
+		RenderSnapshot snapshot = this.checkForAsyncUpdates();
+		long asyncNanos = System.nanoTime() - asyncStart;
+		
+		//Render everything in the snapshot.
+		FrameClock clock = this.frameClock;
+		float alpha = clock == null ? 1 : (float) clock.getInterpolation();
+		batcher.fill(snapshot, alpha);
+		batcher.upload(device);
+		batcher.drawTerrain(device, snapshot, loader);
+		if(snapshot.isSorted()) {
+			for(int i = 0; i < snapshot.getRunCount(); i++)
+				drawSprites(device, snapshot.getRunBinding(i), snapshot.getRunStart(i), snapshot.getRunStart(i + 1));
+		} else {
+			for(int i = 0; i < snapshot.getTextureCount(); ) {
+				TextureObject binding = snapshot.getTexture(i).getBinding();
+				int from = snapshot.getTextureStart(i);
+				//Textures sharing an atlas page are drawn together.
+				do {
+					i++;
+				} while(i < snapshot.getTextureCount() && snapshot.getTexture(i).getBinding() == binding);
+				drawSprites(device, binding, from, snapshot.getTextureStart(i));
+			}
+		}
+		batcher.finish(device);
+		device.endFrame();
+		stats.recordFrame(start, asyncNanos, System.nanoTime(), batcher.getFrameDraws(), batcher.getFrameBinds(), 
+				batcher.getFrameVertices());
 	}
 	
-	private void setUpGL(GL2 device)
+	/**
+	 * Draws a range of the sprites filled into the batcher with one texture binding, if the device has it ready.
+	 */
+	private void drawSprites(RenderDevice device, TextureObject binding, int from, int to)
 	{
-		device.glClearColor(0, 0, 0, 0);
-		device.glClear(GL2.GL_DEPTH_BUFFER_BIT | GL2.GL_COLOR_BUFFER_BIT | GL2.GL_STENCIL_BUFFER_BIT);
-		device.glEnable(GL2.GL_DEPTH_TEST);
-		device.glDepthFunc(GL2.GL_LEQUAL);
-		device.glEnable(GL2.GL_ALPHA_TEST);
-		device.glAlphaFunc(GL2.GL_GREATER, 0);
-		device.glEnable(GL2.GL_BLEND);
-		device.glBlendFunc(GL2.GL_SRC_ALPHA, GL2.GL_ONE_MINUS_SRC_ALPHA);
-		device.glMatrixMode(GL2.GL_MODELVIEW);
-		device.glLoadIdentity();
-		device.glColor3f(1, 1, 1);
+		if(from == to)
+			return;
+		if(!device.isReady(binding)) {
+			if(loader != null)
+				loader.request(binding, true);
+			return;
+		}
+		batcher.bindTexture(device, binding);
+		batcher.draw(device, from, to);
+		device.unbindTexture(binding);
 	}
 	
+	/**
+	 * Frees the buffers this GraphicsEngine made on a device through {@code render}. Called by {@code dispose} for the 
+	 * GL device; headless engines call it themselves.
+	 * @param device - The device rendered through.
+	 */
+	public void disposeDevice(RenderDevice device)
+	{
+		batcher.dispose(device);
+	}
 	
 	//*************************************************************************************
 	//
@@ -230,48 +527,31 @@ public class GraphicsEngine implements GLEventListener
 	public void display(GLAutoDrawable a) 
 	{
 		GL2 device = a.getGL().getGL2();
-		//Set projection.
-		this.setProjection(device);
-		//Set GL up for rendering a new scene.
-		this.setUpGL(device);
-		//Execute asynchronously requested updates.
-		this.checkForAsyncUpdates();
-		
-		/*
-		device.glBegin(GL2.GL_QUADS);
-		device.glColor3b((byte)46, (byte)46, (byte)66);
-		device.glVertex3d(1, 1, 0);
-		device.glVertex3d(1, 2, 0);
-		device.glVertex3d(2, 2, 0);
-		device.glVertex3d(2, 1, 0);
-		device.glEnd();
-		*/
-		
-		//Render everything in the render list.
-		for(int i = 0; i < batch.numberOfTextures(); i++) {
-			batch.getTexture(i).enable(device);
-			device.glBegin(GL2.GL_QUADS);
-			ArrayList<Renderable> renderList = this.getRenderListForTexture(batch.getTexture(i));
-			for(int obj = 0; obj < renderList.size(); obj++)
-				renderList.get(obj).render(device); //Render all objects.
-			device.glEnd();
-			batch.getTexture(i).disable(device);
-		}
+		if(joglDevice == null || joglDevice.getGL() != device)
+			joglDevice = new JoglRenderDevice(device);
+		//Upload the textures decoded since the last frame, as far as the budget allows.
+		loader.uploadPending(device);
+		this.render(joglDevice);
+		//Give back video memory over the budget, from textures not drawn in this frame.
+		TextureObject.getRegistry().trim(device);
 	}
 
 	@Override
 	public void dispose(GLAutoDrawable a) 
 	{
 		GL2 device = a.getGL().getGL2();
-		batch.dispose(device);
+		loader.shutdown();
+		synchronized(batch) {
+			batch.dispose(device);
+		}
+		TextureObject.getRegistry().destroyUnused(device);
+		this.disposeDevice(joglDevice != null && joglDevice.getGL() == device ? joglDevice : new JoglRenderDevice(device));
 	}
 
 	@Override
 	public void init(GLAutoDrawable arg0) 
 	{
-		// Initialize all textures.
-		for(int i=0; i < batch.numberOfTextures(); i++)
-			batch.getTexture(i).getTexture();
+		//Textures are decoded by the loader, and uploaded from display.
 	}
 
 	@Override
@@ -280,4 +560,108 @@ public class GraphicsEngine implements GLEventListener
 	{
 		//For now, we do nothing here.
 	}
+	
+	/**
+	 * One render-list, split by texture. The textures are copied from the batch when the list is made, so snapshots 
+	 * never read the batch while another thread adds to it.
+	 */
+	private static class RenderList
+	{
+		final ArrayList<TextureObject> textures;
+		final ArrayList<ArrayList<Renderable>> renderLists;
+		/**
+		 * The Renderables of the list which did not follow a shared timeline when the list was made, or when it was last 
+		 * refreshed.
+		 */
+		final ArrayList<Renderable> animated = new ArrayList<Renderable>();
+		/**
+		 * The count of {@code Renderable.getTimelineLeaves()} before the animated Renderables were found.
+		 */
+		long timelineLeaves = Renderable.getTimelineLeaves();
+		
+		RenderList(TextureBatch batch)
+		{
+			textures = new ArrayList<TextureObject>(batch.numberOfTextures());
+			renderLists = new ArrayList<ArrayList<Renderable>>(batch.numberOfTextures());
+			for(int i = 0; i < batch.numberOfTextures(); i++) {
+				textures.add(batch.getTexture(i));
+				renderLists.add(new ArrayList<Renderable>(40));
+			}
+		}
+		
+		/**
+		 * Finds again the Renderables of the list which do not follow a shared timeline.
+		 */
+		void refreshAnimated()
+		{
+			timelineLeaves = Renderable.getTimelineLeaves();
+			animated.clear();
+			for(int i = 0; i < renderLists.size(); i++) {
+				ArrayList<Renderable> list = renderLists.get(i);
+				for(int obj = 0; obj < list.size(); obj++)
+					if(list.get(obj).getTimeline() == null)
+						animated.add(list.get(obj));
+			}
+		}
+	}
+	
+	/**
+	 * Writes the terrain objects and entities of the visible part of a map into snapshots. While the map is walked, 
+	 * sprites are gathered in one bucket per texture binding, and the buckets are then copied into the snapshot, so the 
+	 * map is only walked once per frame.
+	 */
+	private static class MapWriter implements TileVisitor
+	{
+		private final SpriteBuckets buckets = new SpriteBuckets();
+		private long timeDelta;
+		private int visited;
+		
+		/**
+		 * Writes the visible objects of a map into a snapshot.
+		 * @return
+		 * The number of objects of the visited tiles left out, as outside the view, invisible or without texture.
+		 */
+		int write(Map map, Camera2D camera, long timeDelta, RenderSnapshot snapshot)
+		{
+			this.timeDelta = timeDelta;
+			this.visited = 0;
+			int culled = map.visitVisible(camera, mapMargin, this);
+			int written = 0;
+			for(int i = 0; i < buckets.size(); i++) {
+				if(buckets.getCount(i) == 0)
+					continue;
+				snapshot.beginTexture(buckets.getBinding(i));
+				snapshot.addPacked(buckets.getSprites(i), buckets.getAttributes(i), buckets.getCount(i));
+				written += buckets.getCount(i);
+			}
+			buckets.clear();
+			return culled + visited - written;
+		}
+		
+		@Override
+		public void visitTerrain(Terrain terrain, int x, int y)
+		{
+			//Terrain is drawn from the TerrainLayer.
+		}
+		
+		@Override
+		public void visitObject(GameObject o, int x, int y)
+		{
+			add(o);
+		}
+		
+		@Override
+		public void visitEntity(GameObject o, int x, int y)
+		{
+			add(o);
+		}
+		
+		private void add(Renderable r)
+		{
+			visited++;
+			if(timeDelta != 0)
+				r.updateAnimation(timeDelta);
+			buckets.add(r);
+		}
+	}
 }
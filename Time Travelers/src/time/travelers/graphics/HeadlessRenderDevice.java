@@ -0,0 +1,419 @@
+package time.travelers.graphics;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.File;
+import java.io.IOException;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+import javax.imageio.ImageIO;
+
+/**
+ * Records what is rendered through it instead of drawing it, so that the render path can be measured and tested without
+ * a GPU. It counts frames, draw calls, texture binds, vertices, state changes and buffer uploads.
+ * <br><br>
+ * A state change is any call that changes what the next draw call does: binding or unbinding a texture, starting or
+ * stopping sprites, switching the vertex buffer, and starting or stopping quads. A texture bind is redundant if the same
+ * texture was already the last one bound.
+ * <br><br>
+ * If made with a size, it also rasterizes every frame into an image, the way the JoglRenderDevice sets up GL: depth
+ * test with {@code GL_LEQUAL}, alpha test dropping fully transparent texels, and alpha blending. Textures are read from
+ * the files of their bindings with ImageIO, and sampled from the nearest texel; a texture which cannot be read is
+ * drawn white. Every texture is ready at once.
+ * @author Grevor
+ * @see RenderDevice
+ */
+public class HeadlessRenderDevice implements RenderDevice {
+	private long frames = 0, drawCalls = 0, textureBinds = 0, redundantTextureBinds = 0, vertices = 0, stateChanges = 0;
+	private long bufferUploads = 0, uploadedBytes = 0;
+
+	/**
+	 * The contents of the buffers, as float[] or int[], by name - 1. Only kept when rasterizing.
+	 */
+	private final ArrayList<Object> buffers = new ArrayList<Object>();
+	private int vertexBuffer = 0, indexBuffer = 0;
+	private TextureObject boundTexture, lastBoundTexture;
+
+	//The raster, if any.
+	private final BufferedImage image;
+	private final int width, height;
+	private final int[] colors;
+	private final float[] depths;
+	private double viewX, viewY, scaleX, scaleY;
+	private final HashMap<String, Texels> texels = new HashMap<String, Texels>();
+	private Texels currentTexels;
+
+	/**
+	 * Creates a new HeadlessRenderDevice which only counts.
+	 */
+	public HeadlessRenderDevice()
+	{
+		this.image = null;
+		this.width = 0;
+		this.height = 0;
+		this.colors = null;
+		this.depths = null;
+	}
+
+	/**
+	 * Creates a new HeadlessRenderDevice which counts, and rasterizes into an image of the specified size.
+	 * @param width - The width of the image, in pixels.
+	 * @param height - The height of the image, in pixels.
+	 */
+	public HeadlessRenderDevice(int width, int height)
+	{
+		this.image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+		this.width = width;
+		this.height = height;
+		this.colors = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+		this.depths = new float[width * height];
+	}
+
+	@Override
+	public void beginFrame(double x, double y, double width, double height)
+	{
+		frames++;
+		lastBoundTexture = null;
+		if(image == null)
+			return;
+		viewX = x;
+		viewY = y;
+		scaleX = this.width / width;
+		scaleY = this.height / height;
+		Arrays.fill(colors, 0);
+		Arrays.fill(depths, Float.POSITIVE_INFINITY);
+	}
+
+	@Override
+	public void endFrame()
+	{
+	}
+
+	@Override
+	public int createBuffer()
+	{
+		buffers.add(null);
+		return buffers.size();
+	}
+
+	@Override
+	public void deleteBuffer(int buffer)
+	{
+		buffers.set(buffer - 1, null);
+	}
+
+	@Override
+	public void uploadVertices(int buffer, FloatBuffer vertices, boolean stream)
+	{
+		bufferUploads++;
+		uploadedBytes += vertices.limit() * 4L;
+		if(image != null) {
+			float[] data = new float[vertices.limit()];
+			FloatBuffer read = vertices.duplicate();
+			read.position(0);
+			read.get(data);
+			buffers.set(buffer - 1, data);
+		}
+	}
+
+	@Override
+	public void uploadIndices(int buffer, IntBuffer indices)
+	{
+		bufferUploads++;
+		uploadedBytes += indices.limit() * 4L;
+		if(image != null) {
+			int[] data = new int[indices.limit()];
+			IntBuffer read = indices.duplicate();
+			read.position(0);
+			read.get(data);
+			buffers.set(buffer - 1, data);
+		}
+	}
+
+	@Override
+	public void beginSprites(int vertexBuffer, int indexBuffer)
+	{
+		stateChanges++;
+		this.vertexBuffer = vertexBuffer;
+		this.indexBuffer = indexBuffer;
+	}
+
+	@Override
+	public void bindVertices(int buffer)
+	{
+		stateChanges++;
+		this.vertexBuffer = buffer;
+	}
+
+	@Override
+	public void drawSprites(int from, int to)
+	{
+		if(to <= from)
+			return;
+		drawCalls++;
+		vertices += (long) (to - from) * SpriteBatcher.verticesPerSprite;
+		if(image == null)
+			return;
+		float[] v = (float[]) buffers.get(vertexBuffer - 1);
+		int[] indices = (int[]) buffers.get(indexBuffer - 1);
+		for(int i = from * SpriteBatcher.indicesPerSprite; i < to * SpriteBatcher.indicesPerSprite; i += 3)
+			drawTriangle(v, indices[i] * SpriteBatcher.floatsPerVertex, indices[i + 1] * SpriteBatcher.floatsPerVertex,
+					indices[i + 2] * SpriteBatcher.floatsPerVertex);
+	}
+
+	@Override
+	public void endSprites()
+	{
+		stateChanges++;
+		vertexBuffer = 0;
+		indexBuffer = 0;
+	}
+
+	@Override
+	public boolean isReady(TextureObject binding)
+	{
+		return true;
+	}
+
+	@Override
+	public void bindTexture(TextureObject binding)
+	{
+		stateChanges++;
+		textureBinds++;
+		if(binding == lastBoundTexture)
+			redundantTextureBinds++;
+		boundTexture = binding;
+		lastBoundTexture = binding;
+		if(image != null)
+			currentTexels = getTexels(binding);
+	}
+
+	@Override
+	public void unbindTexture(TextureObject binding)
+	{
+		stateChanges++;
+		boundTexture = null;
+		currentTexels = null;
+	}
+
+	@Override
+	public void beginQuads()
+	{
+		stateChanges++;
+		drawCalls++;
+	}
+
+	@Override
+	public void drawQuad(double x0, double y0, double x1, double y1, double z, float u0, float v0, float u1, float v1)
+	{
+		vertices += 4;
+		if(image == null)
+			return;
+		float[] quad = {
+				(float) x0, (float) y0, (float) z, u0, v0,
+				(float) x1, (float) y0, (float) z, u1, v0,
+				(float) x1, (float) y1, (float) z, u1, v1,
+				(float) x0, (float) y1, (float) z, u0, v1 };
+		drawTriangle(quad, 0, 5, 10);
+		drawTriangle(quad, 10, 15, 0);
+	}
+
+	@Override
+	public void endQuads()
+	{
+		stateChanges++;
+	}
+
+	/**
+	 * Gets the texture bound by the latest call to {@code bindTexture}, if it is still bound.
+	 * @return
+	 * The bound texture, or null if none is.
+	 */
+	public TextureObject getBoundTexture()
+	{
+		return boundTexture;
+	}
+
+	/**
+	 * Gets the image the frames are rasterized into. It holds the latest frame.
+	 * @return
+	 * The image, or null if this device does not rasterize.
+	 */
+	public BufferedImage getImage()
+	{
+		return image;
+	}
+
+	public long getFrames()
+	{
+		return frames;
+	}
+
+	public long getDrawCalls()
+	{
+		return drawCalls;
+	}
+
+	public long getTextureBinds()
+	{
+		return textureBinds;
+	}
+
+	/**
+	 * Gets the number of texture binds of the texture which was already the last one bound in the frame.
+	 * @return
+	 * The number of redundant binds.
+	 */
+	public long getRedundantTextureBinds()
+	{
+		return redundantTextureBinds;
+	}
+
+	/**
+	 * Gets the number of vertices drawn, four per sprite or quad.
+	 * @return
+	 * The number of vertices.
+	 */
+	public long getVertices()
+	{
+		return vertices;
+	}
+
+	public long getStateChanges()
+	{
+		return stateChanges;
+	}
+
+	public long getBufferUploads()
+	{
+		return bufferUploads;
+	}
+
+	public long getUploadedBytes()
+	{
+		return uploadedBytes;
+	}
+
+	/**
+	 * Sets all counters to 0. The buffers and the image are kept.
+	 */
+	public void resetCounters()
+	{
+		frames = drawCalls = textureBinds = redundantTextureBinds = vertices = stateChanges = 0;
+		bufferUploads = uploadedBytes = 0;
+	}
+
+	@Override
+	public String toString()
+	{
+		return String.format("%d frames, %d draw calls, %d texture binds (%d redundant), %d vertices, %d state changes, "
+				+ "%d buffer uploads (%d bytes)", frames, drawCalls, textureBinds, redundantTextureBinds, vertices,
+				stateChanges, bufferUploads, uploadedBytes);
+	}
+
+	//
+	// Private methods
+	//
+
+	/**
+	 * Rasterizes one triangle of vertices in the layout of SpriteBatcher, sampling at pixel centers.
+	 */
+	private void drawTriangle(float[] v, int a, int b, int c)
+	{
+		double ax = (v[a] - viewX) * scaleX, ay = (v[a + 1] - viewY) * scaleY;
+		double bx = (v[b] - viewX) * scaleX, by = (v[b + 1] - viewY) * scaleY;
+		double cx = (v[c] - viewX) * scaleX, cy = (v[c + 1] - viewY) * scaleY;
+		double area = (bx - ax) * (cy - ay) - (by - ay) * (cx - ax);
+		if(area == 0)
+			return;
+		int minX = Math.max((int) Math.floor(Math.min(ax, Math.min(bx, cx))), 0);
+		int maxX = Math.min((int) Math.ceil(Math.max(ax, Math.max(bx, cx))), width - 1);
+		int minY = Math.max((int) Math.floor(Math.min(ay, Math.min(by, cy))), 0);
+		int maxY = Math.min((int) Math.ceil(Math.max(ay, Math.max(by, cy))), height - 1);
+		for(int py = minY; py <= maxY; py++)
+			for(int px = minX; px <= maxX; px++) {
+				double x = px + 0.5, y = py + 0.5;
+				double wa = ((bx - x) * (cy - y) - (by - y) * (cx - x)) / area;
+				double wb = ((cx - x) * (ay - y) - (cy - y) * (ax - x)) / area;
+				double wc = 1 - wa - wb;
+				if(wa < 0 || wb < 0 || wc < 0)
+					continue;
+				//Larger z is nearer the viewer, as with the glOrtho of JoglRenderDevice.
+				float depth = (float) -(wa * v[a + 2] + wb * v[b + 2] + wc * v[c + 2]);
+				int i = py * width + px;
+				if(depth > depths[i])
+					continue;
+				int texel = sample(wa * v[a + 3] + wb * v[b + 3] + wc * v[c + 3], wa * v[a + 4] + wb * v[b + 4] + wc * v[c + 4]);
+				int alpha = texel >>> 24;
+				if(alpha == 0)
+					continue;
+				colors[i] = blend(texel, colors[i], alpha);
+				depths[i] = depth;
+			}
+	}
+
+	/**
+	 * Gets the nearest texel of the bound texture. Texture coordinates have v going up from the bottom of the image, as
+	 * textures are loaded by TextureIO.
+	 */
+	private int sample(double u, double v)
+	{
+		Texels t = currentTexels;
+		if(t == null)
+			return 0xFFFFFFFF;
+		int x = Math.min(Math.max((int) (u * t.width), 0), t.width - 1);
+		int y = Math.min(Math.max((int) ((1 - v) * t.height), 0), t.height - 1);
+		return t.argb[y * t.width + x];
+	}
+
+	/**
+	 * Blends a texel over a color with {@code GL_SRC_ALPHA, GL_ONE_MINUS_SRC_ALPHA}, on all four channels.
+	 */
+	private static int blend(int src, int dst, int alpha)
+	{
+		if(alpha == 255)
+			return src;
+		int ret = 0;
+		for(int shift = 0; shift < 32; shift += 8) {
+			int s = src >>> shift & 0xFF, d = dst >>> shift & 0xFF;
+			ret |= (s * alpha + d * (255 - alpha) + 127) / 255 << shift;
+		}
+		return ret;
+	}
+
+	private Texels getTexels(TextureObject binding)
+	{
+		Texels ret = texels.get(binding.getFilename());
+		if(ret == null && !texels.containsKey(binding.getFilename())) {
+			try {
+				BufferedImage img = ImageIO.read(new File(binding.getFilename()));
+				if(img != null)
+					ret = new Texels(img);
+			} catch (IOException e) {
+				System.out.println("Could not read texture \"" + binding.getFilename() + "\"; it is drawn white.");
+			}
+			texels.put(binding.getFilename(), ret);
+		}
+		return ret;
+	}
+
+	/**
+	 * The pixels of one texture, as ARGB, row by row from the top.
+	 */
+	private static class Texels
+	{
+		final int width, height;
+		final int[] argb;
+
+		Texels(BufferedImage img)
+		{
+			width = img.getWidth();
+			height = img.getHeight();
+			argb = img.getRGB(0, 0, width, height, null, 0, width);
+		}
+	}
+}
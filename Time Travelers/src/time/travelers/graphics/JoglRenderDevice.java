@@ -0,0 +1,172 @@
+package time.travelers.graphics;
+
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+
+import javax.media.opengl.GL;
+import javax.media.opengl.GL2;
+
+/**
+ * Renders through JOGL, with the fixed function pipeline of OpenGL 2. Sprites are drawn from vertex buffer objects with
+ * glDrawElements, and single quads in immediate mode.
+ * @author Grevor
+ * @see RenderDevice
+ */
+public class JoglRenderDevice implements RenderDevice {
+	private static final int bytesPerFloat = 4, bytesPerInt = 4;
+
+	private final GL2 device;
+	private final int[] ids = new int[1];
+
+	/**
+	 * Creates a new JoglRenderDevice.
+	 * @param device - The GL device to render with. Its context must be current whenever this device is used.
+	 */
+	public JoglRenderDevice(GL2 device)
+	{
+		this.device = device;
+	}
+
+	/**
+	 * Gets the GL device this RenderDevice renders with.
+	 * @return
+	 * The GL device.
+	 */
+	public GL2 getGL()
+	{
+		return device;
+	}
+
+	@Override
+	public void beginFrame(double x, double y, double width, double height)
+	{
+		device.glMatrixMode(GL2.GL_PROJECTION);
+		device.glLoadIdentity();
+		device.glOrtho(x, x + width, y + height, y, -10, 100);
+
+		device.glClearColor(0, 0, 0, 0);
+		device.glClear(GL2.GL_DEPTH_BUFFER_BIT | GL2.GL_COLOR_BUFFER_BIT | GL2.GL_STENCIL_BUFFER_BIT);
+		device.glEnable(GL2.GL_DEPTH_TEST);
+		device.glDepthFunc(GL2.GL_LEQUAL);
+		device.glEnable(GL2.GL_ALPHA_TEST);
+		device.glAlphaFunc(GL2.GL_GREATER, 0);
+		device.glEnable(GL2.GL_BLEND);
+		device.glBlendFunc(GL2.GL_SRC_ALPHA, GL2.GL_ONE_MINUS_SRC_ALPHA);
+		device.glMatrixMode(GL2.GL_MODELVIEW);
+		device.glLoadIdentity();
+		device.glColor3f(1, 1, 1);
+	}
+
+	@Override
+	public void endFrame()
+	{
+		//Swapping is done by the drawable.
+	}
+
+	@Override
+	public int createBuffer()
+	{
+		device.glGenBuffers(1, ids, 0);
+		return ids[0];
+	}
+
+	@Override
+	public void deleteBuffer(int buffer)
+	{
+		ids[0] = buffer;
+		device.glDeleteBuffers(1, ids, 0);
+	}
+
+	@Override
+	public void uploadVertices(int buffer, FloatBuffer vertices, boolean stream)
+	{
+		device.glBindBuffer(GL.GL_ARRAY_BUFFER, buffer);
+		device.glBufferData(GL.GL_ARRAY_BUFFER, (long) vertices.limit() * bytesPerFloat, vertices,
+				stream ? GL2.GL_STREAM_DRAW : GL.GL_STATIC_DRAW);
+	}
+
+	@Override
+	public void uploadIndices(int buffer, IntBuffer indices)
+	{
+		device.glBindBuffer(GL.GL_ELEMENT_ARRAY_BUFFER, buffer);
+		device.glBufferData(GL.GL_ELEMENT_ARRAY_BUFFER, (long) indices.limit() * bytesPerInt, indices, GL.GL_STATIC_DRAW);
+	}
+
+	@Override
+	public void beginSprites(int vertexBuffer, int indexBuffer)
+	{
+		device.glBindBuffer(GL.GL_ELEMENT_ARRAY_BUFFER, indexBuffer);
+		device.glEnableClientState(GL2.GL_VERTEX_ARRAY);
+		device.glEnableClientState(GL2.GL_TEXTURE_COORD_ARRAY);
+		bindVertices(vertexBuffer);
+	}
+
+	@Override
+	public void bindVertices(int buffer)
+	{
+		int stride = SpriteBatcher.floatsPerVertex * bytesPerFloat;
+		device.glBindBuffer(GL.GL_ARRAY_BUFFER, buffer);
+		device.glVertexPointer(3, GL.GL_FLOAT, stride, 0);
+		device.glTexCoordPointer(2, GL.GL_FLOAT, stride, 3 * bytesPerFloat);
+	}
+
+	@Override
+	public void drawSprites(int from, int to)
+	{
+		if(to > from)
+			device.glDrawElements(GL.GL_TRIANGLES, (to - from) * SpriteBatcher.indicesPerSprite, GL.GL_UNSIGNED_INT,
+					(long) from * SpriteBatcher.indicesPerSprite * bytesPerInt);
+	}
+
+	@Override
+	public void endSprites()
+	{
+		device.glDisableClientState(GL2.GL_TEXTURE_COORD_ARRAY);
+		device.glDisableClientState(GL2.GL_VERTEX_ARRAY);
+		device.glBindBuffer(GL.GL_ELEMENT_ARRAY_BUFFER, 0);
+		device.glBindBuffer(GL.GL_ARRAY_BUFFER, 0);
+	}
+
+	@Override
+	public boolean isReady(TextureObject binding)
+	{
+		return binding.isLoaded();
+	}
+
+	@Override
+	public void bindTexture(TextureObject binding)
+	{
+		binding.enable(device);
+	}
+
+	@Override
+	public void unbindTexture(TextureObject binding)
+	{
+		binding.disable(device);
+	}
+
+	@Override
+	public void beginQuads()
+	{
+		device.glBegin(GL2.GL_QUADS);
+	}
+
+	@Override
+	public void drawQuad(double x0, double y0, double x1, double y1, double z, float u0, float v0, float u1, float v1)
+	{
+		device.glTexCoord2f(u0, v0);
+		device.glVertex3d(x0, y0, z);
+		device.glTexCoord2f(u1, v0);
+		device.glVertex3d(x1, y0, z);
+		device.glTexCoord2f(u1, v1);
+		device.glVertex3d(x1, y1, z);
+		device.glTexCoord2f(u0, v1);
+		device.glVertex3d(x0, y1, z);
+	}
+
+	@Override
+	public void endQuads()
+	{
+		device.glEnd();
+	}
+}
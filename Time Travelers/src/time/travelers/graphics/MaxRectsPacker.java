@@ -0,0 +1,127 @@
+package time.travelers.graphics;
+
+import java.util.ArrayList;
+
+/**
+ * Packs rectangles into a fixed-size page with the MaxRects algorithm, choosing for each rectangle the free space that
+ * leaves the shortest side over (best short side fit). Ties are broken by the longest side left over, then by position,
+ * so the same rectangles in the same order are always packed the same way.
+ * @author Grevor
+ * @see TextureAtlas
+ */
+class MaxRectsPacker
+{
+	/**
+	 * The maximal free rectangles, as {x, y, width, height}. They may overlap each other.
+	 */
+	private final ArrayList<int[]> free = new ArrayList<int[]>();
+	private int usedWidth = 0, usedHeight = 0;
+	private long usedArea = 0;
+
+	MaxRectsPacker(int width, int height)
+	{
+		free.add(new int[] { 0, 0, width, height });
+	}
+
+	/**
+	 * Places a rectangle in the page.
+	 * @param w - The width of the rectangle.
+	 * @param h - The height of the rectangle.
+	 * @return
+	 * The position of the rectangle as {x, y}, or null if it does not fit.
+	 */
+	int[] insert(int w, int h)
+	{
+		int[] best = null;
+		int bestShort = Integer.MAX_VALUE, bestLong = Integer.MAX_VALUE;
+		for(int[] f : free) {
+			if(f[2] < w || f[3] < h)
+				continue;
+			int leftX = f[2] - w, leftY = f[3] - h;
+			int shortSide = Math.min(leftX, leftY), longSide = Math.max(leftX, leftY);
+			if(shortSide < bestShort || shortSide == bestShort && (longSide < bestLong || longSide == bestLong
+					&& (f[1] < best[1] || f[1] == best[1] && f[0] < best[0]))) {
+				best = f;
+				bestShort = shortSide;
+				bestLong = longSide;
+			}
+		}
+		if(best == null)
+			return null;
+
+		int[] placed = { best[0], best[1], w, h };
+		split(placed);
+		prune();
+		usedWidth = Math.max(usedWidth, placed[0] + w);
+		usedHeight = Math.max(usedHeight, placed[1] + h);
+		usedArea += (long) w * h;
+		return new int[] { placed[0], placed[1] };
+	}
+
+	int getUsedWidth()
+	{
+		return usedWidth;
+	}
+
+	int getUsedHeight()
+	{
+		return usedHeight;
+	}
+
+	long getUsedArea()
+	{
+		return usedArea;
+	}
+
+	//
+	// Private methods
+	//
+
+	/**
+	 * Cuts a placed rectangle out of every free rectangle it overlaps, keeping the maximal free rectangles around it.
+	 */
+	private void split(int[] used)
+	{
+		int count = free.size();
+		for(int i = 0; i < count; i++) {
+			int[] f = free.get(i);
+			if(used[0] >= f[0] + f[2] || used[0] + used[2] <= f[0] || used[1] >= f[1] + f[3] || used[1] + used[3] <= f[1])
+				continue;
+			if(used[0] > f[0])
+				free.add(new int[] { f[0], f[1], used[0] - f[0], f[3] });
+			if(used[0] + used[2] < f[0] + f[2])
+				free.add(new int[] { used[0] + used[2], f[1], f[0] + f[2] - used[0] - used[2], f[3] });
+			if(used[1] > f[1])
+				free.add(new int[] { f[0], f[1], f[2], used[1] - f[1] });
+			if(used[1] + used[3] < f[1] + f[3])
+				free.add(new int[] { f[0], used[1] + used[3], f[2], f[1] + f[3] - used[1] - used[3] });
+			free.remove(i);
+			i--;
+			count--;
+		}
+	}
+
+	/**
+	 * Removes the free rectangles that lie within another.
+	 */
+	private void prune()
+	{
+		for(int i = 0; i < free.size(); i++)
+			for(int j = i + 1; j < free.size(); j++) {
+				if(contains(free.get(j), free.get(i))) {
+					free.remove(i);
+					i--;
+					break;
+				}
+				if(contains(free.get(i), free.get(j))) {
+					free.remove(j);
+					j--;
+				}
+			}
+	}
+
+	private static boolean contains(int[] a, int[] b)
+	{
+		return b[0] >= a[0] && b[1] >= a[1] && b[0] + b[2] <= a[0] + a[2] && b[1] + b[3] <= a[1] + a[3];
+	}
+}
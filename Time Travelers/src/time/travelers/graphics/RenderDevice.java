@@ -0,0 +1,131 @@
+package time.travelers.graphics;
+
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+
+/**
+ * The device a GraphicsEngine renders through. Everything the render path asks of the graphics card goes through one of
+ * these, so that the same path can be drawn with JOGL or recorded without a GPU.
+ * <br><br>
+ * Sprites are drawn from buffers of vertices in the layout of SpriteBatcher ({@code x, y, z, u, v}), as indexed
+ * triangles, two per sprite. Single quads can be drawn one by one between {@code beginQuads} and {@code endQuads}.
+ * <br><br>
+ * A RenderDevice is only used by one thread, normally the GL thread, between {@code beginFrame} and {@code endFrame}.
+ * @author Grevor
+ * @see JoglRenderDevice
+ * @see HeadlessRenderDevice
+ * @see GraphicsEngine#render(RenderDevice)
+ */
+public interface RenderDevice {
+	/**
+	 * Starts a frame: clears the screen, and sets up an orthographic view of a rectangle of the world, with y going down.
+	 * @param x - The left edge of the view.
+	 * @param y - The top edge of the view.
+	 * @param width - The width of the view.
+	 * @param height - The height of the view.
+	 */
+	public void beginFrame(double x, double y, double width, double height);
+
+	/**
+	 * Ends the current frame.
+	 */
+	public void endFrame();
+
+	/**
+	 * Creates a buffer, for vertices or indices.
+	 * @return
+	 * The name of the buffer, never 0.
+	 */
+	public int createBuffer();
+
+	/**
+	 * Deletes a buffer made by {@code createBuffer}.
+	 * @param buffer - The name of the buffer.
+	 */
+	public void deleteBuffer(int buffer);
+
+	/**
+	 * Replaces the contents of a buffer with vertices. The buffer is left bound, but the vertex layout is not set up;
+	 * {@code bindVertices} must be called before drawing from it.
+	 * @param buffer - The name of the buffer.
+	 * @param vertices - The vertices, between position 0 and the limit. Must be a direct buffer.
+	 * @param stream - True if the vertices are replaced every frame, false if they are drawn many times.
+	 */
+	public void uploadVertices(int buffer, FloatBuffer vertices, boolean stream);
+
+	/**
+	 * Replaces the contents of a buffer with the indices of triangles.
+	 * @param buffer - The name of the buffer.
+	 * @param indices - The indices, between position 0 and the limit. Must be a direct buffer.
+	 */
+	public void uploadIndices(int buffer, IntBuffer indices);
+
+	/**
+	 * Starts drawing sprites: binds a vertex and an index buffer, and sets up the vertex layout.
+	 * @param vertexBuffer - The buffer of vertices.
+	 * @param indexBuffer - The buffer of indices.
+	 */
+	public void beginSprites(int vertexBuffer, int indexBuffer);
+
+	/**
+	 * Switches the vertex buffer sprites are drawn from, keeping the index buffer.
+	 * @param buffer - The buffer of vertices.
+	 */
+	public void bindVertices(int buffer);
+
+	/**
+	 * Draws a range of sprites from the bound buffers, with the bound texture, in one call.
+	 * @param from - The index of the first sprite.
+	 * @param to - The index after the last sprite.
+	 */
+	public void drawSprites(int from, int to);
+
+	/**
+	 * Stops drawing sprites, unbinding the buffers of {@code beginSprites}.
+	 */
+	public void endSprites();
+
+	/**
+	 * Tells if the texture of a binding can be bound.
+	 * @param binding - The TextureObject bound, as given by {@code TextureObject.getBinding()}.
+	 * @return
+	 * True if it can be bound, false if it is not loaded yet.
+	 */
+	public boolean isReady(TextureObject binding);
+
+	/**
+	 * Enables and binds the texture of a binding.
+	 * @param binding - The TextureObject bound.
+	 */
+	public void bindTexture(TextureObject binding);
+
+	/**
+	 * Disables the texture of a binding.
+	 * @param binding - The TextureObject bound.
+	 */
+	public void unbindTexture(TextureObject binding);
+
+	/**
+	 * Starts drawing single quads with {@code drawQuad}.
+	 */
+	public void beginQuads();
+
+	/**
+	 * Draws one textured quad with the bound texture. Must be called between {@code beginQuads} and {@code endQuads}.
+	 * @param x0 - The left edge.
+	 * @param y0 - The top edge.
+	 * @param x1 - The right edge.
+	 * @param y1 - The bottom edge.
+	 * @param z - The depth.
+	 * @param u0 - The texture coordinate of the left edge.
+	 * @param v0 - The texture coordinate of the top edge.
+	 * @param u1 - The texture coordinate of the right edge.
+	 * @param v1 - The texture coordinate of the bottom edge.
+	 */
+	public void drawQuad(double x0, double y0, double x1, double y1, double z, float u0, float v0, float u1, float v1);
+
+	/**
+	 * Stops drawing single quads.
+	 */
+	public void endQuads();
+}
@@ -0,0 +1,263 @@
+package time.travelers.graphics;
+
+import java.util.Arrays;
+
+/**
+ * One frame of Renderables, packed into primitive arrays by the simulation thread, and read by the GL thread.
+ * <br><br>
+ * Each visible sprite takes {@code floatsPerSprite} floats, in this layout:
+ * <br>
+ * {@code x, y, z, previousX, previousY, previousZ, width, height, u0, v0, u1, v1}
+ * <br>
+ * where (x, y, z) is the position after the latest tick, (previousX, previousY, previousZ) the position before it, and
+ * (u0, v0) - (u1, v1) the texture coordinates of the current frame. Sprites are grouped by texture; the sprites of
+ * texture {@code i} are {@code [getTextureStart(i), getTextureStart(i + 1))}. Terrain is not packed per sprite; a snapshot 
+ * only refers to the baked chunks of a TerrainLayer which are in view.
+ * <br><br>
+ * Each sprite also has an int of attributes used to sort it: its layer, whether it is translucent, and its frame. 
+ * Once written, a snapshot is sorted by a SpriteSorter, which gives the order to draw the sprites in, and splits that 
+ * order into runs of one texture binding.
+ * <br><br>
+ * Snapshots are reused: the GraphicsEngine keeps three, and a snapshot is only written while no other thread reads it.
+ * Its arrays grow when needed, so writing one does not allocate once they are large enough.
+ * @author Grevor
+ * @see GraphicsEngine#publishFrame()
+ */
+public class RenderSnapshot
+{
+	public static final int floatsPerSprite = 12;
+	/**
+	 * The layout of the attributes of a sprite: the layer in the top four bits, then the translucent bit, and the frame 
+	 * in the low bits.
+	 */
+	public static final int layerShift = 28, translucentBit = 1 << 27, frameMask = (1 << 24) - 1;
+
+	float[] sprites = new float[floatsPerSprite * 64];
+	int[] attributes = new int[64];
+	TextureObject[] textures = new TextureObject[8];
+	int[] textureStart = new int[9];
+	int textureCount = 0, spriteCount = 0;
+	/**
+	 * The baked terrain chunks of this snapshot, drawn before the sprites.
+	 */
+	TerrainMesh[] meshes = new TerrainMesh[16];
+	int meshCount = 0;
+	long tick;
+	/**
+	 * The order to draw the sprites in, and its runs: run {@code i} draws the sprites {@code [runStart[i], runStart[i + 1])}
+	 * of the order with {@code runBindings[i]}. Written by a SpriteSorter.
+	 */
+	int[] order = new int[64];
+	TextureObject[] runBindings = new TextureObject[8];
+	int[] runStart = new int[9];
+	int runCount = 0;
+	boolean sorted = false;
+
+	/**
+	 * Clears this snapshot, to be written again.
+	 * @param tick - The simulation tick the snapshot is made at.
+	 */
+	void clear(long tick)
+	{
+		this.tick = tick;
+		this.textureCount = 0;
+		this.spriteCount = 0;
+		this.textureStart[0] = 0;
+		Arrays.fill(this.meshes, 0, this.meshCount, null);
+		this.meshCount = 0;
+		Arrays.fill(this.runBindings, 0, this.runCount, null);
+		this.runCount = 0;
+		this.sorted = false;
+	}
+
+	/**
+	 * Starts the sprites of a new texture. Sprites added after this call belong to the texture.
+	 * @param t - The texture.
+	 */
+	void beginTexture(TextureObject t)
+	{
+		if(textureCount + 1 >= textureStart.length) {
+			textureStart = Arrays.copyOf(textureStart, textureStart.length * 2);
+			textures = Arrays.copyOf(textures, textureStart.length - 1);
+		}
+		textures[textureCount] = t;
+		textureCount++;
+		textureStart[textureCount] = spriteCount;
+	}
+
+	/**
+	 * Writes a Renderable as the next sprite of the current texture, if it is visible.
+	 * @param r - The Renderable.
+	 */
+	void add(Renderable r)
+	{
+		if(sprites.length < (spriteCount + 1) * floatsPerSprite) {
+			sprites = Arrays.copyOf(sprites, sprites.length * 2);
+			attributes = Arrays.copyOf(attributes, sprites.length / floatsPerSprite);
+		}
+		if(r.writeSnapshot(sprites, spriteCount * floatsPerSprite)) {
+			attributes[spriteCount] = r.getSortAttributes();
+			textureStart[textureCount] = ++spriteCount;
+		}
+	}
+
+	/**
+	 * Adds a baked terrain chunk.
+	 * @param mesh - The mesh of the chunk.
+	 */
+	void addMesh(TerrainMesh mesh)
+	{
+		if(meshCount == meshes.length)
+			meshes = Arrays.copyOf(meshes, meshes.length * 2);
+		meshes[meshCount++] = mesh;
+	}
+
+	/**
+	 * Copies already packed sprites to the end of the current texture.
+	 * @param packed - The sprites, in the layout of this class.
+	 * @param packedAttributes - The attributes of the sprites.
+	 * @param count - The number of sprites to copy.
+	 */
+	void addPacked(float[] packed, int[] packedAttributes, int count)
+	{
+		if(sprites.length < (spriteCount + count) * floatsPerSprite) {
+			sprites = Arrays.copyOf(sprites, Math.max(sprites.length * 2, (spriteCount + count) * floatsPerSprite));
+			attributes = Arrays.copyOf(attributes, sprites.length / floatsPerSprite);
+		}
+		System.arraycopy(packed, 0, sprites, spriteCount * floatsPerSprite, count * floatsPerSprite);
+		System.arraycopy(packedAttributes, 0, attributes, spriteCount, count);
+		spriteCount += count;
+		textureStart[textureCount] = spriteCount;
+	}
+
+	/**
+	 * Gets the packed sprites of this snapshot. Only the first {@code getSpriteCount() * floatsPerSprite} floats are used.
+	 * @return
+	 * The sprites. The array is owned by this snapshot.
+	 */
+	public float[] getSprites()
+	{
+		return sprites;
+	}
+
+	public int getSpriteCount()
+	{
+		return spriteCount;
+	}
+
+	/**
+	 * Gets the attributes of the sprites of this snapshot, one int per sprite: the layer from bit {@code layerShift}, 
+	 * {@code translucentBit}, and the frame under {@code frameMask}.
+	 * @return
+	 * The attributes. The array is owned by this snapshot.
+	 */
+	public int[] getAttributes()
+	{
+		return attributes;
+	}
+
+	/**
+	 * Tells if this snapshot was sorted, so that {@code getOrder} and the runs are set.
+	 * @return
+	 * True if it was sorted.
+	 */
+	public boolean isSorted()
+	{
+		return sorted;
+	}
+
+	/**
+	 * Gets the order to draw the sprites of this snapshot in, as set by the latest sort. Only the first 
+	 * {@code getSpriteCount()} entries are used.
+	 * @return
+	 * The indices of the sprites, in drawing order. The array is owned by this snapshot.
+	 */
+	public int[] getOrder()
+	{
+		return order;
+	}
+
+	/**
+	 * Gets the number of runs of the sorted order. Each run is drawn with one texture binding.
+	 * @return
+	 * The number of runs.
+	 */
+	public int getRunCount()
+	{
+		return runCount;
+	}
+
+	/**
+	 * Gets the texture binding a run is drawn with.
+	 * @param i - The index of the run.
+	 * @return
+	 * The binding.
+	 */
+	public TextureObject getRunBinding(int i)
+	{
+		return runBindings[i];
+	}
+
+	/**
+	 * Gets the position in the sorted order of the first sprite of a run. A run ends where the next one starts.
+	 * @param i - The index of the run, up to and including {@code getRunCount()}.
+	 * @return
+	 * The position in the order.
+	 */
+	public int getRunStart(int i)
+	{
+		return runStart[i];
+	}
+
+	/**
+	 * Gets the number of baked terrain chunks of this snapshot.
+	 * @return
+	 * The number of chunks.
+	 */
+	public int getMeshCount()
+	{
+		return meshCount;
+	}
+
+	TerrainMesh getMesh(int i)
+	{
+		return meshes[i];
+	}
+
+	public int getTextureCount()
+	{
+		return textureCount;
+	}
+
+	/**
+	 * Gets a texture of this snapshot.
+	 * @param i - The index of the texture.
+	 * @return
+	 * The texture.
+	 */
+	public TextureObject getTexture(int i)
+	{
+		return textures[i];
+	}
+
+	/**
+	 * Gets the index of the first sprite of a texture. The sprites of the texture end where those of the next one start.
+	 * @param i - The index of the texture, up to and including {@code getTextureCount()}.
+	 * @return
+	 * The index of the sprite.
+	 */
+	public int getTextureStart(int i)
+	{
+		return textureStart[i];
+	}
+
+	/**
+	 * Gets the simulation tick this snapshot was made at.
+	 * @return
+	 * The tick.
+	 */
+	public long getTick()
+	{
+		return tick;
+	}
+}
@@ -0,0 +1,260 @@
+package time.travelers.graphics;
+
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import time.travelers.util.RollingHistogram;
+
+/**
+ * What the frames of a GraphicsEngine cost, over the last minute: how long each frame took to render, and the part of
+ * it spent taking up the newest snapshot; how long advancing the animations of each published frame took; and, per
+ * frame, the draw calls, texture binds and vertices submitted, and the objects left out as invisible or outside the view.
+ * <br><br>
+ * The values are kept in RollingHistograms, recorded without locking by the thread rendering and the thread publishing,
+ * so the stats can stay on at all times. Each histogram can be registered as an MBean, under
+ * {@code time.travelers:type=RenderStats,engine=<number>,name=<histogram>}, and all of them can be printed periodically.
+ * @author Grevor
+ * @see GraphicsEngine#getRenderStats()
+ */
+public class RenderStats
+{
+	public static final String domain = "time.travelers";
+	/**
+	 * The values are kept for {@code windows} windows of {@code windowNanos} each.
+	 */
+	private static final long windowNanos = TimeUnit.SECONDS.toNanos(10);
+	private static final int windows = 6;
+	private static final AtomicInteger engines = new AtomicInteger();
+
+	private final RollingHistogram frameTime = new RollingHistogram("ns", windowNanos, windows);
+	private final RollingHistogram asyncUpdateTime = new RollingHistogram("ns", windowNanos, windows);
+	private final RollingHistogram animationTime = new RollingHistogram("ns", windowNanos, windows);
+	private final RollingHistogram drawCalls = new RollingHistogram("calls", windowNanos, windows);
+	private final RollingHistogram textureBinds = new RollingHistogram("binds", windowNanos, windows);
+	private final RollingHistogram vertices = new RollingHistogram("vertices", windowNanos, windows);
+	private final RollingHistogram culledObjects = new RollingHistogram("objects", windowNanos, windows);
+	private final int engine = engines.getAndIncrement();
+
+	private ScheduledExecutorService dumper;
+	private ObjectName[] registered;
+
+	/**
+	 * Records one rendered frame. Called by the thread rendering.
+	 * @param start - The time the frame started, from System.nanoTime.
+	 * @param asyncUpdateNanos - The time spent taking up the newest snapshot.
+	 * @param end - The time the frame ended, from System.nanoTime.
+	 * @param draws - The number of draw calls.
+	 * @param binds - The number of texture binds.
+	 * @param drawnVertices - The number of vertices submitted.
+	 */
+	void recordFrame(long start, long asyncUpdateNanos, long end, int draws, int binds, int drawnVertices)
+	{
+		frameTime.record(end - start, end);
+		asyncUpdateTime.record(asyncUpdateNanos, end);
+		drawCalls.record(draws, end);
+		textureBinds.record(binds, end);
+		vertices.record(drawnVertices, end);
+	}
+
+	/**
+	 * Records one published frame. Called by the thread publishing.
+	 * @param animationNanos - The time spent advancing animations.
+	 * @param culled - The number of objects of the render-list and of the map left out of the snapshot.
+	 * @param now - The current time, from System.nanoTime.
+	 */
+	void recordPublish(long animationNanos, int culled, long now)
+	{
+		animationTime.record(animationNanos, now);
+		culledObjects.record(culled, now);
+	}
+
+	/**
+	 * Gets the time each frame took to render, in nanoseconds.
+	 * @return
+	 * The histogram.
+	 */
+	public RollingHistogram getFrameTime()
+	{
+		return frameTime;
+	}
+
+	/**
+	 * Gets the time each frame spent taking up the newest published snapshot, in nanoseconds.
+	 * @return
+	 * The histogram.
+	 */
+	public RollingHistogram getAsyncUpdateTime()
+	{
+		return asyncUpdateTime;
+	}
+
+	/**
+	 * Gets the time each published frame spent advancing animations, in nanoseconds.
+	 * @return
+	 * The histogram.
+	 */
+	public RollingHistogram getAnimationTime()
+	{
+		return animationTime;
+	}
+
+	/**
+	 * Gets the number of draw calls of each frame, terrain included.
+	 * @return
+	 * The histogram.
+	 */
+	public RollingHistogram getDrawCalls()
+	{
+		return drawCalls;
+	}
+
+	/**
+	 * Gets the number of texture binds of each frame.
+	 * @return
+	 * The histogram.
+	 */
+	public RollingHistogram getTextureBinds()
+	{
+		return textureBinds;
+	}
+
+	/**
+	 * Gets the number of vertices submitted in each frame.
+	 * @return
+	 * The histogram.
+	 */
+	public RollingHistogram getVertices()
+	{
+		return vertices;
+	}
+
+	/**
+	 * Gets the number of objects left out of each published frame: those of the render-list which are invisible or without
+	 * texture, and the terrain objects and entities of the visible tiles of the map which are also outside the view.
+	 * @return
+	 * The histogram.
+	 */
+	public RollingHistogram getCulledObjects()
+	{
+		return culledObjects;
+	}
+
+	/**
+	 * Registers every histogram as an MBean with the platform MBean server. Does nothing if already registered.
+	 * @throws JMException If a histogram could not be registered. The ones registered before stay registered.
+	 */
+	public synchronized void register() throws JMException
+	{
+		if(registered != null)
+			return;
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		String[] names = getNames();
+		RollingHistogram[] histograms = getHistograms();
+		ObjectName[] objectNames = new ObjectName[names.length];
+		registered = objectNames;
+		for(int i = 0; i < names.length; i++) {
+			ObjectName name = new ObjectName(domain + ":type=RenderStats,engine=" + engine + ",name=" + names[i]);
+			server.registerMBean(histograms[i], name);
+			objectNames[i] = name;
+		}
+	}
+
+	/**
+	 * Unregisters the MBeans registered by {@code register}.
+	 */
+	public synchronized void unregister()
+	{
+		if(registered == null)
+			return;
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		for(ObjectName name : registered) {
+			try {
+				if(name != null)
+					server.unregisterMBean(name);
+			} catch (JMException e) {
+				//Already unregistered by someone else.
+			}
+		}
+		registered = null;
+	}
+
+	/**
+	 * Starts printing these stats periodically, on a daemon thread. Replaces any dump already started.
+	 * @param periodMillis - The time between two dumps, in milliseconds. Must be positive.
+	 * @param out - The stream to print to.
+	 */
+	public synchronized void startDump(long periodMillis, final PrintStream out)
+	{
+		stopDump();
+		dumper = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r)
+			{
+				Thread t = new Thread(r, "Render stats dump");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		dumper.scheduleAtFixedRate(new Runnable() {
+			@Override
+			public void run()
+			{
+				out.println(RenderStats.this);
+			}
+		}, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Stops the dump started by {@code startDump}, if any.
+	 */
+	public synchronized void stopDump()
+	{
+		if(dumper != null) {
+			dumper.shutdown();
+			dumper = null;
+		}
+	}
+
+	/**
+	 * Gets a summary of every histogram, one per line, with times in milliseconds.
+	 * @return
+	 * The summary.
+	 */
+	@Override
+	public String toString()
+	{
+		return "Render stats of engine " + engine + ", over the last " + frameTime.getWindowSeconds() + "s:"
+				+ "\n  frame time:        " + frameTime.toString(1e6, "ms")
+				+ "\n  async update time: " + asyncUpdateTime.toString(1e6, "ms")
+				+ "\n  animation time:    " + animationTime.toString(1e6, "ms")
+				+ "\n  draw calls:        " + drawCalls.toString(1, "")
+				+ "\n  texture binds:     " + textureBinds.toString(1, "")
+				+ "\n  vertices:          " + vertices.toString(1, "")
+				+ "\n  culled objects:    " + culledObjects.toString(1, "");
+	}
+
+	//
+	// Private methods
+	//
+
+	private static String[] getNames()
+	{
+		return new String[] { "frameTime", "asyncUpdateTime", "animationTime", "drawCalls", "textureBinds", "vertices",
+				"culledObjects" };
+	}
+
+	private RollingHistogram[] getHistograms()
+	{
+		return new RollingHistogram[] { frameTime, asyncUpdateTime, animationTime, drawCalls, textureBinds, vertices,
+				culledObjects };
+	}
+}
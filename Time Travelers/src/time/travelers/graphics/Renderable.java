@@ -1,6 +1,6 @@
 package time.travelers.graphics;
 
-import javax.media.opengl.GL2;
+import java.util.concurrent.atomic.AtomicLong;
 
 import time.travelers.util.MathUtil;
 
@@ -8,6 +8,9 @@ import time.travelers.util.MathUtil;
 /**
  * Class which handles all graphical things. Extend this if you want an object to be able to render itself.<br>
  * Please make sure to override methods if really needed. Also please note that all objects are thought to be quads, 
+ * <br><br>
+ * Renderables are not thread-safe. They should only be changed on the simulation thread, which hands them to the 
+ * GraphicsEngine with {@code GraphicsEngine.publishFrame()}; the GL thread then only reads the published snapshots.
  * 
  * @author Erik Nystrm
  * @version ALPHA - 0.1
@@ -19,6 +22,16 @@ public abstract class Renderable
 	 * These are the coordinates at which the upper left corner of the object is thought of to be at.
 	 */
 	private double x = 0, y = 0, z = 0;
+	/**
+	 * The coordinates this object had before it first moved in the current simulation tick, and that tick.
+	 * Used to draw it between its old and new position.
+	 */
+	private double previousX = 0, previousY = 0, previousZ = 0;
+	private long movedTick = noTick;
+	/**
+	 * The simulation tick this object was created in. It is not interpolated during that tick.
+	 */
+	private final long createdTick = simulationTick;
 	/**
 	 * These are the width and height of the object.<br>
 	 * INVARIANT: Must be non-negative.
@@ -36,22 +49,34 @@ public abstract class Renderable
 	 */
 	private long timeSinceAnimationStart = 0;
 	
-	/**
-	 * These are the texture-coordinates which are current. This is here for acceleration purposes, and will have this layout:
-	 * <br>
-	 * {@code x, y, width, height}
-	 * <br>
-	 * where (x, y) specifies the upper left corner.
-	 */
-	private double[] textureCoordinates;
 	/**
 	 * The textureObject this Renderable is associated with.
 	 */
 	private TextureObject texture;
+	/**
+	 * The shared timeline this object follows, or null if it plays its animation on its own.
+	 */
+	private AnimationTimeline timeline;
 	
 	private boolean visible;
 	
 	private boolean willAnimate = true;
+	/**
+	 * The layer this object is drawn in. Sprites of a lower layer are drawn before those of a higher one, but may still 
+	 * hide them by depth.
+	 */
+	private int layer = 0;
+	public static final int maxLayer = 15;
+	
+	private static final long noTick = -1;
+	/**
+	 * The current simulation tick, counted by {@code beginSimulationTick()}.
+	 */
+	private static volatile long simulationTick = 0;
+	/**
+	 * The number of times any Renderable has left a shared timeline, counted by {@code leaveTimeline()}.
+	 */
+	private static final AtomicLong timelineLeaves = new AtomicLong();
 	
 	public Renderable()
 	{
@@ -86,14 +111,41 @@ public abstract class Renderable
 	
 	public final boolean isVisible(){return this.visible;}
 	
+	/**
+	 * Gets the layer this object is drawn in.
+	 * @return
+	 * The layer, between 0 and {@code maxLayer}.
+	 */
+	public final int getLayer(){return this.layer;}
+	
+	/**
+	 * Sets the layer this object is drawn in. All sprites of a lower layer are drawn before those of a higher one, and 
+	 * terrain before all layers. Layers only set the order of drawing, not what is in front: with depth testing, a sprite 
+	 * is still hidden by a nearer sprite of a lower layer. The order matters for translucent sprites, which blend over 
+	 * what was drawn before them.
+	 * @param layer - The layer, clamped to between 0 and {@code maxLayer}.
+	 */
+	public void setLayer(int layer)
+	{
+		this.layer = Math.max(0, Math.min(layer, maxLayer));
+	}
+	
 	/**
 	 * Translates the position of this object the specified length in all directions.
 	 * @param x - The length to translate this object in the x-direction.
 	 * @param y - The length to translate this object in the y-direction.
 	 * @param z - The length to translate this object in the z-direction.
 	 */
-	public synchronized void translatePosition(double x,double y,double z)
+	public void translatePosition(double x,double y,double z)
 	{
+		long tick = simulationTick;
+		if(this.movedTick != tick)
+		{
+			this.previousX = this.x;
+			this.previousY = this.y;
+			this.previousZ = this.z;
+			this.movedTick = tick;
+		}
 		this.x+=x;
 		this.y+=y;
 		this.z+=z;
@@ -108,57 +160,181 @@ public abstract class Renderable
 	public TextureObject getTextureObject() { return this.texture;}
 	
 	/**
-	 * Renders this object. The objects texture is thought to be bound and enabled, and the device is set to GL_QUADS.
+	 * Renders this object. The objects texture is thought to be bound and enabled, and the device is drawing quads.
+	 * @param device - The device on which to render.
+	 * @see RenderDevice#beginQuads()
+	 */
+	public void render(RenderDevice device)
+	{
+		this.renderAt(device, x, y, z);
+	}
+	
+	/**
+	 * Renders this object between its position before the current simulation tick and its current position. 
+	 * Objects which have not moved during the current tick are rendered at their current position.
 	 * <br><br>
-	 * PRE: It is imperative that the user must have fed the device 4*n number of vertices (where n is a non-negative integer),
-	 * or results are unpredictable. This function guarantees that it will keep this pre-condition.
+	 * The same pre-conditions as for {@code render(RenderDevice)} apply.
 	 * @param device - The device on which to render.
+	 * @param alpha - How far between the two positions to render, from 0 (the previous position) to 1 (the current one).
+	 * @see FrameClock
 	 */
-	public synchronized void render(GL2 device)
+	public void render(RenderDevice device, double alpha)
 	{
-		if(this.visible)
+		if(this.isInterpolated() && alpha < 1)
+			this.renderAt(device, previousX + (x - previousX) * alpha, previousY + (y - previousY) * alpha, 
+					previousZ + (z - previousZ) * alpha);
+		else
+			this.renderAt(device, x, y, z);
+	}
+	
+	/**
+	 * Renders this object as if it was placed at the specified position. This enables one Renderable to be drawn at many 
+	 * places, such as a kind of terrain covering a whole map.
+	 * <br><br>
+	 * The same pre-conditions as for {@code render(RenderDevice)} apply.
+	 * @param device - The device on which to render.
+	 * @param x - The x-position to render at.
+	 * @param y - The y-position to render at.
+	 * @param z - The z-position to render at.
+	 */
+	public void renderAt(RenderDevice device, double x, double y, double z)
+	{
+		if(this.visible && this.hasTexture())
 		{
-			double posXMax=x+width;
-			double posYMax=y+height;
+			float[] uv = texture.getFrameTable();
+			int f = texture.getFrameOffset(getFrame());
 			
-			double texXMax=getTexX()+getTexWidth();
-			double texYMax=getTexY()+getTexHeight();
-			
-			device.glTexCoord2d(getTexX(), texYMax);
-			device.glVertex3d(x, y, z);
-			device.glTexCoord2d(texXMax, texYMax);
-			device.glVertex3d(posXMax, y, z);
-			device.glTexCoord2d(texXMax, getTexY());
-			device.glVertex3d(posXMax, posYMax, z);
-			device.glTexCoord2d(getTexX(), getTexY());
-			device.glVertex3d(x, posYMax, z);
+			device.drawQuad(x, y, x + width, y + height, z, uv[f], uv[f + 3], uv[f + 2], uv[f + 1]);
 		}
 	}
 	
+	/**
+	 * Writes this object into a RenderSnapshot's sprite array, in the layout described by RenderSnapshot.
+	 * @param buffer - The sprite array.
+	 * @param offset - The index of the first float to write.
+	 * @return
+	 * True if this object was written, false if it is not visible or has no texture.
+	 */
+	final boolean writeSnapshot(float[] buffer, int offset)
+	{
+		if(!this.visible || !this.hasTexture())
+			return false;
+		boolean moved = this.isInterpolated();
+		buffer[offset] = (float) x;
+		buffer[offset + 1] = (float) y;
+		buffer[offset + 2] = (float) z;
+		buffer[offset + 3] = (float) (moved ? previousX : x);
+		buffer[offset + 4] = (float) (moved ? previousY : y);
+		buffer[offset + 5] = (float) (moved ? previousZ : z);
+		buffer[offset + 6] = (float) width;
+		buffer[offset + 7] = (float) height;
+		writeFrame(buffer, offset + 8);
+		return true;
+	}
+	
+	/**
+	 * Gets what a RenderSnapshot keeps of this object besides its sprite, for sorting it: the layer, whether its texture 
+	 * is translucent, and the frame.
+	 * @return
+	 * The attributes, in the layout of {@code RenderSnapshot.getAttributes()}.
+	 */
+	final int getSortAttributes()
+	{
+		return this.layer << RenderSnapshot.layerShift | (texture.isTranslucent() ? RenderSnapshot.translucentBit : 0)
+				| getFrame() & RenderSnapshot.frameMask;
+	}
+	
+	/**
+	 * Writes this object into a RenderSnapshot's sprite array as if it was placed at the specified position, 
+	 * in the same way as {@code renderAt}. The sprite is not interpolated.
+	 * @param buffer - The sprite array.
+	 * @param offset - The index of the first float to write.
+	 * @param x - The x-position to write.
+	 * @param y - The y-position to write.
+	 * @param z - The z-position to write.
+	 * @return
+	 * True if this object was written, false if it is not visible or has no texture.
+	 */
+	final boolean writeSnapshotAt(float[] buffer, int offset, double x, double y, double z)
+	{
+		if(!this.visible || !this.hasTexture())
+			return false;
+		buffer[offset] = buffer[offset + 3] = (float) x;
+		buffer[offset + 1] = buffer[offset + 4] = (float) y;
+		buffer[offset + 2] = buffer[offset + 5] = (float) z;
+		buffer[offset + 6] = (float) width;
+		buffer[offset + 7] = (float) height;
+		writeFrame(buffer, offset + 8);
+		return true;
+	}
+	
 	/**
 	 * Updates the animation of this object.
 	 * @param timeDelta - the time (in an arbitrary unit) since the last call to this function. 
 	 * Please note that this is an offset in time to advance the animation by.<br><br>
 	 * 
-	 * Also note that if this Renderable's willAnimate = false, this function does nothing.
+	 * Also note that if this Renderable's willAnimate = false, or it follows a shared timeline, this function does nothing.
+	 * Only the index of the frame is kept; its texture coordinates are read from the texture's frame table when drawn, 
+	 * so this does not allocate.
 	 */
-	public synchronized final void updateAnimation(long timeDelta)
+	public final void updateAnimation(long timeDelta)
 	{
-		if(this.willAnimate && this.hasTexture())
-		{
+		if(this.willAnimate && this.hasTexture() && this.timeline == null && texture.getNumAnimations() > 0)
 			frame = texture.getNextFrame(this.timeSinceAnimationStart += timeDelta, animation);
-			this.textureCoordinates = texture.getTextureCoords(frame);
-		}
+	}
+	
+	/**
+	 * Makes this Renderable follow the shared timeline of its texture and current animation, at the specified phase, 
+	 * instead of playing the animation on its own. Renderables following the same timeline are always on the same frame, 
+	 * which is worked out once per update for all of them.
+	 * @param timelines - The timelines to share, normally those of the GraphicsEngine.
+	 * @param phase - How far ahead of the shared clock to play the animation. Renderables with different phases follow 
+	 * different timelines.
+	 * @see GraphicsEngine#getTimelines()
+	 */
+	public final void shareTimeline(AnimationTimelines timelines, long phase)
+	{
+		if(!this.hasTexture() || texture.getNumAnimations() == 0)
+			return;
+		AnimationTimeline next = timelines.acquire(texture, animation, phase);
+		if(this.timeline != null)
+			this.timeline.getOwner().release(this.timeline);
+		this.timeline = next;
+	}
+	
+	/**
+	 * Makes this Renderable play its animation on its own again, continuing from where its shared timeline was.
+	 */
+	public final void leaveTimeline()
+	{
+		if(this.timeline == null)
+			return;
+		this.timeSinceAnimationStart = this.timeline.getTime() + this.timeline.getPhase();
+		this.timeline.getOwner().release(this.timeline);
+		this.timeline = null;
+		timelineLeaves.incrementAndGet();
+		this.updateAnimation(0);
+	}
+	
+	/**
+	 * Gets the shared timeline this Renderable follows.
+	 * @return
+	 * The timeline, or null if it plays its animation on its own.
+	 */
+	public final AnimationTimeline getTimeline()
+	{
+		return this.timeline;
 	}
 	
 	/**
 	 * Sets the animation of this Renderable to the specified animation. If the animation bounds are disrespected, 
-	 * it will set the animation to the closest value.
+	 * it will set the animation to the closest value. A Renderable following a shared timeline moves to the timeline of 
+	 * the new animation, at the same phase, instead of starting it over.
 	 * @param newAnimation - The index of the animation to set it to.
 	 * @return
 	 * The actual set animation. If this Renderable has no texture or the texture has no animations, returns -1.
 	 */
-	public synchronized final int setAnimation(int newAnimation)
+	public final int setAnimation(int newAnimation)
 	{
 		if(this.hasTexture())
 		{
@@ -166,6 +342,8 @@ public abstract class Renderable
 			
 			this.animation = newAnimation;
 			this.timeSinceAnimationStart = 0;
+			if(this.timeline != null)
+				this.shareTimeline(this.timeline.getOwner(), this.timeline.getPhase());
 			this.updateAnimation(0);
 			return newAnimation;
 		}
@@ -198,6 +376,56 @@ public abstract class Renderable
 	
 	
 	
+	/**
+	 * Marks the start of a new simulation tick. The positions Renderables have when they first move during the tick are 
+	 * kept, so they can be rendered in between. Should be called by the simulation before each tick.
+	 */
+	public static void beginSimulationTick()
+	{
+		simulationTick++;
+	}
+	
+	/**
+	 * Gets the current simulation tick.
+	 * @return
+	 * The number of calls to {@code beginSimulationTick()} so far.
+	 */
+	public static long getSimulationTick()
+	{
+		return simulationTick;
+	}
+	
+	/**
+	 * Gets the number of times any Renderable has left a shared timeline, so that the GraphicsEngine knows when to 
+	 * animate Renderables it skipped as followers.
+	 * @return
+	 * The number of calls to {@code leaveTimeline()} which left a timeline so far.
+	 */
+	static long getTimelineLeaves()
+	{
+		return timelineLeaves.get();
+	}
+	
+	/**
+	 * Gets the index of the current animation of this Renderable.
+	 * @return
+	 * The index of the current animation.
+	 */
+	public int getAnimation()
+	{
+		return animation;
+	}
+	
+	/**
+	 * Gets the index of the current frame of the current animation of this Renderable.
+	 * @return
+	 * The index of the current frame.
+	 */
+	public int getFrame()
+	{
+		return timeline != null ? timeline.getFrame() : frame;
+	}
+	
 	public double getRenderX()
 	{
 		return x;
@@ -223,23 +451,25 @@ public abstract class Renderable
 		return height;
 	}
 	
-	private double getTexX()
-	{
-		return this.textureCoordinates[0];
-	}
-	
-	private double getTexY()
-	{
-		return this.textureCoordinates[1];
-	}
-	
-	private double getTexWidth()
+	/**
+	 * Checks if this object should be drawn between its previous and current position, that is, if it has moved during 
+	 * the current simulation tick, and was not created during it.
+	 */
+	private boolean isInterpolated()
 	{
-		return this.textureCoordinates[2];
+		return this.movedTick == simulationTick && this.createdTick != this.movedTick;
 	}
 	
-	private double getTexHeight()
+	/**
+	 * Writes the texture coordinates of the current frame, as {@code u0, v0, u1, v1}, from the texture's frame table.
+	 */
+	private void writeFrame(float[] buffer, int offset)
 	{
-		return this.textureCoordinates[3];
+		float[] uv = texture.getFrameTable();
+		int f = texture.getFrameOffset(getFrame());
+		buffer[offset] = uv[f];
+		buffer[offset + 1] = uv[f + 1];
+		buffer[offset + 2] = uv[f + 2];
+		buffer[offset + 3] = uv[f + 3];
 	}
 }
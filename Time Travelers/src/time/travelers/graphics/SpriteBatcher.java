@@ -0,0 +1,396 @@
+package time.travelers.graphics;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+
+/**
+ * Turns RenderSnapshots into vertex buffers, so that all sprites of one texture are drawn with a single call.
+ * <br><br>
+ * Each sprite becomes four vertices of {@code floatsPerVertex} interleaved floats, {@code x, y, z, u, v}, and two
+ * triangles indexed from a shared index buffer. Building the vertices ({@code fill}) does not touch GL, so it can be run
+ * and measured without a device; {@code upload} and {@code draw} then hand them to a RenderDevice, through vertex buffer 
+ * objects on GL.
+ * <br><br>
+ * The buffers only grow, so filling does not allocate once they are large enough. A SpriteBatcher is not thread-safe,
+ * and its device methods must be called on the thread rendering, normally the GL thread.
+ * <br><br>
+ * Baked terrain chunks are kept in vertex buffers of their own, uploaded once per mesh, and drawn from there until the 
+ * chunk is rebuilt. At most {@code maxCachedMeshes} chunk buffers are kept, unless more chunks are in view at once; 
+ * the least recently drawn ones are deleted first.
+ * @author Grevor
+ * @see RenderSnapshot
+ */
+public class SpriteBatcher
+{
+	public static final int floatsPerVertex = 5;
+	public static final int verticesPerSprite = 4;
+	public static final int indicesPerSprite = 6;
+	private static final int bytesPerFloat = 4, bytesPerInt = 4;
+	public static final int maxCachedMeshes = 256;
+	private static final int noBuffer = 0;
+
+	private float[] staging = new float[0];
+	private FloatBuffer vertices = newFloatBuffer(0);
+	private IntBuffer indices = newIntBuffer(0);
+	private int spriteCount = 0;
+	/**
+	 * The number of sprites the index buffer object holds indices for.
+	 */
+	private int uploadedIndexSprites = 0;
+	/**
+	 * The number of sprites the index buffer must hold indices for, for the latest call to {@code fill}.
+	 */
+	private int indexSprites = 0;
+	/**
+	 * What was submitted to the device since the latest call to {@code fill}.
+	 */
+	private int frameDraws = 0, frameBinds = 0, frameVertices = 0;
+	private int vertexBuffer = noBuffer, indexBuffer = noBuffer;
+
+	/**
+	 * The terrain meshes uploaded to the device, their buffers, and the frame they were last drawn in, by chunk.
+	 */
+	private TerrainMesh[] uploadedMeshes = new TerrainMesh[0];
+	private int[] meshBuffers = new int[0];
+	private long[] meshDrawnAt = new long[0];
+	/**
+	 * The chunks which have a buffer.
+	 */
+	private int[] cachedChunks = new int[maxCachedMeshes];
+	private int cachedCount = 0;
+	private long terrainFrame = 0, meshUploads = 0;
+	private FloatBuffer meshStaging = newFloatBuffer(0);
+
+	/**
+	 * Builds the vertices of all sprites of a snapshot, between their previous and current positions. If the snapshot is 
+	 * sorted, the vertices are in its order.
+	 * @param snapshot - The snapshot.
+	 * @param alpha - How far between the two positions to place the sprites, from 0 (the previous position) to 1
+	 * (the current one).
+	 * @return
+	 * The number of vertices built.
+	 */
+	public int fill(RenderSnapshot snapshot, float alpha)
+	{
+		int sprites = snapshot.getSpriteCount();
+		int size = sprites * verticesPerSprite * floatsPerVertex;
+		if(staging.length < size) {
+			staging = new float[Math.max(size, staging.length * 2)];
+			vertices = newFloatBuffer(staging.length);
+		}
+
+		float[] in = snapshot.getSprites();
+		float[] out = staging;
+		int[] order = snapshot.isSorted() ? snapshot.getOrder() : null;
+		int o = 0;
+		for(int i = 0; i < sprites; i++) {
+			putSprite(in, (order == null ? i : order[i]) * RenderSnapshot.floatsPerSprite, alpha, out, o);
+			o += verticesPerSprite * floatsPerVertex;
+		}
+		vertices.clear();
+		vertices.put(out, 0, size);
+		vertices.flip();
+
+		indexSprites = sprites;
+		for(int i = 0; i < snapshot.getMeshCount(); i++)
+			indexSprites = Math.max(indexSprites, snapshot.getMesh(i).getSpriteCount());
+		ensureIndices(indexSprites);
+		spriteCount = sprites;
+		frameDraws = 0;
+		frameBinds = 0;
+		frameVertices = 0;
+		return sprites * verticesPerSprite;
+	}
+
+	/**
+	 * Gets the vertices built by the latest call to {@code fill}.
+	 * @return
+	 * The vertices, between position 0 and the limit. The buffer is owned by this batcher.
+	 */
+	public FloatBuffer getVertices()
+	{
+		return vertices;
+	}
+
+	/**
+	 * Gets the indices of the triangles of the sprites. Sprite {@code i} uses indices {@code [6 * i, 6 * i + 6)}.
+	 * @return
+	 * The indices, at least for the sprites of the latest call to {@code fill}. The buffer is owned by this batcher.
+	 */
+	public IntBuffer getIndices()
+	{
+		return indices;
+	}
+
+	public int getSpriteCount()
+	{
+		return spriteCount;
+	}
+
+	/**
+	 * Uploads the vertices built by the latest call to {@code fill} to the device, and binds the vertex and index buffers 
+	 * for drawing.
+	 * @param device - The render device.
+	 */
+	public void upload(RenderDevice device)
+	{
+		if(vertexBuffer == noBuffer) {
+			vertexBuffer = device.createBuffer();
+			indexBuffer = device.createBuffer();
+		}
+		device.uploadVertices(vertexBuffer, vertices, true);
+		if(uploadedIndexSprites < indexSprites) {
+			device.uploadIndices(indexBuffer, indices);
+			uploadedIndexSprites = indices.limit() / indicesPerSprite;
+		}
+		device.beginSprites(vertexBuffer, indexBuffer);
+	}
+
+	/**
+	 * Draws the baked terrain chunks of a snapshot, uploading the meshes not already on the device. Must be called after
+	 * {@code upload}, and leaves the buffers of {@code upload} bound. Textures the device does not have ready are skipped,
+	 * and asked for as on-screen.
+	 * @param device - The render device.
+	 * @param snapshot - The snapshot given to the latest call to {@code fill}.
+	 * @param loader - The loader of the textures, or null if the device has no textures to load.
+	 */
+	public void drawTerrain(RenderDevice device, RenderSnapshot snapshot, TextureLoader loader)
+	{
+		if(snapshot.getMeshCount() == 0)
+			return;
+		terrainFrame++;
+		for(int i = 0; i < snapshot.getMeshCount(); i++) {
+			TerrainMesh mesh = snapshot.getMesh(i);
+			device.bindVertices(getMeshBuffer(device, mesh));
+			for(int b = 0; b < mesh.bindings.length; b++) {
+				if(!device.isReady(mesh.bindings[b])) {
+					if(loader != null)
+						loader.request(mesh.bindings[b], true);
+					continue;
+				}
+				bindTexture(device, mesh.bindings[b]);
+				draw(device, mesh.bindingStart[b], mesh.bindingStart[b + 1]);
+				device.unbindTexture(mesh.bindings[b]);
+			}
+		}
+		device.bindVertices(vertexBuffer);
+	}
+
+	/**
+	 * Gets the number of terrain meshes uploaded to the device.
+	 * @return
+	 * The number of uploads.
+	 */
+	public long getMeshUploads()
+	{
+		return meshUploads;
+	}
+
+	/**
+	 * Draws the sprites {@code [from, to)} of the latest upload, with one call. The texture is thought to be bound.
+	 * @param device - The render device.
+	 * @param from - The index of the first sprite.
+	 * @param to - The index after the last sprite.
+	 */
+	public void draw(RenderDevice device, int from, int to)
+	{
+		device.drawSprites(from, to);
+		if(to > from) {
+			frameDraws++;
+			frameVertices += (to - from) * verticesPerSprite;
+		}
+	}
+
+	/**
+	 * Binds the texture of a binding, counting the bind.
+	 * @param device - The render device.
+	 * @param binding - The TextureObject bound.
+	 */
+	public void bindTexture(RenderDevice device, TextureObject binding)
+	{
+		device.bindTexture(binding);
+		frameBinds++;
+	}
+
+	/**
+	 * Gets the number of draw calls made by {@code draw} since the latest call to {@code fill}.
+	 * @return
+	 * The number of draw calls.
+	 */
+	public int getFrameDraws()
+	{
+		return frameDraws;
+	}
+
+	/**
+	 * Gets the number of textures bound by {@code bindTexture} since the latest call to {@code fill}.
+	 * @return
+	 * The number of binds.
+	 */
+	public int getFrameBinds()
+	{
+		return frameBinds;
+	}
+
+	/**
+	 * Gets the number of vertices drawn by {@code draw} since the latest call to {@code fill}.
+	 * @return
+	 * The number of vertices.
+	 */
+	public int getFrameVertices()
+	{
+		return frameVertices;
+	}
+
+	/**
+	 * Unbinds the buffers bound by {@code upload}, leaving the device as it was before.
+	 * @param device - The render device.
+	 */
+	public void finish(RenderDevice device)
+	{
+		device.endSprites();
+	}
+
+	/**
+	 * Releases the buffers of this batcher.
+	 * @param device - The render device.
+	 */
+	public void dispose(RenderDevice device)
+	{
+		if(vertexBuffer != noBuffer) {
+			device.deleteBuffer(vertexBuffer);
+			device.deleteBuffer(indexBuffer);
+			vertexBuffer = noBuffer;
+			indexBuffer = noBuffer;
+			uploadedIndexSprites = 0;
+		}
+		for(int i = 0; i < cachedCount; i++) {
+			device.deleteBuffer(meshBuffers[cachedChunks[i]]);
+			meshBuffers[cachedChunks[i]] = noBuffer;
+			uploadedMeshes[cachedChunks[i]] = null;
+		}
+		cachedCount = 0;
+	}
+
+	/**
+	 * Writes one sprite of a snapshot as four vertices, between its previous and current position.
+	 * @param in - The sprites, in the layout of RenderSnapshot.
+	 * @param i - The index of the first float of the sprite.
+	 * @param alpha - How far between the two positions to place the sprite.
+	 * @param out - The vertices.
+	 * @param o - The index of the first float to write.
+	 */
+	static void putSprite(float[] in, int i, float alpha, float[] out, int o)
+	{
+		float x = in[i + 3] + (in[i] - in[i + 3]) * alpha;
+		float y = in[i + 4] + (in[i + 1] - in[i + 4]) * alpha;
+		float z = in[i + 5] + (in[i + 2] - in[i + 5]) * alpha;
+		float xMax = x + in[i + 6];
+		float yMax = y + in[i + 7];
+		float u0 = in[i + 8], v0 = in[i + 9], u1 = in[i + 10], v1 = in[i + 11];
+
+		putVertex(out, o, x, y, z, u0, v1);
+		putVertex(out, o + floatsPerVertex, xMax, y, z, u1, v1);
+		putVertex(out, o + 2 * floatsPerVertex, xMax, yMax, z, u1, v0);
+		putVertex(out, o + 3 * floatsPerVertex, x, yMax, z, u0, v0);
+	}
+
+	//
+	// Private methods
+	//
+
+	/**
+	 * Gets the buffer holding a terrain mesh, uploading the mesh if its chunk's buffer holds another one. 
+	 * A new buffer takes the place of the least recently drawn one when too many are kept.
+	 */
+	private int getMeshBuffer(RenderDevice device, TerrainMesh mesh)
+	{
+		int chunk = mesh.chunk;
+		if(chunk >= uploadedMeshes.length) {
+			int length = Math.max(chunk + 1, uploadedMeshes.length * 2);
+			uploadedMeshes = Arrays.copyOf(uploadedMeshes, length);
+			meshBuffers = Arrays.copyOf(meshBuffers, length);
+			meshDrawnAt = Arrays.copyOf(meshDrawnAt, length);
+		}
+		meshDrawnAt[chunk] = terrainFrame;
+		if(uploadedMeshes[chunk] == mesh)
+			return meshBuffers[chunk];
+
+		if(meshBuffers[chunk] == noBuffer) {
+			if(cachedCount == cachedChunks.length)
+				evictMesh(device);
+			if(cachedCount == cachedChunks.length)
+				cachedChunks = Arrays.copyOf(cachedChunks, cachedCount * 2);
+			meshBuffers[chunk] = device.createBuffer();
+			cachedChunks[cachedCount++] = chunk;
+		}
+		if(meshStaging.capacity() < mesh.vertices.length)
+			meshStaging = newFloatBuffer(Math.max(mesh.vertices.length, meshStaging.capacity() * 2));
+		meshStaging.clear();
+		meshStaging.put(mesh.vertices);
+		meshStaging.flip();
+		device.uploadVertices(meshBuffers[chunk], meshStaging, false);
+		uploadedMeshes[chunk] = mesh;
+		meshUploads++;
+		return meshBuffers[chunk];
+	}
+
+	/**
+	 * Deletes the buffer of the least recently drawn chunk, unless all were drawn in the current frame.
+	 */
+	private void evictMesh(RenderDevice device)
+	{
+		int oldest = -1;
+		for(int i = 0; i < cachedCount; i++)
+			if(meshDrawnAt[cachedChunks[i]] < terrainFrame && (oldest < 0 
+					|| meshDrawnAt[cachedChunks[i]] < meshDrawnAt[cachedChunks[oldest]]))
+				oldest = i;
+		if(oldest < 0)
+			return;
+		int chunk = cachedChunks[oldest];
+		device.deleteBuffer(meshBuffers[chunk]);
+		meshBuffers[chunk] = noBuffer;
+		uploadedMeshes[chunk] = null;
+		cachedChunks[oldest] = cachedChunks[--cachedCount];
+	}
+
+	/**
+	 * Makes sure the index buffer holds the triangles of at least the specified number of sprites.
+	 */
+	private void ensureIndices(int sprites)
+	{
+		if(indices.capacity() >= sprites * indicesPerSprite)
+			return;
+		int capacity = Math.max(sprites, indices.capacity() / indicesPerSprite * 2);
+		indices = newIntBuffer(capacity * indicesPerSprite);
+		for(int i = 0; i < capacity; i++) {
+			int v = i * verticesPerSprite;
+			indices.put(v).put(v + 1).put(v + 2);
+			indices.put(v + 2).put(v + 3).put(v);
+		}
+		indices.flip();
+		uploadedIndexSprites = 0;
+	}
+
+	private static void putVertex(float[] out, int o, float x, float y, float z, float u, float v)
+	{
+		out[o] = x;
+		out[o + 1] = y;
+		out[o + 2] = z;
+		out[o + 3] = u;
+		out[o + 4] = v;
+	}
+
+	private static FloatBuffer newFloatBuffer(int floats)
+	{
+		return ByteBuffer.allocateDirect(floats * bytesPerFloat).order(ByteOrder.nativeOrder()).asFloatBuffer();
+	}
+
+	private static IntBuffer newIntBuffer(int ints)
+	{
+		return ByteBuffer.allocateDirect(ints * bytesPerInt).order(ByteOrder.nativeOrder()).asIntBuffer();
+	}
+}
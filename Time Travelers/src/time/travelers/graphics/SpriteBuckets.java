@@ -0,0 +1,146 @@
+package time.travelers.graphics;
+
+import java.util.Arrays;
+
+/**
+ * Sprites gathered in one bucket per texture binding, in the layout of RenderSnapshot, for when sprites of different 
+ * textures come in mixed order. The buckets only grow, and are kept when cleared, so gathering does not allocate once 
+ * they are large enough.
+ * @author Grevor
+ * @see RenderSnapshot
+ */
+class SpriteBuckets
+{
+	private TextureObject[] bindings = new TextureObject[4];
+	private float[][] buckets = new float[4][];
+	private int[][] attributes = new int[4][];
+	private int[] counts = new int[4];
+	private int bucketCount = 0;
+	private int lastBucket = 0;
+
+	/**
+	 * Writes a Renderable as the next sprite of the bucket of its texture binding, if it is visible.
+	 * @param r - The Renderable.
+	 */
+	void add(Renderable r)
+	{
+		if(!r.hasTexture())
+			return;
+		int b = getBucket(r.getTextureObject().getBinding());
+		if(r.writeSnapshot(buckets[b], counts[b] * RenderSnapshot.floatsPerSprite))
+			attributes[b][counts[b]++] = r.getSortAttributes();
+	}
+
+	/**
+	 * Writes a Renderable, as if it was placed at the specified position, as the next sprite of the bucket of its texture
+	 * binding, if it is visible.
+	 * @param r - The Renderable.
+	 * @param x - The x-position to write.
+	 * @param y - The y-position to write.
+	 * @param z - The z-position to write.
+	 */
+	void addAt(Renderable r, double x, double y, double z)
+	{
+		if(!r.hasTexture())
+			return;
+		int b = getBucket(r.getTextureObject().getBinding());
+		if(r.writeSnapshotAt(buckets[b], counts[b] * RenderSnapshot.floatsPerSprite, x, y, z))
+			attributes[b][counts[b]++] = r.getSortAttributes();
+	}
+
+	/**
+	 * Gets the number of buckets. Buckets may be empty.
+	 * @return
+	 * The number of buckets.
+	 */
+	int size()
+	{
+		return bucketCount;
+	}
+
+	TextureObject getBinding(int bucket)
+	{
+		return bindings[bucket];
+	}
+
+	/**
+	 * Gets the sprites of a bucket. Only the first {@code getCount(bucket) * floatsPerSprite} floats are used.
+	 * @param bucket - The index of the bucket.
+	 * @return
+	 * The sprites. The array is owned by this object.
+	 */
+	float[] getSprites(int bucket)
+	{
+		return buckets[bucket];
+	}
+
+	/**
+	 * Gets the attributes of the sprites of a bucket, in the layout of {@code RenderSnapshot.getAttributes()}.
+	 * @param bucket - The index of the bucket.
+	 * @return
+	 * The attributes. The array is owned by this object.
+	 */
+	int[] getAttributes(int bucket)
+	{
+		return attributes[bucket];
+	}
+
+	int getCount(int bucket)
+	{
+		return counts[bucket];
+	}
+
+	/**
+	 * Gets the number of sprites in all buckets.
+	 * @return
+	 * The number of sprites.
+	 */
+	int getTotalCount()
+	{
+		int total = 0;
+		for(int i = 0; i < bucketCount; i++)
+			total += counts[i];
+		return total;
+	}
+
+	/**
+	 * Empties all buckets, keeping their arrays.
+	 */
+	void clear()
+	{
+		Arrays.fill(counts, 0, bucketCount, 0);
+	}
+
+	//
+	// Private methods
+	//
+
+	/**
+	 * Gets the bucket of a texture binding, with room for at least one more sprite.
+	 */
+	private int getBucket(TextureObject binding)
+	{
+		int b = lastBucket;
+		if(b >= bucketCount || bindings[b] != binding) {
+			for(b = 0; b < bucketCount && bindings[b] != binding; b++);
+			if(b == bucketCount) {
+				if(b == bindings.length) {
+					bindings = Arrays.copyOf(bindings, b * 2);
+					buckets = Arrays.copyOf(buckets, b * 2);
+					attributes = Arrays.copyOf(attributes, b * 2);
+					counts = Arrays.copyOf(counts, b * 2);
+				}
+				bindings[b] = binding;
+				buckets[b] = new float[RenderSnapshot.floatsPerSprite * 64];
+				attributes[b] = new int[64];
+				bucketCount++;
+			}
+			lastBucket = b;
+		}
+		if(buckets[b].length < (counts[b] + 1) * RenderSnapshot.floatsPerSprite) {
+			buckets[b] = Arrays.copyOf(buckets[b], buckets[b].length * 2);
+			attributes[b] = Arrays.copyOf(attributes[b], buckets[b].length / RenderSnapshot.floatsPerSprite);
+		}
+		return b;
+	}
+}
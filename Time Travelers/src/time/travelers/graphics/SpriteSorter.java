@@ -0,0 +1,309 @@
+package time.travelers.graphics;
+
+import java.util.Arrays;
+
+import time.travelers.util.TimeHistogram;
+
+/**
+ * Orders the sprites of RenderSnapshots for drawing, by a 64-bit key per sprite sorted with an LSD radix sort.
+ * <br><br>
+ * Keys are made of, from the most significant bits:
+ * <br>
+ * {@code layer (4), translucent (1)}, then for opaque sprites {@code binding (20), frame (15), depth (24)}, and for
+ * translucent ones {@code depth (24), binding (20), frame (15)}.
+ * <br>
+ * So every layer is drawn in turn; opaque sprites first, grouped by texture binding to need as few binds as possible and
+ * near ones first within a binding; and translucent sprites last, from far to near, so that they blend over what is
+ * behind them. A higher z is nearer, as in {@code Renderable.isCloserThan}.
+ * <br><br>
+ * The sort reuses its arrays, and starts from the order of the previous sort when the number of sprites is the same.
+ * Since most sprites keep their place from one frame to the next, the keys are then usually already sorted, or nearly,
+ * and are sorted by insertion with a bounded number of moves. Otherwise they are radix sorted, skipping the passes over
+ * bytes which are the same in all keys. Sorting does not allocate once the arrays are large enough. A SpriteSorter is
+ * only used by one thread.
+ * @author Grevor
+ * @see RenderSnapshot#getOrder()
+ */
+class SpriteSorter
+{
+	private static final int radixBits = 8, radixSize = 1 << radixBits, radixPasses = 64 / radixBits;
+	private static final int bindingBits = 20, frameBits = 15, depthBits = 24;
+	private static final long bindingMask = (1L << bindingBits) - 1, frameMask = (1L << frameBits) - 1;
+	private static final long depthMask = (1L << depthBits) - 1;
+	private static final long translucentKey = 1L << 59;
+
+	private long[] keys = new long[0], spareKeys = new long[0], spriteKeys = new long[0];
+	private int[] values = new int[0], spareValues = new int[0];
+	private int[] previousOrder = new int[0];
+	private int previousCount = -1;
+	private final int[] counts = new int[radixPasses * radixSize];
+	/**
+	 * The texture bindings of the snapshot being sorted, by the number they have in the keys.
+	 */
+	private TextureObject[] bindings = new TextureObject[8];
+	private int bindingCount = 0;
+
+	private final TimeHistogram sortTimes = new TimeHistogram();
+	private long sorts = 0, presortedSorts = 0, insertionSorts = 0, radixPassesRun = 0;
+
+	/**
+	 * Sorts the sprites of a snapshot, setting its order and runs.
+	 * @param snapshot - The snapshot, with all its sprites written.
+	 */
+	void sort(RenderSnapshot snapshot)
+	{
+		long start = System.nanoTime();
+		int n = snapshot.spriteCount;
+		ensureCapacity(n);
+		makeKeys(snapshot, n);
+
+		//Start from the previous order. If the same sprites are drawn, it is the sorted order of the last frame.
+		boolean coherent = n == previousCount;
+		for(int i = 0; i < n; i++) {
+			int sprite = coherent ? previousOrder[i] : i;
+			keys[i] = spriteKeys[sprite];
+			values[i] = sprite;
+		}
+		int moves = insertionSort(n, n);
+		if(moves == 0)
+			presortedSorts++;
+		else if(moves > 0)
+			insertionSorts++;
+		else
+			radixSort(n);
+		System.arraycopy(values, 0, previousOrder, 0, n);
+		previousCount = n;
+
+		if(snapshot.order.length < n)
+			snapshot.order = new int[previousOrder.length];
+		System.arraycopy(values, 0, snapshot.order, 0, n);
+		makeRuns(snapshot, n);
+		snapshot.sorted = true;
+		Arrays.fill(bindings, 0, bindingCount, null);
+		bindingCount = 0;
+		sorts++;
+		sortTimes.record(System.nanoTime() - start);
+	}
+
+	/**
+	 * Gets the time each sort took.
+	 * @return
+	 * The histogram of sort times.
+	 */
+	TimeHistogram getSortTimes()
+	{
+		return sortTimes;
+	}
+
+	long getSorts()
+	{
+		return sorts;
+	}
+
+	/**
+	 * Gets the number of sorts whose keys were already in order, thanks to the order of the previous sort.
+	 * @return
+	 * The number of sorts skipped.
+	 */
+	long getPresortedSorts()
+	{
+		return presortedSorts;
+	}
+
+	/**
+	 * Gets the number of sorts done by insertion, as the keys were nearly in order.
+	 * @return
+	 * The number of sorts by insertion.
+	 */
+	long getInsertionSorts()
+	{
+		return insertionSorts;
+	}
+
+	/**
+	 * Gets the number of radix passes run, over all sorts. At most eight are run per sort.
+	 * @return
+	 * The number of passes.
+	 */
+	long getRadixPasses()
+	{
+		return radixPassesRun;
+	}
+
+	/**
+	 * Makes the key of one sprite.
+	 * @param attributes - The attributes of the sprite, in the layout of RenderSnapshot.
+	 * @param z - The depth of the sprite.
+	 * @param binding - The number of the texture binding of the sprite.
+	 * @return
+	 * The key.
+	 */
+	static long key(int attributes, float z, int binding)
+	{
+		long layer = attributes >>> RenderSnapshot.layerShift;
+		long frame = attributes & RenderSnapshot.frameMask & frameMask;
+		long depth = sortableDepth(z);
+		if((attributes & RenderSnapshot.translucentBit) != 0)
+			return layer << 60 | translucentKey | depth << 35 | (binding & bindingMask) << frameBits | frame;
+		return layer << 60 | (binding & bindingMask) << 39 | frame << depthBits | ~depth & depthMask;
+	}
+
+	/**
+	 * Gets the number of the texture binding of a key.
+	 */
+	static int bindingOf(long key)
+	{
+		return (int) ((key & translucentKey) != 0 ? key >>> frameBits & bindingMask : key >>> 39 & bindingMask);
+	}
+
+	//
+	// Private methods
+	//
+
+	/**
+	 * Maps a depth to the top 24 bits of an unsigned int which orders as the floats do.
+	 */
+	private static long sortableDepth(float z)
+	{
+		int bits = Float.floatToIntBits(z);
+		bits ^= bits >> 31 | Integer.MIN_VALUE;
+		return bits >>> (32 - depthBits);
+	}
+
+	/**
+	 * Makes the key of every sprite, by its index in the snapshot.
+	 */
+	private void makeKeys(RenderSnapshot snapshot, int n)
+	{
+		float[] sprites = snapshot.sprites;
+		int[] attributes = snapshot.attributes;
+		for(int t = 0; t < snapshot.textureCount; t++) {
+			int binding = getBindingNumber(snapshot.textures[t].getBinding());
+			for(int i = snapshot.textureStart[t]; i < snapshot.textureStart[t + 1]; i++)
+				spriteKeys[i] = key(attributes[i], sprites[i * RenderSnapshot.floatsPerSprite + 2], binding);
+		}
+	}
+
+	private int getBindingNumber(TextureObject binding)
+	{
+		for(int i = bindingCount - 1; i >= 0; i--)
+			if(bindings[i] == binding)
+				return i;
+		if(bindingCount == bindings.length)
+			bindings = Arrays.copyOf(bindings, bindingCount * 2);
+		bindings[bindingCount] = binding;
+		return bindingCount++;
+	}
+
+	/**
+	 * Sorts the keys and their values by insertion, giving up once a number of keys have been moved. Keys which are 
+	 * nearly in order, as after a frame where few sprites moved, are sorted faster than by the radix sort. When it gives 
+	 * up, the keys are still all there, in some order.
+	 * @return
+	 * The number of keys moved, or -1 if it gave up.
+	 */
+	private int insertionSort(int n, int maxMoves)
+	{
+		int moves = 0;
+		for(int i = 1; i < n; i++) {
+			long k = keys[i];
+			long unsigned = k ^ Long.MIN_VALUE;
+			if((keys[i - 1] ^ Long.MIN_VALUE) <= unsigned)
+				continue;
+			int v = values[i];
+			int j = i;
+			do {
+				keys[j] = keys[j - 1];
+				values[j] = values[j - 1];
+				j--;
+				moves++;
+			} while(j > 0 && (keys[j - 1] ^ Long.MIN_VALUE) > unsigned && moves < maxMoves);
+			keys[j] = k;
+			values[j] = v;
+			if(moves >= maxMoves)
+				return -1;
+		}
+		return moves;
+	}
+
+	/**
+	 * Sorts the keys and their values, one byte per pass from the least significant one. The counts of all passes are
+	 * made in one read of the keys; a pass is skipped if all keys have the same byte.
+	 */
+	private void radixSort(int n)
+	{
+		Arrays.fill(counts, 0);
+		for(int i = 0; i < n; i++) {
+			long k = keys[i];
+			for(int p = 0; p < radixPasses; p++)
+				counts[p << radixBits | (int) (k >>> (p * radixBits)) & (radixSize - 1)]++;
+		}
+
+		long[] from = keys, to = spareKeys;
+		int[] fromValues = values, toValues = spareValues;
+		for(int p = 0; p < radixPasses; p++) {
+			int base = p << radixBits, shift = p * radixBits;
+			if(counts[base + ((int) (from[0] >>> shift) & (radixSize - 1))] == n)
+				continue;
+			int sum = 0;
+			for(int b = base; b < base + radixSize; b++) {
+				int c = counts[b];
+				counts[b] = sum;
+				sum += c;
+			}
+			for(int i = 0; i < n; i++) {
+				long k = from[i];
+				int at = counts[base + ((int) (k >>> shift) & (radixSize - 1))]++;
+				to[at] = k;
+				toValues[at] = fromValues[i];
+			}
+			long[] swapKeys = from;
+			from = to;
+			to = swapKeys;
+			int[] swapValues = fromValues;
+			fromValues = toValues;
+			toValues = swapValues;
+			radixPassesRun++;
+		}
+		keys = from;
+		spareKeys = to;
+		values = fromValues;
+		spareValues = toValues;
+	}
+
+	/**
+	 * Splits the sorted order into runs of one texture binding.
+	 */
+	private void makeRuns(RenderSnapshot snapshot, int n)
+	{
+		int runs = 0;
+		int last = -1;
+		for(int i = 0; i < n; i++) {
+			int binding = bindingOf(keys[i]);
+			if(binding == last)
+				continue;
+			if(runs + 1 >= snapshot.runStart.length) {
+				snapshot.runStart = Arrays.copyOf(snapshot.runStart, snapshot.runStart.length * 2);
+				snapshot.runBindings = Arrays.copyOf(snapshot.runBindings, snapshot.runStart.length - 1);
+			}
+			snapshot.runBindings[runs] = bindings[binding];
+			snapshot.runStart[runs++] = i;
+			last = binding;
+		}
+		snapshot.runStart[runs] = n;
+		snapshot.runCount = runs;
+	}
+
+	private void ensureCapacity(int n)
+	{
+		if(keys.length >= n)
+			return;
+		int capacity = Math.max(n, keys.length * 2);
+		keys = new long[capacity];
+		spareKeys = new long[capacity];
+		spriteKeys = new long[capacity];
+		values = new int[capacity];
+		spareValues = new int[capacity];
+		previousOrder = Arrays.copyOf(previousOrder, capacity);
+	}
+}
@@ -0,0 +1,261 @@
+package time.travelers.graphics;
+
+import java.util.Arrays;
+
+import time.travelers.core.Map;
+import time.travelers.core.MapListener;
+import time.travelers.core.Terrain;
+import time.travelers.util.TimeHistogram;
+
+/**
+ * The terrain of a Map, baked into vertices in square chunks of {@code chunkSize} tiles, so that terrain is not rebuilt 
+ * every frame.
+ * <br><br>
+ * A chunk is rebuilt only when it is visible and either one of its tiles has been recreated (as told by the map, 
+ * through {@code MapListener.tileChanged}) or the animation frame of one of the terrain kinds in it has advanced. 
+ * Terrain objects and entities are not part of the layer; they are drawn every frame.
+ * <br><br>
+ * A TerrainLayer is used by the thread changing the map, normally the simulation thread. Chunks are handed to the GL 
+ * thread as immutable TerrainMeshes through the snapshots.
+ * @author Grevor
+ * @see GraphicsEngine#setMap(Map)
+ */
+public class TerrainLayer implements MapListener
+{
+	public static final int chunkSize = 32;
+
+	private final Map map;
+	private final int chunksX, chunksY;
+	/**
+	 * The latest mesh of each chunk, or null if the chunk must be built.
+	 */
+	private final TerrainMesh[] meshes;
+	/**
+	 * Increased every time the animation frame of any terrain kind advances.
+	 */
+	private long animationStamp = 0;
+	/**
+	 * For each palette ID, the animation stamp at which the frame of that terrain kind last advanced, and that frame.
+	 */
+	private long[] frameChangedAt = new long[16];
+	private int[] lastFrames = new int[16];
+
+	private final SpriteBuckets buckets = new SpriteBuckets();
+	private int[] paletteScratch = new int[16];
+	private final int[] range = new int[4];
+
+	private volatile int lastRebuiltChunks = 0;
+	private volatile long rebuiltChunks = 0, rebuildTime = 0;
+	private final TimeHistogram rebuildTimes = new TimeHistogram();
+
+	/**
+	 * Creates a TerrainLayer for the specified map, and starts listening to changes of it.
+	 * @param map - The map.
+	 */
+	public TerrainLayer(Map map)
+	{
+		this.map = map;
+		this.chunksX = (map.getWidth() + chunkSize - 1) / chunkSize;
+		this.chunksY = (map.getHeight() + chunkSize - 1) / chunkSize;
+		this.meshes = new TerrainMesh[chunksX * chunksY];
+		map.addListener(this);
+	}
+
+	public Map getMap()
+	{
+		return map;
+	}
+
+	/**
+	 * Stops listening to changes of the map.
+	 */
+	public void dispose()
+	{
+		map.removeListener(this);
+	}
+
+	/**
+	 * Advances the animations of all terrain kinds of the map, and notes which of them moved to a new frame. 
+	 * Terrain kinds following a shared timeline are not advanced here, but their frame changes are noted all the same.
+	 * @param timeDelta - The time since the last call.
+	 */
+	void updateAnimations(long timeDelta)
+	{
+		if(timeDelta == 0)
+			return;
+		int paletteSize = map.getPaletteSize();
+		if(frameChangedAt.length < paletteSize) {
+			int length = Math.max(paletteSize, frameChangedAt.length * 2);
+			frameChangedAt = Arrays.copyOf(frameChangedAt, length);
+			lastFrames = Arrays.copyOf(lastFrames, length);
+		}
+		boolean advanced = false;
+		for(int id = 1; id < paletteSize; id++) {
+			Terrain t = map.getPaletteTerrain(id);
+			t.updateAnimation(timeDelta);
+			if(t.getFrame() != lastFrames[id]) {
+				lastFrames[id] = t.getFrame();
+				if(!advanced) {
+					advanced = true;
+					animationStamp++;
+				}
+				frameChangedAt[id] = animationStamp;
+			}
+		}
+	}
+
+	/**
+	 * Adds the meshes of all chunks seen by a camera to a snapshot, rebuilding those which have changed.
+	 * @param camera - The camera.
+	 * @param snapshot - The snapshot.
+	 */
+	void write(Camera2D camera, RenderSnapshot snapshot)
+	{
+		int rebuilt = 0;
+		if(map.getVisibleRange(camera, 0, range)) {
+			int maxX = (range[2] - 1) / chunkSize, maxY = (range[3] - 1) / chunkSize;
+			for(int cy = range[1] / chunkSize; cy <= maxY; cy++)
+				for(int cx = range[0] / chunkSize; cx <= maxX; cx++) {
+					int chunk = cy * chunksX + cx;
+					TerrainMesh mesh = meshes[chunk];
+					if(mesh == null || hasAdvanced(mesh)) {
+						long start = System.nanoTime();
+						mesh = build(cx, cy);
+						long time = System.nanoTime() - start;
+						meshes[chunk] = mesh;
+						rebuildTimes.record(time);
+						rebuildTime += time;
+						rebuilt++;
+					}
+					if(mesh.getSpriteCount() > 0)
+						snapshot.addMesh(mesh);
+				}
+		}
+		lastRebuiltChunks = rebuilt;
+		rebuiltChunks += rebuilt;
+	}
+
+	/**
+	 * Gets the number of chunks rebuilt for the latest frame.
+	 * @return
+	 * The number of chunks.
+	 */
+	public int getLastRebuiltChunks()
+	{
+		return lastRebuiltChunks;
+	}
+
+	/**
+	 * Gets the number of chunks rebuilt since this layer was created.
+	 * @return
+	 * The number of chunks.
+	 */
+	public long getRebuiltChunks()
+	{
+		return rebuiltChunks;
+	}
+
+	/**
+	 * Gets the total time spent rebuilding chunks.
+	 * @return
+	 * The time, in nanoseconds.
+	 */
+	public long getRebuildTime()
+	{
+		return rebuildTime;
+	}
+
+	/**
+	 * Gets the histogram of the time spent rebuilding each chunk.
+	 * @return
+	 * The histogram, owned by this layer.
+	 */
+	public TimeHistogram getRebuildTimes()
+	{
+		return rebuildTimes;
+	}
+
+	@Override
+	public void tileChanged(Map m, int x, int y)
+	{
+		meshes[(y / chunkSize) * chunksX + x / chunkSize] = null;
+	}
+
+	@Override
+	public void terrainObjectChanged(Map m, int x, int y)
+	{
+		//Terrain objects are not part of the layer.
+	}
+
+	//
+	// Private methods
+	//
+
+	/**
+	 * Checks if the animation frame of any terrain kind in a mesh has advanced since it was built.
+	 */
+	private boolean hasAdvanced(TerrainMesh mesh)
+	{
+		for(int i = 0; i < mesh.paletteIDs.length; i++)
+			if(mesh.paletteIDs[i] < frameChangedAt.length && frameChangedAt[mesh.paletteIDs[i]] > mesh.builtAt)
+				return true;
+		return false;
+	}
+
+	private TerrainMesh build(int cx, int cy)
+	{
+		int minX = cx * chunkSize, minY = cy * chunkSize;
+		int maxX = Math.min(minX + chunkSize, map.getWidth()), maxY = Math.min(minY + chunkSize, map.getHeight());
+		int paletteCount = 0, lastID = Map.noHandle;
+		buckets.clear();
+		for(int y = minY; y < maxY; y++)
+			for(int x = minX; x < maxX; x++) {
+				short id = map.getTerrainID(x, y);
+				if(id == Map.noHandle)
+					continue;
+				if(id != lastID) {
+					lastID = id;
+					paletteCount = addPaletteID(id, paletteCount);
+				}
+				buckets.addAt(map.getPaletteTerrain(id), x * Terrain.gridWidth, y * Terrain.gridHeight, 
+						y * Terrain.gridZFactor);
+			}
+
+		int used = 0;
+		for(int b = 0; b < buckets.size(); b++)
+			if(buckets.getCount(b) > 0)
+				used++;
+		TextureObject[] bindings = new TextureObject[used];
+		int[] bindingStart = new int[used + 1];
+		float[] vertices = new float[buckets.getTotalCount() * SpriteBatcher.verticesPerSprite * SpriteBatcher.floatsPerVertex];
+		int sprite = 0, binding = 0;
+		for(int b = 0; b < buckets.size(); b++) {
+			int count = buckets.getCount(b);
+			if(count == 0)
+				continue;
+			bindings[binding] = buckets.getBinding(b);
+			bindingStart[binding++] = sprite;
+			float[] in = buckets.getSprites(b);
+			for(int i = 0; i < count; i++, sprite++)
+				SpriteBatcher.putSprite(in, i * RenderSnapshot.floatsPerSprite, 1, vertices, 
+						sprite * SpriteBatcher.verticesPerSprite * SpriteBatcher.floatsPerVertex);
+		}
+		bindingStart[used] = sprite;
+		return new TerrainMesh(cy * chunksX + cx, vertices, bindings, bindingStart, 
+				Arrays.copyOf(paletteScratch, paletteCount), animationStamp);
+	}
+
+	/**
+	 * Adds a palette ID to the IDs of the chunk being built, unless it is already there.
+	 */
+	private int addPaletteID(int id, int count)
+	{
+		for(int i = 0; i < count; i++)
+			if(paletteScratch[i] == id)
+				return count;
+		if(count == paletteScratch.length)
+			paletteScratch = Arrays.copyOf(paletteScratch, count * 2);
+		paletteScratch[count] = id;
+		return count + 1;
+	}
+}
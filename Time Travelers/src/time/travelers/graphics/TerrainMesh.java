@@ -0,0 +1,47 @@
+package time.travelers.graphics;
+
+/**
+ * The baked terrain of one chunk of a TerrainLayer: the vertices of all terrain tiles of the chunk, in the layout of 
+ * SpriteBatcher, grouped by texture binding.
+ * <br><br>
+ * A mesh is never changed once built. A chunk which changes gets a new mesh, so the GL thread can keep drawing, and 
+ * keep uploaded, the mesh it has until the new one reaches it through a snapshot.
+ * @author Grevor
+ * @see TerrainLayer
+ */
+final class TerrainMesh
+{
+	/**
+	 * The index of the chunk in its TerrainLayer.
+	 */
+	final int chunk;
+	final float[] vertices;
+	/**
+	 * The texture bindings of the mesh. The sprites of binding {@code i} are {@code [bindingStart[i], bindingStart[i + 1])}.
+	 */
+	final TextureObject[] bindings;
+	final int[] bindingStart;
+	/**
+	 * The palette IDs of all terrain kinds in the chunk.
+	 */
+	final int[] paletteIDs;
+	/**
+	 * The animation stamp of the TerrainLayer when the mesh was built.
+	 */
+	final long builtAt;
+
+	TerrainMesh(int chunk, float[] vertices, TextureObject[] bindings, int[] bindingStart, int[] paletteIDs, long builtAt)
+	{
+		this.chunk = chunk;
+		this.vertices = vertices;
+		this.bindings = bindings;
+		this.bindingStart = bindingStart;
+		this.paletteIDs = paletteIDs;
+		this.builtAt = builtAt;
+	}
+
+	int getSpriteCount()
+	{
+		return bindingStart[bindings.length];
+	}
+}
@@ -0,0 +1,389 @@
+package time.travelers.graphics;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.TreeMap;
+
+import javax.imageio.ImageIO;
+
+/**
+ * Packs the images of the textures in a TextureBatch into one or a few atlas pages, so that sprites of different
+ * textures can be drawn with a single bind.
+ * <br><br>
+ * Images are packed with MaxRects, largest first, with {@code padding} pixels around each image filled with its edge
+ * pixels, so that filtering does not bleed between neighbours. Packing is deterministic. The pages, and where each image
+ * was placed, are cached in a directory named after a hash of the image files and packing settings, so they are only
+ * packed again when an image changes.
+ * <br><br>
+ * After building, each TextureObject of the batch whose image was packed draws from its atlas page, with its texture
+ * coordinates mapped into the page. Images that do not fit in a page are left as they are.
+ * @author Grevor
+ * @see TextureObject#getTextureCoords(int)
+ */
+public class TextureAtlas
+{
+	public static final int defaultPageSize = 2048;
+	public static final int padding = 2;
+	private static final int formatVersion = 1;
+	private static final String dataFileName = "atlas.dat";
+
+	private final String hash;
+	private final ArrayList<TextureObject> pages = new ArrayList<TextureObject>();
+	private final ArrayList<Integer> pageWidths = new ArrayList<Integer>(), pageHeights = new ArrayList<Integer>();
+	private int packedImages = 0;
+	private long usedArea = 0, pageArea = 0;
+	private long packTime = 0, buildTime = 0;
+	private boolean fromCache = false;
+
+	private TextureAtlas(String hash)
+	{
+		this.hash = hash;
+	}
+
+	/**
+	 * Builds, or loads from the cache, the atlas of all textures in a batch, with pages of at most
+	 * {@code defaultPageSize} pixels square.
+	 * @param batch - The textures to pack.
+	 * @param cacheDirectory - The directory to cache atlases in. Created if needed.
+	 * @return
+	 * The atlas.
+	 * @throws IOException If an image or the cache could not be read, or the cache could not be written.
+	 */
+	public static TextureAtlas build(TextureBatch batch, File cacheDirectory) throws IOException
+	{
+		return build(batch, cacheDirectory, defaultPageSize);
+	}
+
+	/**
+	 * Builds, or loads from the cache, the atlas of all textures in a batch.
+	 * @param batch - The textures to pack.
+	 * @param cacheDirectory - The directory to cache atlases in. Created if needed.
+	 * @param pageSize - The highest width and height of a page, in pixels.
+	 * @return
+	 * The atlas.
+	 * @throws IOException If an image or the cache could not be read, or the cache could not be written.
+	 */
+	public static TextureAtlas build(TextureBatch batch, File cacheDirectory, int pageSize) throws IOException
+	{
+		long start = System.nanoTime();
+		//Sorted by filename, so that the hash does not depend on the order textures were added in.
+		TreeMap<String, byte[]> images = new TreeMap<String, byte[]>();
+		for(int i = 0; i < batch.numberOfTextures(); i++) {
+			TextureObject t = batch.getTexture(i);
+			if(t.getAtlasPage() == null && !images.containsKey(t.getFilename()))
+				images.put(t.getFilename(), Files.readAllBytes(new File(t.getFilename()).toPath()));
+		}
+
+		TextureAtlas ret = new TextureAtlas(getHash(images, pageSize));
+		File directory = new File(cacheDirectory, ret.hash);
+		ArrayList<Entry> entries;
+		if(new File(directory, dataFileName).isFile()) {
+			entries = ret.load(directory);
+			ret.fromCache = true;
+		} else {
+			entries = ret.pack(images, pageSize, directory);
+		}
+
+		for(int i = 0; i < batch.numberOfTextures(); i++) {
+			TextureObject t = batch.getTexture(i);
+			for(Entry e : entries)
+				if(e.filename.equals(t.getFilename())) {
+					TextureObject page = ret.pages.get(e.page);
+					int pageWidth = ret.pageWidths.get(e.page), pageHeight = ret.pageHeights.get(e.page);
+					//Pages are loaded by TextureIO with v going up from the bottom row, so the region starts at its bottom.
+					t.setAtlasRegion(page, (double) e.x / pageWidth, (double) (pageHeight - e.y - e.height) / pageHeight,
+							(double) e.width / pageWidth, (double) e.height / pageHeight, e.width, e.height);
+					break;
+				}
+		}
+		ret.packedImages = entries.size();
+		ret.buildTime = System.nanoTime() - start;
+		return ret;
+	}
+
+	/**
+	 * Gets the pages of this atlas, as TextureObjects with a single frame.
+	 * @return
+	 * A copy of the list of pages.
+	 */
+	public ArrayList<TextureObject> getPages()
+	{
+		return new ArrayList<TextureObject>(pages);
+	}
+
+	public int getPageCount()
+	{
+		return pages.size();
+	}
+
+	/**
+	 * Gets the number of images packed into this atlas.
+	 * @return
+	 * The number of images.
+	 */
+	public int getPackedImages()
+	{
+		return packedImages;
+	}
+
+	/**
+	 * Gets how much of the pages is covered by images, not counting padding.
+	 * @return
+	 * The covered part, between 0 and 1.
+	 */
+	public double getDensity()
+	{
+		return pageArea == 0 ? 0 : (double) usedArea / pageArea;
+	}
+
+	/**
+	 * Gets the time spent placing the images when the atlas was packed. For an atlas loaded from the cache, this is
+	 * the time it took when it was first packed.
+	 * @return
+	 * The time, in nanoseconds.
+	 */
+	public long getPackTime()
+	{
+		return packTime;
+	}
+
+	/**
+	 * Gets the time spent building this atlas: reading and hashing the images, and packing or loading the pages.
+	 * The pages are not uploaded to GL until first used.
+	 * @return
+	 * The time, in nanoseconds.
+	 */
+	public long getBuildTime()
+	{
+		return buildTime;
+	}
+
+	/**
+	 * Checks if this atlas was loaded from the cache, rather than packed.
+	 * @return
+	 * True if it was, else false.
+	 */
+	public boolean isFromCache()
+	{
+		return fromCache;
+	}
+
+	/**
+	 * Gets the hash this atlas is cached under.
+	 * @return
+	 * The hash, in hexadecimal.
+	 */
+	public String getHash()
+	{
+		return hash;
+	}
+
+	@Override
+	public String toString()
+	{
+		return String.format("%d images in %d pages, %.1f%% density, packed in %.2f ms, built in %.2f ms%s",
+				packedImages, pages.size(), getDensity() * 100, packTime / 1e6, buildTime / 1e6,
+				fromCache ? " (cached)" : "");
+	}
+
+	//
+	// Private methods
+	//
+
+	/**
+	 * Packs the images into pages, writes them to the cache directory, and adds them to this atlas.
+	 */
+	private ArrayList<Entry> pack(TreeMap<String, byte[]> images, int pageSize, File directory) throws IOException
+	{
+		ArrayList<Entry> entries = new ArrayList<Entry>();
+		ArrayList<BufferedImage> decoded = new ArrayList<BufferedImage>();
+		for(java.util.Map.Entry<String, byte[]> image : images.entrySet()) {
+			BufferedImage b = ImageIO.read(new ByteArrayInputStream(image.getValue()));
+			if(b == null)
+				throw new IOException("Could not decode the image " + image.getKey() + ".");
+			if(b.getWidth() + 2 * padding > pageSize || b.getHeight() + 2 * padding > pageSize)
+				continue;
+			Entry e = new Entry(image.getKey(), b.getWidth(), b.getHeight());
+			e.image = decoded.size();
+			decoded.add(b);
+			entries.add(e);
+		}
+		Collections.sort(entries, new Comparator<Entry>() {
+			@Override
+			public int compare(Entry a, Entry b) {
+				int sideA = Math.max(a.width, a.height), sideB = Math.max(b.width, b.height);
+				if(sideA != sideB)
+					return sideB - sideA;
+				if(a.height != b.height)
+					return b.height - a.height;
+				return a.filename.compareTo(b.filename);
+			}
+		});
+
+		long start = System.nanoTime();
+		ArrayList<MaxRectsPacker> packers = new ArrayList<MaxRectsPacker>();
+		for(Entry e : entries) {
+			int[] position = null;
+			int page = 0;
+			for(; page < packers.size(); page++)
+				if((position = packers.get(page).insert(e.width + 2 * padding, e.height + 2 * padding)) != null)
+					break;
+			if(position == null) {
+				packers.add(new MaxRectsPacker(pageSize, pageSize));
+				position = packers.get(page).insert(e.width + 2 * padding, e.height + 2 * padding);
+			}
+			e.page = page;
+			e.x = position[0] + padding;
+			e.y = position[1] + padding;
+		}
+		packTime = System.nanoTime() - start;
+
+		//Write to a new directory first, so that a half-written atlas is never found in the cache.
+		File temporary = new File(directory.getPath() + ".tmp");
+		if(!temporary.isDirectory() && !temporary.mkdirs())
+			throw new IOException("Could not create the directory " + temporary + ".");
+		for(int p = 0; p < packers.size(); p++) {
+			int width = Integer.highestOneBit(Math.max(packers.get(p).getUsedWidth() - 1, 1)) << 1;
+			int height = Integer.highestOneBit(Math.max(packers.get(p).getUsedHeight() - 1, 1)) << 1;
+			BufferedImage page = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+			for(Entry e : entries)
+				if(e.page == p)
+					draw(page, decoded.get(e.image), e.x, e.y);
+			ImageIO.write(page, "png", new File(temporary, getPageName(p)));
+			pageWidths.add(width);
+			pageHeights.add(height);
+			pageArea += (long) width * height;
+		}
+		for(Entry e : entries)
+			usedArea += (long) e.width * e.height;
+
+		try (DataOutputStream d = new DataOutputStream(new FileOutputStream(new File(temporary, dataFileName)))) {
+			d.writeInt(formatVersion);
+			d.writeLong(packTime);
+			d.writeInt(packers.size());
+			for(int p = 0; p < packers.size(); p++) {
+				d.writeInt(pageWidths.get(p));
+				d.writeInt(pageHeights.get(p));
+			}
+			d.writeInt(entries.size());
+			for(Entry e : entries) {
+				d.writeUTF(e.filename);
+				d.writeInt(e.page);
+				d.writeInt(e.x);
+				d.writeInt(e.y);
+				d.writeInt(e.width);
+				d.writeInt(e.height);
+			}
+		}
+		if(!temporary.renameTo(directory))
+			throw new IOException("Could not move the atlas to " + directory + ".");
+		for(int p = 0; p < packers.size(); p++)
+			pages.add(new TextureObject(new File(directory, getPageName(p)).getPath(), 1, 1));
+		return entries;
+	}
+
+	/**
+	 * Reads a cached atlas, and adds its pages to this atlas.
+	 */
+	private ArrayList<Entry> load(File directory) throws IOException
+	{
+		ArrayList<Entry> entries = new ArrayList<Entry>();
+		try (DataInputStream d = new DataInputStream(new FileInputStream(new File(directory, dataFileName)))) {
+			if(d.readInt() != formatVersion)
+				throw new IOException("The cached atlas in " + directory + " has an unknown format.");
+			packTime = d.readLong();
+			int pageCount = d.readInt();
+			for(int p = 0; p < pageCount; p++) {
+				pageWidths.add(d.readInt());
+				pageHeights.add(d.readInt());
+				pageArea += (long) pageWidths.get(p) * pageHeights.get(p);
+				pages.add(new TextureObject(new File(directory, getPageName(p)).getPath(), 1, 1));
+			}
+			int count = d.readInt();
+			for(int i = 0; i < count; i++) {
+				Entry e = new Entry(d.readUTF(), 0, 0);
+				e.page = d.readInt();
+				e.x = d.readInt();
+				e.y = d.readInt();
+				e.width = d.readInt();
+				e.height = d.readInt();
+				usedArea += (long) e.width * e.height;
+				entries.add(e);
+			}
+		}
+		return entries;
+	}
+
+	/**
+	 * Draws an image into a page, and repeats its edge pixels into the padding around it.
+	 */
+	private static void draw(BufferedImage page, BufferedImage image, int x, int y)
+	{
+		int w = image.getWidth(), h = image.getHeight();
+		int[] pixels = image.getRGB(0, 0, w, h, null, 0, w);
+		page.setRGB(x, y, w, h, pixels, 0, w);
+		for(int py = -padding; py < h + padding; py++) {
+			int sy = Math.min(Math.max(py, 0), h - 1);
+			for(int px = -padding; px < w + padding; px++) {
+				if(px == 0 && py >= 0 && py < h)
+					px = w;
+				int sx = Math.min(Math.max(px, 0), w - 1);
+				page.setRGB(x + px, y + py, pixels[sy * w + sx]);
+			}
+		}
+	}
+
+	private static String getPageName(int page)
+	{
+		return "page" + page + ".png";
+	}
+
+	private static String getHash(TreeMap<String, byte[]> images, int pageSize) throws IOException
+	{
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-1");
+			digest.update(("v" + formatVersion + " " + pageSize + " " + padding).getBytes("UTF-8"));
+			for(java.util.Map.Entry<String, byte[]> image : images.entrySet()) {
+				digest.update(image.getKey().getBytes("UTF-8"));
+				digest.update((byte) 0);
+				digest.update(image.getValue());
+			}
+			StringBuilder ret = new StringBuilder();
+			for(byte b : digest.digest())
+				ret.append(String.format("%02x", b & 0xFF));
+			return ret.toString();
+		} catch (NoSuchAlgorithmException e) {
+			throw new IOException("SHA-1 is not available.", e);
+		}
+	}
+
+	/**
+	 * Where one image was placed.
+	 */
+	private static class Entry
+	{
+		final String filename;
+		int width, height;
+		int page, x, y;
+		int image;
+
+		Entry(String filename, int width, int height)
+		{
+			this.filename = filename;
+			this.width = width;
+			this.height = height;
+		}
+	}
+}
@@ -33,6 +33,20 @@ public class TextureBatch
 			return batch.get(index);
 	}
 	
+	/**
+	 * Gets the texture in this batch created from the specified file.
+	 * @param filename - The filename of the texture.
+	 * @return
+	 * The first texture with the specified filename. If no such texture is in this batch, null.
+	 */
+	public TextureObject getTexture(String filename)
+	{
+		for(TextureObject t : batch)
+			if(t.getFilename().equals(filename))
+				return t;
+		return null;
+	}
+	
 	public int numberOfTextures()
 	{
 		return batch.size();
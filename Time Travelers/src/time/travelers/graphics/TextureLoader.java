@@ -0,0 +1,540 @@
+package time.travelers.graphics;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.media.opengl.GL;
+import javax.media.opengl.GLException;
+import javax.media.opengl.GLProfile;
+
+import time.travelers.util.TimeHistogram;
+
+import com.jogamp.common.util.IOUtil;
+import com.jogamp.opengl.util.texture.Texture;
+import com.jogamp.opengl.util.texture.TextureData;
+import com.jogamp.opengl.util.texture.TextureIO;
+
+/**
+ * Loads the textures of TextureObjects without blocking the GL thread on decoding.
+ * <br><br>
+ * Image files are decoded into TextureData by a pool of worker threads. The GL thread then uploads the decoded textures
+ * from {@code uploadPending}, once per frame, until the upload budget of the frame is spent. Textures asked for as
+ * on-screen are decoded and uploaded before those loaded in the background; a texture already waiting in the background
+ * is moved ahead when it is asked for on-screen.
+ * <br><br>
+ * Loaded textures are kept in the TextureRegistry of TextureObject. A file whose texture is registered, under its path
+ * or its contents, is not decoded again; nor is a file while it is being loaded. The time each texture waited, took to
+ * decode and took to upload is kept for the last {@code keptTimings} textures, and can be printed when it is ready.
+ * <br><br>
+ * {@code request} may be called from any thread; {@code uploadPending} only from the GL thread.
+ * @author Grevor
+ * @see GraphicsEngine#getTextureLoader()
+ */
+public class TextureLoader
+{
+	/**
+	 * The default time the GL thread may spend uploading textures per frame, in nanoseconds.
+	 */
+	public static final long defaultUploadBudget = 2000000;
+	/**
+	 * The number of textures whose timings are kept.
+	 */
+	public static final int keptTimings = 256;
+
+	private final GLProfile profile;
+	private final ForkJoinPool pool;
+	private final boolean ownsPool;
+	private final long createdAt = System.nanoTime();
+	private final TextureRegistry registry = TextureObject.getRegistry();
+	/**
+	 * The files being loaded, by canonical path. An entry is removed once its texture is registered.
+	 */
+	private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+	/**
+	 * The files waiting to be decoded. Each request in it has one decoding task in the pool, which takes whichever request
+	 * comes first when it runs, so that a texture moved ahead is decoded by the next free worker.
+	 */
+	private final PriorityBlockingQueue<Request> pending = new PriorityBlockingQueue<Request>();
+	private final AtomicLong requestCount = new AtomicLong();
+	/**
+	 * The entries decoded, or asked for again after uploading, not yet taken up by the GL thread.
+	 */
+	private final ConcurrentLinkedQueue<Entry> decoded = new ConcurrentLinkedQueue<Entry>();
+	private final Runnable decodeNext = new Runnable() {
+		@Override
+		public void run() {
+			Request r = pending.poll();
+			if(r != null && r.entry.started.compareAndSet(false, true))
+				decode(r.entry);
+		}
+	};
+
+	//Only touched by the GL thread.
+	private final ArrayList<Entry> ready = new ArrayList<Entry>();
+	private final TimeHistogram uploadTimes = new TimeHistogram();
+	private long uploads = 0;
+
+	/**
+	 * The timings of the last {@code keptTimings} textures uploaded, oldest first.
+	 */
+	private final ArrayDeque<Timing> timings = new ArrayDeque<Timing>(keptTimings);
+	private volatile long uploadBudget = defaultUploadBudget;
+	private volatile PrintStream timingOutput;
+
+	/**
+	 * Creates a new TextureLoader, with a pool of one thread per processor.
+	 * @param profile - The GL profile the textures are decoded for.
+	 */
+	public TextureLoader(GLProfile profile)
+	{
+		this(profile, new ForkJoinPool(), true);
+	}
+
+	/**
+	 * Creates a new TextureLoader.
+	 * @param profile - The GL profile the textures are decoded for.
+	 * @param pool - The pool to decode textures in.
+	 */
+	public TextureLoader(GLProfile profile, ForkJoinPool pool)
+	{
+		this(profile, pool, false);
+	}
+
+	private TextureLoader(GLProfile profile, ForkJoinPool pool, boolean ownsPool)
+	{
+		this.profile = profile;
+		this.pool = pool;
+		this.ownsPool = ownsPool;
+	}
+
+	/**
+	 * Asks for the texture bound by a TextureObject to be loaded. Nothing is done if it is already loaded, if it failed
+	 * to load, or if it is being loaded with at least the same priority.
+	 * @param t - The TextureObject. Its binding is loaded, so that all textures of an atlas page share one load.
+	 * @param onScreen - True if the texture is needed to draw the current frame, false to load it in the background.
+	 */
+	public void request(TextureObject t, boolean onScreen)
+	{
+		TextureObject binding = t.getBinding();
+		if(binding.isLoaded())
+			return;
+		String path = binding.getCanonicalPath();
+		Entry e = entries.get(path);
+		if(e == null) {
+			Texture registered = registry.acquire(path, binding);
+			if(registered != null) {
+				binding.setTexture(registered);
+				return;
+			}
+			Entry created = new Entry(binding.getFilename(), path, onScreen);
+			e = entries.putIfAbsent(path, created);
+			if(e == null) {
+				created.addWaiter(binding);
+				submit(created, onScreen);
+				return;
+			}
+		}
+		if(e.failed)
+			return;
+		if(e.addWaiter(binding) && e.uploaded)
+			decoded.add(e);
+		if(onScreen && !e.onScreen) {
+			e.onScreen = true;
+			if(!e.started.get())
+				submit(e, true);
+		}
+	}
+
+	/**
+	 * Uploads decoded textures to GL, on-screen ones first, until the upload budget is spent. At least one texture is
+	 * uploaded per call if any is decoded, so that loading always moves on. Must be called on the GL thread, with the GL
+	 * context current.
+	 * @param device - The GL device.
+	 * @return
+	 * The number of textures uploaded.
+	 */
+	public int uploadPending(GL device)
+	{
+		Entry d;
+		while((d = decoded.poll()) != null)
+			ready.add(d);
+		if(ready.isEmpty())
+			return 0;
+
+		long start = System.nanoTime();
+		int count = 0;
+		while(!ready.isEmpty()) {
+			if(count > 0 && System.nanoTime() - start >= uploadBudget)
+				break;
+			Entry e = ready.remove(nextReady());
+			if(!e.uploaded) {
+				if(upload(e))
+					count++;
+			}
+			//Failed files are kept, so that they are not read again.
+			if(!e.failed) {
+				e.assignWaiters(registry);
+				entries.remove(e.path, e);
+			}
+		}
+		if(count > 0) {
+			uploadTimes.record(System.nanoTime() - start);
+			uploads += count;
+		}
+		return count;
+	}
+
+	/**
+	 * Sets the time the GL thread may spend uploading textures per frame.
+	 * @param nanos - The budget, in nanoseconds.
+	 */
+	public void setUploadBudget(long nanos)
+	{
+		this.uploadBudget = nanos;
+	}
+
+	public long getUploadBudget()
+	{
+		return uploadBudget;
+	}
+
+	/**
+	 * Gets the time spent uploading textures in each frame that uploaded any. A long upload is a visible hitch.
+	 * @return
+	 * The histogram of upload times per frame.
+	 */
+	public TimeHistogram getUploadTimes()
+	{
+		return uploadTimes;
+	}
+
+	/**
+	 * Gets the number of textures uploaded.
+	 * @return
+	 * The number of textures.
+	 */
+	public long getUploads()
+	{
+		return uploads;
+	}
+
+	/**
+	 * Gets the number of textures asked for which are not yet uploaded.
+	 * @return
+	 * The number of textures.
+	 */
+	public int getPendingCount()
+	{
+		int count = 0;
+		for(Entry e : entries.values())
+			if(!e.uploaded)
+				count++;
+		return count;
+	}
+
+	/**
+	 * Gets the timings of the last {@code keptTimings} textures uploaded, in the order they were uploaded.
+	 * @return
+	 * A copy of the timings.
+	 */
+	public ArrayList<Timing> getTimings()
+	{
+		synchronized(timings) {
+			return new ArrayList<Timing>(timings);
+		}
+	}
+
+	/**
+	 * Sets a stream to print the timing of each texture to, when it is uploaded. Printing is done on the GL thread.
+	 * @param out - The stream, or null to not print. Null by default.
+	 */
+	public void setTimingOutput(PrintStream out)
+	{
+		this.timingOutput = out;
+	}
+
+	/**
+	 * Stops decoding. Textures not yet decoded are never loaded. The pool is shut down if the loader made it.
+	 */
+	public void shutdown()
+	{
+		pending.clear();
+		if(ownsPool)
+			pool.shutdownNow();
+	}
+
+	//
+	// Private methods
+	//
+
+	private void submit(Entry e, boolean onScreen)
+	{
+		pending.add(new Request(e, onScreen, requestCount.getAndIncrement()));
+		pool.execute(decodeNext);
+	}
+
+	/**
+	 * Decodes the file of an entry, on a worker thread, and hands it to the GL thread.
+	 */
+	private void decode(Entry e)
+	{
+		e.decodeStart = System.nanoTime();
+		try {
+			byte[] contents = Files.readAllBytes(new File(e.filename).toPath());
+			e.hash = TextureRegistry.hash(contents);
+			//A copy of a registered image is shared by the GL thread, without decoding it.
+			if(!registry.containsHash(e.hash)) {
+				e.data = TextureIO.newTextureData(profile, new ByteArrayInputStream(contents), true, 
+						IOUtil.getFileSuffix(e.filename));
+				if(e.data == null) {
+					System.out.println("Error while reading TextureData from file \"" + e.filename + "\": Unknown format.");
+					e.failed = true;
+				}
+			}
+		} catch (GLException | IOException ex) {
+			e.failed = true;
+			System.out.println("Error while reading TextureData from file \"" + e.filename + "\": Cannot read data.");
+			ex.printStackTrace();
+		}
+		e.decodeEnd = System.nanoTime();
+		decoded.add(e);
+	}
+
+	/**
+	 * Gets the index in the ready list of the entry to upload next: the first on-screen one, else the first one.
+	 */
+	private int nextReady()
+	{
+		for(int i = 0; i < ready.size(); i++)
+			if(ready.get(i).onScreen)
+				return i;
+		return 0;
+	}
+
+	/**
+	 * Uploads and registers the texture of an entry, or takes the registered texture of the same contents.
+	 * @return
+	 * True if a texture was uploaded.
+	 */
+	private boolean upload(Entry e)
+	{
+		long start = System.nanoTime();
+		Texture texture = null;
+		if(e.data != null) {
+			try {
+				texture = TextureIO.newTexture(e.data);
+			} catch (GLException ex) {
+				System.out.println("Error while uploading texture \"" + e.filename + "\".");
+				ex.printStackTrace();
+			}
+			e.data.flush();
+			e.data = null;
+			if(texture != null)
+				registry.register(e.path, e.hash, texture, null);
+			else
+				e.failed = true;
+		} else if(!e.failed) {
+			registry.acquireByHash(e.path, e.hash, null);
+		}
+		long end = System.nanoTime();
+		e.uploaded = true;
+		if(texture == null)
+			return false;
+
+		Timing t = new Timing(e.filename, e.onScreen, e.decodeStart - e.requestedAt, e.decodeEnd - e.decodeStart,
+				end - start, end - e.requestedAt, end - createdAt);
+		synchronized(timings) {
+			if(timings.size() == keptTimings)
+				timings.removeFirst();
+			timings.addLast(t);
+		}
+		PrintStream out = timingOutput;
+		if(out != null)
+			out.println(t);
+		return true;
+	}
+
+	/**
+	 * The loading state of one file.
+	 */
+	private static class Entry
+	{
+		final String filename, path;
+		final long requestedAt = System.nanoTime();
+		final AtomicBoolean started = new AtomicBoolean();
+		final ArrayList<TextureObject> waiters = new ArrayList<TextureObject>(2);
+		volatile boolean onScreen;
+		volatile TextureData data;
+		volatile String hash;
+		volatile long decodeStart, decodeEnd;
+		/**
+		 * Set by the GL thread once the texture is registered, or has failed to load.
+		 */
+		volatile boolean uploaded, failed;
+
+		Entry(String filename, String path, boolean onScreen)
+		{
+			this.filename = filename;
+			this.path = path;
+			this.onScreen = onScreen;
+		}
+
+		/**
+		 * Adds a TextureObject to be given the texture once it is uploaded.
+		 * @return
+		 * True if it was not already waiting.
+		 */
+		synchronized boolean addWaiter(TextureObject t)
+		{
+			if(waiters.contains(t))
+				return false;
+			waiters.add(t);
+			return true;
+		}
+
+		/**
+		 * Gives the registered texture to every TextureObject waiting for it. If the texture was evicted meanwhile, they
+		 * are left unloaded, to ask for it again.
+		 */
+		synchronized void assignWaiters(TextureRegistry registry)
+		{
+			for(int i = 0; i < waiters.size(); i++) {
+				Texture t = registry.share(path, waiters.get(i));
+				if(t != null)
+					waiters.get(i).setTexture(t);
+			}
+			waiters.clear();
+		}
+	}
+
+	/**
+	 * One request to decode an entry. On-screen requests come first, then older ones.
+	 */
+	private static class Request implements Comparable<Request>
+	{
+		final Entry entry;
+		final boolean onScreen;
+		final long sequence;
+
+		Request(Entry entry, boolean onScreen, long sequence)
+		{
+			this.entry = entry;
+			this.onScreen = onScreen;
+			this.sequence = sequence;
+		}
+
+		@Override
+		public int compareTo(Request o)
+		{
+			if(onScreen != o.onScreen)
+				return onScreen ? -1 : 1;
+			return Long.compare(sequence, o.sequence);
+		}
+	}
+
+	/**
+	 * How long loading one texture took.
+	 */
+	public static final class Timing
+	{
+		private final String filename;
+		private final boolean onScreen;
+		private final long waitTime, decodeTime, uploadTime, readyTime, sinceStart;
+
+		Timing(String filename, boolean onScreen, long waitTime, long decodeTime, long uploadTime, long readyTime,
+				long sinceStart)
+		{
+			this.filename = filename;
+			this.onScreen = onScreen;
+			this.waitTime = waitTime;
+			this.decodeTime = decodeTime;
+			this.uploadTime = uploadTime;
+			this.readyTime = readyTime;
+			this.sinceStart = sinceStart;
+		}
+
+		public String getFilename()
+		{
+			return filename;
+		}
+
+		/**
+		 * Tells if the texture was needed on-screen when it was uploaded.
+		 * @return
+		 * True if it was needed on-screen, false if it was loaded in the background.
+		 */
+		public boolean isOnScreen()
+		{
+			return onScreen;
+		}
+
+		/**
+		 * Gets the time from the first request for the texture until a worker started decoding it, in nanoseconds.
+		 * @return
+		 * The time.
+		 */
+		public long getWaitTime()
+		{
+			return waitTime;
+		}
+
+		/**
+		 * Gets the time a worker spent decoding the texture, in nanoseconds.
+		 * @return
+		 * The time.
+		 */
+		public long getDecodeTime()
+		{
+			return decodeTime;
+		}
+
+		/**
+		 * Gets the time the GL thread spent uploading the texture, in nanoseconds. This is the hitch the texture caused.
+		 * @return
+		 * The time.
+		 */
+		public long getUploadTime()
+		{
+			return uploadTime;
+		}
+
+		/**
+		 * Gets the time from the first request for the texture until it was uploaded, in nanoseconds.
+		 * @return
+		 * The time.
+		 */
+		public long getReadyTime()
+		{
+			return readyTime;
+		}
+
+		/**
+		 * Gets the time from the creation of the loader until the texture was uploaded, in nanoseconds.
+		 * @return
+		 * The time.
+		 */
+		public long getTimeSinceStart()
+		{
+			return sinceStart;
+		}
+
+		@Override
+		public String toString()
+		{
+			return String.format("Texture \"%s\" loaded%s: waited %.2f ms, decoded in %.2f ms, uploaded in %.2f ms, "
+					+ "ready after %.2f ms (%.2f ms since start).", filename, onScreen ? " on-screen" : "",
+					waitTime / 1e6, decodeTime / 1e6, uploadTime / 1e6, readyTime / 1e6, sinceStart / 1e6);
+		}
+	}
+}
@@ -1,17 +1,21 @@
 package time.travelers.graphics;
 
 import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
 import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
 import java.util.ArrayList;
-import java.util.Hashtable;
 
 import javax.media.opengl.GL;
 import javax.media.opengl.GL2;
 import javax.media.opengl.GLException;
 
+import com.jogamp.common.util.IOUtil;
 import com.jogamp.opengl.util.texture.Texture;
 import com.jogamp.opengl.util.texture.TextureIO;
 /**
@@ -22,15 +26,38 @@ import com.jogamp.opengl.util.texture.TextureIO;
 public class TextureObject {
 	//The number of vertices per object. for this 2d package, everything is thought of to be circles.
 	private static final int verticesPerObject=4;
+	/**
+	 * The number of floats per frame in the frame table, laid out as {@code u0, v0, u1, v1}.
+	 */
+	public static final int floatsPerFrame = 4;
 	//Contains all initialized textures.
-	private static Hashtable<String,Texture> textureTable=new Hashtable<String,Texture>(10);
+	private static final TextureRegistry registry = new TextureRegistry();
 
 	private boolean hasTriedInit=false;
-	private Texture tex;
+	private volatile Texture tex;
 	private final String filename;
+	private String canonicalPath;
 	private ArrayList<Animation> animations = new ArrayList<Animation>(10);
 	private final int framesX, framesY;
 	private final double frameWidth,frameHeight;
+	/**
+	 * The atlas page this texture is drawn from, if any, and the region of the page holding its image, in texture 
+	 * coordinates and in pixels. Without an atlas page, the region is the whole texture.
+	 * @see TextureAtlas
+	 */
+	private TextureObject atlasPage;
+	private double atlasX = 0, atlasY = 0, atlasWidth = 1, atlasHeight = 1;
+	private int atlasPixelWidth, atlasPixelHeight;
+	/**
+	 * The texture coordinates of every frame, {@code floatsPerFrame} floats each, frames counted row by row. 
+	 * The table is never changed once built; moving this texture into an atlas builds a new one.
+	 */
+	private float[] frameTable;
+	/**
+	 * True if the image has texels which are neither opaque nor fully transparent, so that its sprites must be drawn
+	 * back to front and blended, instead of only alpha tested.
+	 */
+	private volatile boolean translucent = false;
 
 	/**
 	 * Creates a new TextureObject, with data from the specified file.
@@ -45,6 +72,7 @@ public class TextureObject {
 		this.framesY = framesY;
 		this.frameWidth = 1.0 / framesX;
 		this.frameHeight = 1.0 / framesY;
+		this.frameTable = buildFrameTable();
 	}
 
 	/**
@@ -102,29 +130,41 @@ public class TextureObject {
 	}
 
 	/**
-	 * Gets all vertex coordinates for this texture, given the specified frame.
+	 * Gets all vertex coordinates for this texture, given the specified frame. 
+	 * This allocates a new array; {@code getFrameOffset} and the frame table do not.
 	 * @param frame - The frame to get coordinates for.
 	 * @return
-	 * The TextureCoordinates corresponding to the specified frame in this TextureObject, given the frame exists.
-	 * Else, the first frame of this TextureObject is returned.
+	 * The TextureCoordinates corresponding to the specified frame in this TextureObject, as {@code x, y, width, height}, 
+	 * given the frame exists. Else, the first frame of this TextureObject is returned.
 	 */
 	public double[] getTextureCoords(int frame)
 	{
-		//Gets the texture-frame.
-		int xFrame = frame % this.framesX;
-		int yFrame = frame / this.framesX;
-		
-		double startx=frameWidth * xFrame;
-		double starty=frameHeight * yFrame;
-		
-		double[] texCoords = new double[] 
-				{
-					startx, 	starty,
-					frameWidth, frameHeight
-				};
-
-
-		return texCoords;
+		float[] table = this.frameTable;
+		int f = getFrameOffset(frame);
+		return new double[] { table[f], table[f + 1], table[f + 2] - table[f], table[f + 3] - table[f + 1] };
+	}
+	
+	/**
+	 * Gets the table of texture coordinates of all frames of this texture. Frame {@code i} takes the floats 
+	 * {@code [getFrameOffset(i), getFrameOffset(i) + floatsPerFrame)}, as {@code u0, v0, u1, v1}, where (u0, v0) is the 
+	 * upper left corner.
+	 * @return
+	 * The table. It is shared, and must not be changed.
+	 */
+	float[] getFrameTable()
+	{
+		return this.frameTable;
+	}
+	
+	/**
+	 * Gets where a frame starts in the frame table.
+	 * @param frame - The frame.
+	 * @return
+	 * The index of the first float of the frame, given the frame exists. Else, that of the first frame.
+	 */
+	public int getFrameOffset(int frame)
+	{
+		return frame >= 0 && frame < framesX * framesY ? frame * floatsPerFrame : 0;
 	}
 
 	/**
@@ -133,6 +173,8 @@ public class TextureObject {
 	 */
 	public Texture getTexture()
 	{
+		if(atlasPage != null)
+			return atlasPage.getTexture();
 		if(!hasTriedInit && tex == null)
 		{
 			hasTriedInit = true;
@@ -141,6 +183,58 @@ public class TextureObject {
 		return this.tex;
 	}
 	
+	/**
+	 * Gets the registry of all uploaded textures, shared by every TextureObject.
+	 * @return
+	 * The registry.
+	 */
+	public static TextureRegistry getRegistry()
+	{
+		return registry;
+	}
+	
+	/**
+	 * Tells if the texture bound by this TextureObject is uploaded. Unlike {@code getTexture}, this never loads it.
+	 * @return
+	 * True if the texture can be enabled.
+	 */
+	public boolean isLoaded()
+	{
+		return getBinding().tex != null;
+	}
+	
+	/**
+	 * Sets the texture of this TextureObject, as loaded by a TextureLoader. The texture must be registered, with this 
+	 * TextureObject counted as using it.
+	 * @param t - The texture.
+	 */
+	void setTexture(Texture t)
+	{
+		this.hasTriedInit = true;
+		this.tex = t;
+	}
+	
+	/**
+	 * Forgets the texture of this TextureObject, as it was evicted from the registry. It is loaded again when next needed.
+	 */
+	void unload()
+	{
+		this.tex = null;
+		this.hasTriedInit = false;
+	}
+	
+	/**
+	 * Gets the canonical path of the file of this TextureObject, the key of its texture in the registry.
+	 * @return
+	 * The path.
+	 */
+	String getCanonicalPath()
+	{
+		if(canonicalPath == null)
+			canonicalPath = TextureRegistry.canonicalPath(filename);
+		return canonicalPath;
+	}
+	
 	/**
 	 * Enables and binds this texture.
 	 * @param device - The GL device to use.
@@ -148,10 +242,54 @@ public class TextureObject {
 	public void enable(GL device)
 	{
 		Texture t = this.getTexture();
+		registry.touch(t);
 		t.enable(device);
 		t.bind(device);
 	}
 	
+	/**
+	 * Gets the TextureObject whose texture is bound when this one is enabled. Sprites of TextureObjects with the same 
+	 * binding can be drawn together.
+	 * @return
+	 * The atlas page of this TextureObject, or this TextureObject if it has none.
+	 */
+	public TextureObject getBinding()
+	{
+		return atlasPage != null ? atlasPage : this;
+	}
+	
+	/**
+	 * Gets the atlas page this TextureObject is drawn from.
+	 * @return
+	 * The page, or null if this TextureObject is not in an atlas.
+	 */
+	public TextureObject getAtlasPage()
+	{
+		return atlasPage;
+	}
+	
+	/**
+	 * Makes this TextureObject draw from a region of an atlas page.
+	 * @param page - The atlas page.
+	 * @param x - The left edge of the region, in texture coordinates of the page.
+	 * @param y - The bottom edge of the region, in texture coordinates of the page, where v goes up from the bottom row.
+	 * @param width - The width of the region, in texture coordinates of the page.
+	 * @param height - The height of the region, in texture coordinates of the page.
+	 * @param pixelWidth - The width of the region, in pixels.
+	 * @param pixelHeight - The height of the region, in pixels.
+	 */
+	void setAtlasRegion(TextureObject page, double x, double y, double width, double height, int pixelWidth, int pixelHeight)
+	{
+		this.atlasPage = page;
+		this.atlasX = x;
+		this.atlasY = y;
+		this.atlasWidth = width;
+		this.atlasHeight = height;
+		this.atlasPixelWidth = pixelWidth;
+		this.atlasPixelHeight = pixelHeight;
+		this.frameTable = buildFrameTable();
+	}
+	
 	/**
 	 * Disables this texture.
 	 * @param device - The GL device to use.
@@ -163,35 +301,44 @@ public class TextureObject {
 	}
 	
 	/**
-	 * Gets or otherwise initializes the texture of this TextureObject, if possible.
-	 * @return
+	 * Builds the frame table from the frame layout and the atlas region.
 	 */
-	private Texture getTextureImpl()
+	private float[] buildFrameTable()
 	{
-		if(!textureTable.contains(this.filename))
-		{
-			if(textureTable.contains(this.filename))
-				return textureTable.get(this.filename);
-			else
-				return getAndAddTextureToTable(new File(this.filename), this.filename);
+		float[] table = new float[Math.max(framesX * framesY, 1) * floatsPerFrame];
+		for(int frame = 0; frame < framesX * framesY; frame++) {
+			double x = atlasX + frameWidth * atlasWidth * (frame % framesX);
+			double y = atlasY + frameHeight * atlasHeight * (frame / framesX);
+			int f = frame * floatsPerFrame;
+			table[f] = (float) x;
+			table[f + 1] = (float) y;
+			table[f + 2] = (float) (x + frameWidth * atlasWidth);
+			table[f + 3] = (float) (y + frameHeight * atlasHeight);
 		}
-		return this.tex;
+		return table;
 	}
 	
 	/**
-	 * Adds the texture to the Texture-table.
-	 * @param textureFile - The file.
-	 * @param filename - The filename of the file.
+	 * Gets the texture of this TextureObject from the registry, or otherwise reads, uploads and registers it, if possible.
+	 * A file is only read if its path is not registered, and only uploaded if its contents are not either.
 	 * @return
-	 * The Texture that was added to the table. If an exception occurred and no texture was added, returns null.
+	 * The texture. If an exception occurred and no texture was found, returns null.
 	 */
-	private static Texture getAndAddTextureToTable(File textureFile,String filename)
+	private Texture getTextureImpl()
 	{
+		String path = getCanonicalPath();
+		Texture ret = registry.acquire(path, this);
+		if(ret != null)
+			return ret;
 		try
 		{
-			Texture ret = TextureIO.newTexture(textureFile, true);
-			TextureObject.textureTable.put(filename, ret);
-			return ret;
+			byte[] contents = Files.readAllBytes(new File(this.filename).toPath());
+			String hash = TextureRegistry.hash(contents);
+			ret = registry.acquireByHash(path, hash, this);
+			if(ret != null)
+				return ret;
+			ret = TextureIO.newTexture(new ByteArrayInputStream(contents), true, IOUtil.getFileSuffix(this.filename));
+			return registry.register(path, hash, ret, this);
 		} 
 		catch (GLException | IOException e) 
 		{
@@ -209,6 +356,36 @@ public class TextureObject {
 	//**************************************************************************************
 	
 	
+	/**
+	 * Tells if sprites of this texture are blended, and so must be drawn back to front after the opaque ones.
+	 * @return
+	 * True if the texture is translucent.
+	 */
+	public boolean isTranslucent()
+	{
+		return this.translucent;
+	}
+	
+	/**
+	 * Sets if sprites of this texture are blended. Textures are thought to be opaque, with fully transparent texels 
+	 * dropped by the alpha test, unless set otherwise.
+	 * @param translucent - True if the texture has texels which are neither opaque nor fully transparent.
+	 */
+	public void setTranslucent(boolean translucent)
+	{
+		this.translucent = translucent;
+	}
+	
+	/**
+	 * Gets the name of the file this TextureObject gets its data from.
+	 * @return
+	 * The filename.
+	 */
+	public String getFilename()
+	{
+		return this.filename;
+	}
+
 	/**
 	 * Gets the number of frames per row in this texture.
 	 * @return - The number of frames per row.
@@ -243,7 +420,9 @@ public class TextureObject {
 	 */
 	public int getTexelFrameWidth()
 	{
-		if(tex != null)
+		if(atlasPage != null)
+			return this.atlasPixelWidth / this.framesX;
+		else if(tex != null)
 			return this.tex.getWidth() / this.framesX;
 		else
 			return -1;
@@ -256,7 +435,9 @@ public class TextureObject {
 	 */
 	public int getTexelFrameHeight()
 	{
-		if(tex != null)
+		if(atlasPage != null)
+			return this.atlasPixelHeight / this.framesY;
+		else if(tex != null)
 			return this.tex.getHeight() / this.framesY;
 		else
 			return -1;
@@ -307,14 +488,15 @@ public class TextureObject {
 	 */
 	public static TextureObject fromStream(InputStream s)
 	{
-		DataInputStream d=new DataInputStream(new BufferedInputStream(s));
+		//Only add buffering when the stream cannot be reset by itself, as buffering may read past the TextureObject data.
+		DataInputStream d=new DataInputStream(s.markSupported() ? s : new BufferedInputStream(s));
 		d.mark(Integer.MAX_VALUE);
 		try 
 		{
 			TextureObject ret = new TextureObject(d.readUTF(), d.readInt(), d.readInt());
 			int animations = d.readInt();
 			for(;animations > 0; animations--)
-				ret.addAnimation(Animation.fromStream(s));
+				ret.addAnimation(Animation.fromStream(d));
 			return ret;
 		}
 		catch (IOException e) 
@@ -328,14 +510,35 @@ public class TextureObject {
 	}
 
 	/**
-	 * Disposes this TextureObjects native resources, and releases all pointers to it.
+	 * Writes a TextureObject to the specified stream, in the format read by {@code fromStream}.
+	 * @param t - The TextureObject to write.
+	 * @param s - The stream to write to.
+	 * @throws IOException If the stream could not be written to.
+	 */
+	public static void saveTextureObject(TextureObject t, OutputStream s) throws IOException
+	{
+		DataOutputStream d = new DataOutputStream(s);
+		d.writeUTF(t.filename);
+		d.writeInt(t.framesX);
+		d.writeInt(t.framesY);
+		d.writeInt(t.animations.size());
+		for(Animation a : t.animations)
+			Animation.saveAnimation(a, d);
+	}
+
+	/**
+	 * Releases this TextureObject's texture in the registry, and releases all pointers to it. The texture itself is 
+	 * destroyed by the registry once no TextureObject uses it, when it is evicted or {@code destroyUnused} is called.
 	 * @param device - The device that "owns" this TextureObject.
 	 */
 	public void dispose(GL2 device) {
-		if(this.tex != null)
+		if(this.atlasPage != null)
+			this.atlasPage.dispose(device);
+		Texture t = this.tex;
+		if(t != null)
 		{
-			tex.destroy(device);
-			tex = null;
+			registry.release(t, this);
+			unload();
 		}
 	}
 }
@@ -0,0 +1,412 @@
+package time.travelers.graphics;
+
+import java.io.File;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+
+import javax.media.opengl.GL;
+
+import com.jogamp.opengl.util.texture.Texture;
+
+/**
+ * Keeps every uploaded texture once, shared by all TextureObjects drawing it.
+ * <br><br>
+ * Textures are found by the canonical path of their file, so that different names of one file share a texture, and by
+ * a hash of the file's contents, so that copies of one image do too. Each texture counts the TextureObjects using it.
+ * <br><br>
+ * The textures are kept within a budget of video memory. When more is used, {@code trim} destroys the textures used
+ * longest ago: first those no TextureObject uses any more, then those not drawn in the current frame. The TextureObjects
+ * of a texture destroyed while in use are unloaded, and load it again the next time they are drawn. Textures drawn in the
+ * current frame are never destroyed, so the budget may be exceeded for a while.
+ * <br><br>
+ * The methods of this class are synchronized. Textures are only destroyed by {@code trim} and {@code destroyUnused},
+ * which must be called on the GL thread.
+ * @author Grevor
+ * @see TextureObject#getRegistry()
+ */
+public class TextureRegistry
+{
+	/**
+	 * The default video memory budget, in bytes.
+	 */
+	public static final long defaultBudget = 256L << 20;
+
+	private final HashMap<String, Entry> byPath = new HashMap<String, Entry>();
+	private final HashMap<String, Entry> byHash = new HashMap<String, Entry>();
+	private final IdentityHashMap<Texture, Entry> byTexture = new IdentityHashMap<Texture, Entry>();
+	/**
+	 * Textures registered while the same file or contents were already, to be destroyed by the GL thread.
+	 */
+	private final ArrayList<Texture> duplicates = new ArrayList<Texture>();
+	private long budget = defaultBudget;
+	private long usedBytes = 0;
+	private long frame = 0;
+	private long hits = 0, misses = 0, evictions = 0, evictedBytes = 0;
+
+	/**
+	 * Gets the texture registered for a file, and counts a TextureObject as using it.
+	 * @param path - The canonical path of the file.
+	 * @param user - The TextureObject which will use the texture.
+	 * @return
+	 * The texture, or null if none is registered for the file.
+	 */
+	public synchronized Texture acquire(String path, TextureObject user)
+	{
+		Entry e = byPath.get(path);
+		if(e == null) {
+			misses++;
+			return null;
+		}
+		hits++;
+		e.addUser(user);
+		return e.texture;
+	}
+
+	/**
+	 * Gets the texture registered for a file, and counts a TextureObject as using it, without counting a hit or miss.
+	 * Used to hand out a texture which was just registered.
+	 */
+	synchronized Texture share(String path, TextureObject user)
+	{
+		Entry e = byPath.get(path);
+		if(e == null)
+			return null;
+		e.addUser(user);
+		return e.texture;
+	}
+
+	/**
+	 * Gets the texture registered for the contents of a file, and counts a TextureObject as using it. If found, the file
+	 * is registered as another path of the texture.
+	 * @param path - The canonical path of the file.
+	 * @param hash - The hash of the file's contents, as made by {@code hash}.
+	 * @param user - The TextureObject which will use the texture, or null to only register the path.
+	 * @return
+	 * The texture, or null if none is registered for the contents.
+	 */
+	public synchronized Texture acquireByHash(String path, String hash, TextureObject user)
+	{
+		Entry e = byHash.get(hash);
+		if(e == null) {
+			misses++;
+			return null;
+		}
+		hits++;
+		if(byPath.put(path, e) == null)
+			e.paths.add(path);
+		e.addUser(user);
+		return e.texture;
+	}
+
+	/**
+	 * Tells if a texture is registered for some contents. Used to skip decoding files which would not be uploaded.
+	 * @param hash - The hash of the contents.
+	 * @return
+	 * True if a texture is registered for the contents.
+	 */
+	public synchronized boolean containsHash(String hash)
+	{
+		return byHash.containsKey(hash);
+	}
+
+	/**
+	 * Registers a newly uploaded texture, and counts a TextureObject as using it. If a texture was registered for the file
+	 * or its contents meanwhile, that one is used instead, and the new one is destroyed by the next {@code trim}.
+	 * @param path - The canonical path of the file.
+	 * @param hash - The hash of the file's contents.
+	 * @param t - The texture.
+	 * @param user - The TextureObject which will use the texture, or null to only register it.
+	 * @return
+	 * The texture to use.
+	 */
+	public synchronized Texture register(String path, String hash, Texture t, TextureObject user)
+	{
+		Entry e = byPath.get(path);
+		if(e == null)
+			e = byHash.get(hash);
+		if(e != null) {
+			if(e.texture != t)
+				duplicates.add(t);
+			if(byPath.put(path, e) == null)
+				e.paths.add(path);
+		} else {
+			e = new Entry(hash, t);
+			e.paths.add(path);
+			byPath.put(path, e);
+			byHash.put(hash, e);
+			byTexture.put(t, e);
+			usedBytes += e.bytes;
+		}
+		e.addUser(user);
+		e.lastUsed = frame;
+		return e.texture;
+	}
+
+	/**
+	 * Stops counting a TextureObject as using a texture. The texture is kept until it is evicted.
+	 * @param t - The texture.
+	 * @param user - The TextureObject.
+	 */
+	public synchronized void release(Texture t, TextureObject user)
+	{
+		Entry e = byTexture.get(t);
+		if(e != null)
+			e.users.remove(user);
+	}
+
+	/**
+	 * Marks a texture as drawn in the current frame.
+	 * @param t - The texture.
+	 */
+	public synchronized void touch(Texture t)
+	{
+		Entry e = byTexture.get(t);
+		if(e != null)
+			e.lastUsed = frame;
+	}
+
+	/**
+	 * Ends the current frame: destroys duplicate textures, and evicts textures until the budget is met.
+	 * Must be called on the GL thread, once per frame.
+	 * @param device - The GL device.
+	 * @return
+	 * The number of textures evicted.
+	 */
+	public synchronized int trim(GL device)
+	{
+		destroyDuplicates(device);
+		int count = 0;
+		if(usedBytes > budget) {
+			ArrayList<Entry> candidates = new ArrayList<Entry>();
+			for(Entry e : byTexture.values())
+				if(e.lastUsed < frame)
+					candidates.add(e);
+			Collections.sort(candidates, leastRecentlyUsed);
+			for(int i = 0; i < candidates.size() && usedBytes > budget; i++) {
+				evict(device, candidates.get(i));
+				count++;
+			}
+		}
+		frame++;
+		return count;
+	}
+
+	/**
+	 * Destroys every texture no TextureObject uses, whatever the budget. Must be called on the GL thread.
+	 * @param device - The GL device.
+	 * @return
+	 * The number of textures destroyed.
+	 */
+	public synchronized int destroyUnused(GL device)
+	{
+		destroyDuplicates(device);
+		ArrayList<Entry> unused = new ArrayList<Entry>();
+		for(Entry e : byTexture.values())
+			if(e.users.isEmpty())
+				unused.add(e);
+		for(Entry e : unused)
+			evict(device, e);
+		return unused.size();
+	}
+
+	/**
+	 * Sets the video memory the registered textures may use.
+	 * @param bytes - The budget, in bytes.
+	 */
+	public synchronized void setBudget(long bytes)
+	{
+		this.budget = bytes;
+	}
+
+	public synchronized long getBudget()
+	{
+		return budget;
+	}
+
+	/**
+	 * Gets the estimated video memory used by the registered textures.
+	 * @return
+	 * The memory, in bytes.
+	 */
+	public synchronized long getUsedBytes()
+	{
+		return usedBytes;
+	}
+
+	/**
+	 * Gets the number of textures registered.
+	 * @return
+	 * The number of textures.
+	 */
+	public synchronized int size()
+	{
+		return byTexture.size();
+	}
+
+	/**
+	 * Gets the number of TextureObjects using a texture.
+	 * @param t - The texture.
+	 * @return
+	 * The number of TextureObjects, or 0 if the texture is not registered.
+	 */
+	public synchronized int getUsers(Texture t)
+	{
+		Entry e = byTexture.get(t);
+		return e == null ? 0 : e.users.size();
+	}
+
+	/**
+	 * Gets the number of lookups which found a registered texture.
+	 * @return
+	 * The number of hits.
+	 */
+	public synchronized long getHits()
+	{
+		return hits;
+	}
+
+	/**
+	 * Gets the number of lookups which found no registered texture.
+	 * @return
+	 * The number of misses.
+	 */
+	public synchronized long getMisses()
+	{
+		return misses;
+	}
+
+	/**
+	 * Gets the number of textures evicted, by {@code trim} or {@code destroyUnused}.
+	 * @return
+	 * The number of evictions.
+	 */
+	public synchronized long getEvictions()
+	{
+		return evictions;
+	}
+
+	/**
+	 * Gets the estimated video memory given back by evictions.
+	 * @return
+	 * The memory, in bytes.
+	 */
+	public synchronized long getEvictedBytes()
+	{
+		return evictedBytes;
+	}
+
+	@Override
+	public synchronized String toString()
+	{
+		return String.format("%d textures, %.1f of %.1f MiB, %d hits, %d misses, %d evictions (%.1f MiB)", byTexture.size(),
+				usedBytes / 1048576.0, budget / 1048576.0, hits, misses, evictions, evictedBytes / 1048576.0);
+	}
+
+	//
+	// Static methods
+	//
+
+	/**
+	 * Gets the canonical path of a file, so that every name of the file gives the same key.
+	 * @param filename - The name of the file.
+	 * @return
+	 * The canonical path, or the absolute path if the canonical one cannot be found.
+	 */
+	public static String canonicalPath(String filename)
+	{
+		File f = new File(filename);
+		try {
+			return f.getCanonicalPath();
+		} catch (IOException e) {
+			return f.getAbsolutePath();
+		}
+	}
+
+	/**
+	 * Hashes the contents of a file.
+	 * @param data - The contents.
+	 * @return
+	 * The SHA-1 hash, in hexadecimal.
+	 */
+	public static String hash(byte[] data)
+	{
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-1");
+			StringBuilder ret = new StringBuilder();
+			for(byte b : digest.digest(data))
+				ret.append(String.format("%02x", b & 0xFF));
+			return ret.toString();
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException("SHA-1 is not available.", e);
+		}
+	}
+
+	//
+	// Private methods
+	//
+
+	private void evict(GL device, Entry e)
+	{
+		for(String path : e.paths)
+			byPath.remove(path);
+		byHash.remove(e.hash);
+		byTexture.remove(e.texture);
+		for(TextureObject user : e.users)
+			user.unload();
+		e.texture.destroy(device);
+		usedBytes -= e.bytes;
+		evictions++;
+		evictedBytes += e.bytes;
+	}
+
+	private void destroyDuplicates(GL device)
+	{
+		for(Texture t : duplicates)
+			t.destroy(device);
+		duplicates.clear();
+	}
+
+	/**
+	 * Orders textures no TextureObject uses first, then by the frame they were last drawn in.
+	 */
+	private static final Comparator<Entry> leastRecentlyUsed = new Comparator<Entry>() {
+		@Override
+		public int compare(Entry a, Entry b) {
+			if(a.users.isEmpty() != b.users.isEmpty())
+				return a.users.isEmpty() ? -1 : 1;
+			return Long.compare(a.lastUsed, b.lastUsed);
+		}
+	};
+
+	/**
+	 * One registered texture.
+	 */
+	private static class Entry
+	{
+		final String hash;
+		final Texture texture;
+		final long bytes;
+		final ArrayList<String> paths = new ArrayList<String>(1);
+		final ArrayList<TextureObject> users = new ArrayList<TextureObject>(2);
+		long lastUsed;
+
+		Entry(String hash, Texture texture)
+		{
+			this.hash = hash;
+			this.texture = texture;
+			this.bytes = texture.getEstimatedMemorySize();
+		}
+
+		void addUser(TextureObject user)
+		{
+			if(user != null && !users.contains(user))
+				users.add(user);
+		}
+	}
+}
@@ -0,0 +1,228 @@
+package time.travelers.main;
+
+import java.util.concurrent.locks.LockSupport;
+
+import time.travelers.graphics.FrameClock;
+import time.travelers.util.TimeHistogram;
+
+/**
+ * Runs a Simulation at a fixed tick rate, independent of how long each tick takes.
+ * <br><br>
+ * The loop keeps the real time not yet simulated in an accumulator, and runs as many ticks of the fixed length as fit
+ * in it. When the simulation falls behind, it catches up by at most {@code maxTicksPerFrame} ticks at a time; the rest
+ * of the backlog is dropped, so that slow ticks cannot make the loop fall further and further behind.
+ * Between ticks the loop sleeps until shortly before the next one is due, and yields for the rest of the wait.
+ * <br><br>
+ * The loop is also a FrameClock, telling the renderer how far it is between the latest tick and the next one.
+ * Tick durations and wake-up lateness are kept in histograms.
+ * @author Grevor
+ * @see Simulation
+ */
+public class GameLoop implements Runnable, FrameClock {
+	public static final int defaultMaxTicksPerFrame = 5;
+	/**
+	 * How long before a tick is due the loop stops sleeping, and yields instead. Sleeps are rarely shorter than this.
+	 */
+	private static final long sleepMargin = 2000000;
+
+	private final Simulation simulation;
+	private final int tickTime;
+	private final long tickNanos;
+	private final int maxTicksPerFrame;
+	private final TimeHistogram tickTimes = new TimeHistogram();
+	private final TimeHistogram lateness = new TimeHistogram();
+
+	private volatile boolean running = false;
+	private Thread thread;
+	/**
+	 * The time the latest tick's state stands for. The next tick is due one tick length later.
+	 */
+	private volatile long stateTime;
+	private volatile long ticks = 0, overruns = 0, catchUpLimitHits = 0, droppedTicks = 0;
+
+	/**
+	 * Creates a new GameLoop, catching up by at most {@code defaultMaxTicksPerFrame} ticks at a time.
+	 * @param simulation - The Simulation to run.
+	 * @param tickTime - The length of a tick, in milliseconds.
+	 */
+	public GameLoop(Simulation simulation, int tickTime) {
+		this(simulation, tickTime, defaultMaxTicksPerFrame);
+	}
+
+	/**
+	 * Creates a new GameLoop.
+	 * @param simulation - The Simulation to run.
+	 * @param tickTime - The length of a tick, in milliseconds. Must be positive.
+	 * @param maxTicksPerFrame - The highest number of ticks run back to back when catching up. Must be positive.
+	 */
+	public GameLoop(Simulation simulation, int tickTime, int maxTicksPerFrame) {
+		if(tickTime <= 0 || maxTicksPerFrame <= 0)
+			throw new IllegalArgumentException("The tick time and the catch-up limit must be positive.");
+		this.simulation = simulation;
+		this.tickTime = tickTime;
+		this.tickNanos = tickTime * 1000000L;
+		this.maxTicksPerFrame = maxTicksPerFrame;
+		this.stateTime = System.nanoTime();
+	}
+
+	/**
+	 * Starts running the loop on a thread of its own.
+	 */
+	public synchronized void start() {
+		if(thread != null)
+			return;
+		running = true;
+		thread = new Thread(this, "Game loop");
+		thread.start();
+	}
+
+	/**
+	 * Stops the loop after the current tick, and waits for its thread to end.
+	 * @throws InterruptedException
+	 */
+	public synchronized void stop() throws InterruptedException {
+		running = false;
+		if(thread != null && thread != Thread.currentThread())
+			thread.join();
+		thread = null;
+	}
+
+	/**
+	 * Runs the loop on the calling thread, until {@code stop()} is called.
+	 */
+	@Override
+	public void run() {
+		running = true;
+		long previous = System.nanoTime();
+		long accumulator = 0;
+		stateTime = previous;
+		while(running) {
+			long now = System.nanoTime();
+			accumulator += now - previous;
+			previous = now;
+
+			int frameTicks = 0;
+			while(accumulator >= tickNanos && frameTicks < maxTicksPerFrame) {
+				long start = System.nanoTime();
+				simulation.tick(tickTime);
+				long spent = System.nanoTime() - start;
+				tickTimes.record(spent);
+				if(spent > tickNanos)
+					overruns++;
+				ticks++;
+				frameTicks++;
+				accumulator -= tickNanos;
+			}
+			if(accumulator >= tickNanos) {
+				long behind = accumulator / tickNanos;
+				droppedTicks += behind;
+				catchUpLimitHits++;
+				accumulator -= behind * tickNanos;
+			}
+			stateTime = previous - accumulator;
+
+			long due = stateTime + tickNanos;
+			waitUntil(due);
+			lateness.record(System.nanoTime() - due);
+		}
+	}
+
+	@Override
+	public double getInterpolation() {
+		double alpha = (double) (System.nanoTime() - stateTime) / tickNanos;
+		return alpha < 0 ? 0 : alpha > 1 ? 1 : alpha;
+	}
+
+	/**
+	 * Gets the length of a tick.
+	 * @return
+	 * The length, in milliseconds.
+	 */
+	public int getTickTime() {
+		return tickTime;
+	}
+
+	public boolean isRunning() {
+		return running;
+	}
+
+	/**
+	 * Gets the number of ticks run.
+	 * @return
+	 * The number of ticks.
+	 */
+	public long getTickCount() {
+		return ticks;
+	}
+
+	/**
+	 * Gets the number of ticks that took longer than a tick length to run.
+	 * @return
+	 * The number of overrunning ticks.
+	 */
+	public long getOverruns() {
+		return overruns;
+	}
+
+	/**
+	 * Gets the number of times the loop was too far behind to catch up, and dropped ticks.
+	 * @return
+	 * The number of times.
+	 */
+	public long getCatchUpLimitHits() {
+		return catchUpLimitHits;
+	}
+
+	/**
+	 * Gets the number of ticks dropped because the loop was too far behind.
+	 * @return
+	 * The number of dropped ticks.
+	 */
+	public long getDroppedTicks() {
+		return droppedTicks;
+	}
+
+	/**
+	 * Gets the histogram of how long each tick took to run.
+	 * @return
+	 * The histogram, updated as the loop runs.
+	 */
+	public TimeHistogram getTickTimes() {
+		return tickTimes;
+	}
+
+	/**
+	 * Gets the histogram of how late the loop woke up for each tick.
+	 * @return
+	 * The histogram, updated as the loop runs.
+	 */
+	public TimeHistogram getLateness() {
+		return lateness;
+	}
+
+	/**
+	 * Forgets the tick durations, lateness and counters recorded so far.
+	 */
+	public void resetStatistics() {
+		tickTimes.reset();
+		lateness.reset();
+		ticks = 0;
+		overruns = 0;
+		catchUpLimitHits = 0;
+		droppedTicks = 0;
+	}
+
+	//
+	// Private methods
+	//
+
+	private void waitUntil(long time) {
+		long remaining;
+		while((remaining = time - System.nanoTime()) > 0 && running) {
+			if(remaining > sleepMargin)
+				LockSupport.parkNanos(remaining - sleepMargin);
+			else
+				Thread.yield();
+		}
+	}
+}
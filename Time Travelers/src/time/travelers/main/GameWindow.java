@@ -15,10 +15,18 @@ import time.travelers.graphics.Renderable;
 import time.travelers.util.Loader;
 
 @SuppressWarnings("serial")
-public class GameWindow extends JFrame {
+public class GameWindow extends JFrame implements Simulation {
 	
 	private static final String title = "ALPHA - Time Travelers";
-	private int tickCheck = 0;
+	/**
+	 * The length of a simulation tick, in milliseconds.
+	 */
+	public static final int tickTime = 20;
+	/**
+	 * The time between each move of the test object, in milliseconds.
+	 */
+	private static final int moveTime = 5000;
+	private int timeSinceMove = 0;
 	
 	private GLCanvas canvas;
 	private GraphicsEngine graphics;
@@ -47,24 +55,32 @@ public class GameWindow extends JFrame {
 		this.setResizable(false);
 		this.add(canvas);
 		
-		//graphics.switchRenderList(currentMap.getRenderables(2, 2, 5, 5));
+		graphics.setMap(currentMap);
 		gameObject = new GameObject(graphics.getTextureBatch().getTexture(0), true, 0, 0);
 		ArrayList<Renderable> test = new ArrayList<Renderable>();
 		test.add(gameObject);
 		graphics.switchRenderList(test);
+		graphics.publishFrame();
 		graphics.startRendering();
 		this.setVisible(true);
 	}
 
+	public GraphicsEngine getGraphicsEngine() {
+		return graphics;
+	}
+
+	@Override
 	public void tick(int timeDelta) {
+		Renderable.beginSimulationTick();
 		graphics.updateAnimations(timeDelta);
-		tickCheck++;
-		if(tickCheck % 50 == 0)
+		timeSinceMove += timeDelta;
+		if(timeSinceMove >= moveTime)
 		{
+			timeSinceMove -= moveTime;
 			gameObject.Move(Direction.Down);
 			gameObject.Move(Direction.Right);
 		}
 			//graphics.switchRenderList(currentMap.getRenderables(0, 0, Math.min(10, tickCheck/50), Math.min(10, tickCheck/50)));
-			
+		graphics.publishFrame();
 	}
 }
@@ -1,16 +1,32 @@
 package time.travelers.main;
 
+import javax.management.JMException;
+
+import time.travelers.graphics.RenderStats;
+
 public class Main {
 
 	
 	
-	public static void main(String[] args) throws InterruptedException {
+	/**
+	 * The system property giving the period, in seconds, to print the render stats at. They are not printed if unset.
+	 */
+	public static final String renderStatsDumpProperty = "time.travelers.renderStatsDump";
+	
+	public static void main(String[] args) throws InterruptedException, JMException {
 		GameWindow gw = new GameWindow();
+		GameLoop loop = new GameLoop(gw, GameWindow.tickTime);
+		gw.getGraphicsEngine().setFrameClock(loop);
+		RenderStats stats = gw.getGraphicsEngine().getRenderStats();
+		stats.register();
+		long dumpPeriod = Long.getLong(renderStatsDumpProperty, 0);
+		if(dumpPeriod > 0)
+			stats.startDump(dumpPeriod * 1000, System.out);
+		loop.start();
 		
-		while(gw != null && gw.isVisible()) {
-			gw.tick(100);
+		while(gw.isVisible())
 			Thread.sleep(100);
-		}
+		loop.stop();
 	}
 	
 	
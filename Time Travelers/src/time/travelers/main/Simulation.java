@@ -0,0 +1,14 @@
+package time.travelers.main;
+
+/**
+ * Something advanced by a GameLoop, one fixed step at a time.
+ * @author Grevor
+ * @see GameLoop
+ */
+public interface Simulation {
+	/**
+	 * Advances the simulation by one step.
+	 * @param timeDelta - The length of the step, in milliseconds. Always the same for a given GameLoop.
+	 */
+	public void tick(int timeDelta);
+}
@@ -0,0 +1,544 @@
+package time.travelers.navigation;
+
+import java.util.Arrays;
+
+import time.travelers.core.Map;
+import time.travelers.core.MapListener;
+import time.travelers.core.Traversal;
+
+/**
+ * Labels the connected regions of a Map for each movement type, so that it can be told in constant time whether one
+ * tile can be reached from another at all.
+ * <br><br>
+ * The Map is split into square blocks. The passable tiles of each block are split into local components by a flood fill
+ * inside the block, and local components touching across block borders are joined with union-find.
+ * When a tile becomes passable it simply joins its neighbours. When a tile becomes impassable and its neighbours stay
+ * joined around it nothing needs to be done; otherwise its block is flood filled again, and only the local components
+ * that were connected to that block are joined anew.
+ * <br><br>
+ * The index registers itself as a listener of the Map, and applies the changes the next time it is asked something.
+ * The methods of this class are synchronized.
+ * @author Grevor
+ */
+public class ConnectivityIndex implements MapListener {
+	public static final int defaultBlockSize = 32;
+	/**
+	 * Returned by {@code getRegion} for tiles the movement type cannot enter.
+	 */
+	public static final int noRegion = -1;
+
+	private final Map map;
+	private final int width, height;
+	private final int blockSize, blocksX, blocksY;
+	private final Components[] components = new Components[256];
+	private static final int[] ringX = { 0, 1, 1, 1, 0, -1, -1, -1 };
+	private static final int[] ringY = { -1, -1, 0, 1, 1, 1, 0, -1 };
+
+	//Scratch space for flood fills.
+	private final int[] fillStack;
+
+	/**
+	 * Creates a new ConnectivityIndex for the specified Map, with the default block size.
+	 * @param m - The Map.
+	 */
+	public ConnectivityIndex(Map m) {
+		this(m, defaultBlockSize);
+	}
+
+	/**
+	 * Creates a new ConnectivityIndex for the specified Map. The index registers itself as a listener of the Map.
+	 * @param m - The Map.
+	 * @param blockSize - The side of a block, in tiles.
+	 */
+	public ConnectivityIndex(Map m, int blockSize) {
+		if(blockSize < 1)
+			throw new IllegalArgumentException("The block size must be at least 1.");
+		this.map = m;
+		this.width = m.getWidth();
+		this.height = m.getHeight();
+		this.blockSize = blockSize;
+		this.blocksX = (width + blockSize - 1) / blockSize;
+		this.blocksY = (height + blockSize - 1) / blockSize;
+		this.fillStack = new int[blockSize * blockSize];
+		m.addListener(this);
+	}
+
+	/**
+	 * Checks if one tile can be reached from another. Both tiles must be passable to the movement type.
+	 * @param ax - The x-position of the first tile.
+	 * @param ay - The y-position of the first tile.
+	 * @param bx - The x-position of the second tile.
+	 * @param by - The y-position of the second tile.
+	 * @param movementType - The movement type.
+	 * @return
+	 * True if both tiles are passable and connected, else false.
+	 */
+	public boolean isReachable(int ax, int ay, int bx, int by, Traversal movementType) {
+		return isReachable(ay * width + ax, by * width + bx, movementType);
+	}
+
+	/**
+	 * Checks if one tile can be reached from another. Both tiles must be passable to the movement type.
+	 * @param a - The index of the first tile ({@code y * width + x}).
+	 * @param b - The index of the second tile.
+	 * @param movementType - The movement type.
+	 * @return
+	 * True if both tiles are passable and connected, else false.
+	 */
+	public synchronized boolean isReachable(int a, int b, Traversal movementType) {
+		Components c = getComponents(movementType.getMask());
+		int ca = c.tileComponent[a], cb = c.tileComponent[b];
+		return ca >= 0 && cb >= 0 && c.root[ca] == c.root[cb];
+	}
+
+	/**
+	 * Gets a label of the connected region a tile is in. Two tiles are connected if and only if they have the same label.
+	 * Labels are only valid until the Map changes.
+	 * @param x - The x-position of the tile.
+	 * @param y - The y-position of the tile.
+	 * @param movementType - The movement type.
+	 * @return
+	 * The label, or {@code noRegion} if the tile is not passable to the movement type.
+	 */
+	public synchronized int getRegion(int x, int y, Traversal movementType) {
+		Components c = getComponents(movementType.getMask());
+		int component = c.tileComponent[y * width + x];
+		return component < 0 ? noRegion : c.root[component];
+	}
+
+	/**
+	 * Gets the number of connected regions of a movement type.
+	 * @param movementType - The movement type.
+	 * @return
+	 * The number of regions.
+	 */
+	public synchronized int getRegionCount(Traversal movementType) {
+		return getComponents(movementType.getMask()).regions;
+	}
+
+	/**
+	 * Gets the number of blocks flood filled since this index was created, over all movement types.
+	 * @return
+	 * The number of flood filled blocks.
+	 */
+	public synchronized long getRefilledBlocks() {
+		long ret = 0;
+		for(Components c : components)
+			if(c != null)
+				ret += c.refilledBlocks;
+		return ret;
+	}
+
+	@Override
+	public synchronized void tileChanged(Map m, int x, int y) {
+		for(Components c : components)
+			if(c != null)
+				c.addChange(y * width + x);
+	}
+
+	@Override
+	public void terrainObjectChanged(Map m, int x, int y) {
+		//Terrain objects do not change where units can go.
+	}
+
+	//
+	// Private methods
+	//
+
+	private Components getComponents(byte mask) {
+		Components c = components[mask & 0xFF];
+		if(c == null) {
+			c = new Components(mask);
+			components[mask & 0xFF] = c;
+		}
+		c.update();
+		return c;
+	}
+
+	private int getBlock(int tile) {
+		return ((tile / width) / blockSize) * blocksX + (tile % width) / blockSize;
+	}
+
+	/**
+	 * The local components and union-find forest of one movement type.
+	 */
+	private class Components {
+		final byte mask;
+		/**
+		 * The local component of every tile, or -1 if the tile is not passable.
+		 */
+		final int[] tileComponent;
+		//Per component data. A component is free if its parent is -1.
+		int[] parent = new int[64], rank = new int[64], root = new int[64], block = new int[64];
+		int[] free = new int[64];
+		int used = 0, numFree = 0, regions = 0;
+		//Per block data.
+		final int[][] blockComponents = new int[blocksX * blocksY][];
+		final int[] blockComponentCount = new int[blocksX * blocksY];
+		final boolean[] dirty = new boolean[blocksX * blocksY];
+		/**
+		 * The pairs of components that touch across the right and bottom borders of each block, as flat pairs.
+		 */
+		final int[][] borderPairs = new int[blocksX * blocksY][];
+		final int[] borderPairCount = new int[blocksX * blocksY];
+		/**
+		 * The pairs of components inside each block that were joined by a tile becoming passable, as flat pairs.
+		 */
+		final int[][] innerPairs = new int[blocksX * blocksY][];
+		final int[] innerPairCount = new int[blocksX * blocksY];
+		int[] changes = new int[16];
+		int numChanges = 0;
+		boolean rebuildAll = true;
+		long refilledBlocks = 0;
+
+		Components(byte mask) {
+			this.mask = mask;
+			this.tileComponent = new int[width * height];
+			Arrays.fill(tileComponent, -1);
+			for(int b = 0; b < blockComponents.length; b++) {
+				blockComponents[b] = new int[4];
+				borderPairs[b] = new int[8];
+				innerPairs[b] = new int[2];
+			}
+		}
+
+		void addChange(int tile) {
+			if(rebuildAll)
+				return;
+			if(numChanges == changes.length)
+				changes = Arrays.copyOf(changes, numChanges * 2);
+			changes[numChanges++] = tile;
+		}
+
+		/**
+		 * Applies all changes to the Map since the last update.
+		 */
+		void update() {
+			if(!rebuildAll && numChanges == 0)
+				return;
+			boolean anyDirty = rebuildAll;
+			if(rebuildAll) {
+				Arrays.fill(dirty, true);
+			} else {
+				for(int i = 0; i < numChanges; i++) {
+					int tile = changes[i];
+					if(!isPassable(tile) && tileComponent[tile] >= 0) {
+						if(isSimple(tile)) {
+							tileComponent[tile] = -1;
+						} else {
+							dirty[getBlock(tile)] = true;
+							anyDirty = true;
+						}
+					}
+				}
+			}
+			if(anyDirty)
+				refillDirty();
+			for(int i = 0; i < numChanges; i++) {
+				int tile = changes[i];
+				if(isPassable(tile) && tileComponent[tile] < 0)
+					join(tile);
+			}
+			numChanges = 0;
+			rebuildAll = false;
+			flatten();
+		}
+
+		boolean isPassable(int tile) {
+			return (map.getTraversalMask(tile % width, tile / width) & mask) != 0;
+		}
+
+		/**
+		 * Checks if a tile can be removed without splitting its component. This is the case if the tile is not on a block
+		 * border, all its passable neighbours are of its own component, and they are joined by one unbroken arc of tiles
+		 * of that component among the eight tiles around it.
+		 */
+		boolean isSimple(int tile) {
+			int b = getBlock(tile);
+			int x = tile % width, y = tile / width;
+			int x0 = (b % blocksX) * blockSize, y0 = (b / blocksX) * blockSize;
+			if(x == x0 || y == y0 || x == Math.min(x0 + blockSize, width) - 1 || y == Math.min(y0 + blockSize, height) - 1)
+				return false;
+			//The eight tiles around, in order; the even ones share a side with the tile.
+			int around = 0;
+			for(int i = 0; i < 8; i++) {
+				int t = tile + ringY[i] * width + ringX[i];
+				if(tileComponent[t] == tileComponent[tile] && isPassable(t))
+					around |= 1 << i;
+				else if((i & 1) == 0 && tileComponent[t] >= 0 && isPassable(t))
+					return false;
+			}
+			//A tile with no neighbours of its own component may be the last tile of it.
+			if((around & 0x55) == 0)
+				return false;
+			//Count the arcs that contain a tile sharing a side with the removed tile.
+			int arcs = 0;
+			for(int i = 0; i < 8; i++) {
+				boolean open = (around & (1 << i)) != 0;
+				boolean previousOpen = (around & (1 << ((i + 7) & 7))) != 0;
+				if(open && !previousOpen) {
+					boolean touches = false;
+					for(int j = i; (around & (1 << (j & 7))) != 0 && j < i + 8; j++)
+						touches |= (j & 1) == 0;
+					if(touches)
+						arcs++;
+				}
+			}
+			//If every tile around is open there is no arc start, but everything is joined.
+			return arcs <= 1;
+		}
+
+		/**
+		 * Adds a newly passable tile to the component of a neighbour in its block, or makes it a component of its own, and
+		 * joins it with all its other neighbours.
+		 */
+		void join(int tile) {
+			int x = tile % width, y = tile / width;
+			int b = getBlock(tile);
+			int c = -1;
+			if(x > 0 && getBlock(tile - 1) == b)
+				c = joinInner(b, c, tileComponent[tile - 1]);
+			if(x < width - 1 && getBlock(tile + 1) == b)
+				c = joinInner(b, c, tileComponent[tile + 1]);
+			if(y > 0 && getBlock(tile - width) == b)
+				c = joinInner(b, c, tileComponent[tile - width]);
+			if(y < height - 1 && getBlock(tile + width) == b)
+				c = joinInner(b, c, tileComponent[tile + width]);
+			if(c < 0)
+				c = newComponent(b);
+			tileComponent[tile] = c;
+			if(x > 0 && tileComponent[tile - 1] >= 0)
+				union(c, tileComponent[tile - 1]);
+			if(x < width - 1 && tileComponent[tile + 1] >= 0)
+				union(c, tileComponent[tile + 1]);
+			if(y > 0 && tileComponent[tile - width] >= 0)
+				union(c, tileComponent[tile - width]);
+			if(y < height - 1 && tileComponent[tile + width] >= 0)
+				union(c, tileComponent[tile + width]);
+			int x0 = (b % blocksX) * blockSize, y0 = (b / blocksX) * blockSize;
+			if(x == x0 + blockSize - 1 || y == y0 + blockSize - 1)
+				findBorderPairs(b);
+			if(x == x0 && x > 0)
+				findBorderPairs(b - 1);
+			if(y == y0 && y > 0)
+				findBorderPairs(b - blocksX);
+		}
+
+		/**
+		 * Flood fills all dirty blocks again, and joins anew every component that was connected to one of them.
+		 */
+		void refillDirty() {
+			//The regions the dirty blocks were part of may have been split.
+			boolean[] splitRoots = new boolean[used];
+			for(int b = 0; b < dirty.length; b++) {
+				if(!dirty[b])
+					continue;
+				for(int i = 0; i < blockComponentCount[b]; i++) {
+					int c = blockComponents[b][i];
+					splitRoots[root[c]] = true;
+					freeComponent(c);
+				}
+				blockComponentCount[b] = 0;
+				innerPairCount[b] = 0;
+			}
+			boolean[] joinBlocks = new boolean[dirty.length];
+			for(int c = 0; c < splitRoots.length; c++) {
+				if(parent[c] >= 0 && splitRoots[root[c]]) {
+					parent[c] = c;
+					rank[c] = 0;
+					joinBlocks[block[c]] = true;
+				}
+			}
+			for(int b = 0; b < dirty.length; b++) {
+				if(dirty[b]) {
+					fillBlock(b);
+					joinBlocks[b] = true;
+					refilledBlocks++;
+				}
+			}
+			for(int b = 0; b < dirty.length; b++) {
+				if(!dirty[b])
+					continue;
+				dirty[b] = false;
+				findBorderPairs(b);
+				if(b % blocksX > 0)
+					findBorderPairs(b - 1);
+				if(b >= blocksX)
+					findBorderPairs(b - blocksX);
+			}
+			for(int b = 0; b < joinBlocks.length; b++) {
+				if(!joinBlocks[b])
+					continue;
+				joinPairs(innerPairs[b], innerPairCount[b]);
+				joinPairs(borderPairs[b], borderPairCount[b]);
+				if(b % blocksX > 0)
+					joinPairs(borderPairs[b - 1], borderPairCount[b - 1]);
+				if(b >= blocksX)
+					joinPairs(borderPairs[b - blocksX], borderPairCount[b - blocksX]);
+			}
+		}
+
+		/**
+		 * Splits the passable tiles of a block into components.
+		 */
+		void fillBlock(int b) {
+			int x0 = (b % blocksX) * blockSize, y0 = (b / blocksX) * blockSize;
+			int x1 = Math.min(x0 + blockSize, width) - 1, y1 = Math.min(y0 + blockSize, height) - 1;
+			for(int y = y0; y <= y1; y++)
+				for(int x = x0; x <= x1; x++)
+					tileComponent[y * width + x] = isPassable(y * width + x) ? -2 : -1;
+			for(int y = y0; y <= y1; y++) {
+				for(int x = x0; x <= x1; x++) {
+					if(tileComponent[y * width + x] != -2)
+						continue;
+					int c = newComponent(b);
+					int top = 0;
+					fillStack[top++] = y * width + x;
+					tileComponent[y * width + x] = c;
+					while(top > 0) {
+						int tile = fillStack[--top];
+						int tx = tile % width, ty = tile / width;
+						if(tx > x0 && tileComponent[tile - 1] == -2) {
+							tileComponent[tile - 1] = c;
+							fillStack[top++] = tile - 1;
+						}
+						if(tx < x1 && tileComponent[tile + 1] == -2) {
+							tileComponent[tile + 1] = c;
+							fillStack[top++] = tile + 1;
+						}
+						if(ty > y0 && tileComponent[tile - width] == -2) {
+							tileComponent[tile - width] = c;
+							fillStack[top++] = tile - width;
+						}
+						if(ty < y1 && tileComponent[tile + width] == -2) {
+							tileComponent[tile + width] = c;
+							fillStack[top++] = tile + width;
+						}
+					}
+				}
+			}
+		}
+
+		/**
+		 * Picks the component a newly passable tile joins, from the component of one of its neighbours in the same block.
+		 * If the tile already joins another component, the two are recorded as touching.
+		 * @return
+		 * The component the tile joins, or -1 if none yet.
+		 */
+		int joinInner(int b, int c, int neighbour) {
+			if(neighbour < 0 || neighbour == c)
+				return c;
+			if(c < 0)
+				return neighbour;
+			addPair(innerPairs, innerPairCount, b, c, neighbour);
+			return c;
+		}
+
+		/**
+		 * Finds the pairs of components that touch across the right and bottom borders of a block.
+		 */
+		void findBorderPairs(int b) {
+			int x0 = (b % blocksX) * blockSize, y0 = (b / blocksX) * blockSize;
+			int x1 = Math.min(x0 + blockSize, width) - 1, y1 = Math.min(y0 + blockSize, height) - 1;
+			borderPairCount[b] = 0;
+			if(x1 < width - 1)
+				for(int y = y0; y <= y1; y++)
+					addPair(borderPairs, borderPairCount, b, tileComponent[y * width + x1], tileComponent[y * width + x1 + 1]);
+			if(y1 < height - 1)
+				for(int x = x0; x <= x1; x++)
+					addPair(borderPairs, borderPairCount, b, tileComponent[y1 * width + x], tileComponent[(y1 + 1) * width + x]);
+		}
+
+		void addPair(int[][] pairs, int[] counts, int b, int ca, int cb) {
+			if(ca < 0 || cb < 0)
+				return;
+			int count = counts[b];
+			//Runs of tiles along a border mostly touch the same components, so only repeats of the last pair are skipped.
+			if(count > 0 && pairs[b][count - 2] == ca && pairs[b][count - 1] == cb)
+				return;
+			if(count == pairs[b].length)
+				pairs[b] = Arrays.copyOf(pairs[b], count * 2);
+			pairs[b][count] = ca;
+			pairs[b][count + 1] = cb;
+			counts[b] = count + 2;
+		}
+
+		/**
+		 * Joins the recorded pairs of components of a block.
+		 */
+		void joinPairs(int[] pairs, int count) {
+			for(int i = 0; i < count; i += 2)
+				union(pairs[i], pairs[i + 1]);
+		}
+
+		int find(int c) {
+			int r = c;
+			while(parent[r] != r)
+				r = parent[r];
+			while(parent[c] != r) {
+				int next = parent[c];
+				parent[c] = r;
+				c = next;
+			}
+			return r;
+		}
+
+		void union(int a, int b) {
+			a = find(a);
+			b = find(b);
+			if(a == b)
+				return;
+			if(rank[a] < rank[b]) {
+				parent[a] = b;
+			} else {
+				parent[b] = a;
+				if(rank[a] == rank[b])
+					rank[a]++;
+			}
+		}
+
+		/**
+		 * Points every component straight at the root of its region, so that queries are two array lookups.
+		 */
+		void flatten() {
+			regions = 0;
+			for(int c = 0; c < used; c++) {
+				if(parent[c] < 0)
+					continue;
+				root[c] = find(c);
+				if(root[c] == c)
+					regions++;
+			}
+		}
+
+		int newComponent(int b) {
+			int c;
+			if(numFree > 0) {
+				c = free[--numFree];
+			} else {
+				if(used == parent.length) {
+					int capacity = used * 2;
+					parent = Arrays.copyOf(parent, capacity);
+					rank = Arrays.copyOf(rank, capacity);
+					root = Arrays.copyOf(root, capacity);
+					block = Arrays.copyOf(block, capacity);
+					free = Arrays.copyOf(free, capacity);
+				}
+				c = used++;
+			}
+			parent[c] = c;
+			rank[c] = 0;
+			root[c] = c;
+			block[c] = b;
+			if(blockComponentCount[b] == blockComponents[b].length)
+				blockComponents[b] = Arrays.copyOf(blockComponents[b], blockComponentCount[b] * 2);
+			blockComponents[b][blockComponentCount[b]++] = c;
+			return c;
+		}
+
+		void freeComponent(int c) {
+			parent[c] = -1;
+			free[numFree++] = c;
+		}
+	}
+}
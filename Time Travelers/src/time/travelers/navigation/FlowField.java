@@ -0,0 +1,119 @@
+package time.travelers.navigation;
+
+import time.travelers.core.GameObject;
+import time.travelers.core.GameObject.Direction;
+
+/**
+ * The cost of reaching a set of goal tiles from every tile of a Map, and the direction to step in from every tile to
+ * get there the cheapest way.
+ * <br><br>
+ * Flow fields are made and kept up to date by a FlowFieldService. A field describes the Map as it was at the revision
+ * it was computed for; ask the service again after the Map has changed. A field is never changed once the service has
+ * returned it, so it may be read from any thread while the service computes newer fields.
+ * @author Grevor
+ * @see FlowFieldService
+ */
+public class FlowField {
+	/**
+	 * The direction stored for goal tiles and tiles from which no goal can be reached.
+	 */
+	static final byte noDirection = 0;
+	private static final Direction[] directions = Direction.values();
+
+	final int width, height;
+	final byte mask;
+	final int[] goals;
+	/**
+	 * The cost of reaching the closest goal from each tile. Positive infinity if no goal can be reached.
+	 */
+	final float[] cost;
+	/**
+	 * The direction to step in from each tile, as 1 + the ordinal of the Direction, or {@code noDirection}.
+	 */
+	final byte[] direction;
+	final long revision;
+
+	FlowField(int width, int height, byte mask, int[] goals, long revision) {
+		this.width = width;
+		this.height = height;
+		this.mask = mask;
+		this.goals = goals;
+		this.revision = revision;
+		this.cost = new float[width * height];
+		this.direction = new byte[width * height];
+	}
+
+	/**
+	 * Gets the cost of reaching the closest goal from a tile.
+	 * @param x - The x-position of the tile.
+	 * @param y - The y-position of the tile.
+	 * @return
+	 * The cost, or {@code Float.POSITIVE_INFINITY} if no goal can be reached.
+	 */
+	public float getCost(int x, int y) {
+		return cost[y * width + x];
+	}
+
+	/**
+	 * Checks if a goal can be reached from a tile.
+	 * @param x - The x-position of the tile.
+	 * @param y - The y-position of the tile.
+	 * @return
+	 * True if it can, else false.
+	 */
+	public boolean canReachGoal(int x, int y) {
+		return cost[y * width + x] != Float.POSITIVE_INFINITY;
+	}
+
+	/**
+	 * Gets the direction to step in from a tile, to reach a goal the cheapest way.
+	 * @param x - The x-position of the tile.
+	 * @param y - The y-position of the tile.
+	 * @return
+	 * The direction, or null if the tile is a goal or no goal can be reached from it.
+	 */
+	public Direction getDirection(int x, int y) {
+		byte d = direction[y * width + x];
+		return d == noDirection ? null : directions[d - 1];
+	}
+
+	/**
+	 * Gets the direction a GameObject should move in, from the tile it stands on.
+	 * @param o - The GameObject.
+	 * @return
+	 * The direction, or null if the object is on a goal, outside the Map, or cannot reach any goal.
+	 */
+	public Direction getDirection(GameObject o) {
+		int x = (int) Math.floor(o.getRenderX()), y = (int) Math.floor(o.getRenderY());
+		if(x < 0 || y < 0 || x >= width || y >= height)
+			return null;
+		return getDirection(x, y);
+	}
+
+	/**
+	 * Gets the traversal bits of the movement type this field was made for.
+	 * @return
+	 * The traversal bits.
+	 */
+	public byte getMovementMask() {
+		return mask;
+	}
+
+	/**
+	 * Gets the goal tiles of this field.
+	 * @return
+	 * A copy of the goal tile indices ({@code y * width + x}), in ascending order.
+	 */
+	public int[] getGoals() {
+		return goals.clone();
+	}
+
+	/**
+	 * Gets the Map revision this field was computed for.
+	 * @return
+	 * The revision.
+	 */
+	public long getRevision() {
+		return revision;
+	}
+}
@@ -0,0 +1,470 @@
+package time.travelers.navigation;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import time.travelers.core.Map;
+import time.travelers.core.Traversal;
+
+/**
+ * Makes flow fields (Dijkstra maps) for a Map, so that any number of units heading for the same goals can share one
+ * search instead of running one each.
+ * <br><br>
+ * The Map is split into square blocks. Each block runs Dijkstra over its own tiles, starting from the costs on the
+ * borders of its neighbours, and wakes up the neighbours on any side where they can now get cheaper. Blocks are
+ * run in a checkerboard order, all blocks of one colour in parallel, until no block is awake. The result is the same as
+ * one Dijkstra search over the whole Map.
+ * <br><br>
+ * Fields are cached by their goals and movement type. The next time a cached field is asked for after the Map has
+ * changed, a new field is computed and replaces it in the cache; fields already handed out are never changed, so
+ * units may keep reading them from other threads. The methods of this class may be called from any thread.
+ * @author Grevor
+ * @see FlowField
+ */
+public class FlowFieldService {
+	public static final int defaultBlockSize = 32;
+	public static final int defaultCacheSize = 16;
+
+	private final Map map;
+	private final int width, height;
+	private final int blockSize, blocksX, blocksY;
+	private final ForkJoinPool pool;
+	private final boolean ownsPool;
+	private final StepCosts costs = new StepCosts();
+	private final LinkedHashMap<FieldKey, FlowField> cache;
+
+	/**
+	 * The cost of stepping onto each tile for every movement type, or positive infinity if the tile cannot be entered.
+	 * Made from the Map once per revision, so that blocks never touch the Map's storage from worker threads.
+	 */
+	private final float[][] stepCosts = new float[256][];
+	private final long[] stepCostRevisions = new long[256];
+
+	//State of the field being computed.
+	private final boolean[] awake, visited;
+	private final int[] runList;
+	private final ThreadLocal<IntMinHeap> heaps;
+
+	private long computedFields = 0, cacheHits = 0, lastComputeTime = 0;
+	private int lastBlockRuns = 0;
+
+	/**
+	 * Creates a new FlowFieldService for the specified Map, with its own pool of one thread per processor. The pool is
+	 * stopped by {@code shutdown}.
+	 * @param m - The Map.
+	 */
+	public FlowFieldService(Map m) {
+		this(m, new ForkJoinPool(), true, defaultBlockSize, defaultCacheSize);
+	}
+
+	/**
+	 * Creates a new FlowFieldService for the specified Map.
+	 * @param m - The Map.
+	 * @param pool - The pool to compute fields in. It is shared, and not stopped by {@code shutdown}.
+	 * @param blockSize - The side of a block, in tiles.
+	 * @param cacheSize - The highest number of fields to keep.
+	 */
+	public FlowFieldService(Map m, ForkJoinPool pool, int blockSize, int cacheSize) {
+		this(m, pool, false, blockSize, cacheSize);
+	}
+
+	private FlowFieldService(Map m, ForkJoinPool pool, boolean ownsPool, int blockSize, final int cacheSize) {
+		if(blockSize < 1)
+			throw new IllegalArgumentException("The block size must be at least 1.");
+		this.map = m;
+		this.width = m.getWidth();
+		this.height = m.getHeight();
+		this.pool = pool;
+		this.ownsPool = ownsPool;
+		this.blockSize = blockSize;
+		this.blocksX = (width + blockSize - 1) / blockSize;
+		this.blocksY = (height + blockSize - 1) / blockSize;
+		this.awake = new boolean[blocksX * blocksY];
+		this.visited = new boolean[blocksX * blocksY];
+		this.runList = new int[blocksX * blocksY];
+		final int blockTiles = blockSize * blockSize;
+		this.heaps = new ThreadLocal<IntMinHeap>() {
+			@Override
+			protected IntMinHeap initialValue() {
+				return new IntMinHeap(blockTiles);
+			}
+		};
+		this.cache = new LinkedHashMap<FieldKey, FlowField>(cacheSize * 2, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(java.util.Map.Entry<FieldKey, FlowField> eldest) {
+				return size() > cacheSize;
+			}
+		};
+		Arrays.fill(stepCostRevisions, -1);
+	}
+
+	/**
+	 * Gets the flow field towards a single goal tile.
+	 * @param goalX - The x-position of the goal.
+	 * @param goalY - The y-position of the goal.
+	 * @param movementType - The movement type to make the field for.
+	 * @return
+	 * The field, up to date with the Map.
+	 */
+	public FlowField getField(int goalX, int goalY, Traversal movementType) {
+		return getField(new int[] { goalY * width + goalX }, movementType);
+	}
+
+	/**
+	 * Gets the flow field towards the closest of a set of goal tiles.
+	 * @param goals - The goal tile indices ({@code y * width + x}). The array is not kept.
+	 * @param movementType - The movement type to make the field for.
+	 * @return
+	 * The field, up to date with the Map.
+	 */
+	public synchronized FlowField getField(int[] goals, Traversal movementType) {
+		int[] sortedGoals = goals.clone();
+		Arrays.sort(sortedGoals);
+		for(int g : sortedGoals)
+			if(g < 0 || g >= width * height)
+				throw new IndexOutOfBoundsException("Goal tile " + g + " is outside the map.");
+		FieldKey key = new FieldKey(sortedGoals, movementType.getMask());
+		long revision = map.getRevision();
+		FlowField field = cache.get(key);
+		if(field != null && field.revision == revision) {
+			cacheHits++;
+			return field;
+		}
+		field = new FlowField(width, height, key.mask, sortedGoals, revision);
+		compute(field);
+		cache.put(key, field);
+		return field;
+	}
+
+	/**
+	 * Removes all fields from the cache.
+	 */
+	public synchronized void clear() {
+		cache.clear();
+	}
+
+	/**
+	 * Stops the pool of this service, if the service made it. The service may not be used afterwards; fields already 
+	 * returned stay readable.
+	 */
+	public synchronized void shutdown() {
+		cache.clear();
+		if(ownsPool)
+			pool.shutdown();
+	}
+
+	/**
+	 * Gets the number of fields computed or recomputed so far.
+	 * @return
+	 * The number of fields.
+	 */
+	public synchronized long getComputedFields() {
+		return computedFields;
+	}
+
+	/**
+	 * Gets the number of requests answered by an up to date cached field.
+	 * @return
+	 * The number of cache hits.
+	 */
+	public synchronized long getCacheHits() {
+		return cacheHits;
+	}
+
+	/**
+	 * Gets the time it took to compute the last field.
+	 * @return
+	 * The time, in nanoseconds.
+	 */
+	public synchronized long getLastComputeTime() {
+		return lastComputeTime;
+	}
+
+	/**
+	 * Gets the number of times a block was run when computing the last field.
+	 * @return
+	 * The number of block runs.
+	 */
+	public synchronized int getLastBlockRuns() {
+		return lastBlockRuns;
+	}
+
+	//
+	// Private methods
+	//
+
+	private void compute(FlowField field) {
+		long start = System.nanoTime();
+		float[] step = getStepCosts(field.mask, field.revision);
+		Arrays.fill(field.cost, Float.POSITIVE_INFINITY);
+		Arrays.fill(awake, false);
+		Arrays.fill(visited, false);
+		for(int g : field.goals) {
+			field.cost[g] = 0;
+			awake[getBlock(g % width, g / width)] = true;
+		}
+
+		lastBlockRuns = 0;
+		boolean anyRun = true;
+		while(anyRun) {
+			anyRun = false;
+			for(int colour = 0; colour < 2; colour++) {
+				int count = 0;
+				for(int b = 0; b < awake.length; b++) {
+					if(awake[b] && ((b % blocksX + b / blocksX) & 1) == colour) {
+						awake[b] = false;
+						runList[count++] = b;
+					}
+				}
+				if(count == 0)
+					continue;
+				anyRun = true;
+				lastBlockRuns += count;
+				//Blocks of one colour only write their own tiles, and only read tiles of the other colour.
+				pool.invoke(new BlockTask(field, step, 0, count));
+			}
+		}
+		pool.invoke(new DirectionTask(field, step, 0, height));
+		computedFields++;
+		lastComputeTime = System.nanoTime() - start;
+	}
+
+	private float[] getStepCosts(byte mask, long revision) {
+		int i = mask & 0xFF;
+		float[] step = stepCosts[i];
+		if(step != null && stepCostRevisions[i] == revision)
+			return step;
+		if(step == null)
+			step = stepCosts[i] = new float[width * height];
+		costs.update(map);
+		for(int y = 0, t = 0; y < height; y++) {
+			for(int x = 0; x < width; x++, t++) {
+				if((map.getTraversalMask(x, y) & mask) != 0)
+					step[t] = costs.get(map.getTerrainID(x, y));
+				else
+					step[t] = Float.POSITIVE_INFINITY;
+			}
+		}
+		stepCostRevisions[i] = revision;
+		return step;
+	}
+
+	private int getBlock(int x, int y) {
+		return (y / blockSize) * blocksX + x / blockSize;
+	}
+
+	/**
+	 * Runs Dijkstra inside one block, from the goals in it on its first run, and from the costs on the borders of the
+	 * neighbouring blocks. Wakes up the neighbours on every side where a border tile got cheaper.
+	 */
+	private void runBlock(int b, FlowField field, float[] step, IntMinHeap heap) {
+		float[] cost = field.cost;
+		int x0 = (b % blocksX) * blockSize, y0 = (b / blocksX) * blockSize;
+		int x1 = Math.min(x0 + blockSize, width) - 1, y1 = Math.min(y0 + blockSize, height) - 1;
+		heap.clear();
+
+		if(!visited[b]) {
+			visited[b] = true;
+			for(int y = y0; y <= y1; y++)
+				for(int x = x0; x <= x1; x++)
+					if(cost[y * width + x] != Float.POSITIVE_INFINITY)
+						heap.push(toLocal(x, y, x0, y0), cost[y * width + x]);
+		}
+		if(x0 > 0)
+			pullBorder(x0, y0, 0, 1, y1 - y0 + 1, -1, 0, cost, step, heap, x0, y0);
+		if(x1 < width - 1)
+			pullBorder(x1, y0, 0, 1, y1 - y0 + 1, 1, 0, cost, step, heap, x0, y0);
+		if(y0 > 0)
+			pullBorder(x0, y0, 1, 0, x1 - x0 + 1, 0, -1, cost, step, heap, x0, y0);
+		if(y1 < height - 1)
+			pullBorder(x0, y1, 1, 0, x1 - x0 + 1, 0, 1, cost, step, heap, x0, y0);
+
+		while(!heap.isEmpty()) {
+			int u = heap.pop();
+			int x = x0 + u % blockSize, y = y0 + u / blockSize;
+			int tile = y * width + x;
+			float next = cost[tile] + step[tile];
+			if(next == Float.POSITIVE_INFINITY)
+				continue;
+			if(x > x0 && relax(tile - 1, next, cost, step))
+				heap.push(u - 1, next);
+			if(x < x1 && relax(tile + 1, next, cost, step))
+				heap.push(u + 1, next);
+			if(y > y0 && relax(tile - width, next, cost, step))
+				heap.push(u - blockSize, next);
+			if(y < y1 && relax(tile + width, next, cost, step))
+				heap.push(u + blockSize, next);
+		}
+		//Wake up the neighbours on every side where stepping into this block is now cheaper for them.
+		if(x0 > 0 && canImprove(x0, y0, 0, 1, y1 - y0 + 1, -1, 0, cost, step))
+			awake[b - 1] = true;
+		if(x1 < width - 1 && canImprove(x1, y0, 0, 1, y1 - y0 + 1, 1, 0, cost, step))
+			awake[b + 1] = true;
+		if(y0 > 0 && canImprove(x0, y0, 1, 0, x1 - x0 + 1, 0, -1, cost, step))
+			awake[b - blocksX] = true;
+		if(y1 < height - 1 && canImprove(x0, y1, 1, 0, x1 - x0 + 1, 0, 1, cost, step))
+			awake[b + blocksX] = true;
+	}
+
+	private static boolean relax(int tile, float next, float[] cost, float[] step) {
+		if(step[tile] == Float.POSITIVE_INFINITY || next >= cost[tile])
+			return false;
+		cost[tile] = next;
+		return true;
+	}
+
+	/**
+	 * Lowers the cost of the border tiles of one side of a block from the tiles just outside it.
+	 */
+	private void pullBorder(int x, int y, int dx, int dy, int length, int ox, int oy, float[] cost, float[] step,
+			IntMinHeap heap, int x0, int y0) {
+		for(int i = 0; i < length; i++, x += dx, y += dy) {
+			int tile = y * width + x;
+			int outside = tile + oy * width + ox;
+			float next = cost[outside] + step[outside];
+			if(relax(tile, next, cost, step))
+				heap.push(toLocal(x, y, x0, y0), next);
+		}
+	}
+
+	/**
+	 * Checks if any tile just outside one side of a block would get cheaper by stepping into the block.
+	 */
+	private boolean canImprove(int x, int y, int dx, int dy, int length, int ox, int oy, float[] cost, float[] step) {
+		for(int i = 0; i < length; i++, x += dx, y += dy) {
+			int tile = y * width + x;
+			int outside = tile + oy * width + ox;
+			float next = cost[tile] + step[tile];
+			if(next < cost[outside] && step[outside] != Float.POSITIVE_INFINITY)
+				return true;
+		}
+		return false;
+	}
+
+	private int toLocal(int x, int y, int x0, int y0) {
+		return (y - y0) * blockSize + (x - x0);
+	}
+
+	/**
+	 * Sets the direction of every tile in a range of rows, towards its cheapest neighbour.
+	 */
+	private void computeDirections(FlowField field, float[] step, int fromRow, int toRow) {
+		float[] cost = field.cost;
+		byte[] direction = field.direction;
+		for(int y = fromRow; y < toRow; y++) {
+			for(int x = 0, tile = y * width; x < width; x++, tile++) {
+				byte best = FlowField.noDirection;
+				float bestCost = cost[tile];
+				if(bestCost != 0 && bestCost != Float.POSITIVE_INFINITY) {
+					bestCost = Float.POSITIVE_INFINITY;
+					//Directions are stored as 1 + the ordinal of GameObject.Direction: Up, Down, Left, Right.
+					if(y > 0 && cost[tile - width] + step[tile - width] < bestCost) {
+						bestCost = cost[tile - width] + step[tile - width];
+						best = 1;
+					}
+					if(y < height - 1 && cost[tile + width] + step[tile + width] < bestCost) {
+						bestCost = cost[tile + width] + step[tile + width];
+						best = 2;
+					}
+					if(x > 0 && cost[tile - 1] + step[tile - 1] < bestCost) {
+						bestCost = cost[tile - 1] + step[tile - 1];
+						best = 3;
+					}
+					if(x < width - 1 && cost[tile + 1] + step[tile + 1] < bestCost) {
+						bestCost = cost[tile + 1] + step[tile + 1];
+						best = 4;
+					}
+				}
+				direction[tile] = best;
+			}
+		}
+	}
+
+	/**
+	 * Runs the blocks in {@code runList[from, to)}, splitting the range between the threads of the pool.
+	 */
+	private class BlockTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private final FlowField field;
+		private final float[] step;
+		private final int from, to;
+
+		BlockTask(FlowField field, float[] step, int from, int to) {
+			this.field = field;
+			this.step = step;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if(to - from <= 2) {
+				IntMinHeap heap = heaps.get();
+				for(int i = from; i < to; i++)
+					runBlock(runList[i], field, step, heap);
+				return;
+			}
+			int mid = (from + to) >>> 1;
+			invokeAll(new BlockTask(field, step, from, mid), new BlockTask(field, step, mid, to));
+		}
+	}
+
+	/**
+	 * Computes the directions of the rows {@code [from, to)}, splitting the range between the threads of the pool.
+	 */
+	private class DirectionTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private final FlowField field;
+		private final float[] step;
+		private final int from, to;
+
+		DirectionTask(FlowField field, float[] step, int from, int to) {
+			this.field = field;
+			this.step = step;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if(to - from <= 64) {
+				computeDirections(field, step, from, to);
+				return;
+			}
+			int mid = (from + to) >>> 1;
+			invokeAll(new DirectionTask(field, step, from, mid), new DirectionTask(field, step, mid, to));
+		}
+	}
+
+	/**
+	 * The cache key of a field: its sorted goals and its movement type.
+	 */
+	private static class FieldKey {
+		final int[] goals;
+		final byte mask;
+		final int hash;
+
+		FieldKey(int[] goals, byte mask) {
+			this.goals = goals;
+			this.mask = mask;
+			this.hash = Arrays.hashCode(goals) * 31 + mask;
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if(!(o instanceof FieldKey))
+				return false;
+			FieldKey k = (FieldKey) o;
+			return k.mask == mask && Arrays.equals(k.goals, goals);
+		}
+	}
+}
@@ -0,0 +1,639 @@
+package time.travelers.navigation;
+
+import java.util.Arrays;
+
+import time.travelers.core.Map;
+import time.travelers.core.MapListener;
+import time.travelers.core.Traversal;
+
+/**
+ * Hierarchical path finding (HPA*) over the tiles of a Map.
+ * <br><br>
+ * The map is split into square clusters. Where two neighbouring clusters are connected, entrance nodes are placed on
+ * both sides of their border, and the cheapest paths between the entrances of each cluster are precomputed.
+ * A query then searches this small abstract graph, and only refines the found route tile by tile inside the clusters it
+ * passes through. Paths are close to, but not always, the cheapest.
+ * <br><br>
+ * One abstract graph is built per movement type, the first time a path is asked for with it.
+ * When the terrain of a spot changes, only the clusters next to it are rebuilt, on the next query.
+ * <br><br>
+ * This class is not thread-safe.
+ * @author Grevor
+ * @see PathFinder
+ */
+public class HierarchicalPathFinder implements MapListener {
+	public static final int defaultClusterSize = 16;
+	/**
+	 * Entrance runs at least this long get one transition at each end instead of one in the middle.
+	 */
+	private static final int longEntrance = 6;
+
+	private final Map map;
+	private final int width, height;
+	private final int clusterSize, clustersX, clustersY;
+	private final StepCosts costs = new StepCosts();
+	private final PathFinder local;
+	private final AbstractGraph[] graphs = new AbstractGraph[256];
+
+	//Scratch space for searches inside a single cluster.
+	private final IntMinHeap clusterOpen;
+	private final float[] clusterDistance;
+	private final int[] clusterStamp;
+	private int clusterGeneration = 0;
+
+	//Scratch space for searches in an abstract graph.
+	private IntMinHeap abstractOpen = new IntMinHeap(0);
+	private float[] abstractG = new float[0], goalCost = new float[0];
+	private int[] abstractParent = new int[0], abstractStamp = new int[0], closedStamp = new int[0], goalStamp = new int[0];
+	private int abstractGeneration = 0;
+	private int[] startTargets = new int[16];
+	private float[] startCosts = new float[16];
+	private int numStartEdges;
+	private int[] abstractPath = new int[64];
+	private final int[] localPath;
+
+	private int lastExpanded;
+	private float lastPathCost;
+
+	/**
+	 * Creates a new HierarchicalPathFinder for the specified Map, with the default cluster size.
+	 * @param m - The Map to search.
+	 */
+	public HierarchicalPathFinder(Map m) {
+		this(m, defaultClusterSize);
+	}
+
+	/**
+	 * Creates a new HierarchicalPathFinder for the specified Map. The finder registers itself as a listener of the Map.
+	 * @param m - The Map to search.
+	 * @param clusterSize - The side of a cluster, in tiles.
+	 */
+	public HierarchicalPathFinder(Map m, int clusterSize) {
+		if(clusterSize < 2)
+			throw new IllegalArgumentException("The cluster size must be at least 2.");
+		this.map = m;
+		this.width = m.getWidth();
+		this.height = m.getHeight();
+		this.clusterSize = clusterSize;
+		this.clustersX = (width + clusterSize - 1) / clusterSize;
+		this.clustersY = (height + clusterSize - 1) / clusterSize;
+		this.local = new PathFinder(m);
+		int clusterTiles = clusterSize * clusterSize;
+		this.clusterOpen = new IntMinHeap(clusterTiles);
+		this.clusterDistance = new float[clusterTiles];
+		this.clusterStamp = new int[clusterTiles];
+		this.localPath = new int[clusterTiles];
+		m.addListener(this);
+	}
+
+	/**
+	 * Finds a path between two tiles.
+	 * @param startX - The x-position of the start tile.
+	 * @param startY - The y-position of the start tile.
+	 * @param goalX - The x-position of the goal tile.
+	 * @param goalY - The y-position of the goal tile.
+	 * @param movementType - The movement type to find a path for.
+	 * @param path - The array to put the path in, as tile indices ({@code y * width + x}) from the start to the goal,
+	 * both included. If the path does not fit, only the start of it is written.
+	 * @return
+	 * The number of tiles in the path, or {@code PathFinder.noPath} if the goal cannot be reached.
+	 */
+	public int findPath(int startX, int startY, int goalX, int goalY, Traversal movementType, int[] path) {
+		lastExpanded = 0;
+		byte mask = movementType.getMask();
+		if(!isInside(startX, startY) || !isInside(goalX, goalY) || (map.getTraversalMask(goalX, goalY) & mask) == 0)
+			return PathFinder.noPath;
+		costs.update(map);
+
+		int startCluster = getCluster(startX, startY);
+		int goalCluster = getCluster(goalX, goalY);
+		if(startCluster == goalCluster) {
+			//Most short paths never leave the cluster, and need no abstract search at all.
+			int length = local.findPath(startX, startY, goalX, goalY, mask, getClusterMinX(startCluster),
+					getClusterMinY(startCluster), getClusterMaxX(startCluster), getClusterMaxY(startCluster), path);
+			if(length != PathFinder.noPath) {
+				lastExpanded = local.getLastExpanded();
+				lastPathCost = local.getLastPathCost();
+				return length;
+			}
+		}
+
+		AbstractGraph graph = getGraph(mask);
+		int abstractLength = searchAbstract(graph, startX, startY, goalX, goalY, startCluster, goalCluster);
+		if(abstractLength == PathFinder.noPath)
+			return PathFinder.noPath;
+		return refine(graph, abstractLength, startY * width + startX, goalY * width + goalX, mask, path);
+	}
+
+	/**
+	 * Gets the cost of the abstract path found by the last successful search.
+	 * This is the cost of the returned path, as refinement finds the cheapest route between each pair of nodes.
+	 * @return
+	 * The path cost.
+	 */
+	public float getLastPathCost() {
+		return lastPathCost;
+	}
+
+	/**
+	 * Gets the number of nodes expanded by the last search, in the abstract graph and in the clusters.
+	 * @return
+	 * The number of expanded nodes.
+	 */
+	public int getLastExpanded() {
+		return lastExpanded;
+	}
+
+	/**
+	 * Gets the number of entrance nodes in the abstract graph of the specified movement type.
+	 * @param movementType - The movement type.
+	 * @return
+	 * The number of nodes. If no graph has been built for the movement type yet, 0.
+	 */
+	public int getAbstractNodeCount(Traversal movementType) {
+		AbstractGraph graph = graphs[movementType.getMask() & 0xFF];
+		return graph == null ? 0 : graph.used - graph.numFree;
+	}
+
+	/**
+	 * Gets the number of clusters rebuilt since this finder was created, over all movement types.
+	 * @return
+	 * The number of rebuilt clusters.
+	 */
+	public long getRebuiltClusters() {
+		long ret = 0;
+		for(AbstractGraph graph : graphs)
+			if(graph != null)
+				ret += graph.rebuiltClusters;
+		return ret;
+	}
+
+	@Override
+	public void tileChanged(Map m, int x, int y) {
+		int cluster = getCluster(x, y);
+		for(AbstractGraph graph : graphs)
+			if(graph != null)
+				graph.markDirty(cluster);
+	}
+
+	@Override
+	public void terrainObjectChanged(Map m, int x, int y) { }
+
+	//
+	// Abstract search
+	//
+
+	private int searchAbstract(AbstractGraph graph, int startX, int startY, int goalX, int goalY,
+			int startCluster, int goalCluster) {
+		int startNode = graph.used, goalNode = graph.used + 1;
+		ensureAbstractCapacity(graph.used + 2);
+		if(++abstractGeneration == 0) {
+			Arrays.fill(abstractStamp, 0);
+			Arrays.fill(closedStamp, 0);
+			Arrays.fill(goalStamp, 0);
+			abstractGeneration = 1;
+		}
+		int generation = abstractGeneration;
+		byte mask = graph.mask;
+
+		//Connect the start to the entrances of its cluster.
+		searchCluster(startCluster, startY * width + startX, mask, false);
+		numStartEdges = 0;
+		for(int i = 0; i < graph.clusterNodeCount[startCluster]; i++) {
+			int node = graph.clusterNodes[startCluster][i];
+			float d = getClusterDistance(startCluster, graph.tile[node]);
+			if(d >= 0)
+				addStartEdge(node, d);
+		}
+		//Connect the entrances of the goal's cluster to the goal.
+		searchCluster(goalCluster, goalY * width + goalX, mask, true);
+		for(int i = 0; i < graph.clusterNodeCount[goalCluster]; i++) {
+			int node = graph.clusterNodes[goalCluster][i];
+			float d = getClusterDistance(goalCluster, graph.tile[node]);
+			if(d >= 0) {
+				goalStamp[node] = generation;
+				goalCost[node] = d;
+			}
+		}
+
+		float h = costs.getMinimum(mask);
+		abstractOpen.clear();
+		abstractStamp[startNode] = generation;
+		abstractG[startNode] = 0;
+		abstractParent[startNode] = startNode;
+		abstractOpen.push(startNode, 0);
+
+		while(!abstractOpen.isEmpty()) {
+			int u = abstractOpen.pop();
+			if(u == goalNode) {
+				lastPathCost = abstractG[goalNode];
+				int length = 0;
+				for(int node = goalNode; ; node = abstractParent[node]) {
+					if(length == abstractPath.length)
+						abstractPath = Arrays.copyOf(abstractPath, length * 2);
+					abstractPath[length++] = node;
+					if(node == startNode)
+						break;
+				}
+				return length;
+			}
+			closedStamp[u] = generation;
+			lastExpanded++;
+			float gu = abstractG[u];
+			if(u == startNode) {
+				for(int i = 0; i < numStartEdges; i++)
+					relaxAbstract(graph, u, startTargets[i], gu + startCosts[i], goalX, goalY, h);
+				continue;
+			}
+			for(int i = 0; i < graph.edgeCount[u]; i++)
+				relaxAbstract(graph, u, graph.edgeTargets[u][i], gu + graph.edgeCosts[u][i], goalX, goalY, h);
+			if(graph.partner[u] >= 0)
+				relaxAbstract(graph, u, graph.partner[u], gu + graph.partnerCost[u], goalX, goalY, h);
+			if(goalStamp[u] == generation)
+				relaxAbstract(graph, u, goalNode, gu + goalCost[u], goalX, goalY, h);
+		}
+		return PathFinder.noPath;
+	}
+
+	private void relaxAbstract(AbstractGraph graph, int from, int node, float g, int goalX, int goalY, float h) {
+		int generation = abstractGeneration;
+		if(closedStamp[node] == generation)
+			return;
+		if(abstractStamp[node] == generation && g >= abstractG[node])
+			return;
+		abstractStamp[node] = generation;
+		abstractG[node] = g;
+		abstractParent[node] = from;
+		float estimate = 0;
+		if(node < graph.used) {
+			int tile = graph.tile[node];
+			estimate = h * (Math.abs(goalX - tile % width) + Math.abs(goalY - tile / width));
+		}
+		abstractOpen.push(node, g + estimate);
+	}
+
+	/**
+	 * Turns the abstract path into tiles, by searching between each pair of nodes in it.
+	 * The abstract path is stored from the goal to the start.
+	 */
+	private int refine(AbstractGraph graph, int abstractLength, int startTile, int goalTile, byte mask, int[] path) {
+		int length = 0;
+		int previousTile = startTile;
+		length = appendTile(path, length, startTile);
+		for(int i = abstractLength - 2; i >= 0; i--) {
+			int node = abstractPath[i];
+			int tile = node < graph.used ? graph.tile[node] : goalTile;
+			if(tile == previousTile)
+				continue;
+			int px = previousTile % width, py = previousTile / width;
+			int x = tile % width, y = tile / width;
+			if(Math.abs(px - x) + Math.abs(py - y) == 1) {
+				length = appendTile(path, length, tile);
+			} else {
+				int cluster = getCluster(x, y);
+				int localLength = local.findPath(px, py, x, y, mask, getClusterMinX(cluster), getClusterMinY(cluster),
+						getClusterMaxX(cluster), getClusterMaxY(cluster), localPath);
+				lastExpanded += local.getLastExpanded();
+				for(int j = 1; j < localLength; j++)
+					length = appendTile(path, length, localPath[j]);
+			}
+			previousTile = tile;
+		}
+		return length;
+	}
+
+	private static int appendTile(int[] path, int length, int tile) {
+		if(path != null && length < path.length)
+			path[length] = tile;
+		return length + 1;
+	}
+
+	private void addStartEdge(int node, float cost) {
+		if(numStartEdges == startTargets.length) {
+			startTargets = Arrays.copyOf(startTargets, numStartEdges * 2);
+			startCosts = Arrays.copyOf(startCosts, numStartEdges * 2);
+		}
+		startTargets[numStartEdges] = node;
+		startCosts[numStartEdges++] = cost;
+	}
+
+	private void ensureAbstractCapacity(int nodes) {
+		if(abstractOpen.getCapacity() >= nodes)
+			return;
+		int capacity = Math.max(nodes, abstractOpen.getCapacity() * 2);
+		abstractOpen = new IntMinHeap(capacity);
+		abstractG = new float[capacity];
+		goalCost = new float[capacity];
+		abstractParent = new int[capacity];
+		abstractStamp = new int[capacity];
+		closedStamp = new int[capacity];
+		goalStamp = new int[capacity];
+		abstractGeneration = 0;
+	}
+
+	//
+	// Searches inside a cluster
+	//
+
+	/**
+	 * Runs Dijkstra from a tile, without leaving its cluster.
+	 * If {@code reverse} is true, the distances are those from every tile to the origin instead.
+	 */
+	private void searchCluster(int cluster, int origin, byte mask, boolean reverse) {
+		int minX = getClusterMinX(cluster), minY = getClusterMinY(cluster);
+		int maxX = getClusterMaxX(cluster), maxY = getClusterMaxY(cluster);
+		if(++clusterGeneration == 0) {
+			Arrays.fill(clusterStamp, 0);
+			clusterGeneration = 1;
+		}
+		clusterOpen.clear();
+		int originLocal = toClusterLocal(origin % width, origin / width, minX, minY);
+		clusterStamp[originLocal] = clusterGeneration;
+		clusterDistance[originLocal] = 0;
+		clusterOpen.push(originLocal, 0);
+		while(!clusterOpen.isEmpty()) {
+			float d = clusterOpen.peekKey();
+			int u = clusterOpen.pop();
+			lastExpanded++;
+			int x = minX + u % clusterSize, y = minY + u / clusterSize;
+			float step = reverse ? costs.get(map.getTerrainID(x, y)) : 0;
+			if(x > minX)
+				relaxCluster(x - 1, y, d, step, mask, reverse, minX, minY);
+			if(x < maxX)
+				relaxCluster(x + 1, y, d, step, mask, reverse, minX, minY);
+			if(y > minY)
+				relaxCluster(x, y - 1, d, step, mask, reverse, minX, minY);
+			if(y < maxY)
+				relaxCluster(x, y + 1, d, step, mask, reverse, minX, minY);
+		}
+	}
+
+	private void relaxCluster(int x, int y, float d, float step, byte mask, boolean reverse, int minX, int minY) {
+		if((map.getTraversalMask(x, y) & mask) == 0)
+			return;
+		int v = toClusterLocal(x, y, minX, minY);
+		float dv = d + (reverse ? step : costs.get(map.getTerrainID(x, y)));
+		if(clusterStamp[v] == clusterGeneration && dv >= clusterDistance[v])
+			return;
+		clusterStamp[v] = clusterGeneration;
+		clusterDistance[v] = dv;
+		clusterOpen.push(v, dv);
+	}
+
+	/**
+	 * Gets the distance found by the last cluster search to a tile in that cluster.
+	 * @return
+	 * The distance, or -1 if the tile was not reached.
+	 */
+	private float getClusterDistance(int cluster, int tile) {
+		int v = toClusterLocal(tile % width, tile / width, getClusterMinX(cluster), getClusterMinY(cluster));
+		return clusterStamp[v] == clusterGeneration ? clusterDistance[v] : -1;
+	}
+
+	private int toClusterLocal(int x, int y, int minX, int minY) {
+		return (y - minY) * clusterSize + (x - minX);
+	}
+
+	//
+	// Clusters
+	//
+
+	private boolean isInside(int x, int y) {
+		return x >= 0 && y >= 0 && x < width && y < height;
+	}
+
+	private int getCluster(int x, int y) {
+		return (y / clusterSize) * clustersX + x / clusterSize;
+	}
+
+	private int getClusterMinX(int cluster) {
+		return (cluster % clustersX) * clusterSize;
+	}
+
+	private int getClusterMinY(int cluster) {
+		return (cluster / clustersX) * clusterSize;
+	}
+
+	private int getClusterMaxX(int cluster) {
+		return Math.min(getClusterMinX(cluster) + clusterSize, width) - 1;
+	}
+
+	private int getClusterMaxY(int cluster) {
+		return Math.min(getClusterMinY(cluster) + clusterSize, height) - 1;
+	}
+
+	private AbstractGraph getGraph(byte mask) {
+		AbstractGraph graph = graphs[mask & 0xFF];
+		if(graph == null) {
+			graph = new AbstractGraph(mask);
+			graphs[mask & 0xFF] = graph;
+		}
+		graph.rebuildDirty();
+		return graph;
+	}
+
+	/**
+	 * The entrance nodes and edges between them for one movement type.
+	 * <br>
+	 * Every node lies on a cluster border, and has a partner node on the other side of the border.
+	 * The edges of a node lead to the other nodes of its cluster.
+	 */
+	private class AbstractGraph {
+		final byte mask;
+		//Per node data.
+		int[] tile = new int[64], cluster = new int[64], partner = new int[64];
+		float[] partnerCost = new float[64];
+		int[][] edgeTargets = new int[64][];
+		float[][] edgeCosts = new float[64][];
+		int[] edgeCount = new int[64];
+		int[] free = new int[64];
+		int used = 0, numFree = 0;
+		//Per cluster data.
+		int[][] clusterNodes = new int[clustersX * clustersY][];
+		int[] clusterNodeCount = new int[clustersX * clustersY];
+		boolean[] dirty = new boolean[clustersX * clustersY];
+		boolean anyDirty = true;
+		long rebuiltClusters = 0;
+
+		AbstractGraph(byte mask) {
+			this.mask = mask;
+			Arrays.fill(dirty, true);
+			for(int c = 0; c < clusterNodes.length; c++)
+				clusterNodes[c] = new int[8];
+		}
+
+		void markDirty(int c) {
+			dirty[c] = true;
+			anyDirty = true;
+		}
+
+		/**
+		 * Rebuilds the borders of all dirty clusters, and the edges of every cluster whose entrances changed.
+		 */
+		void rebuildDirty() {
+			if(!anyDirty)
+				return;
+			boolean[] rebuildEdges = new boolean[dirty.length];
+			for(int c = 0; c < dirty.length; c++) {
+				if(!dirty[c])
+					continue;
+				int cx = c % clustersX, cy = c / clustersX;
+				rebuildEdges[c] = true;
+				//Each border is rebuilt by the lower cluster, unless only the higher one is dirty.
+				if(cx + 1 < clustersX)
+					rebuildBorder(c, c + 1, rebuildEdges);
+				if(cy + 1 < clustersY)
+					rebuildBorder(c, c + clustersX, rebuildEdges);
+				if(cx > 0 && !dirty[c - 1])
+					rebuildBorder(c - 1, c, rebuildEdges);
+				if(cy > 0 && !dirty[c - clustersX])
+					rebuildBorder(c - clustersX, c, rebuildEdges);
+			}
+			for(int c = 0; c < dirty.length; c++) {
+				if(rebuildEdges[c]) {
+					rebuildEdges(c);
+					rebuiltClusters++;
+				}
+				dirty[c] = false;
+			}
+			anyDirty = false;
+		}
+
+		/**
+		 * Removes all transitions between two neighbouring clusters, and finds them again.
+		 * @param a - The cluster above or to the left.
+		 * @param b - The cluster below or to the right.
+		 */
+		void rebuildBorder(int a, int b, boolean[] rebuildEdges) {
+			rebuildEdges[a] = rebuildEdges[b] = true;
+			for(int i = clusterNodeCount[a] - 1; i >= 0; i--) {
+				int node = clusterNodes[a][i];
+				if(partner[node] >= 0 && cluster[partner[node]] == b) {
+					removeNode(partner[node]);
+					removeNode(node);
+				}
+			}
+			boolean horizontal = b == a + 1;
+			int length, ax, ay, dx, dy;
+			if(horizontal) {
+				ax = getClusterMaxX(a);
+				ay = getClusterMinY(a);
+				length = getClusterMaxY(a) - ay + 1;
+				dx = 0;
+				dy = 1;
+			} else {
+				ax = getClusterMinX(a);
+				ay = getClusterMaxY(a);
+				length = getClusterMaxX(a) - ax + 1;
+				dx = 1;
+				dy = 0;
+			}
+			int bOffsetX = horizontal ? 1 : 0, bOffsetY = horizontal ? 0 : 1;
+			int runStart = -1;
+			for(int i = 0; i <= length; i++) {
+				boolean open = i < length
+						&& (map.getTraversalMask(ax + i * dx, ay + i * dy) & mask) != 0
+						&& (map.getTraversalMask(ax + i * dx + bOffsetX, ay + i * dy + bOffsetY) & mask) != 0;
+				if(open && runStart < 0) {
+					runStart = i;
+				} else if(!open && runStart >= 0) {
+					int runEnd = i - 1;
+					if(runEnd - runStart + 1 >= longEntrance) {
+						addTransition(a, b, ax + runStart * dx, ay + runStart * dy, bOffsetX, bOffsetY);
+						addTransition(a, b, ax + runEnd * dx, ay + runEnd * dy, bOffsetX, bOffsetY);
+					} else {
+						int mid = (runStart + runEnd) / 2;
+						addTransition(a, b, ax + mid * dx, ay + mid * dy, bOffsetX, bOffsetY);
+					}
+					runStart = -1;
+				}
+			}
+		}
+
+		void addTransition(int a, int b, int x, int y, int offsetX, int offsetY) {
+			int tileA = y * width + x;
+			int tileB = (y + offsetY) * width + x + offsetX;
+			int nodeA = addNode(a, tileA), nodeB = addNode(b, tileB);
+			partner[nodeA] = nodeB;
+			partner[nodeB] = nodeA;
+			partnerCost[nodeA] = costs.get(map.getTerrainID(x + offsetX, y + offsetY));
+			partnerCost[nodeB] = costs.get(map.getTerrainID(x, y));
+		}
+
+		/**
+		 * Recomputes the cheapest paths between all entrance nodes of a cluster.
+		 */
+		void rebuildEdges(int c) {
+			for(int i = 0; i < clusterNodeCount[c]; i++) {
+				int u = clusterNodes[c][i];
+				edgeCount[u] = 0;
+				searchCluster(c, tile[u], mask, false);
+				for(int j = 0; j < clusterNodeCount[c]; j++) {
+					int v = clusterNodes[c][j];
+					if(v == u)
+						continue;
+					float d = getClusterDistance(c, tile[v]);
+					if(d >= 0)
+						addEdge(u, v, d);
+				}
+			}
+		}
+
+		int addNode(int c, int t) {
+			int node;
+			if(numFree > 0) {
+				node = free[--numFree];
+			} else {
+				if(used == tile.length)
+					grow();
+				node = used++;
+			}
+			tile[node] = t;
+			cluster[node] = c;
+			partner[node] = -1;
+			edgeCount[node] = 0;
+			if(edgeTargets[node] == null) {
+				edgeTargets[node] = new int[8];
+				edgeCosts[node] = new float[8];
+			}
+			if(clusterNodeCount[c] == clusterNodes[c].length)
+				clusterNodes[c] = Arrays.copyOf(clusterNodes[c], clusterNodeCount[c] * 2);
+			clusterNodes[c][clusterNodeCount[c]++] = node;
+			return node;
+		}
+
+		void removeNode(int node) {
+			int c = cluster[node];
+			for(int i = 0; i < clusterNodeCount[c]; i++)
+				if(clusterNodes[c][i] == node) {
+					clusterNodes[c][i] = clusterNodes[c][--clusterNodeCount[c]];
+					break;
+				}
+			partner[node] = -1;
+			edgeCount[node] = 0;
+			cluster[node] = -1;
+			free[numFree++] = node;
+		}
+
+		void addEdge(int u, int v, float cost) {
+			if(edgeCount[u] == edgeTargets[u].length) {
+				edgeTargets[u] = Arrays.copyOf(edgeTargets[u], edgeCount[u] * 2);
+				edgeCosts[u] = Arrays.copyOf(edgeCosts[u], edgeCount[u] * 2);
+			}
+			edgeTargets[u][edgeCount[u]] = v;
+			edgeCosts[u][edgeCount[u]++] = cost;
+		}
+
+		void grow() {
+			int capacity = tile.length * 2;
+			tile = Arrays.copyOf(tile, capacity);
+			cluster = Arrays.copyOf(cluster, capacity);
+			partner = Arrays.copyOf(partner, capacity);
+			partnerCost = Arrays.copyOf(partnerCost, capacity);
+			edgeTargets = Arrays.copyOf(edgeTargets, capacity);
+			edgeCosts = Arrays.copyOf(edgeCosts, capacity);
+			edgeCount = Arrays.copyOf(edgeCount, capacity);
+			free = Arrays.copyOf(free, capacity);
+		}
+	}
+}
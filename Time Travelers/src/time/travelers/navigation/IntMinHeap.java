@@ -0,0 +1,142 @@
+package time.travelers.navigation;
+
+import java.util.Arrays;
+
+/**
+ * A binary min-heap of integer nodes in the range {@code [0, capacity)}, keyed by float priorities.
+ * <br><br>
+ * Supports decreasing the key of a node already in the heap. Clearing the heap is O(1), so one heap can be reused for
+ * any number of searches without allocating.
+ * @author Grevor
+ */
+public class IntMinHeap {
+	private int[] heap;
+	private float[] heapKeys;
+	/**
+	 * The position of every node in the heap. Only valid if the node's stamp equals the current generation.
+	 */
+	private int[] position;
+	private int[] stamp;
+	private int generation = 1;
+	private int size = 0;
+
+	/**
+	 * Creates a new heap able to hold the nodes {@code [0, capacity)}.
+	 * @param capacity - The number of distinct nodes.
+	 */
+	public IntMinHeap(int capacity) {
+		heap = new int[capacity];
+		heapKeys = new float[capacity];
+		position = new int[capacity];
+		stamp = new int[capacity];
+	}
+
+	public int getCapacity() {
+		return heap.length;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * Removes all nodes from this heap.
+	 */
+	public void clear() {
+		size = 0;
+		if(++generation == 0) {
+			//The stamps have wrapped around, so old stamps could look current. This happens once every 2^32 clears.
+			Arrays.fill(stamp, 0);
+			generation = 1;
+		}
+	}
+
+	/**
+	 * Checks if the specified node is in this heap.
+	 * @param node - The node.
+	 * @return
+	 * True if it is, else false.
+	 */
+	public boolean contains(int node) {
+		return stamp[node] == generation && position[node] >= 0;
+	}
+
+	/**
+	 * Adds a node to the heap, or lowers its key if it is already in the heap and the new key is lower.
+	 * @param node - The node.
+	 * @param key - The key of the node.
+	 */
+	public void push(int node, float key) {
+		int i;
+		if(stamp[node] == generation && position[node] >= 0) {
+			i = position[node];
+			if(key >= heapKeys[i])
+				return;
+		} else {
+			stamp[node] = generation;
+			i = size++;
+		}
+		siftUp(i, node, key);
+	}
+
+	/**
+	 * Gets the key of the node with the lowest key. The heap must not be empty.
+	 * @return
+	 * The lowest key.
+	 */
+	public float peekKey() {
+		return heapKeys[0];
+	}
+
+	/**
+	 * Removes the node with the lowest key. The heap must not be empty.
+	 * @return
+	 * The node.
+	 */
+	public int pop() {
+		int ret = heap[0];
+		position[ret] = -1;
+		size--;
+		if(size > 0)
+			siftDown(0, heap[size], heapKeys[size]);
+		return ret;
+	}
+
+	private void siftUp(int i, int node, float key) {
+		while(i > 0) {
+			int parent = (i - 1) >> 1;
+			if(heapKeys[parent] <= key)
+				break;
+			heap[i] = heap[parent];
+			heapKeys[i] = heapKeys[parent];
+			position[heap[i]] = i;
+			i = parent;
+		}
+		heap[i] = node;
+		heapKeys[i] = key;
+		position[node] = i;
+	}
+
+	private void siftDown(int i, int node, float key) {
+		while(true) {
+			int child = 2 * i + 1;
+			if(child >= size)
+				break;
+			if(child + 1 < size && heapKeys[child + 1] < heapKeys[child])
+				child++;
+			if(heapKeys[child] >= key)
+				break;
+			heap[i] = heap[child];
+			heapKeys[i] = heapKeys[child];
+			position[heap[i]] = i;
+			i = child;
+		}
+		heap[i] = node;
+		heapKeys[i] = key;
+		position[node] = i;
+	}
+}
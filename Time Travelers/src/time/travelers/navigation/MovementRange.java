@@ -0,0 +1,163 @@
+package time.travelers.navigation;
+
+import java.util.Arrays;
+
+/**
+ * The tiles a unit can reach with a number of movement points, with the cheapest cost of reaching each of them and the
+ * tile it is reached from.
+ * <br><br>
+ * The result covers a window of the Map around the unit, large enough to hold every tile within reach. The reachable
+ * tiles are kept as a bitset over that window. A MovementRange is meant to be reused, and only grows its arrays when a
+ * larger window is needed.
+ * @author Grevor
+ * @see MovementRangeFinder
+ */
+public class MovementRange {
+	/**
+	 * Returned by {@code getParent} for the starting tile and for tiles outside the range.
+	 */
+	public static final int noParent = -1;
+
+	int mapWidth;
+	int minX, minY, width, height;
+	int originX, originY;
+	float budget;
+	int tileCount;
+	long[] bits = new long[0];
+	float[] cost = new float[0];
+	int[] parent = new int[0];
+
+	/**
+	 * Clears this range and sets up its window.
+	 */
+	void reset(int mapWidth, int originX, int originY, float budget, int minX, int minY, int width, int height) {
+		this.mapWidth = mapWidth;
+		this.originX = originX;
+		this.originY = originY;
+		this.budget = budget;
+		this.minX = minX;
+		this.minY = minY;
+		this.width = width;
+		this.height = height;
+		this.tileCount = 0;
+		int size = width * height;
+		int words = (size + 63) >>> 6;
+		if(bits.length < words)
+			bits = new long[Math.max(words, bits.length * 2)];
+		else
+			Arrays.fill(bits, 0, words, 0);
+		if(cost.length < size) {
+			cost = new float[Math.max(size, cost.length * 2)];
+			parent = new int[cost.length];
+		}
+	}
+
+	/**
+	 * Checks if a tile is within this range.
+	 * @param x - The x-position of the tile.
+	 * @param y - The y-position of the tile.
+	 * @return
+	 * True if it is, else false.
+	 */
+	public boolean contains(int x, int y) {
+		x -= minX;
+		y -= minY;
+		if(x < 0 || y < 0 || x >= width || y >= height)
+			return false;
+		int i = y * width + x;
+		return (bits[i >>> 6] & (1L << i)) != 0;
+	}
+
+	/**
+	 * Gets the cheapest cost of reaching a tile.
+	 * @param x - The x-position of the tile.
+	 * @param y - The y-position of the tile.
+	 * @return
+	 * The cost, or {@code Float.POSITIVE_INFINITY} if the tile is not within this range.
+	 */
+	public float getCost(int x, int y) {
+		return contains(x, y) ? cost[(y - minY) * width + (x - minX)] : Float.POSITIVE_INFINITY;
+	}
+
+	/**
+	 * Gets the tile a tile is reached from, the cheapest way.
+	 * @param x - The x-position of the tile.
+	 * @param y - The y-position of the tile.
+	 * @return
+	 * The index ({@code y * mapWidth + x}) of the previous tile, or {@code noParent}.
+	 */
+	public int getParent(int x, int y) {
+		return contains(x, y) ? parent[(y - minY) * width + (x - minX)] : noParent;
+	}
+
+	/**
+	 * Gets the cheapest path from the starting tile to a tile within this range.
+	 * @param x - The x-position of the tile.
+	 * @param y - The y-position of the tile.
+	 * @param path - The array to put the path in, as tile indices from the start to the tile, both included.
+	 * If the path does not fit, nothing is written.
+	 * @return
+	 * The number of tiles in the path, or {@code PathFinder.noPath} if the tile is not within this range.
+	 */
+	public int getPath(int x, int y, int[] path) {
+		if(!contains(x, y))
+			return PathFinder.noPath;
+		int length = 1;
+		for(int tile = y * mapWidth + x; (tile = getParent(tile % mapWidth, tile / mapWidth)) != noParent; )
+			length++;
+		if(path != null && length <= path.length) {
+			int i = length;
+			for(int tile = y * mapWidth + x; tile != noParent; tile = getParent(tile % mapWidth, tile / mapWidth))
+				path[--i] = tile;
+		}
+		return length;
+	}
+
+	/**
+	 * Gets the number of tiles within this range, including the starting tile.
+	 * @return
+	 * The number of tiles.
+	 */
+	public int getTileCount() {
+		return tileCount;
+	}
+
+	/**
+	 * Gets the bitset of tiles within this range. The bit for the tile (x, y) is bit
+	 * {@code (y - getMinY()) * getWidth() + (x - getMinX())}, counting from the lowest bit of the first word.
+	 * Words past the end of the window are not used.
+	 * @return
+	 * The bitset. It is owned by this range, and changes when it is reused.
+	 */
+	public long[] getBits() {
+		return bits;
+	}
+
+	public int getMinX() {
+		return minX;
+	}
+
+	public int getMinY() {
+		return minY;
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+
+	public int getOriginX() {
+		return originX;
+	}
+
+	public int getOriginY() {
+		return originY;
+	}
+
+	public float getBudget() {
+		return budget;
+	}
+}
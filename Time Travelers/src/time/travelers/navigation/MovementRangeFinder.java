@@ -0,0 +1,232 @@
+package time.travelers.navigation;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import time.travelers.core.Map;
+import time.travelers.core.Traversal;
+
+/**
+ * Finds the tiles units can reach with a number of movement points, as for selecting a unit in a tactics game.
+ * <br><br>
+ * Each search is a Dijkstra search from the unit's tile, limited to a window around it that holds every tile the unit
+ * could reach at the lowest step cost of its movement type. Entering a tile costs the same as for a PathFinder.
+ * All search state lives in reusable arrays, so a search does not allocate once its MovementRange and the thread's
+ * scratch space are large enough.
+ * <br><br>
+ * {@code findAll} runs many searches in parallel, if the Map's storage allows concurrent reads. The Map must not be
+ * changed while a search runs.
+ * @author Grevor
+ * @see MovementRange
+ */
+public class MovementRangeFinder {
+	/**
+	 * The number of searches each parallel task runs, at least.
+	 */
+	private static final int searchesPerTask = 4;
+	private static final int[] stepX = { -1, 1, 0, 0 };
+	private static final int[] stepY = { 0, 0, -1, 1 };
+
+	private final Map map;
+	private final int width, height;
+	private final ForkJoinPool pool;
+	private final boolean ownsPool;
+	private final StepCosts costs = new StepCosts();
+	private final ThreadLocal<Scratch> scratch = new ThreadLocal<Scratch>() {
+		@Override
+		protected Scratch initialValue() {
+			return new Scratch();
+		}
+	};
+
+	/**
+	 * Creates a new MovementRangeFinder for the specified Map, with its own pool of one thread per processor. The pool is
+	 * stopped by {@code shutdown}.
+	 * @param m - The Map.
+	 */
+	public MovementRangeFinder(Map m) {
+		this(m, new ForkJoinPool(), true);
+	}
+
+	/**
+	 * Creates a new MovementRangeFinder for the specified Map.
+	 * @param m - The Map.
+	 * @param pool - The pool to run parallel searches in. It is shared, and not stopped by {@code shutdown}.
+	 */
+	public MovementRangeFinder(Map m, ForkJoinPool pool) {
+		this(m, pool, false);
+	}
+
+	private MovementRangeFinder(Map m, ForkJoinPool pool, boolean ownsPool) {
+		this.map = m;
+		this.width = m.getWidth();
+		this.height = m.getHeight();
+		this.pool = pool;
+		this.ownsPool = ownsPool;
+	}
+
+	/**
+	 * Finds the tiles a unit can reach.
+	 * @param x - The x-position of the unit.
+	 * @param y - The y-position of the unit.
+	 * @param budget - The movement points of the unit. Must be non-negative; a budget of 0 reaches only the unit's tile.
+	 * @param movementType - The movement type of the unit.
+	 * @param result - The MovementRange to put the result in.
+	 * @throws IllegalArgumentException If the budget is negative or NaN.
+	 */
+	public void find(int x, int y, float budget, Traversal movementType, MovementRange result) {
+		checkBudget(budget);
+		synchronized(costs) {
+			costs.update(map);
+		}
+		search(x, y, budget, movementType.getMask(), result, scratch.get());
+	}
+
+	/**
+	 * Finds the tiles a number of units can reach, in parallel if the Map's storage allows it.
+	 * @param x - The x-positions of the units.
+	 * @param y - The y-positions of the units.
+	 * @param budgets - The movement points of the units. Must be non-negative.
+	 * @param movementTypes - The movement types of the units.
+	 * @param results - The MovementRanges to put the results in, one per unit.
+	 * @throws IllegalArgumentException If any budget is negative or NaN. No search is run then.
+	 */
+	public void findAll(int[] x, int[] y, float[] budgets, Traversal[] movementTypes, MovementRange[] results) {
+		for(int i = 0; i < results.length; i++)
+			checkBudget(budgets[i]);
+		synchronized(costs) {
+			costs.update(map);
+		}
+		SearchTask task = new SearchTask(x, y, budgets, movementTypes, results, 0, results.length);
+		if(map.getStorage().supportsConcurrentReads())
+			pool.invoke(task);
+		else
+			task.run(0, results.length);
+	}
+
+	/**
+	 * Stops the pool of this finder, if the finder made it. The finder may not be used afterwards.
+	 */
+	public void shutdown() {
+		if(ownsPool)
+			pool.shutdown();
+	}
+
+	//
+	// Private methods
+	//
+
+	private static void checkBudget(float budget) {
+		if(!(budget >= 0))
+			throw new IllegalArgumentException("The movement budget must be non-negative, but was " + budget + ".");
+	}
+
+	private void search(int x, int y, float budget, byte mask, MovementRange out, Scratch s) {
+		int reach = (int) Math.min(Math.max(width, height), Math.floor(budget / costs.getMinimum(mask)));
+		int minX = Math.max(x - reach, 0), minY = Math.max(y - reach, 0);
+		int maxX = Math.min(x + reach, width - 1), maxY = Math.min(y + reach, height - 1);
+		int w = maxX - minX + 1, h = maxY - minY + 1;
+		out.reset(width, x, y, budget, minX, minY, w, h);
+		s.ensureCapacity(w * h);
+
+		long[] reached = out.bits;
+		long[] closed = s.closed;
+		float[] cost = out.cost;
+		int[] parent = out.parent;
+		IntMinHeap open = s.open;
+		Arrays.fill(closed, 0, (w * h + 63) >>> 6, 0);
+		open.clear();
+
+		int origin = (y - minY) * w + (x - minX);
+		reached[origin >>> 6] |= 1L << origin;
+		cost[origin] = 0;
+		parent[origin] = MovementRange.noParent;
+		open.push(origin, 0);
+		int count = 0;
+		while(!open.isEmpty()) {
+			int u = open.pop();
+			closed[u >>> 6] |= 1L << u;
+			count++;
+			int ux = u % w, uy = u / w;
+			float cu = cost[u];
+			int tile = (uy + minY) * width + ux + minX;
+			for(int d = 0; d < 4; d++) {
+				int vx = ux + stepX[d], vy = uy + stepY[d];
+				if(vx < 0 || vy < 0 || vx >= w || vy >= h)
+					continue;
+				int v = vy * w + vx;
+				if((closed[v >>> 6] & (1L << v)) != 0)
+					continue;
+				int mx = vx + minX, my = vy + minY;
+				if((map.getTraversalMask(mx, my) & mask) == 0)
+					continue;
+				float cv = cu + costs.get(map.getTerrainID(mx, my));
+				if(cv > budget)
+					continue;
+				boolean seen = (reached[v >>> 6] & (1L << v)) != 0;
+				if(seen && cv >= cost[v])
+					continue;
+				reached[v >>> 6] |= 1L << v;
+				cost[v] = cv;
+				parent[v] = tile;
+				open.push(v, cv);
+			}
+		}
+		out.tileCount = count;
+	}
+
+	/**
+	 * Search space owned by one thread.
+	 */
+	private static class Scratch {
+		IntMinHeap open = new IntMinHeap(0);
+		long[] closed = new long[0];
+
+		void ensureCapacity(int tiles) {
+			if(open.getCapacity() < tiles)
+				open = new IntMinHeap(tiles);
+			if(closed.length < ((tiles + 63) >>> 6))
+				closed = new long[(tiles + 63) >>> 6];
+		}
+	}
+
+	/**
+	 * Runs the searches {@code [from, to)}, splitting them between the threads of the pool.
+	 */
+	private class SearchTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private final int[] x, y;
+		private final float[] budgets;
+		private final Traversal[] movementTypes;
+		private final MovementRange[] results;
+		private final int from, to;
+
+		SearchTask(int[] x, int[] y, float[] budgets, Traversal[] movementTypes, MovementRange[] results, int from, int to) {
+			this.x = x;
+			this.y = y;
+			this.budgets = budgets;
+			this.movementTypes = movementTypes;
+			this.results = results;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if(to - from <= searchesPerTask) {
+				run(from, to);
+				return;
+			}
+			int mid = (from + to) >>> 1;
+			invokeAll(new SearchTask(x, y, budgets, movementTypes, results, from, mid),
+					new SearchTask(x, y, budgets, movementTypes, results, mid, to));
+		}
+
+		void run(int from, int to) {
+			Scratch s = scratch.get();
+			for(int i = from; i < to; i++)
+				search(x[i], y[i], budgets[i], movementTypes[i].getMask(), results[i], s);
+		}
+	}
+}
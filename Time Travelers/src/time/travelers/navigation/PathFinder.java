@@ -0,0 +1,203 @@
+package time.travelers.navigation;
+
+import java.util.Arrays;
+
+import time.travelers.core.Map;
+import time.travelers.core.Traversal;
+
+/**
+ * A* search over the tiles of a Map, moving in the four grid directions.
+ * <br><br>
+ * A tile can be entered by a movement type if its traversal mask shares a bit with the movement type.
+ * The cost of entering a tile is given by StepCosts. The starting tile need not be passable.
+ * <br><br>
+ * All search state is kept in arrays which are reused across searches, so a search allocates no memory once the
+ * PathFinder is created. A PathFinder is not thread-safe; use one per thread.
+ * @author Grevor
+ * @see StepCosts
+ */
+public class PathFinder {
+	/**
+	 * Returned by the search methods when no path exists.
+	 */
+	public static final int noPath = -1;
+
+	private final Map map;
+	private final int width, height;
+	private final StepCosts costs = new StepCosts();
+	private final IntMinHeap open;
+	private final float[] g;
+	private final int[] parent;
+	/**
+	 * A node has been reached in the current search if its visit stamp equals the generation,
+	 * and is closed if its closed stamp does.
+	 */
+	private final int[] visitStamp, closedStamp;
+	private int generation = 0;
+
+	private int lastGoal;
+	private float lastPathCost;
+	private int lastExpanded;
+
+	/**
+	 * Creates a new PathFinder for the specified Map.
+	 * @param m - The Map to search.
+	 */
+	public PathFinder(Map m) {
+		this.map = m;
+		this.width = m.getWidth();
+		this.height = m.getHeight();
+		int size = width * height;
+		open = new IntMinHeap(size);
+		g = new float[size];
+		parent = new int[size];
+		visitStamp = new int[size];
+		closedStamp = new int[size];
+	}
+
+	public Map getMap() {
+		return map;
+	}
+
+	/**
+	 * Finds the cheapest path between two tiles.
+	 * @param startX - The x-position of the start tile.
+	 * @param startY - The y-position of the start tile.
+	 * @param goalX - The x-position of the goal tile.
+	 * @param goalY - The y-position of the goal tile.
+	 * @param movementType - The movement type to find a path for.
+	 * @param path - The array to put the path in, as tile indices ({@code y * width + x}) from the start to the goal,
+	 * both included. If the path does not fit, nothing is written.
+	 * @return
+	 * The number of tiles in the path, or {@code noPath} if the goal cannot be reached.
+	 */
+	public int findPath(int startX, int startY, int goalX, int goalY, Traversal movementType, int[] path) {
+		return findPath(startX, startY, goalX, goalY, movementType.getMask(), 0, 0, width - 1, height - 1, path);
+	}
+
+	/**
+	 * Finds the cheapest path between two tiles, only passing through tiles inside the specified rectangle.
+	 * @param startX - The x-position of the start tile.
+	 * @param startY - The y-position of the start tile.
+	 * @param goalX - The x-position of the goal tile.
+	 * @param goalY - The y-position of the goal tile.
+	 * @param movementMask - The traversal bits of the movement type to find a path for.
+	 * @param minX - The lowest x-position allowed, inclusive.
+	 * @param minY - The lowest y-position allowed, inclusive.
+	 * @param maxX - The highest x-position allowed, inclusive.
+	 * @param maxY - The highest y-position allowed, inclusive.
+	 * @param path - The array to put the path in, as in {@code findPath(int, int, int, int, Traversal, int[])}.
+	 * May be null, if only the cost is needed.
+	 * @return
+	 * The number of tiles in the path, or {@code noPath} if the goal cannot be reached.
+	 */
+	public int findPath(int startX, int startY, int goalX, int goalY, byte movementMask,
+			int minX, int minY, int maxX, int maxY, int[] path) {
+		if(!search(startX, startY, goalX, goalY, movementMask, minX, minY, maxX, maxY))
+			return noPath;
+		int length = 1;
+		for(int node = lastGoal; parent[node] != node; node = parent[node])
+			length++;
+		if(path != null && length <= path.length) {
+			int i = length;
+			for(int node = lastGoal; ; node = parent[node]) {
+				path[--i] = node;
+				if(parent[node] == node)
+					break;
+			}
+		}
+		return length;
+	}
+
+	/**
+	 * Gets the cost of the path found by the last successful search.
+	 * @return
+	 * The path cost.
+	 */
+	public float getLastPathCost() {
+		return lastPathCost;
+	}
+
+	/**
+	 * Gets the number of tiles expanded by the last search.
+	 * @return
+	 * The number of expanded tiles.
+	 */
+	public int getLastExpanded() {
+		return lastExpanded;
+	}
+
+	//
+	// Private methods
+	//
+
+	private boolean search(int startX, int startY, int goalX, int goalY, byte mask, int minX, int minY, int maxX, int maxY) {
+		lastExpanded = 0;
+		minX = Math.max(minX, 0);
+		minY = Math.max(minY, 0);
+		maxX = Math.min(maxX, width - 1);
+		maxY = Math.min(maxY, height - 1);
+		if(startX < minX || startY < minY || startX > maxX || startY > maxY)
+			return false;
+		if(goalX < minX || goalY < minY || goalX > maxX || goalY > maxY)
+			return false;
+		if((map.getTraversalMask(goalX, goalY) & mask) == 0)
+			return false;
+
+		costs.update(map);
+		float h = costs.getMinimum(mask);
+		nextGeneration();
+		open.clear();
+
+		int start = startY * width + startX;
+		int goal = goalY * width + goalX;
+		visitStamp[start] = generation;
+		g[start] = 0;
+		parent[start] = start;
+		open.push(start, h * (Math.abs(goalX - startX) + Math.abs(goalY - startY)));
+
+		while(!open.isEmpty()) {
+			int node = open.pop();
+			if(node == goal) {
+				lastGoal = goal;
+				lastPathCost = g[goal];
+				return true;
+			}
+			closedStamp[node] = generation;
+			lastExpanded++;
+			int x = node % width;
+			int y = node / width;
+			float gNode = g[node];
+			if(x > minX)
+				relax(node, x - 1, y, gNode, mask, goalX, goalY, h);
+			if(x < maxX)
+				relax(node, x + 1, y, gNode, mask, goalX, goalY, h);
+			if(y > minY)
+				relax(node, x, y - 1, gNode, mask, goalX, goalY, h);
+			if(y < maxY)
+				relax(node, x, y + 1, gNode, mask, goalX, goalY, h);
+		}
+		return false;
+	}
+
+	private void relax(int from, int x, int y, float gFrom, byte mask, int goalX, int goalY, float h) {
+		int node = y * width + x;
+		if(closedStamp[node] == generation || (map.getTraversalMask(x, y) & mask) == 0)
+			return;
+		float gNew = gFrom + costs.get(map.getTerrainID(x, y));
+		if(visitStamp[node] == generation && gNew >= g[node])
+			return;
+		visitStamp[node] = generation;
+		g[node] = gNew;
+		parent[node] = from;
+		open.push(node, gNew + h * (Math.abs(goalX - x) + Math.abs(goalY - y)));
+	}
+
+	private void nextGeneration() {
+		if(++generation == 0) {
+			Arrays.fill(visitStamp, 0);
+			Arrays.fill(closedStamp, 0);
+			generation = 1;
+		}
+	}
+}
@@ -0,0 +1,61 @@
+package time.travelers.navigation;
+
+import time.travelers.core.Map;
+import time.travelers.core.Terrain;
+
+/**
+ * The cost of stepping onto each kind of terrain of a Map, as used by the searches in this package.
+ * <br><br>
+ * Stepping onto a tile costs the traversal cost of its terrain, but never less than {@code minimumStepCost}. 
+ * This keeps free terrain from giving arbitrarily long paths, as shorter paths are still cheaper.
+ * @author Grevor
+ */
+public class StepCosts {
+	public static final float minimumStepCost = 0.001f;
+
+	private Map map;
+	private float[] costs = new float[0];
+	private byte[] masks = new byte[0];
+
+	/**
+	 * Makes sure the costs are up to date with the terrain kinds of the specified Map.
+	 * This only does any work if the Map or its number of terrain kinds have changed.
+	 * @param m - The Map.
+	 */
+	public void update(Map m) {
+		if(m == map && costs.length == m.getPaletteSize())
+			return;
+		map = m;
+		costs = new float[m.getPaletteSize()];
+		masks = new byte[m.getPaletteSize()];
+		for(int id = 1; id < costs.length; id++) {
+			Terrain t = m.getPaletteTerrain(id);
+			costs[id] = (float) Math.max(t.getTraversalCost(), minimumStepCost);
+			masks[id] = t.getTraversalMask();
+		}
+	}
+
+	/**
+	 * Gets the cost of stepping onto terrain of the specified kind.
+	 * @param terrainID - The palette ID of the terrain.
+	 * @return
+	 * The cost.
+	 */
+	public float get(int terrainID) {
+		return costs[terrainID];
+	}
+
+	/**
+	 * Gets the lowest cost of any terrain kind the specified movement type can cross.
+	 * @param movementMask - The traversal bits of the movement type.
+	 * @return
+	 * The lowest cost. If no terrain can be crossed, {@code minimumStepCost}.
+	 */
+	public float getMinimum(byte movementMask) {
+		float min = Float.MAX_VALUE;
+		for(int id = 1; id < costs.length; id++)
+			if((masks[id] & movementMask) != 0)
+				min = Math.min(min, costs[id]);
+		return min == Float.MAX_VALUE ? minimumStepCost : min;
+	}
+}
@@ -1,12 +1,24 @@
 package time.travelers.util;
 
+import java.io.File;
+import java.io.IOException;
+
 import time.travelers.core.Terrain;
 import time.travelers.core.TerrainTemplate;
 import time.travelers.core.Traversal;
+import time.travelers.graphics.TextureAtlas;
 import time.travelers.graphics.TextureBatch;
 import time.travelers.graphics.TextureObject;
 
 public class Loader {
+	/**
+	 * The directory texture atlases are cached in.
+	 */
+	public static final String atlasCacheDirectory = "cache/atlas";
+	/**
+	 * The system property which, if set to true, makes the stats of the texture atlas be printed when it is built.
+	 */
+	public static final String atlasStatsProperty = "time.travelers.atlasStats";
 
 	/**
 	 * Loads the basic texture batch.
@@ -21,10 +33,27 @@ public class Loader {
 		TextureBatch ret = new TextureBatch();
 		
 		getTerrainTextures(ret);
+		buildAtlas(ret);
 		
 		return ret;
 	}
 	
+	/**
+	 * Packs the textures of a batch into a texture atlas, so that they can be drawn with fewer binds. 
+	 * If the atlas cannot be built, the textures are used as they are.
+	 * @param batch - The batch.
+	 */
+	private static void buildAtlas(TextureBatch batch) {
+		try {
+			TextureAtlas atlas = TextureAtlas.build(batch, new File(atlasCacheDirectory));
+			if(Boolean.getBoolean(atlasStatsProperty))
+				System.out.println("Texture atlas: " + atlas);
+		} catch (IOException e) {
+			System.out.println("Could not build the texture atlas, textures will be drawn one by one.");
+			e.printStackTrace();
+		}
+	}
+	
 	private static void getTerrainTextures(TextureBatch ret) {
 		
 		TextureObject test = new TextureObject("resources/textures/Gravity Down.png", 8, 1);
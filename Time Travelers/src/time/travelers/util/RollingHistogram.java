@@ -0,0 +1,239 @@
+package time.travelers.util;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A histogram of the values recorded over a recent stretch of time, such as the last minute, which may be recorded from
+ * any thread without locking.
+ * <br><br>
+ * The stretch is split into a ring of windows. Values are counted in the window of the time they are recorded at, in the
+ * same log-linear buckets as a TimeHistogram; when the ring comes round to a window again, the window is cleared first.
+ * Reading adds up the windows of the stretch, so what is read is always about one window's worth of time behind or ahead
+ * of the stretch length.
+ * <br><br>
+ * Recording does not allocate, and takes a few atomic additions. When several threads record around the turn of a
+ * window, a few of their values may be lost as the window is cleared. Reading is much slower than recording, and is
+ * meant to be done now and then, such as through JMX.
+ * @author Grevor
+ * @see TimeHistogram
+ */
+public class RollingHistogram implements RollingHistogramMBean {
+	private static final int bucketCount = TimeHistogram.bucketCount;
+	private static final long noWindow = Long.MIN_VALUE;
+
+	private final String unit;
+	private final long windowNanos;
+	private final int windows;
+	/**
+	 * The counts of all windows, one row of {@code bucketCount} after the other.
+	 */
+	private final AtomicLongArray counts;
+	/**
+	 * The number of the window of time each window of the ring holds, counted in {@code windowNanos} from the origin of
+	 * System.nanoTime, or {@code noWindow}.
+	 */
+	private final AtomicLongArray epochs;
+	private final AtomicLongArray sizes, totals, maxes;
+
+	/**
+	 * Creates a new RollingHistogram.
+	 * @param unit - The unit of the values, such as "ns".
+	 * @param windowNanos - The length of each window, in nanoseconds. Must be positive.
+	 * @param windows - The number of windows kept. Must be positive.
+	 */
+	public RollingHistogram(String unit, long windowNanos, int windows) {
+		if(windowNanos <= 0 || windows <= 0)
+			throw new IllegalArgumentException("The length and number of windows must be positive.");
+		this.unit = unit;
+		this.windowNanos = windowNanos;
+		this.windows = windows;
+		this.counts = new AtomicLongArray(windows * bucketCount);
+		this.epochs = new AtomicLongArray(windows);
+		this.sizes = new AtomicLongArray(windows);
+		this.totals = new AtomicLongArray(windows);
+		this.maxes = new AtomicLongArray(windows);
+		for(int w = 0; w < windows; w++)
+			epochs.set(w, noWindow);
+	}
+
+	/**
+	 * Records a value at the current time.
+	 * @param value - The value. Negative values count as zero.
+	 */
+	public void record(long value) {
+		record(value, System.nanoTime());
+	}
+
+	/**
+	 * Records a value at a given time, to spare reading the clock when the caller already has.
+	 * @param value - The value. Negative values count as zero.
+	 * @param now - The current time, as given by System.nanoTime.
+	 */
+	public void record(long value, long now) {
+		if(value < 0)
+			value = 0;
+		long epoch = getEpoch(now);
+		int w = getWindow(epoch);
+		long seen = epochs.get(w);
+		if(seen < epoch && epochs.compareAndSet(w, seen, epoch))
+			clearWindow(w);
+		counts.incrementAndGet(w * bucketCount + TimeHistogram.getBucket(value));
+		sizes.incrementAndGet(w);
+		totals.addAndGet(w, value);
+		long max;
+		while(value > (max = maxes.get(w)) && !maxes.compareAndSet(w, max, value))
+			;
+	}
+
+	/**
+	 * Gets the value below which the specified part of the values recorded over the last windows lie.
+	 * @param percentile - The part, between 0 and 100.
+	 * @return
+	 * The value, or 0 if nothing has been recorded.
+	 */
+	public long getPercentile(double percentile) {
+		long epoch = getEpoch(System.nanoTime());
+		long count = 0, max = 0;
+		for(int w = 0; w < windows; w++) {
+			if(isCurrent(w, epoch)) {
+				count += sizes.get(w);
+				max = Math.max(max, maxes.get(w));
+			}
+		}
+		if(count == 0)
+			return 0;
+		long rank = (long) Math.ceil(MathUtil.getValueFittingBounds(percentile, 100, 0) / 100 * count);
+		if(rank < 1)
+			rank = 1;
+		long seen = 0;
+		for(int b = 0; b < bucketCount; b++) {
+			for(int w = 0; w < windows; w++)
+				if(isCurrent(w, epoch))
+					seen += counts.get(w * bucketCount + b);
+			if(seen >= rank)
+				return Math.min(TimeHistogram.getBucketEnd(b), max);
+		}
+		return max;
+	}
+
+	@Override
+	public long getCount() {
+		long epoch = getEpoch(System.nanoTime());
+		long count = 0;
+		for(int w = 0; w < windows; w++)
+			if(isCurrent(w, epoch))
+				count += sizes.get(w);
+		return count;
+	}
+
+	@Override
+	public double getMean() {
+		long epoch = getEpoch(System.nanoTime());
+		long count = 0, total = 0;
+		for(int w = 0; w < windows; w++) {
+			if(isCurrent(w, epoch)) {
+				count += sizes.get(w);
+				total += totals.get(w);
+			}
+		}
+		return count == 0 ? 0 : (double) total / count;
+	}
+
+	@Override
+	public long getP50() {
+		return getPercentile(50);
+	}
+
+	@Override
+	public long getP90() {
+		return getPercentile(90);
+	}
+
+	@Override
+	public long getP99() {
+		return getPercentile(99);
+	}
+
+	@Override
+	public long getMax() {
+		long epoch = getEpoch(System.nanoTime());
+		long max = 0;
+		for(int w = 0; w < windows; w++)
+			if(isCurrent(w, epoch))
+				max = Math.max(max, maxes.get(w));
+		return max;
+	}
+
+	@Override
+	public double getWindowSeconds() {
+		return windowNanos * windows / 1e9;
+	}
+
+	@Override
+	public String getUnit() {
+		return unit;
+	}
+
+	/**
+	 * Forgets all recorded values.
+	 */
+	public void reset() {
+		for(int w = 0; w < windows; w++) {
+			epochs.set(w, noWindow);
+			clearWindow(w);
+		}
+	}
+
+	/**
+	 * Gets a one-line summary of this histogram, with the values divided by a scale.
+	 * @param scale - The value of one unit shown, such as 1000000 to show nanoseconds as milliseconds.
+	 * @param shownUnit - The name of the unit shown.
+	 * @return
+	 * The count, mean, p50, p99 and max.
+	 */
+	public String toString(double scale, String shownUnit) {
+		return String.format("n=%1$d mean=%2$.3f%6$s p50=%3$.3f%6$s p99=%4$.3f%6$s max=%5$.3f%6$s", getCount(),
+				getMean() / scale, getP50() / scale, getP99() / scale, getMax() / scale, shownUnit);
+	}
+
+	/**
+	 * Gets a one-line summary of this histogram, in its own unit.
+	 * @return
+	 * The count, mean, p50, p99 and max.
+	 */
+	@Override
+	public String toString() {
+		return toString(1, unit);
+	}
+
+	//
+	// Private methods
+	//
+
+	private long getEpoch(long now) {
+		long epoch = now / windowNanos;
+		//Round towards negative infinity, as nanoTime may be negative.
+		return now < 0 && epoch * windowNanos != now ? epoch - 1 : epoch;
+	}
+
+	private int getWindow(long epoch) {
+		int w = (int) (epoch % windows);
+		return w < 0 ? w + windows : w;
+	}
+
+	/**
+	 * Tells if a window of the ring holds one of the last {@code windows} windows of time, up to {@code epoch}.
+	 */
+	private boolean isCurrent(int w, long epoch) {
+		long e = epochs.get(w);
+		return e != noWindow && e > epoch - windows && e <= epoch;
+	}
+
+	private void clearWindow(int w) {
+		for(int b = w * bucketCount; b < (w + 1) * bucketCount; b++)
+			counts.set(b, 0);
+		sizes.set(w, 0);
+		totals.set(w, 0);
+		maxes.set(w, 0);
+	}
+}
@@ -0,0 +1,64 @@
+package time.travelers.util;
+
+/**
+ * The management interface of a RollingHistogram, giving its values over the last windows.
+ * @author Grevor
+ * @see RollingHistogram
+ */
+public interface RollingHistogramMBean {
+	/**
+	 * Gets the number of values recorded over the last windows.
+	 * @return
+	 * The number of values.
+	 */
+	public long getCount();
+
+	/**
+	 * Gets the mean of the values recorded over the last windows.
+	 * @return
+	 * The mean, or 0 if nothing has been recorded.
+	 */
+	public double getMean();
+
+	/**
+	 * Gets the median of the values recorded over the last windows.
+	 * @return
+	 * The median, or 0 if nothing has been recorded.
+	 */
+	public long getP50();
+
+	/**
+	 * Gets the 90th percentile of the values recorded over the last windows.
+	 * @return
+	 * The percentile, or 0 if nothing has been recorded.
+	 */
+	public long getP90();
+
+	/**
+	 * Gets the 99th percentile of the values recorded over the last windows.
+	 * @return
+	 * The percentile, or 0 if nothing has been recorded.
+	 */
+	public long getP99();
+
+	/**
+	 * Gets the highest value recorded over the last windows.
+	 * @return
+	 * The value, or 0 if nothing has been recorded.
+	 */
+	public long getMax();
+
+	/**
+	 * Gets the length of time the values are kept for.
+	 * @return
+	 * The length, in seconds.
+	 */
+	public double getWindowSeconds();
+
+	/**
+	 * Gets the unit of the values.
+	 * @return
+	 * The name of the unit.
+	 */
+	public String getUnit();
+}
@@ -0,0 +1,123 @@
+package time.travelers.util;
+
+import java.util.Arrays;
+
+/**
+ * A histogram of durations, in nanoseconds.
+ * <br><br>
+ * Durations are counted in log-linear buckets: each power of two is split into sixteen equal parts, so a
+ * percentile is off by at most about six percent, whatever the scale. Recording does not allocate.
+ * The methods of this class are synchronized.
+ * @author Grevor
+ */
+public class TimeHistogram {
+	private static final int subBucketBits = 4;
+	private static final int subBuckets = 1 << subBucketBits;
+	static final int bucketCount = (64 - subBucketBits) * subBuckets;
+
+	private final long[] counts = new long[bucketCount];
+	private long count = 0, total = 0, max = 0;
+
+	/**
+	 * Counts a duration.
+	 * @param nanos - The duration, in nanoseconds. Negative durations count as zero.
+	 */
+	public synchronized void record(long nanos) {
+		if(nanos < 0)
+			nanos = 0;
+		counts[getBucket(nanos)]++;
+		count++;
+		total += nanos;
+		if(nanos > max)
+			max = nanos;
+	}
+
+	/**
+	 * Gets the duration below which the specified part of all counted durations lie.
+	 * @param percentile - The part, between 0 and 100.
+	 * @return
+	 * The duration, in nanoseconds, or 0 if nothing has been counted.
+	 */
+	public synchronized long getPercentile(double percentile) {
+		if(count == 0)
+			return 0;
+		long rank = (long) Math.ceil(MathUtil.getValueFittingBounds(percentile, 100, 0) / 100 * count);
+		if(rank < 1)
+			rank = 1;
+		long seen = 0;
+		for(int i = 0; i < bucketCount; i++) {
+			seen += counts[i];
+			if(seen >= rank)
+				return Math.min(getBucketEnd(i), max);
+		}
+		return max;
+	}
+
+	/**
+	 * Gets the longest counted duration.
+	 * @return
+	 * The duration, in nanoseconds.
+	 */
+	public synchronized long getMax() {
+		return max;
+	}
+
+	/**
+	 * Gets the mean of the counted durations.
+	 * @return
+	 * The mean, in nanoseconds, or 0 if nothing has been counted.
+	 */
+	public synchronized double getMean() {
+		return count == 0 ? 0 : (double) total / count;
+	}
+
+	public synchronized long getCount() {
+		return count;
+	}
+
+	/**
+	 * Forgets all counted durations.
+	 */
+	public synchronized void reset() {
+		Arrays.fill(counts, 0);
+		count = 0;
+		total = 0;
+		max = 0;
+	}
+
+	/**
+	 * Gets a one-line summary of this histogram, in milliseconds.
+	 * @return
+	 * The count, mean, p50, p99 and max.
+	 */
+	@Override
+	public synchronized String toString() {
+		return String.format("n=%d mean=%.3fms p50=%.3fms p99=%.3fms max=%.3fms", count, getMean() / 1e6,
+				getPercentile(50) / 1e6, getPercentile(99) / 1e6, max / 1e6);
+	}
+
+	//
+	// Package methods
+	//
+
+	/**
+	 * Gets the bucket a value is counted in. Shared with RollingHistogram.
+	 */
+	static int getBucket(long value) {
+		if(value < subBuckets)
+			return (int) value;
+		int shift = 63 - Long.numberOfLeadingZeros(value) - subBucketBits;
+		return (shift + 1) * subBuckets + (int) ((value >>> shift) & (subBuckets - 1));
+	}
+
+	/**
+	 * Gets the highest value counted in a bucket.
+	 */
+	static long getBucketEnd(int bucket) {
+		if(bucket < subBuckets)
+			return bucket;
+		int shift = bucket / subBuckets - 1;
+		long start = (long) (subBuckets + bucket % subBuckets) << shift;
+		return start + (1L << shift) - 1;
+	}
+}
@@ -0,0 +1,104 @@
+package time.travelers.vision;
+
+/**
+ * The tiles seen from one tile of a Map, within a radius.
+ * <br><br>
+ * The seen tiles are kept as a bitset over the square window of side {@code 2 * radius + 1} centred on the origin.
+ * A FieldOfView does not change once it has been made, so it can be shared between threads.
+ * @author Grevor
+ * @see VisionService
+ */
+public class FieldOfView {
+	final int originX, originY, radius;
+	final int minX, minY, side;
+	final long revision;
+	final long[] bits;
+	int tileCount;
+
+	FieldOfView(int originX, int originY, int radius, long revision) {
+		this.originX = originX;
+		this.originY = originY;
+		this.radius = radius;
+		this.minX = originX - radius;
+		this.minY = originY - radius;
+		this.side = 2 * radius + 1;
+		this.revision = revision;
+		this.bits = new long[(side * side + 63) >>> 6];
+	}
+
+	void set(int x, int y) {
+		int i = (y - minY) * side + (x - minX);
+		if((bits[i >>> 6] & (1L << i)) == 0) {
+			bits[i >>> 6] |= 1L << i;
+			tileCount++;
+		}
+	}
+
+	/**
+	 * Checks if a tile is seen.
+	 * @param x - The x-position of the tile.
+	 * @param y - The y-position of the tile.
+	 * @return
+	 * True if it is, else false.
+	 */
+	public boolean isVisible(int x, int y) {
+		x -= minX;
+		y -= minY;
+		if(x < 0 || y < 0 || x >= side || y >= side)
+			return false;
+		int i = y * side + x;
+		return (bits[i >>> 6] & (1L << i)) != 0;
+	}
+
+	/**
+	 * Gets the number of tiles seen, including the origin.
+	 * @return
+	 * The number of tiles.
+	 */
+	public int getTileCount() {
+		return tileCount;
+	}
+
+	/**
+	 * Gets the bitset of seen tiles. The bit for the tile (x, y) is bit
+	 * {@code (y - getMinY()) * getSide() + (x - getMinX())}, counting from the lowest bit of the first word.
+	 * @return
+	 * A copy of the bitset.
+	 */
+	public long[] getBits() {
+		return bits.clone();
+	}
+
+	public int getOriginX() {
+		return originX;
+	}
+
+	public int getOriginY() {
+		return originY;
+	}
+
+	public int getRadius() {
+		return radius;
+	}
+
+	public int getMinX() {
+		return minX;
+	}
+
+	public int getMinY() {
+		return minY;
+	}
+
+	public int getSide() {
+		return side;
+	}
+
+	/**
+	 * Gets the Map revision this field of view was made at.
+	 * @return
+	 * The revision.
+	 */
+	public long getRevision() {
+		return revision;
+	}
+}
@@ -0,0 +1,377 @@
+package time.travelers.vision;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import time.travelers.core.Map;
+import time.travelers.core.MapListener;
+import time.travelers.core.Traversal;
+
+/**
+ * Field of view and line of sight over a Map.
+ * <br><br>
+ * Sight is blocked by opaque tiles. By default a tile is opaque if its terrain cannot be flown over, or if it holds a
+ * terrain object; override {@code isOpaque(Map, int, int)} to change this. Opacity is kept as one bit per tile, and
+ * updated as the Map changes.
+ * <br><br>
+ * Fields of view are found by recursive shadowcasting, and cached by origin and radius. When a tile changes, only the
+ * cached fields whose radius reaches it are thrown away, and only if its opacity changed. Line of sight follows the
+ * Bresenham line between two tiles; near the edges of shadows it does not always agree with the fields of view.
+ * The methods of this class are synchronized; {@code getFieldsOfView} computes the fields missing from the cache in
+ * parallel.
+ * @author Grevor
+ * @see FieldOfView
+ */
+public class VisionService implements MapListener {
+	public static final int defaultCacheSize = 1024;
+	/**
+	 * The number of fields of view each parallel task computes, at least.
+	 */
+	private static final int fieldsPerTask = 4;
+	/**
+	 * The transforms from the first octant to all eight.
+	 */
+	private static final int[] octantXX = { 1, 0, 0, -1, -1, 0, 0, 1 };
+	private static final int[] octantXY = { 0, 1, -1, 0, 0, -1, 1, 0 };
+	private static final int[] octantYX = { 0, 1, 1, 0, 0, -1, -1, 0 };
+	private static final int[] octantYY = { 1, 0, 0, 1, -1, 0, 0, -1 };
+	private static final Traversal flying = new Traversal(false, false, true);
+
+	private final Map map;
+	private final int width, height;
+	private final ForkJoinPool pool;
+	private final boolean ownsPool;
+	private final long[] opaque;
+	private boolean opacityBuilt = false;
+	private final LinkedHashMap<Long, FieldOfView> cache;
+
+	private long hits = 0, misses = 0, invalidations = 0;
+
+	/**
+	 * Creates a new VisionService for the specified Map, with its own pool of one thread per processor. The pool is
+	 * stopped by {@code shutdown}.
+	 * @param m - The Map.
+	 */
+	public VisionService(Map m) {
+		this(m, new ForkJoinPool(), true, defaultCacheSize);
+	}
+
+	/**
+	 * Creates a new VisionService for the specified Map. The service registers itself as a listener of the Map.
+	 * @param m - The Map.
+	 * @param pool - The pool to compute fields of view in. It is shared, and not stopped by {@code shutdown}.
+	 * @param cacheSize - The highest number of fields of view to keep.
+	 */
+	public VisionService(Map m, ForkJoinPool pool, int cacheSize) {
+		this(m, pool, false, cacheSize);
+	}
+
+	private VisionService(Map m, ForkJoinPool pool, boolean ownsPool, final int cacheSize) {
+		this.map = m;
+		this.width = m.getWidth();
+		this.height = m.getHeight();
+		this.pool = pool;
+		this.ownsPool = ownsPool;
+		this.opaque = new long[(int) (((long) width * height + 63) >>> 6)];
+		this.cache = new LinkedHashMap<Long, FieldOfView>(Math.min(cacheSize, 1 << 16) * 2, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(java.util.Map.Entry<Long, FieldOfView> eldest) {
+				return size() > cacheSize;
+			}
+		};
+		m.addListener(this);
+	}
+
+	/**
+	 * Gets the tiles seen from a tile.
+	 * @param x - The x-position of the origin.
+	 * @param y - The y-position of the origin.
+	 * @param radius - The distance seen, in tiles.
+	 * @return
+	 * The field of view.
+	 */
+	public synchronized FieldOfView getFieldOfView(int x, int y, int radius) {
+		updateOpacity();
+		Long key = getKey(x, y, radius);
+		FieldOfView ret = cache.get(key);
+		if(ret != null) {
+			hits++;
+			return ret;
+		}
+		misses++;
+		ret = new FieldOfView(x, y, radius, map.getRevision());
+		castAll(ret);
+		cache.put(key, ret);
+		return ret;
+	}
+
+	/**
+	 * Gets the tiles seen from a number of tiles. Fields of view not already cached are computed in parallel.
+	 * @param x - The x-positions of the origins.
+	 * @param y - The y-positions of the origins.
+	 * @param radius - The distances seen, in tiles.
+	 * @return
+	 * The fields of view, in the same order as the origins.
+	 */
+	public synchronized FieldOfView[] getFieldsOfView(int[] x, int[] y, int[] radius) {
+		updateOpacity();
+		FieldOfView[] ret = new FieldOfView[x.length];
+		ArrayList<FieldOfView> missing = new ArrayList<FieldOfView>();
+		for(int i = 0; i < ret.length; i++) {
+			Long key = getKey(x[i], y[i], radius[i]);
+			ret[i] = cache.get(key);
+			if(ret[i] != null) {
+				hits++;
+				continue;
+			}
+			misses++;
+			ret[i] = new FieldOfView(x[i], y[i], radius[i], map.getRevision());
+			cache.put(key, ret[i]);
+			missing.add(ret[i]);
+		}
+		if(!missing.isEmpty())
+			pool.invoke(new CastTask(missing, 0, missing.size()));
+		return ret;
+	}
+
+	/**
+	 * Checks if one tile can be seen from another, along the Bresenham line between them.
+	 * Only the tiles between the two can block sight; an opaque tile can still be seen itself.
+	 * @param x0 - The x-position of the first tile.
+	 * @param y0 - The y-position of the first tile.
+	 * @param x1 - The x-position of the second tile.
+	 * @param y1 - The y-position of the second tile.
+	 * @return
+	 * True if nothing blocks the line, else false.
+	 */
+	public synchronized boolean hasLineOfSight(int x0, int y0, int x1, int y1) {
+		updateOpacity();
+		int dx = Math.abs(x1 - x0), dy = -Math.abs(y1 - y0);
+		int sx = x0 < x1 ? 1 : -1, sy = y0 < y1 ? 1 : -1;
+		int error = dx + dy;
+		int x = x0, y = y0;
+		while(true) {
+			if(x == x1 && y == y1)
+				return true;
+			if((x != x0 || y != y0) && isOpaqueBit(x, y))
+				return false;
+			int e2 = 2 * error;
+			if(e2 >= dy) {
+				error += dy;
+				x += sx;
+			}
+			if(e2 <= dx) {
+				error += dx;
+				y += sy;
+			}
+		}
+	}
+
+	/**
+	 * Checks if a tile blocks sight. Tiles outside the Map always do.
+	 * @param x - The x-position of the tile.
+	 * @param y - The y-position of the tile.
+	 * @return
+	 * True if it does, else false.
+	 */
+	public synchronized boolean isOpaque(int x, int y) {
+		updateOpacity();
+		return isOpaqueBit(x, y);
+	}
+
+	/**
+	 * Stops listening to the Map, and stops the pool of this service if the service made it. The service may not be used 
+	 * afterwards; fields of view already returned stay readable.
+	 */
+	public synchronized void shutdown() {
+		map.removeListener(this);
+		cache.clear();
+		if(ownsPool)
+			pool.shutdown();
+	}
+
+	/**
+	 * Removes all fields of view from the cache.
+	 */
+	public synchronized void clear() {
+		cache.clear();
+	}
+
+	public synchronized long getCacheHits() {
+		return hits;
+	}
+
+	public synchronized long getCacheMisses() {
+		return misses;
+	}
+
+	/**
+	 * Gets the number of cached fields of view thrown away because a tile within their radius changed.
+	 * @return
+	 * The number of invalidated fields.
+	 */
+	public synchronized long getInvalidations() {
+		return invalidations;
+	}
+
+	@Override
+	public synchronized void tileChanged(Map m, int x, int y) {
+		changed(x, y);
+	}
+
+	@Override
+	public synchronized void terrainObjectChanged(Map m, int x, int y) {
+		changed(x, y);
+	}
+
+	//
+	// Protected methods
+	//
+
+	/**
+	 * Decides if a tile blocks sight. Called on the thread changing the Map, or when the opacity of the whole Map is
+	 * first needed.
+	 * @param m - The Map.
+	 * @param x - The x-position of the tile.
+	 * @param y - The y-position of the tile.
+	 * @return
+	 * True if the tile blocks sight, else false.
+	 */
+	protected boolean isOpaque(Map m, int x, int y) {
+		return m.getTerrainID(x, y) != Map.noHandle && !m.canTraverse(x, y, flying)
+				|| m.getTerrainObject(x, y) != null;
+	}
+
+	//
+	// Private methods
+	//
+
+	private void changed(int x, int y) {
+		if(!opacityBuilt)
+			return;
+		boolean value = isOpaque(map, x, y);
+		if(value == isOpaqueBit(x, y))
+			return;
+		setOpaqueBit(x, y, value);
+		Iterator<FieldOfView> it = cache.values().iterator();
+		while(it.hasNext()) {
+			FieldOfView f = it.next();
+			if(Math.abs(f.originX - x) <= f.radius && Math.abs(f.originY - y) <= f.radius) {
+				it.remove();
+				invalidations++;
+			}
+		}
+	}
+
+	private void updateOpacity() {
+		if(opacityBuilt)
+			return;
+		for(int y = 0; y < height; y++)
+			for(int x = 0; x < width; x++)
+				setOpaqueBit(x, y, isOpaque(map, x, y));
+		opacityBuilt = true;
+	}
+
+	private boolean isOpaqueBit(int x, int y) {
+		if(x < 0 || y < 0 || x >= width || y >= height)
+			return true;
+		long i = (long) y * width + x;
+		return (opaque[(int) (i >>> 6)] & (1L << i)) != 0;
+	}
+
+	private void setOpaqueBit(int x, int y, boolean value) {
+		long i = (long) y * width + x;
+		if(value)
+			opaque[(int) (i >>> 6)] |= 1L << i;
+		else
+			opaque[(int) (i >>> 6)] &= ~(1L << i);
+	}
+
+	private static Long getKey(int x, int y, int radius) {
+		return Long.valueOf(((long) y << 40) | ((long) (x & 0xFFFFF) << 20) | (radius & 0xFFFFF));
+	}
+
+	/**
+	 * Fills in a field of view by shadowcasting all eight octants.
+	 * Only reads the opacity bits, so several fields can be cast at once.
+	 */
+	private void castAll(FieldOfView f) {
+		if(f.originX >= 0 && f.originY >= 0 && f.originX < width && f.originY < height)
+			f.set(f.originX, f.originY);
+		for(int octant = 0; octant < 8; octant++)
+			cast(f, 1, 1.0, 0.0, octantXX[octant], octantXY[octant], octantYX[octant], octantYY[octant]);
+	}
+
+	/**
+	 * Casts light over the rows {@code [row, radius]} of one octant, between the slopes {@code start} and {@code end}.
+	 */
+	private void cast(FieldOfView f, int row, double start, double end, int xx, int xy, int yx, int yy) {
+		if(start < end)
+			return;
+		int radius = f.radius;
+		int radiusSquared = radius * radius + radius;
+		double newStart = 0;
+		for(int j = row; j <= radius; j++) {
+			boolean blocked = false;
+			for(int dx = -j, dy = -j; dx <= 0; dx++) {
+				double leftSlope = (dx - 0.5) / (dy + 0.5);
+				double rightSlope = (dx + 0.5) / (dy - 0.5);
+				if(start < rightSlope)
+					continue;
+				if(end > leftSlope)
+					break;
+				int x = f.originX + dx * xx + dy * xy;
+				int y = f.originY + dx * yx + dy * yy;
+				boolean inside = x >= 0 && y >= 0 && x < width && y < height;
+				if(inside && dx * dx + dy * dy <= radiusSquared)
+					f.set(x, y);
+				boolean wall = isOpaqueBit(x, y);
+				if(blocked) {
+					if(wall) {
+						newStart = rightSlope;
+					} else {
+						blocked = false;
+						start = newStart;
+					}
+				} else if(wall && j < radius) {
+					blocked = true;
+					cast(f, j + 1, start, leftSlope, xx, xy, yx, yy);
+					newStart = rightSlope;
+				}
+			}
+			if(blocked)
+				break;
+		}
+	}
+
+	/**
+	 * Casts the fields of view {@code [from, to)}, splitting them between the threads of the pool.
+	 */
+	private class CastTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private final ArrayList<FieldOfView> fields;
+		private final int from, to;
+
+		CastTask(ArrayList<FieldOfView> fields, int from, int to) {
+			this.fields = fields;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if(to - from <= fieldsPerTask) {
+				for(int i = from; i < to; i++)
+					castAll(fields.get(i));
+				return;
+			}
+			int mid = (from + to) >>> 1;
+			invokeAll(new CastTask(fields, from, mid), new CastTask(fields, mid, to));
+		}
+	}
+}